@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
@@ -34,6 +35,7 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.AgentConnector;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerAliveAsk;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerCancelRequest;
+import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerDirectoryChanged;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerKillAsk;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerLogAsk;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandlerReqMapAsk;
@@ -53,6 +55,7 @@ import de.unidue.inf.is.ezdl.dlbackend.message.content.UserIdAsk;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.UserIdTell;
 import de.unidue.inf.is.ezdl.dlbackend.security.DefaultSecurityManager;
 import de.unidue.inf.is.ezdl.dlbackend.security.SecurityManager;
+import de.unidue.inf.is.ezdl.dlcore.ErrorConstants;
 import de.unidue.inf.is.ezdl.dlcore.cache.Cache;
 import de.unidue.inf.is.ezdl.dlcore.cache.ConcurrentMapCache;
 import de.unidue.inf.is.ezdl.dlcore.cache.TimedCache;
@@ -79,6 +82,10 @@ public abstract class AbstractAgent implements Agent {
      * Default value for the timeouts.
      */
     private static final int TIMEOUT_DEFAULT_MS = 5000;
+    /**
+     * Maximum number of session ids whose user id is cached.
+     */
+    private static final int SESSION_CACHE_MAX_SIZE = 10000;
     /**
      * The logger.
      */
@@ -190,7 +197,8 @@ public abstract class AbstractAgent implements Agent {
         int dirTimeoutMs = PropertiesUtils.getIntProperty(props, timeoutKey, TIMEOUT_DEFAULT_MS);
         this.msgWaiter = new MessageWaiter(dirTimeoutMs);
         this.securityManager = securityManager;
-        this.sessionIdToUserIdCache = new TimedCache(new ConcurrentMapCache(), 10, TimeUnit.MINUTES);
+        this.sessionIdToUserIdCache = new TimedCache(new ConcurrentMapCache(), 10, TimeUnit.MINUTES,
+                        SESSION_CACHE_MAX_SIZE);
         this.handlerStore = new RequestHandlerStore(this);
         logger.info("Starting agent " + agentName);
 
@@ -272,6 +280,7 @@ public abstract class AbstractAgent implements Agent {
         handlers.add(RequestHandlerAliveAsk.class);
         handlers.add(RequestHandlerCancelRequest.class);
         handlers.add(RequestHandlerStatusAsk.class);
+        handlers.add(RequestHandlerDirectoryChanged.class);
         return handlers;
     }
 
@@ -329,18 +338,42 @@ public abstract class AbstractAgent implements Agent {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation is cached once the directory notifies the agent
+     * about changes.
+     */
     @Override
-    public synchronized String[] findAllAgentNames(String service) throws EzDLException {
+    public String[] findAllAgentNames(String service) throws EzDLException {
         return resolver.findAllAgentNames(service);
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation is cached once the directory notifies the agent
+     * about changes.
+     */
     @Override
-    public synchronized Map<String, String> findAllAgents(String service) throws EzDLException {
+    public Map<String, String> findAllAgents(String service) throws EzDLException {
         return resolver.findAllAgents(service);
     }
 
 
+    @Override
+    public long getDirectoryGeneration() {
+        return resolver.getGeneration();
+    }
+
+
+    @Override
+    public void directoryChanged(long generation) {
+        resolver.directoryChanged(generation);
+    }
+
+
     @Override
     public Properties getProperties() {
         return props;
@@ -500,10 +533,15 @@ public abstract class AbstractAgent implements Agent {
 
     @Override
     public Message ask(Message message) throws TimeoutException {
-        Message answer = null;
+        return askAsync(message).getAnswer();
+    }
+
+
+    @Override
+    public MessageReply askAsync(Message message) {
+        final MessageReply reply = msgWaiter.expect(message.getRequestId());
         send(message);
-        answer = msgWaiter.waitForRequestId(message.getRequestId());
-        return answer;
+        return reply;
     }
 
 
@@ -527,8 +565,15 @@ public abstract class AbstractAgent implements Agent {
         logger.debug("Got handler for " + message + " - it is " + requestHandler);
 
         if (requestHandler != null) {
-            requestHandler.addMessageToQueue(message);
-            logger.info("Handling message " + message);
+            try {
+                requestHandler.addMessageToQueue(message);
+                logger.info("Handling message " + message);
+            }
+            catch (RejectedExecutionException e) {
+                logger.warn("Rejected message " + message + ": " + e.getMessage());
+                handlerStore.handlerRejected(requestHandler);
+                send(message.tell(new ErrorNotify(ErrorConstants.SERVER_NOT_READY)));
+            }
         }
         else if (!msgWaiter.messageArrived(message)) {
             logger.info("Received unhandled message " + message);
@@ -652,9 +697,12 @@ public abstract class AbstractAgent implements Agent {
             StringBuilder statusMsg = new StringBuilder();
             statusMsg.append("Properties:\n").append(writer.toString()).append("\n");
             statusMsg.append("Send queue size: ").append(sendQueue.size()).append("\n");
+            statusMsg.append("Send queue depth: ").append(sendQueue.getQueueDepth()).append("\n");
+            statusMsg.append("Send latency: ").append(sendQueue.getSendLatency()).append("\n");
             ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
             statusMsg.append("Thread count now: ").append(threadMXBean.getThreadCount()).append("\n");
             statusMsg.append("Threads started total: ").append(threadMXBean.getTotalStartedThreadCount()).append("\n");
+            statusMsg.append("Request handlers:\n").append(handlerStore.getStatus());
             status = new StringAgentStatus(statusMsg.toString());
         }
         catch (IOException e) {
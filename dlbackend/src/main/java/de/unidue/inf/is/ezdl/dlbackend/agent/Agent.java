@@ -26,6 +26,7 @@ import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentLog;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentStatus;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.RequestHandlerInfo;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
 import de.unidue.inf.is.ezdl.dlbackend.security.SecurityManager;
 import de.unidue.inf.is.ezdl.dlcore.Haltable;
 import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionFailedException;
@@ -223,6 +224,17 @@ public interface Agent extends Haltable {
     Message ask(Message message) throws TimeoutException;
 
 
+    /**
+     * Sends the passed message and returns without waiting for the answer.
+     * 
+     * @param message
+     *            the message to send
+     * @return the reply that receives the answer or times out
+     * @see #ask(Message)
+     */
+    MessageReply askAsync(Message message);
+
+
     /**
      * Returns the request map, that maps request IDs to RequestHandlerInfo
      * object, containing information about the running request handlers.
@@ -240,6 +252,30 @@ public interface Agent extends Haltable {
     String getDirectoryName();
 
 
+    /**
+     * Returns the generation of the directory's registry that the agent knows
+     * about.
+     * <p>
+     * The generation changes whenever agents register or deregister, so
+     * information about other agents that was fetched at one generation is
+     * valid as long as the generation stays the same.
+     * 
+     * @return the generation or
+     *         {@link DirectoryChangedNotify#UNKNOWN_GENERATION} if the
+     *         directory has not told the agent about any change yet
+     */
+    long getDirectoryGeneration();
+
+
+    /**
+     * Tells the agent that the directory's registry changed.
+     * 
+     * @param generation
+     *            the generation of the registry after the change
+     */
+    void directoryChanged(long generation);
+
+
     /**
      * Retrieves the user ID for a session ID by asking the user agent.
      * 
@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -32,6 +33,7 @@ import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAllAsk;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAllTell;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAsk;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameTell;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
 import de.unidue.inf.is.ezdl.dlcore.message.content.MessageContent;
 import de.unidue.inf.is.ezdl.dlcore.misc.EzDLException;
 
@@ -40,6 +42,12 @@ import de.unidue.inf.is.ezdl.dlcore.misc.EzDLException;
 /**
  * The AgentNameResolver takes care of resolving {@link Agent} names and caching
  * them for more speed and less traffic.
+ * <p>
+ * The directory notifies its agents whenever agents register or deregister.
+ * The cached answers are dropped then, so they stay consistent with the
+ * directory. Answers to {@link #findAllAgents(String)} are only cached once
+ * the agent has received such a notification, because an agent that is not
+ * notified could not tell when they became stale.
  * 
  * @author mjordan
  */
@@ -53,7 +61,22 @@ class AgentNameResolver {
      * A cache of agent names. Maps service names like "/service/mta" to agent
      * names like "MTA".
      */
-    private static volatile Map<String, String> nameCache = new HashMap<String, String>();
+    private final Map<String, String> nameCache = new ConcurrentHashMap<String, String>();
+    /**
+     * A cache of the answers to {@link #findAllAgents(String)}. Maps service
+     * roots like "/wrapper" to maps of services to agent names.
+     */
+    private final Map<String, Map<String, String>> allAgentsCache = new ConcurrentHashMap<String, Map<String, String>>();
+    /**
+     * The generation of the directory's registry that the cached information
+     * belongs to.
+     */
+    private volatile long generation = DirectoryChangedNotify.UNKNOWN_GENERATION;
+    /**
+     * Guards changes of the generation against concurrent updates of the
+     * caches.
+     */
+    private final Object cacheLock = new Object();
     /**
      * Reference to the agent who owns this resolver.
      */
@@ -71,6 +94,37 @@ class AgentNameResolver {
     }
 
 
+    /**
+     * Returns the generation of the directory's registry that the resolver
+     * knows about.
+     * 
+     * @return the generation or
+     *         {@link DirectoryChangedNotify#UNKNOWN_GENERATION}
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+
+    /**
+     * Drops the cached information if the given generation is newer than the
+     * one the resolver knows about.
+     * 
+     * @param newGeneration
+     *            the generation of the directory's registry after a change
+     */
+    public void directoryChanged(long newGeneration) {
+        synchronized (cacheLock) {
+            if (newGeneration > generation) {
+                generation = newGeneration;
+                nameCache.clear();
+                allAgentsCache.clear();
+                logger.debug("Directory changed to generation " + newGeneration);
+            }
+        }
+    }
+
+
     /**
      * /** Finds the name of an agent in the directory.
      * <p>
@@ -83,9 +137,12 @@ class AgentNameResolver {
      * @throws EzDLException
      */
     public String findAgent(String service) throws EzDLException {
-        if (!nameCache.containsKey(service)) {
+        String name = nameCache.get(service);
+        if (name == null) {
             synchronized (this) {
-                if (!nameCache.containsKey(service)) {
+                name = nameCache.get(service);
+                if (name == null) {
+                    final long askedAt = generation;
                     String requestId = agent.getNextRequestID();
                     MessageContent ask = new AgentNameAsk(service);
                     Message message = agent.createDirMessage(ask, requestId);
@@ -95,13 +152,17 @@ class AgentNameResolver {
                     MessageContent content = dirMsg.getContent();
                     if (content instanceof AgentNameTell) {
                         AgentNameTell tell = (AgentNameTell) content;
-                        String name = tell.getAgentInfo().getName();
-                        nameCache.put(service, name);
+                        name = tell.getAgentInfo().getName();
+                        synchronized (cacheLock) {
+                            if (askedAt == generation) {
+                                nameCache.put(service, name);
+                            }
+                        }
                     }
                 }
             }
         }
-        return nameCache.get(service);
+        return name;
     }
 
 
@@ -142,7 +203,7 @@ class AgentNameResolver {
      * @return a list of agents that are under the given service name root.
      * @throws EzDLException
      */
-    public synchronized String[] findAllAgentNames(String service) throws EzDLException {
+    public String[] findAllAgentNames(String service) throws EzDLException {
         Map<String, String> agents = findAllAgents(service);
         return agents.values().toArray(new String[agents.values().size()]);
     }
@@ -157,7 +218,13 @@ class AgentNameResolver {
      *         given service name root.
      * @throws EzDLException
      */
-    public synchronized Map<String, String> findAllAgents(String service) throws EzDLException {
+    public Map<String, String> findAllAgents(String service) throws EzDLException {
+        Map<String, String> cached = allAgentsCache.get(service);
+        if (cached != null) {
+            return new HashMap<String, String>(cached);
+        }
+
+        final long askedAt = generation;
         String requestId = agent.getNextRequestID();
 
         AgentNameAllAsk ask = new AgentNameAllAsk(service);
@@ -176,7 +243,26 @@ class AgentNameResolver {
         for (AgentRecord agent : agentRecords) {
             agents.put(agent.getService(), agent.getName());
         }
+        cacheAllAgents(service, agents, askedAt);
         return agents;
     }
 
+
+    /**
+     * Caches an answer of the directory unless the directory changed since
+     * the question was asked.
+     * <p>
+     * If the directory changes while the question is on its way, the answer
+     * might reflect the state before or after the change. It is cached only if
+     * the notification about the change has not arrived yet, so the
+     * notification drops it later.
+     */
+    private void cacheAllAgents(String service, Map<String, String> agents, long askedAt) {
+        synchronized (cacheLock) {
+            if ((askedAt != DirectoryChangedNotify.UNKNOWN_GENERATION) && (askedAt == generation)) {
+                allAgentsCache.put(service, Collections.unmodifiableMap(new HashMap<String, String>(agents)));
+            }
+        }
+    }
+
 }
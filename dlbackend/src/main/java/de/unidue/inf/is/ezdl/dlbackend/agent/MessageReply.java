@@ -0,0 +1,240 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
+
+
+
+/**
+ * The pending answer to a message sent with {@link Agent#askAsync(Message)}.
+ * <p>
+ * The reply is completed exactly once: with the answer, with a timeout or by
+ * being cancelled. Listeners added with {@link #addListener(Runnable)} are run
+ * once that happens, before threads waiting in {@link #get()} return.
+ */
+public final class MessageReply implements Future<Message> {
+
+    private static final Logger logger = Logger.getLogger(MessageReply.class);
+
+    private enum State {
+        WAITING, ANSWERED, TIMED_OUT, CANCELLED;
+    }
+
+
+    /**
+     * The request ID of the message whose answer this is.
+     */
+    private final String requestId;
+    /**
+     * Released once the reply is completed.
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * The listeners to run on completion. Null once they have run.
+     */
+    private List<Runnable> listeners = new LinkedList<Runnable>();
+
+    private volatile State state = State.WAITING;
+
+    private volatile Message answer;
+
+
+    MessageReply(String requestId) {
+        this.requestId = requestId;
+    }
+
+
+    /**
+     * Returns a reply that has already been answered.
+     * 
+     * @param answer
+     *            the answer
+     * @return the reply
+     */
+    public static MessageReply answered(Message answer) {
+        MessageReply reply = new MessageReply(answer != null ? answer.getRequestId() : null);
+        reply.complete(State.ANSWERED, answer);
+        return reply;
+    }
+
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+
+    boolean answer(Message message) {
+        return complete(State.ANSWERED, message);
+    }
+
+
+    boolean timeout() {
+        return complete(State.TIMED_OUT, null);
+    }
+
+
+    private boolean complete(State newState, Message message) {
+        final List<Runnable> toRun;
+        synchronized (this) {
+            if (state != State.WAITING) {
+                return false;
+            }
+            answer = message;
+            state = newState;
+            toRun = listeners;
+            listeners = null;
+        }
+        for (Runnable listener : toRun) {
+            run(listener);
+        }
+        done.countDown();
+        return true;
+    }
+
+
+    private static void run(Runnable listener) {
+        try {
+            listener.run();
+        }
+        catch (RuntimeException e) {
+            logger.error("Reply listener failed", e);
+        }
+    }
+
+
+    /**
+     * Adds a listener that is run when the reply is completed. If it already
+     * is, the listener is run right away in the calling thread. Otherwise it
+     * runs in the thread that completes the reply, so it should be quick.
+     * 
+     * @param listener
+     *            the listener
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        run(listener);
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(State.CANCELLED, null);
+    }
+
+
+    @Override
+    public boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+
+    @Override
+    public boolean isDone() {
+        return state != State.WAITING;
+    }
+
+
+    /**
+     * Returns true if the answer did not arrive in time.
+     * 
+     * @return true if the reply timed out
+     */
+    public boolean isTimedOut() {
+        return state == State.TIMED_OUT;
+    }
+
+
+    /**
+     * Waits for the answer.
+     * 
+     * @return the answer, which is never null
+     * @throws TimeoutException
+     *             if the answer did not arrive within the timeout of the
+     *             {@link MessageWaiter} or the reply was cancelled
+     */
+    public Message getAnswer() throws TimeoutException {
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException();
+        }
+        if (state != State.ANSWERED) {
+            throw new TimeoutException();
+        }
+        return answer;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws ExecutionException
+     *             with a {@link TimeoutException} as the cause if the answer
+     *             did not arrive in time
+     */
+    @Override
+    public Message get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+
+    @Override
+    public Message get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                    java.util.concurrent.TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new java.util.concurrent.TimeoutException();
+        }
+        return result();
+    }
+
+
+    private Message result() throws ExecutionException {
+        switch (state) {
+            case ANSWERED: {
+                return answer;
+            }
+            case TIMED_OUT: {
+                throw new ExecutionException(new TimeoutException());
+            }
+            default: {
+                throw new java.util.concurrent.CancellationException();
+            }
+        }
+    }
+
+}
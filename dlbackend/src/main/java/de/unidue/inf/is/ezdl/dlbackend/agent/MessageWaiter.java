@@ -18,11 +18,11 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.agent;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
 
+import de.unidue.inf.is.ezdl.dlbackend.agent.timer.TimerService;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
 
@@ -30,8 +30,12 @@ import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
 
 /**
  * Store that keeps track of messages that are still outstanding.
+ * <p>
+ * Each awaited request ID maps to a {@link MessageReply} that is completed
+ * when the answer arrives, so only the thread waiting for that answer is woken
+ * up. Replies that don't get an answer are timed out by the
+ * {@link TimerService} and removed.
  */
-// TODO
 public class MessageWaiter {
 
     /**
@@ -39,14 +43,9 @@ public class MessageWaiter {
      */
     private int timeoutMs;
     /**
-     * This map keeps messages that arrived without having a RequestHandler to
-     * handle them.
+     * The replies that wait for an answer, keyed by request ID.
      */
-    private Map<String, Message> arrived = new HashMap<String, Message>();
-    /**
-     * Keeps a list of request IDs of outstanding messages.
-     */
-    private Set<String> awaitedRequestIDs = new HashSet<String>();
+    private final ConcurrentMap<String, MessageReply> pending = new ConcurrentHashMap<String, MessageReply>();
 
 
     /**
@@ -61,36 +60,54 @@ public class MessageWaiter {
 
 
     /**
-     * Waits <code>dirTimeoutMs</code> milliseconds for a message.
+     * Registers the request ID as awaited. This should be called before the
+     * message is sent so that an answer cannot arrive before anybody waits
+     * for it.
      * 
      * @param requestId
      *            the request ID of the message to wait for
-     * @return the message, which is never null.
-     * @throws TimeoutException
-     *             in case that the message does not arrive in time
+     * @return the reply that receives the answer or times out after the
+     *         timeout of this waiter
      */
-    public synchronized Message waitForRequestId(String requestId) throws TimeoutException {
-        long timeout = System.currentTimeMillis();
-        Message message = arrived.remove(requestId);
-        awaitedRequestIDs.add(requestId);
-
-        while ((System.currentTimeMillis() - timeout <= timeoutMs) && (message == null)) {
-            try {
-                wait(timeoutMs);
-            }
-            catch (InterruptedException e) {
+    public MessageReply expect(final String requestId) {
+        final MessageReply reply = new MessageReply(requestId);
+        final MessageReply existing = pending.putIfAbsent(requestId, reply);
+        if (existing != null) {
+            return existing;
+        }
+        final ScheduledFuture<?> expiry = TimerService.getInstance().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                pending.remove(requestId, reply);
+                reply.timeout();
             }
-            message = arrived.remove(requestId);
-            if (message != null) {
-                break;
+        }, timeoutMs);
+        reply.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                pending.remove(requestId, reply);
+                if (!reply.isTimedOut()) {
+                    TimerService.getInstance().cancel(expiry);
+                }
             }
-        }
+        });
+        return reply;
+    }
 
-        if (message == null) {
-            throw new TimeoutException();
-        }
 
-        return message;
+    /**
+     * Waits <code>dirTimeoutMs</code> milliseconds for a message.
+     * 
+     * @param requestId
+     *            the request ID of the message to wait for
+     * @return the message, which is never null.
+     * @throws TimeoutException
+     *             in case that the message does not arrive in time
+     */
+    public Message waitForRequestId(String requestId) throws TimeoutException {
+        return expect(requestId).getAnswer();
     }
 
 
@@ -102,16 +119,19 @@ public class MessageWaiter {
      * @return true, if the message was handled by the wait queue, false if
      *         somebody else has to handle it
      */
-    public synchronized boolean messageArrived(Message message) {
-        boolean handled = false;
-        final String requestId = message.getRequestId();
-        if (awaitedRequestIDs.contains(requestId)) {
-            awaitedRequestIDs.remove(requestId);
-            arrived.put(requestId, message);
-            notifyAll();
-            handled = true;
-        }
-        return handled;
+    public boolean messageArrived(Message message) {
+        final MessageReply reply = pending.remove(message.getRequestId());
+        return (reply != null) && reply.answer(message);
+    }
+
+
+    /**
+     * Returns the number of replies still waiting for an answer.
+     * 
+     * @return the number of pending replies
+     */
+    public int getPendingCount() {
+        return pending.size();
     }
 
 }
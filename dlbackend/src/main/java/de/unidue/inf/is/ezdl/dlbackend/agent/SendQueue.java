@@ -19,53 +19,107 @@
 package de.unidue.inf.is.ezdl.dlbackend.agent;
 
 import java.io.IOException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
 import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.AgentConnector;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 import de.unidue.inf.is.ezdl.dlcore.Haltable;
-import de.unidue.inf.is.ezdl.dlcore.utils.QueueUtils;
+import de.unidue.inf.is.ezdl.dlcore.utils.Histogram;
 
 
 
 /**
- * SendQueue is a queue of outgoing messages that a special sender thread
- * concurrently sends away using an {@link AgentConnector} object as delegate.
+ * SendQueue is a queue of outgoing messages that sender threads concurrently
+ * send away using an {@link AgentConnector} object as delegate.
+ * <p>
+ * Each destination has a queue of its own. A small pool of sender threads
+ * takes turns on the destinations that have messages waiting, handing up to
+ * {@link #MAX_BATCH_SIZE} messages at a time to the connector as one batch
+ * (see {@link AgentConnector#send(List)}), so bursts of messages do not cost
+ * one transport round trip each. Messages for the same destination are sent
+ * in the order they were queued, one batch after another. A destination that
+ * is slow to accept messages only holds up one sender thread, not the
+ * messages for other destinations. The connector has to allow concurrent
+ * calls for different destinations.
+ * <p>
+ * The number of messages waiting for the same destination is limited to
+ * {@link #MAX_PENDING_PER_DESTINATION}. If a destination does not keep up,
+ * {@link #send(Message)} blocks for at most {@link #ENQUEUE_TIMEOUT_MS}
+ * milliseconds before the message is dropped. The queue of a destination is
+ * discarded as soon as it runs empty.
  */
 public final class SendQueue implements Haltable {
 
     /**
-     * The SendQueue looks for messages in the queue every {@link #SEND_FREQ_MS}
-     * milliseconds.
+     * The maximum number of messages handed to the connector in one batch.
      */
-    private static final int SEND_FREQ_MS = 100;
+    private static final int MAX_BATCH_SIZE = 64;
+    /**
+     * The maximum number of messages that may wait for the same destination.
+     */
+    private static final int MAX_PENDING_PER_DESTINATION = 1000;
+    /**
+     * The time {@link #send(Message)} waits for a free slot if the destination
+     * has too many pending messages.
+     */
+    private static final int ENQUEUE_TIMEOUT_MS = 5000;
     /**
      * The SendQueue waits this long foor the queue to run empty after
      * {@link #halt()} is called.
      */
     private static final int FLUSH_TIMEOUT_MS = 1000;
+    /**
+     * The number of sender threads.
+     */
+    private static final int SENDER_THREADS = 4;
     /**
      * The logger.
      */
     private final Logger logger = Logger.getLogger(SendQueue.class);
     /**
-     * The messages to send.
+     * The queues of the destinations that have messages waiting.
+     */
+    private ConcurrentMap<String, Destination> destinations;
+    /**
+     * The number of messages queued and not yet sent.
+     */
+    private AtomicInteger size = new AtomicInteger();
+    /**
+     * Taken for reading while a message is queued and for writing when the
+     * queue is halted, so no message is queued after {@link #halt()}.
      */
-    private Queue<Message> outgoingMessages;
+    private ReadWriteLock haltLock = new ReentrantReadWriteLock();
     /**
      * The connector used to send messages.
      */
     private AgentConnector connector;
     /**
-     * The executor service that runs the sender thread.
+     * The executor service that runs the sender threads.
+     */
+    private ExecutorService executorService = Executors.newFixedThreadPool(SENDER_THREADS);
+    /**
+     * The number of messages waiting for a destination each time a batch is
+     * taken.
+     */
+    private Histogram queueDepth = new Histogram("");
+    /**
+     * The time between enqueuing a message and handing it to the connector.
      */
-    private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private Histogram sendLatency = new Histogram("us");
     /**
      * The SendQueue runs as long as {@link #running} is true.
      */
@@ -80,58 +134,266 @@ public final class SendQueue implements Haltable {
      */
     public SendQueue(AgentConnector connector) {
         this.connector = connector;
-        this.outgoingMessages = new ConcurrentLinkedQueue<Message>();
+        this.destinations = new ConcurrentHashMap<String, Destination>();
         this.running = true;
-        this.executorService.scheduleWithFixedDelay(new SendRunnable(), SEND_FREQ_MS, SEND_FREQ_MS,
-                        TimeUnit.MILLISECONDS);
     }
 
 
     /**
      * Sends a message.
      * <p>
-     * Actually puts the message into a queue so it can be sent by a special
-     * sender thread.
+     * Actually puts the message into a queue so it can be sent by a sender
+     * thread. Blocks if too many messages are waiting for the same destination.
      * 
      * @param message
      *            the message to send
      */
     public void send(Message message) {
-        if (running) {
-            outgoingMessages.add(message);
-        }
-        else {
+        if (!running) {
             logger.warn("SendQueue shutting down. Not accepting message for delivery: " + message.shortForm());
+            return;
+        }
+
+        final String key = message.getTo() == null ? "" : message.getTo();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ENQUEUE_TIMEOUT_MS);
+        try {
+            Destination destination;
+            do {
+                destination = destinationFor(key);
+            }
+            while (!destination.enqueue(message, deadline));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting to enqueue message: " + message.shortForm());
+        }
+    }
+
+
+    private Destination destinationFor(String key) {
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            Destination newDestination = new Destination(key);
+            destination = destinations.putIfAbsent(key, newDestination);
+            if (destination == null) {
+                destination = newDestination;
+            }
         }
+        return destination;
     }
 
 
     /**
-     * The sender thread payload. Sends the messages in the queue.
+     * A message in the queue together with its enqueue time.
      */
-    class SendRunnable implements Runnable {
+    private static final class QueuedMessage {
+
+        private final Message message;
+        private final long enqueuedNanos = System.nanoTime();
+
+
+        QueuedMessage(Message message) {
+            this.message = message;
+        }
+    }
+
+
+    /**
+     * The queue of a single destination. Run by a sender thread to send one
+     * batch.
+     */
+    private final class Destination implements Runnable {
+
+        private final String name;
+        /**
+         * The messages waiting, including the batch being sent. Guarded by
+         * this.
+         */
+        private final LinkedList<QueuedMessage> queue = new LinkedList<QueuedMessage>();
+        /**
+         * True while the destination is waiting for or running in a sender
+         * thread. Guarded by this.
+         */
+        private boolean scheduled;
+        /**
+         * True once the destination has been removed from
+         * {@link SendQueue#destinations}. Guarded by this.
+         */
+        private boolean retired;
+
+
+        Destination(String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * Queues a message, waiting for a free slot until the deadline.
+         * 
+         * @return false, if the destination has been retired and the message
+         *         has to be queued with a new one
+         * @throws InterruptedException
+         */
+        boolean enqueue(Message message, long deadline) throws InterruptedException {
+            boolean schedule;
+            synchronized (this) {
+                while (!retired && (queue.size() >= MAX_PENDING_PER_DESTINATION)) {
+                    final long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        logger.error("Too many pending messages for " + name + ". Dropping message: "
+                                        + message.shortForm());
+                        return true;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+                if (retired) {
+                    return false;
+                }
+
+                haltLock.readLock().lock();
+                try {
+                    if (!running) {
+                        logger.warn("SendQueue shutting down. Not accepting message for delivery: "
+                                        + message.shortForm());
+                        return true;
+                    }
+                    queue.add(new QueuedMessage(message));
+                    size.incrementAndGet();
+                }
+                finally {
+                    haltLock.readLock().unlock();
+                }
+
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                schedule();
+            }
+            return true;
+        }
+
+
+        private void schedule() {
+            try {
+                executorService.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                logger.warn("Sender threads stopped, dropping messages for " + name);
+            }
+        }
+
 
+        /**
+         * Sends the next batch and schedules the destination again if there
+         * are more messages, so the sender threads take turns.
+         */
         @Override
         public void run() {
-            Message message = null;
-            while ((message = outgoingMessages.poll()) != null) {
-                try {
-                    logger.debug("SendQueue sending " + message);
-                    connector.send(message);
+            final List<QueuedMessage> batch = new ArrayList<QueuedMessage>(MAX_BATCH_SIZE);
+            synchronized (this) {
+                queueDepth.record(queue.size());
+                Iterator<QueuedMessage> iterator = queue.iterator();
+                while (iterator.hasNext() && (batch.size() < MAX_BATCH_SIZE)) {
+                    batch.add(iterator.next());
+                }
+            }
+
+            final List<Message> messages = new ArrayList<Message>(batch.size());
+            for (QueuedMessage queued : batch) {
+                messages.add(queued.message);
+            }
+            send(messages);
+
+            final long now = System.nanoTime();
+            for (QueuedMessage queued : batch) {
+                sendLatency.record(TimeUnit.NANOSECONDS.toMicros(now - queued.enqueuedNanos));
+            }
+
+            boolean more;
+            synchronized (this) {
+                for (int i = 0; (i < batch.size()); i++) {
+                    queue.removeFirst();
                 }
-                catch (IOException e) {
-                    logger.error("Exception caught", e);
+                notifyAll();
+                more = !queue.isEmpty();
+                if (!more) {
+                    scheduled = false;
+                    retired = true;
+                    destinations.remove(name, this);
                 }
             }
+            sent(batch.size());
+            if (more) {
+                schedule();
+            }
+        }
+    }
+
+
+    private void send(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            if (logger.isDebugEnabled()) {
+                logger.debug("SendQueue sending " + messages);
+            }
+            connector.send(messages);
+        }
+        catch (IOException e) {
+            logger.error("Exception caught", e);
+        }
+        catch (RuntimeException e) {
+            logger.error("Exception caught", e);
+        }
+    }
+
+
+    /**
+     * Counts sent messages and wakes up {@link #halt()} when all are sent.
+     */
+    private void sent(int count) {
+        if (size.addAndGet(-count) == 0) {
+            synchronized (size) {
+                size.notifyAll();
+            }
         }
     }
 
 
+    /**
+     * Stops accepting messages and waits for the queued messages to be sent.
+     */
     @Override
     public void halt() {
-        running = false;
-        QueueUtils.waitUntilEmpty(outgoingMessages, FLUSH_TIMEOUT_MS);
-        executorService.shutdown();
+        if (!running) {
+            return;
+        }
+        haltLock.writeLock().lock();
+        try {
+            running = false;
+        }
+        finally {
+            haltLock.writeLock().unlock();
+        }
+
+        try {
+            final long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MS;
+            synchronized (size) {
+                long left;
+                while ((size.get() > 0) && ((left = deadline - System.currentTimeMillis()) > 0)) {
+                    size.wait(left);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executorService.shutdownNow();
+        if (size.get() > 0) {
+            logger.warn("SendQueue halted with " + size.get() + " messages left");
+        }
     }
 
 
@@ -149,7 +411,7 @@ public final class SendQueue implements Haltable {
      * @return the queue
      */
     boolean isEmpty() {
-        return outgoingMessages.isEmpty();
+        return size.get() == 0;
     }
 
 
@@ -159,6 +421,40 @@ public final class SendQueue implements Haltable {
      * @return the queue size
      */
     public int size() {
-        return outgoingMessages.size();
+        return size.get();
+    }
+
+
+    /**
+     * Returns the number of destinations that have messages waiting.
+     * <p>
+     * This is only package visible for testing purposes.
+     * 
+     * @return the number of destinations
+     */
+    int destinations() {
+        return destinations.size();
+    }
+
+
+    /**
+     * Returns the distribution of the number of messages waiting for a
+     * destination each time a batch is taken.
+     * 
+     * @return the queue depth histogram
+     */
+    public Histogram getQueueDepth() {
+        return queueDepth;
+    }
+
+
+    /**
+     * Returns the distribution of the time in microseconds between enqueuing
+     * a message and handing it to the connector.
+     * 
+     * @return the latency histogram
+     */
+    public Histogram getSendLatency() {
+        return sendLatency;
     }
 }
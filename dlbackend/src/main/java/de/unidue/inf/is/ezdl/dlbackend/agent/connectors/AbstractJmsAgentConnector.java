@@ -19,6 +19,7 @@
 package de.unidue.inf.is.ezdl.dlbackend.agent.connectors;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
@@ -91,6 +92,14 @@ abstract class AbstractJmsAgentConnector implements AgentConnector, MessageListe
     }
 
 
+    @Override
+    public final synchronized void send(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            send(message);
+        }
+    }
+
+
     @Override
     public final void goOnline() throws ConnectionFailedException {
         try {
@@ -19,6 +19,7 @@
 package de.unidue.inf.is.ezdl.dlbackend.agent.connectors;
 
 import java.io.IOException;
+import java.util.List;
 
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionFailedException;
@@ -73,4 +74,18 @@ public interface AgentConnector {
      */
     void send(Message message) throws IOException;
 
+
+    /**
+     * Sends a batch of messages in the given order.
+     * <p>
+     * Connectors that can hand several messages to the transport in one go
+     * should do so. Others may simply send the messages one by one.
+     * 
+     * @param messages
+     *            the messages
+     * @throws IOException
+     *             if the messages can not be delivert to the end-point
+     */
+    void send(List<Message> messages) throws IOException;
+
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package de.unidue.inf.is.ezdl.dlbackend.agent.connectors;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.omg.CORBA.Any;
@@ -123,6 +124,14 @@ public class CorbaAgentConnector extends AgentServant implements AgentConnector
     }
 
 
+    @Override
+    public void send(List<Message> messages) {
+        for (Message message : messages) {
+            send(message);
+        }
+    }
+
+
     /**
      * Wandelt die Performatives der Agent-Lib in ezDL-Nachrichten um.
      * 
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -41,6 +42,10 @@ import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
  * <p>
  * Since HTTP connections run over the MTA and the MTA assigns the client name,
  * the agent name is only used to construct message IDs and can be set randomly.
+ * <p>
+ * Every outgoing message is sent over a new connection. See
+ * {@link PersistentHttpAgentConnector} for a connector that uses a single
+ * connection for both directions.
  * 
  * @author mjordan
  */
@@ -72,7 +77,7 @@ public class HttpAgentConnector extends Thread implements AgentConnector {
     /**
      * The logger.
      */
-    private final Logger logger = Logger.getLogger(HttpAgentConnector.class);
+    private static final Logger logger = Logger.getLogger(HttpAgentConnector.class);
     /**
      * The state of the connection state machine.
      */
@@ -200,7 +205,9 @@ public class HttpAgentConnector extends Thread implements AgentConnector {
 
 
     /**
-     * Opens a connection and polls messages that get dispatched to the agent.
+     * Opens a connection and reads messages that get dispatched to the agent.
+     * <p>
+     * Reading blocks until data arrives or the connection is closed.
      */
     @Override
     public void run() {
@@ -208,34 +215,32 @@ public class HttpAgentConnector extends Thread implements AgentConnector {
         state = connect();
         logger.debug("connect() left with state " + state);
         try {
-            while (state == ConnectionState.OPEN) {
-                if (in.ready()) {
-                    String s = in.readLine();
-                    logger.debug("IN:" + s);
-                    while (s != null) {
-                        if (s.startsWith("connection: ")) {
-                            connection = s.substring(12);
-                        }
-                        else if (s.startsWith("message: ")) {
-                            StringBuilder buffer = new StringBuilder(s.substring(9));
-                            // msg lesen
-                            while (s.trim().length() > 0) {
-                                s = in.readLine();
-                                buffer.append(s);
-                                buffer.append(CRLF);
-                            }
-                            Message s1 = MessageStringCoder.getInstance().decode(buffer.toString());
-                            agent.receive(s1);
-
-                        }
-                        else if (s.startsWith("ping: ")) {
-                            logger.debug("Ping received");
-                            send("pong");
-                        }
-                        yield();
-
+            String s = null;
+            while ((state == ConnectionState.OPEN) && ((s = in.readLine()) != null)) {
+                logger.debug("IN:" + s);
+                if (s.startsWith("connection: ")) {
+                    connection = s.substring(12);
+                }
+                else if (s.startsWith("message: ")) {
+                    StringBuilder buffer = new StringBuilder(s.substring(9));
+                    // msg lesen
+                    while ((s != null) && (s.trim().length() > 0)) {
                         s = in.readLine();
+                        if (s != null) {
+                            buffer.append(s);
+                            buffer.append(CRLF);
+                        }
+                    }
+                    if (s == null) {
+                        logger.warn("Connection closed while reading a message, dropping it");
+                        break;
                     }
+                    Message s1 = MessageStringCoder.getInstance().decode(buffer.toString());
+                    agent.receive(s1);
+                }
+                else if (s.startsWith("ping: ")) {
+                    logger.debug("Ping received");
+                    send("pong");
                 }
             }
         }
@@ -261,22 +266,46 @@ public class HttpAgentConnector extends Thread implements AgentConnector {
     }
 
 
+    @Override
+    public void send(List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            send(message);
+        }
+    }
+
+
     /**
      * Sends a message over a socket.
      * 
-     * @param sendMTA
-     *            the socket to use
      * @param outStr
      *            the message string to send
      */
     private void send(String outStr) throws IOException {
         logger.debug(connection + "-> sending:\r\n " + outStr);
+        post(mtaHost, mtaPort, outStr);
+    }
+
+
+    /**
+     * Sends a string to the MTA with a <code>POST /message</code> request over
+     * a new connection.
+     * 
+     * @param host
+     *            the host name of the MTA
+     * @param port
+     *            the port number of the MTA
+     * @param outStr
+     *            the string to send
+     * @throws IOException
+     *             if sending fails
+     */
+    static void post(String host, int port, String outStr) throws IOException {
         StringBuffer request = new StringBuffer(16 + outStr.length());
         Socket sendMTA = null;
         OutputStream out = null;
 
         try {
-            sendMTA = new Socket(mtaHost, mtaPort);
+            sendMTA = new Socket(host, port);
             out = sendMTA.getOutputStream();
             request.append("POST /message ").append(HTTP_VERSION_STRING).append(CRLF);
             request.append(CLIENT_VERSION_LINE).append(CRLF);
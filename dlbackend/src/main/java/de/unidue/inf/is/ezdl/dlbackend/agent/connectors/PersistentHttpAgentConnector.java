@@ -0,0 +1,744 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.connectors;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.MessageStringCoder;
+import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionFailedException;
+import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionState;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
+/**
+ * Connects agents to the backend using a single persistent connection to the
+ * MTA.
+ * <p>
+ * Unlike {@link HttpAgentConnector}, which opens a new socket for every
+ * outgoing message, this connector keeps the connection opened by the
+ * <code>GET /connect</code> request and uses it in both directions. After the
+ * HTTP headers have been exchanged, all data is sent in frames: a four byte
+ * big-endian length followed by that many bytes of UTF-8 encoded payload. The
+ * payloads use the same vocabulary as the line-based protocol (
+ * <code>connection: </code>, <code>message: </code>, <code>ping: </code>).
+ * <p>
+ * Reading and writing is done by the connector thread alone, which blocks in a
+ * {@link Selector} until data arrives or messages are queued for sending.
+ * Queued messages are written in batches with a single gathering write.
+ * <p>
+ * The connector asks for the length-prefixed framing with the header
+ * {@value #FRAMING_LINE}. If the MTA does not answer with the same header, the
+ * connector falls back to the line-based protocol of
+ * {@link HttpAgentConnector}: it keeps reading lines from the connection and
+ * sends every outgoing message with a <code>POST /message</code> request over
+ * a new connection.
+ */
+public class PersistentHttpAgentConnector extends Thread implements AgentConnector {
+
+    /**
+     * What we send as the client version.
+     */
+    private static final String CLIENT_VERSION_LINE = "User-Agent: EzDLExternalAgent/1.0";
+    /**
+     * The header that asks the MTA for length-prefixed framing.
+     */
+    static final String FRAMING_LINE = "X-EzDL-Framing: length";
+    /**
+     * The encoding used.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * The HTTP version string.
+     */
+    private static final String HTTP_VERSION_STRING = "HTTP/1.1";
+    /**
+     * The HTTP way to terminate a line.
+     */
+    private static final String CRLF = "\r\n";
+    /**
+     * The time to wait in milliseconds between checks if the connection is
+     * already established.
+     */
+    private static final int CONNECTION_TIMEOUT_PER_TRY_MS = 100;
+    /**
+     * The number of bytes of the length prefix of each frame.
+     */
+    static final int FRAME_HEADER_BYTES = 4;
+    /**
+     * The maximum payload size of a frame. Anything larger is considered a
+     * protocol error and terminates the connection.
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    /**
+     * The initial size of the read buffer. The buffer grows if a larger frame
+     * comes in.
+     */
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    /**
+     * The prefix of the payload of a message.
+     */
+    private static final String MESSAGE_PREFIX = "message: ";
+    /**
+     * The maximum number of frames written with a single gathering write.
+     */
+    private static final int MAX_BATCH_FRAMES = 64;
+    /**
+     * The logger.
+     */
+    private final Logger logger = Logger.getLogger(PersistentHttpAgentConnector.class);
+    /**
+     * The state of the connection state machine.
+     */
+    private volatile ConnectionState state = ConnectionState.INIT;
+    /**
+     * The host name of the other side of the connection.
+     */
+    private String mtaHost;
+    /**
+     * The port number of the other side of the connection.
+     */
+    private int mtaPort;
+    /**
+     * The channel of the connection to the MTA.
+     */
+    private SocketChannel channel;
+    /**
+     * The selector that the connector thread blocks in.
+     */
+    private volatile Selector selector;
+    /**
+     * Holds data that has been read but not yet dispatched.
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    /**
+     * True, if the MTA accepted the length-prefixed framing. Otherwise, the
+     * line-based protocol is used.
+     */
+    private volatile boolean framed;
+    /**
+     * The lines of the message currently being read with the line-based
+     * protocol or null, if there is none.
+     */
+    private StringBuilder pendingMessage;
+    /**
+     * The frames waiting to be written.
+     */
+    private Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    /**
+     * The batch of frames currently being written or null, if there is none.
+     */
+    private ByteBuffer[] writeBatch;
+    /**
+     * The reference to the agent for whom this connector works. Used for call
+     * backs when receiving messages.
+     */
+    private Agent agent;
+    /**
+     * The connection ID assigned by the MTA.
+     */
+    private volatile String connection = "";
+    /**
+     * The number of tries between CONNECTION_TIMEOUT wait cycles.
+     */
+    private int connectionTries = 50;
+
+
+    /**
+     * The constructor.
+     * 
+     * @param agent
+     *            the agent for whom this connector works.
+     * @param mHost
+     *            the host name of the other side of the connection
+     * @param mPort
+     *            the port number of the other side of the connection
+     * @param timeOutSecs
+     *            the connection timeout in seconds
+     */
+    public PersistentHttpAgentConnector(Agent agent, String mHost, int mPort, int timeOutSecs) {
+        this.agent = agent;
+        mtaHost = mHost;
+        mtaPort = mPort;
+        connectionTries = (1000 * timeOutSecs) / CONNECTION_TIMEOUT_PER_TRY_MS;
+        setName("PersistentHttpAgentConnector");
+    }
+
+
+    /**
+     * Connects to the MTA and does the HTTP handshake.
+     */
+    private ConnectionState connect() {
+        logger.debug("connect() connecting");
+        state = ConnectionState.OPENING;
+        logger.info("** Trying host: " + mtaHost);
+        logger.info("** Trying port: " + mtaPort);
+
+        try {
+            channel = SocketChannel.open(new InetSocketAddress(mtaHost, mtaPort));
+            channel.socket().setTcpNoDelay(true);
+
+            StringBuilder request = new StringBuilder();
+            request.append("GET /connect ").append(HTTP_VERSION_STRING).append(CRLF);
+            request.append(CLIENT_VERSION_LINE).append(CRLF);
+            request.append(FRAMING_LINE).append(CRLF);
+            request.append(CRLF);
+            ByteBuffer requestBuffer = ByteBuffer.wrap(request.toString().getBytes(ENCODING));
+            while (requestBuffer.hasRemaining()) {
+                channel.write(requestBuffer);
+            }
+
+            skipHeader();
+
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+
+            state = ConnectionState.OPEN;
+            logger.debug("connect() connected");
+        }
+        catch (IOException e) {
+            logger.error("Unable to connect: ", e);
+            closeResources();
+            state = ConnectionState.FAILED;
+        }
+
+        return state;
+    }
+
+
+    /**
+     * Reads the HTTP response header of the MTA. Data following the header is
+     * left in the read buffer.
+     * 
+     * @throws IOException
+     */
+    private void skipHeader() throws IOException {
+        while (true) {
+            if (channel.read(readBuffer) == -1) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            int end = findHeaderEnd(readBuffer);
+            if (end != -1) {
+                framed = isFramingAccepted(new String(readBuffer.array(), 0, end, ENCODING));
+                if (!framed) {
+                    logger.info("MTA does not support length-prefixed framing, using the line-based protocol");
+                }
+                readBuffer.flip();
+                readBuffer.position(end);
+                readBuffer.compact();
+                return;
+            }
+            if (!readBuffer.hasRemaining()) {
+                throw new IOException("Header too long");
+            }
+        }
+    }
+
+
+    /**
+     * Returns if the MTA answered the request for framing with the same
+     * header. An MTA that does not know the header sends lines instead of
+     * frames.
+     * 
+     * @param header
+     *            the response header of the MTA
+     * @return true, if the MTA supports framing
+     */
+    static boolean isFramingAccepted(String header) {
+        for (String line : header.split("\r\n")) {
+            if (line.trim().equalsIgnoreCase(FRAMING_LINE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns the index of the first byte after the empty line that terminates
+     * an HTTP header.
+     * 
+     * @param buffer
+     *            the buffer in write mode
+     * @return the index or -1, if the header is not complete
+     */
+    static int findHeaderEnd(ByteBuffer buffer) {
+        for (int i = 3; i < buffer.position(); i++) {
+            if ((buffer.get(i - 3) == '\r') && (buffer.get(i - 2) == '\n') && (buffer.get(i - 1) == '\r')
+                            && (buffer.get(i) == '\n')) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+
+    @Override
+    public boolean isOnline() {
+        return ((state == ConnectionState.OPEN) && (connection.length() != 0));
+    }
+
+
+    /**
+     * Returns if the last connection attempt has failed.
+     * 
+     * @return true, if the connection attempts has just failed or the
+     *         connection is closed
+     */
+    private boolean failed() {
+        return ((state == ConnectionState.FAILED) || (state == ConnectionState.CLOSED));
+    }
+
+
+    /**
+     * Opens a connection and then reads and writes until the connection is
+     * closed.
+     */
+    @Override
+    public void run() {
+        logger.debug("run() started");
+        state = connect();
+        logger.debug("connect() left with state " + state);
+        try {
+            if (state == ConnectionState.OPEN) {
+                dispatchReceived();
+            }
+            while (state == ConnectionState.OPEN) {
+                updateInterest();
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write();
+                    }
+                }
+            }
+        }
+        catch (ClosedSelectorException e) {
+            logger.debug("Selector closed");
+        }
+        catch (IOException e) {
+            if (state == ConnectionState.OPEN) {
+                logger.error("Failed to read from or write to MTA.", e);
+            }
+        }
+
+        goOffline();
+        logger.debug("run() left");
+    }
+
+
+    /**
+     * Registers interest in writability if there are frames waiting.
+     */
+    private void updateInterest() {
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            boolean pending = (writeBatch != null) || !writeQueue.isEmpty();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+
+    /**
+     * Reads available data and dispatches it.
+     * 
+     * @throws IOException
+     */
+    private void read() throws IOException {
+        if (channel.read(readBuffer) == -1) {
+            throw new EOFException("Connection closed by MTA");
+        }
+        dispatchReceived();
+    }
+
+
+    private void dispatchReceived() throws IOException {
+        if (framed) {
+            dispatchFrames();
+        }
+        else {
+            dispatchLines();
+        }
+    }
+
+
+    /**
+     * Dispatches all complete frames in the read buffer and makes sure the
+     * buffer can hold the next frame.
+     * 
+     * @throws IOException
+     */
+    private void dispatchFrames() throws IOException {
+        readBuffer.flip();
+        while (readBuffer.remaining() >= FRAME_HEADER_BYTES) {
+            int length = readBuffer.getInt(readBuffer.position());
+            checkFrameLength(length);
+            if (readBuffer.remaining() < FRAME_HEADER_BYTES + length) {
+                break;
+            }
+            readBuffer.position(readBuffer.position() + FRAME_HEADER_BYTES);
+            byte[] payload = new byte[length];
+            readBuffer.get(payload);
+            dispatch(new String(payload, ENCODING));
+        }
+        readBuffer.compact();
+
+        if (readBuffer.position() >= FRAME_HEADER_BYTES) {
+            int needed = FRAME_HEADER_BYTES + readBuffer.getInt(0);
+            if (needed > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, 2 * readBuffer.capacity()));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        }
+    }
+
+
+    /**
+     * Dispatches all complete lines in the read buffer. A message starts with
+     * a line beginning with {@value #MESSAGE_PREFIX} and ends with an empty
+     * line, as read by {@link HttpAgentConnector}.
+     * 
+     * @throws IOException
+     */
+    private void dispatchLines() throws IOException {
+        readBuffer.flip();
+        int start = readBuffer.position();
+        for (int i = start; i < readBuffer.limit(); i++) {
+            if (readBuffer.get(i) == '\n') {
+                int end = ((i > start) && (readBuffer.get(i - 1) == '\r')) ? i - 1 : i;
+                dispatchLine(new String(readBuffer.array(), start, end - start, ENCODING));
+                start = i + 1;
+            }
+        }
+        readBuffer.position(start);
+        readBuffer.compact();
+
+        if (!readBuffer.hasRemaining()) {
+            checkFrameLength(2 * readBuffer.capacity());
+            ByteBuffer larger = ByteBuffer.allocate(2 * readBuffer.capacity());
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+
+    private void dispatchLine(String line) {
+        if (pendingMessage != null) {
+            pendingMessage.append(line).append(CRLF);
+            if (line.trim().length() == 0) {
+                String encoded = pendingMessage.toString();
+                pendingMessage = null;
+                receive(encoded);
+            }
+        }
+        else if (line.startsWith(MESSAGE_PREFIX)) {
+            pendingMessage = new StringBuilder(line.substring(MESSAGE_PREFIX.length()));
+        }
+        else {
+            dispatch(line);
+        }
+    }
+
+
+    private static void checkFrameLength(int length) throws IOException {
+        if ((length < 0) || (length > MAX_FRAME_BYTES)) {
+            throw new IOException("Illegal frame length " + length);
+        }
+    }
+
+
+    /**
+     * Handles a single frame or line.
+     * 
+     * @param payload
+     *            the payload of the frame or the line
+     */
+    private void dispatch(String payload) {
+        logger.debug("IN:" + payload);
+        if (payload.startsWith("connection: ")) {
+            connection = payload.substring(12).trim();
+        }
+        else if (payload.startsWith(MESSAGE_PREFIX)) {
+            receive(payload.substring(MESSAGE_PREFIX.length()));
+        }
+        else if (payload.startsWith("ping: ")) {
+            logger.debug("Ping received");
+            try {
+                sendPayload("pong");
+            }
+            catch (IOException e) {
+                logger.error("Could not answer ping", e);
+            }
+        }
+    }
+
+
+    private void receive(String encoded) {
+        try {
+            Message message = MessageStringCoder.getInstance().decode(encoded);
+            agent.receive(message);
+        }
+        catch (IOException e) {
+            logger.error("Could not decode message " + encoded, e);
+        }
+    }
+
+
+    /**
+     * Writes as many queued frames as the channel accepts.
+     * 
+     * @throws IOException
+     */
+    private void write() throws IOException {
+        while (true) {
+            if (writeBatch == null) {
+                writeBatch = nextBatch();
+                if (writeBatch == null) {
+                    return;
+                }
+            }
+            channel.write(writeBatch);
+            if (writeBatch[writeBatch.length - 1].hasRemaining()) {
+                return;
+            }
+            writeBatch = null;
+        }
+    }
+
+
+    /**
+     * Takes up to {@value #MAX_BATCH_FRAMES} frames from the queue.
+     * 
+     * @return the frames or null, if the queue is empty
+     */
+    private ByteBuffer[] nextBatch() {
+        ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+        int count = 0;
+        ByteBuffer frame;
+        while ((count < MAX_BATCH_FRAMES) && ((frame = writeQueue.poll()) != null)) {
+            batch[count++] = frame;
+        }
+        if (count == 0) {
+            return null;
+        }
+        ByteBuffer[] result = new ByteBuffer[count];
+        System.arraycopy(batch, 0, result, 0, count);
+        return result;
+    }
+
+
+    @Override
+    public void send(Message message) throws IOException {
+        if (!isOnline()) {
+            return;
+        }
+
+        message.setFrom(connection);
+        String outStr = MessageStringCoder.getInstance().encode(message);
+        sendPayload(MESSAGE_PREFIX + outStr);
+    }
+
+
+    /**
+     * Queues all messages and wakes up the connector thread only once, so the
+     * whole batch goes out with a single gathering write.
+     */
+    @Override
+    public void send(List<Message> messages) throws IOException {
+        if (!isOnline()) {
+            return;
+        }
+        if (!framed) {
+            for (Message message : messages) {
+                send(message);
+            }
+            return;
+        }
+
+        for (Message message : messages) {
+            message.setFrom(connection);
+            addFrame(MESSAGE_PREFIX + MessageStringCoder.getInstance().encode(message));
+        }
+        wakeUp();
+    }
+
+
+    /**
+     * Sends a payload: as a frame over the persistent connection, if the MTA
+     * supports framing, or else with a new connection.
+     * 
+     * @param payload
+     *            the payload
+     * @throws IOException
+     *             if sending over a new connection fails
+     */
+    private void sendPayload(String payload) throws IOException {
+        if (framed) {
+            enqueue(payload);
+        }
+        else if (payload.startsWith(MESSAGE_PREFIX)) {
+            HttpAgentConnector.post(mtaHost, mtaPort, payload.substring(MESSAGE_PREFIX.length()));
+        }
+        else {
+            HttpAgentConnector.post(mtaHost, mtaPort, payload);
+        }
+    }
+
+
+    /**
+     * Queues a frame for sending and wakes up the connector thread.
+     * 
+     * @param payload
+     *            the payload of the frame
+     */
+    private void enqueue(String payload) {
+        addFrame(payload);
+        wakeUp();
+    }
+
+
+    /**
+     * Queues a frame for sending without waking up the connector thread.
+     * 
+     * @param payload
+     *            the payload of the frame
+     */
+    private void addFrame(String payload) {
+        try {
+            writeQueue.add(frame(payload));
+        }
+        catch (IOException e) {
+            logger.error("Could not encode " + payload, e);
+        }
+    }
+
+
+    /**
+     * Wakes up the connector thread so it picks up queued frames.
+     */
+    private void wakeUp() {
+        final Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+
+    /**
+     * Creates a frame from the given payload.
+     * 
+     * @param payload
+     *            the payload
+     * @return a buffer that contains the length prefix and the encoded payload,
+     *         ready to be written
+     * @throws IOException
+     */
+    static ByteBuffer frame(String payload) throws IOException {
+        byte[] bytes = payload.getBytes(ENCODING);
+        checkFrameLength(bytes.length);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + bytes.length);
+        frame.putInt(bytes.length);
+        frame.put(bytes);
+        frame.flip();
+        return frame;
+    }
+
+
+    @Override
+    public void goOffline() {
+        logger.debug("shutdown() closing connection");
+        state = ConnectionState.CLOSING;
+        closeResources();
+        state = ConnectionState.CLOSED;
+        logger.debug("shutdown() finished");
+    }
+
+
+    /**
+     * Closes the selector and the channel.
+     */
+    private void closeResources() {
+        if (selector != null) {
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                logger.error("closing selector failed: ", e);
+            }
+        }
+        ClosingUtils.close(channel);
+    }
+
+
+    @Override
+    public void goOnline() throws ConnectionFailedException {
+        if (state.isOpenable()) {
+            start();
+            waitForConnection();
+        }
+    }
+
+
+    /**
+     * Waits for a connection and throws some exception in case of a problem.
+     * 
+     * @throws ConnectionFailedException
+     */
+    private void waitForConnection() throws ConnectionFailedException {
+        int j = 0;
+        while (!failed() && !isOnline() && (j < connectionTries)) {
+            try {
+                Thread.sleep(CONNECTION_TIMEOUT_PER_TRY_MS);
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            j++;
+        }
+        if (!isOnline()) {
+            throw new ConnectionFailedException("Starting External Agent Client failed. Server not ready?");
+        }
+    }
+
+}
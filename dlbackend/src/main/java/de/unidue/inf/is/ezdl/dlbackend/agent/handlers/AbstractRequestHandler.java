@@ -18,15 +18,18 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.agent.handlers;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
 import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
 import de.unidue.inf.is.ezdl.dlbackend.agent.Reusable;
 import de.unidue.inf.is.ezdl.dlbackend.agent.StartedBy;
+import de.unidue.inf.is.ezdl.dlbackend.agent.timer.TimerService;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentLog;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.RequestHandlerInfo;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
@@ -40,19 +43,38 @@ import de.unidue.inf.is.ezdl.dlbackend.security.SecurityManager;
  * intended.) Implementations have to be annotated by the {@link StartedBy}
  * annotation.
  * <p>
- * Implementations that are not tagged {@link Reusable} don't have to call
- * {@link #halt()} explicitly. This is done in
- * {@link #processNextMessageFromQueue()} automatically.
+ * Implementations that are not tagged {@link Reusable} should call
+ * {@link #halt()} when their request is done so they are removed from the
+ * agent's request map. Handlers that wait for further messages do not occupy a
+ * thread.
  * <p>
- * AbstractRequestHandler provides a running thread, a queue for incoming
- * messages, an AgentLog for event logging and some helper methods for message
- * sending.
+ * AbstractRequestHandler provides a queue for incoming messages that is
+ * processed by the {@link HandlerRuntime}, an AgentLog for event logging and
+ * some helper methods for message sending. Messages of one handler are
+ * processed one after another, never concurrently. {@link #work(Message)} runs
+ * while holding the handler's monitor, so {@link #halt()} waits for the
+ * message in progress.
+ * <p>
+ * If the runtime is busy when a message other than the initial one arrives or
+ * when messages are left after a run, the handler keeps the messages and tries
+ * to schedule itself again every {@link #RETRY_DELAY_MS} milliseconds. After
+ * {@link #MAX_RETRIES} attempts, the handler gives up and halts.
  * 
  * @see RequestHandler
  * @see StartedBy
  */
 public abstract class AbstractRequestHandler implements RequestHandler {
 
+    /**
+     * The time between two attempts to schedule the handler with a busy
+     * runtime.
+     */
+    private static final long RETRY_DELAY_MS = 100;
+    /**
+     * The number of attempts to schedule the handler with a busy runtime
+     * before it halts.
+     */
+    private static final int MAX_RETRIES = 100;
     /**
      * The logger.
      */
@@ -60,7 +82,23 @@ public abstract class AbstractRequestHandler implements RequestHandler {
     /**
      * The queue of messages this RequestHandler has yet to handle.
      */
-    private List<Message> msgQueue = Collections.synchronizedList(new LinkedList<Message>());
+    private Queue<QueuedMessage> msgQueue = new ConcurrentLinkedQueue<QueuedMessage>();
+    /**
+     * True while the handler is scheduled with or running in its runtime.
+     */
+    private AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * True while an attempt to schedule the handler again is pending.
+     */
+    private AtomicBoolean retrying = new AtomicBoolean();
+    /**
+     * The runtime that processes the queue.
+     */
+    private volatile HandlerRuntime runtime;
+    /**
+     * True after the first run of the handler.
+     */
+    private boolean started;
     /**
      * The agent-wide unique ID of the request that this RequestHandler handles.
      * This is set once in {@link #init(String, Agent)}, which is normally
@@ -86,7 +124,7 @@ public abstract class AbstractRequestHandler implements RequestHandler {
     /**
      * The first message that started this RequestHandler.
      */
-    private Message initialMessage;
+    private AtomicReference<Message> initialMessage = new AtomicReference<Message>();
     /**
      * The object that manages authorization-related things.
      */
@@ -143,57 +181,33 @@ public abstract class AbstractRequestHandler implements RequestHandler {
 
 
     /**
-     * Main loop. Runs as long as {@link #running} is true.
-     */
-    private synchronized void mainLoop() {
-        while (running) {
-            while (!isMessagQueueEmpty() && running) {
-                processNextMessageFromQueue();
-            }
-            if (running) {
-                try {
-                    wait();
-                }
-                catch (InterruptedException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-        }
-    }
-
-
-    /**
-     * Takes a message from the queue and processes it.
+     * Processes a message.
+     * 
+     * @param msg
+     *            the message to process
      */
-    private void processNextMessageFromQueue() {
-        Message msg = nextMessageFromQueue();
-        if (msg != null) {
-            getLogger().debug("Handling " + msg);
+    private void processMessage(Message msg) {
+        getLogger().debug("Handling " + msg);
 
-            try {
-                boolean processed = work(msg);
+        try {
+            boolean processed = work(msg);
 
-                if (!processed) {
-                    logger.error("Message not handled by RequestHandler. Since RequestHandlers " //
-                                    + "should get only messages they can handle, this is most " //
-                                    + "probably a programming error." + msg);
-                }
-            }
-            catch (Exception e) {
-                logger.error(e.getMessage(), e);
-                throw new RuntimeException(e);
+            if (!processed) {
+                logger.error("Message not handled by RequestHandler. Since RequestHandlers " //
+                                + "should get only messages they can handle, this is most " //
+                                + "probably a programming error." + msg);
             }
         }
-        else {
-            logger.error("Found a null message in the queue.");
+        catch (Exception e) {
+            logger.error(e.getMessage(), e);
         }
     }
 
 
     /**
      * Performs work needed for a certain message. This method is called from
-     * {@link #processNextMessageFromQueue()} who guarantees that message is
-     * never null.
+     * {@link #processMessage(Message)} who guarantees that message is never
+     * null.
      * 
      * @param message
      * @return true, if the message has been processed. Else false.
@@ -220,63 +234,132 @@ public abstract class AbstractRequestHandler implements RequestHandler {
         if (!isHalted()) {
             addLog("halting request", getRequestId());
             running = false;
-            notifyAll();
+            msgQueue.clear();
         }
     }
 
 
     @Override
-    public synchronized void addMessageToQueue(Message msg) {
+    public void setRuntime(HandlerRuntime runtime) {
+        this.runtime = runtime;
+        schedule();
+    }
+
+
+    @Override
+    public void addMessageToQueue(Message msg) {
         if (msg != null) {
-            if (initialMessage == null) {
-                initialMessage = msg;
+            final boolean initial = initialMessage.compareAndSet(null, msg);
+            QueuedMessage queued = new QueuedMessage(msg);
+            msgQueue.add(queued);
+            try {
+                schedule();
+            }
+            catch (RejectedExecutionException e) {
+                if (initial) {
+                    msgQueue.remove(queued);
+                    throw e;
+                }
+                logger.warn("Could not schedule " + this + ": " + e.getMessage());
+                retry();
             }
-            msgQueue.add(msg);
-            notifyAll();
         }
     }
 
 
     /**
-     * Returns if messages are in the queue.
+     * Schedules the handler with its runtime if messages are waiting and the
+     * handler is neither scheduled nor running already.
      * 
-     * @return true, if queue is empty, else false
+     * @throws RejectedExecutionException
+     *             if the runtime does not accept the handler
      */
-    private synchronized boolean isMessagQueueEmpty() {
-        return (msgQueue.isEmpty());
+    private void schedule() {
+        final HandlerRuntime currentRuntime = runtime;
+        if ((currentRuntime != null) && running && !msgQueue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                currentRuntime.schedule(this);
+            }
+            catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
     }
 
 
     /**
-     * Returns the first message in the queue and removes it.
-     * 
-     * @return the first message or <code>null</code>, if no message is in the
-     *         queue
+     * Processes the queued messages until the queue is empty or the handler is
+     * halted.
      */
-    private synchronized Message nextMessageFromQueue() {
-        if (isMessagQueueEmpty()) {
-            return null;
+    @Override
+    public final void run() {
+        if (!started) {
+            started = true;
+            if (getAgent().getLog() != null) {
+                getAgent().getLog().add("goal", getRequestId());
+            }
         }
 
-        return msgQueue.remove(0);
+        final HandlerRuntime currentRuntime = runtime;
+        try {
+            QueuedMessage next;
+            while (running && ((next = msgQueue.poll()) != null)) {
+                final long startNs = System.nanoTime();
+                synchronized (this) {
+                    processMessage(next.message);
+                }
+                if (currentRuntime != null) {
+                    currentRuntime.processed(startNs - next.queuedNs, System.nanoTime() - startNs);
+                }
+            }
+        }
+        finally {
+            scheduled.set(false);
+        }
+
+        try {
+            schedule();
+        }
+        catch (RejectedExecutionException e) {
+            logger.warn("Could not reschedule " + this + ": " + e.getMessage());
+            retry();
+        }
     }
 
 
     /**
-     * Starts the request handler.
+     * Tries to schedule the handler again later, unless an attempt is pending
+     * already.
      */
-    @Override
-    public final void run() {
-
-        if (getAgent().getLog() != null) {
-            getAgent().getLog().add("goal", getRequestId());
+    private void retry() {
+        if (retrying.compareAndSet(false, true)) {
+            retry(1);
         }
+    }
 
-        addLog("Entering main loop", getRequestId());
 
-        mainLoop();
+    private void retry(final int attempt) {
+        TimerService.getInstance().schedule(new Runnable() {
 
-        logger.info("Main loop left");
+            @Override
+            public void run() {
+                retrying.set(false);
+                try {
+                    schedule();
+                }
+                catch (RejectedExecutionException e) {
+                    if (attempt >= MAX_RETRIES) {
+                        logger.error("Could not schedule " + AbstractRequestHandler.this + " after " + attempt
+                                        + " attempts, dropping " + msgQueue.size() + " messages");
+                        halt();
+                    }
+                    else if (retrying.compareAndSet(false, true)) {
+                        retry(attempt + 1);
+                    }
+                }
+            }
+        }, RETRY_DELAY_MS);
     }
 
 
@@ -368,8 +451,8 @@ public abstract class AbstractRequestHandler implements RequestHandler {
      * 
      * @return the initial message
      */
-    protected synchronized Message getInitialMessage() {
-        return initialMessage;
+    protected Message getInitialMessage() {
+        return initialMessage.get();
     }
 
 
@@ -400,4 +483,20 @@ public abstract class AbstractRequestHandler implements RequestHandler {
     protected boolean isSendPartialResults() {
         return sendPartialResults;
     }
+
+
+    /**
+     * A message in the queue together with the time it was queued.
+     */
+    private static final class QueuedMessage {
+
+        private final Message message;
+        private final long queuedNs;
+
+
+        QueuedMessage(Message message) {
+            this.message = message;
+            this.queuedNs = System.nanoTime();
+        }
+    }
 }
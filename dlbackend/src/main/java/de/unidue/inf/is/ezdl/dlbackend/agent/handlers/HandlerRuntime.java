@@ -0,0 +1,56 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.handlers;
+
+import java.util.concurrent.RejectedExecutionException;
+
+
+
+/**
+ * Executes the message queues of {@link RequestHandler} objects and collects
+ * timing information about the processed messages.
+ * 
+ * @see RequestHandler#setRuntime(HandlerRuntime)
+ */
+public interface HandlerRuntime {
+
+    /**
+     * Schedules the given handler to process the messages in its queue. The
+     * handler's {@link RequestHandler#run()} method is called by a thread of
+     * the runtime.
+     * 
+     * @param handler
+     *            the handler to schedule
+     * @throws RejectedExecutionException
+     *             if the runtime has no capacity left to accept the handler
+     */
+    void schedule(RequestHandler handler);
+
+
+    /**
+     * Reports that a handler has processed a message.
+     * 
+     * @param queueTimeNs
+     *            the time in nanoseconds the message waited in the queue
+     * @param runTimeNs
+     *            the time in nanoseconds spent processing the message
+     */
+    void processed(long queueTimeNs, long runTimeNs);
+
+}
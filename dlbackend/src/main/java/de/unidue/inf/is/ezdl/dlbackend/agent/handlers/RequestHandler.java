@@ -18,6 +18,8 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.agent.handlers;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
 import de.unidue.inf.is.ezdl.dlbackend.agent.MessageWaiter;
 import de.unidue.inf.is.ezdl.dlbackend.agent.StartedBy;
@@ -47,8 +49,12 @@ import de.unidue.inf.is.ezdl.dlcore.Haltable;
  * <p>
  * RequestHandler implementors have to be annotated by {@link StartedBy} because
  * this is the only mechanism to invoke a RequestHandler.
+ * <p>
+ * A RequestHandler does not own a thread. Incoming messages are queued and
+ * {@link #run()} is called by the {@link HandlerRuntime} to process them.
  * 
  * @see StartedBy
+ * @see HandlerRuntime
  */
 public interface RequestHandler extends Runnable, Haltable {
 
@@ -69,14 +75,38 @@ public interface RequestHandler extends Runnable, Haltable {
 
 
     /**
-     * Adds a message to the queue. If msg is null, no action is performed.
+     * Sets the runtime that processes the queued messages. Until a runtime is
+     * set, messages are only queued.
+     * 
+     * @param runtime
+     *            the runtime
+     */
+    void setRuntime(HandlerRuntime runtime);
+
+
+    /**
+     * Adds a message to the queue and schedules the handler with its runtime.
+     * If msg is null, no action is performed.
      * 
      * @param msg
      *            a message or null
+     * @throws RejectedExecutionException
+     *             if the runtime cannot accept more work and msg is the
+     *             handler's initial message. The message is not queued in
+     *             this case. Later messages are kept and scheduled when the
+     *             runtime has room again.
      */
     void addMessageToQueue(Message msg);
 
 
+    /**
+     * Processes the queued messages and returns when the queue is empty or the
+     * handler is halted.
+     */
+    @Override
+    void run();
+
+
     /**
      * Returns the request ID that the request handler handles.
      * 
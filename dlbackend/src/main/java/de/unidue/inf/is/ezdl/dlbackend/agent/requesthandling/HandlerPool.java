@@ -0,0 +1,195 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.requesthandling;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.HandlerRuntime;
+import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
+import de.unidue.inf.is.ezdl.dlcore.misc.ExceptionAwareThreadPoolExecutor;
+import de.unidue.inf.is.ezdl.dlcore.utils.Histogram;
+
+
+
+/**
+ * The {@link HandlerRuntime} for all handlers of one {@link RequestHandler}
+ * class.
+ * <p>
+ * At most <code>maxThreads</code> handlers of the class process messages at
+ * the same time. Up to <code>maxQueued</code> further handlers wait for a
+ * thread, beyond that handlers are rejected. Threads that are idle for
+ * {@link #KEEP_ALIVE_SECONDS} terminate.
+ */
+final class HandlerPool implements HandlerRuntime {
+
+    /**
+     * The time in seconds that idle threads are kept.
+     */
+    static final int KEEP_ALIVE_SECONDS = 60;
+    /**
+     * The name of the handler class, used for thread names and status.
+     */
+    private final String name;
+    /**
+     * Runs the handlers.
+     */
+    private final ThreadPoolExecutor executor;
+    /**
+     * Time in microseconds that messages wait before they are processed.
+     */
+    private final Histogram queueTime = new Histogram("us");
+    /**
+     * Time in microseconds that processing a message takes.
+     */
+    private final Histogram runTime = new Histogram("us");
+    /**
+     * The number of rejected handlers.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    /**
+     * Creates a new pool.
+     * 
+     * @param name
+     *            the name of the handler class
+     * @param maxThreads
+     *            the number of handlers that may run concurrently
+     * @param maxQueued
+     *            the number of handlers that may wait for a thread
+     */
+    HandlerPool(String name, int maxThreads, int maxQueued) {
+        this.name = name;
+        executor = new ExceptionAwareThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(Math.max(1, maxQueued)));
+        executor.allowCoreThreadTimeOut(true);
+        executor.setThreadFactory(new HandlerThreadFactory(name));
+    }
+
+
+    @Override
+    public void schedule(RequestHandler handler) {
+        try {
+            executor.execute(handler);
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(name + " is busy: " + executor.getActiveCount() + " running, "
+                            + executor.getQueue().size() + " queued");
+        }
+    }
+
+
+    @Override
+    public void processed(long queueTimeNs, long runTimeNs) {
+        queueTime.record(TimeUnit.NANOSECONDS.toMicros(queueTimeNs));
+        runTime.record(TimeUnit.NANOSECONDS.toMicros(runTimeNs));
+    }
+
+
+    /**
+     * Returns the number of handlers that wait for a thread.
+     * 
+     * @return the number of waiting handlers
+     */
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * Returns the number of rejected handlers.
+     * 
+     * @return the number of rejected handlers
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+
+    /**
+     * Returns the histogram of the time messages waited before processing.
+     * 
+     * @return the queue time histogram
+     */
+    Histogram getQueueTime() {
+        return queueTime;
+    }
+
+
+    /**
+     * Returns the histogram of the time spent processing messages.
+     * 
+     * @return the run time histogram
+     */
+    Histogram getRunTime() {
+        return runTime;
+    }
+
+
+    /**
+     * Stops accepting handlers. Handlers that are already scheduled are still
+     * run.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(name);
+        out.append(": running=").append(executor.getActiveCount());
+        out.append(", threads=").append(executor.getPoolSize()).append('/').append(executor.getMaximumPoolSize());
+        out.append(", queued=").append(getQueued());
+        out.append(", rejected=").append(getRejected());
+        out.append("\n  queue time: ").append(queueTime);
+        out.append("\n  run time: ").append(runTime);
+        return out.toString();
+    }
+
+
+    /**
+     * Names the threads of a pool after its handler class.
+     */
+    private static final class HandlerThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        HandlerThreadFactory(String name) {
+            this.name = name;
+        }
+
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, name + " " + count.incrementAndGet());
+        }
+    }
+
+}
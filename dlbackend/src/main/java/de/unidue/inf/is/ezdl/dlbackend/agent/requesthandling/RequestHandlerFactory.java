@@ -21,8 +21,9 @@ package de.unidue.inf.is.ezdl.dlbackend.agent.requesthandling;
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
@@ -33,7 +34,7 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 import de.unidue.inf.is.ezdl.dlcore.Haltable;
 import de.unidue.inf.is.ezdl.dlcore.message.content.MessageContent;
-import de.unidue.inf.is.ezdl.dlcore.misc.ExceptionAwareThreadPoolExecutor;
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
 
 
 
@@ -43,6 +44,12 @@ import de.unidue.inf.is.ezdl.dlcore.misc.ExceptionAwareThreadPoolExecutor;
  * suitable RequestHandler. If a RequestHandler is tagged with the
  * {@link Reusable} Annotation, the RequestHandler object is cached and reused
  * for subsequent requests.
+ * <p>
+ * Each RequestHandler class gets its own {@link HandlerPool} that bounds the
+ * number of handlers of that class running and waiting at the same time. The
+ * bounds are read from the agent properties {@value #MAX_THREADS_KEY} and
+ * {@value #MAX_QUEUED_KEY} and can be overridden per class, e.g.
+ * <code>handlers.DocumentQueryHandler.maxthreads</code>.
  * 
  * @see RequestHandler
  * @see StartedBy
@@ -51,6 +58,24 @@ import de.unidue.inf.is.ezdl.dlcore.misc.ExceptionAwareThreadPoolExecutor;
  */
 final class RequestHandlerFactory implements Haltable {
 
+    /**
+     * Properties key for the number of handlers of a class that run
+     * concurrently.
+     */
+    static final String MAX_THREADS_KEY = "handlers.maxthreads";
+    /**
+     * Properties key for the number of handlers of a class that wait for a
+     * thread before further requests are rejected.
+     */
+    static final String MAX_QUEUED_KEY = "handlers.maxqueued";
+    /**
+     * Default for {@link #MAX_THREADS_KEY}.
+     */
+    static final int MAX_THREADS_DEFAULT = 64;
+    /**
+     * Default for {@link #MAX_QUEUED_KEY}.
+     */
+    static final int MAX_QUEUED_DEFAULT = 1024;
     /**
      * The logger.
      */
@@ -64,9 +89,13 @@ final class RequestHandlerFactory implements Haltable {
      */
     private Map<Class<? extends MessageContent>, RequestHandler> reusableHandlers;
     /**
-     * Used to execute the RequestHandlers in separate threads.
+     * The runtimes of the handlers by handler class.
      */
-    private ExecutorService executorService;
+    private Map<Class<? extends RequestHandler>, HandlerPool> pools;
+    /**
+     * True after {@link #halt()}.
+     */
+    private volatile boolean halted;
     /**
      * Reference to the agent who owns this registry.
      */
@@ -82,7 +111,7 @@ final class RequestHandlerFactory implements Haltable {
      */
     public RequestHandlerFactory(Agent agent) {
         this.agent = agent;
-        executorService = new ExceptionAwareThreadPoolExecutor();
+        pools = new HashMap<Class<? extends RequestHandler>, HandlerPool>();
         knownHandlers = new HashMap<Class<? extends MessageContent>, Class<? extends RequestHandler>>();
         reusableHandlers = new HashMap<Class<? extends MessageContent>, RequestHandler>();
     }
@@ -94,7 +123,7 @@ final class RequestHandlerFactory implements Haltable {
      * @param handlers
      *            the set of classes to add as RequstHandlers
      */
-    public void initHandlers(Set<Class<? extends RequestHandler>> handlers) {
+    public synchronized void initHandlers(Set<Class<? extends RequestHandler>> handlers) {
         knownHandlers.clear();
         for (Class<? extends RequestHandler> handler : handlers) {
             StartedBy handledMessageContents = handler.getAnnotation(StartedBy.class);
@@ -108,11 +137,35 @@ final class RequestHandlerFactory implements Haltable {
                         knownHandlers.put(c, handler);
                     }
                 }
+                if (!pools.containsKey(handler)) {
+                    pools.put(handler, createPool(handler));
+                }
             }
         }
     }
 
 
+    /**
+     * Creates the runtime for a handler class.
+     * 
+     * @param handler
+     *            the handler class
+     * @return the runtime
+     */
+    private HandlerPool createPool(Class<? extends RequestHandler> handler) {
+        Properties props = agent.getProperties();
+        if (props == null) {
+            props = new Properties();
+        }
+        final String name = handler.getSimpleName();
+        final int maxThreads = PropertiesUtils.getIntProperty(props, "handlers." + name + ".maxthreads",
+                        PropertiesUtils.getIntProperty(props, MAX_THREADS_KEY, MAX_THREADS_DEFAULT));
+        final int maxQueued = PropertiesUtils.getIntProperty(props, "handlers." + name + ".maxqueued",
+                        PropertiesUtils.getIntProperty(props, MAX_QUEUED_KEY, MAX_QUEUED_DEFAULT));
+        return new HandlerPool(name, Math.max(1, maxThreads), maxQueued);
+    }
+
+
     /**
      * Gets a ready-to-use RequestHandler object for the given MessageContent.
      * 
@@ -123,7 +176,7 @@ final class RequestHandlerFactory implements Haltable {
      * @return the RequestHandler object or null if no RequestHandler can be
      *         instantiated
      */
-    public RequestHandler getHandler(MessageContent content, String requestId) {
+    public synchronized RequestHandler getHandler(MessageContent content, String requestId) {
         RequestHandler handler = null;
         Class<? extends MessageContent> contentClass = content.getClass();
         handler = getReusableHandler(contentClass);
@@ -142,7 +195,7 @@ final class RequestHandlerFactory implements Haltable {
                         reusableHandlers.put(contentClass, handler);
                     }
 
-                    startHandlerThread(handler);
+                    handler.setRuntime(pools.get(handlerClass));
                 }
             }
         }
@@ -155,26 +208,14 @@ final class RequestHandlerFactory implements Haltable {
     }
 
 
-    /**
-     * Starts the handler in a new thread.
-     * 
-     * @param handler
-     *            the handler to start
-     */
-    private void startHandlerThread(RequestHandler handler) {
-        logger.debug("started thread for " + handler + " in factory");
-        executorService.submit(handler);
-    }
-
-
     /**
      * Returns, if a class is reusable.
      * 
      * @param handler
      *            the handler to check
-     * @return
+     * @return true, if the class of the handler is tagged {@link Reusable}
      */
-    private boolean classIsReusable(RequestHandler handler) {
+    boolean classIsReusable(RequestHandler handler) {
         Reusable reusable = handler.getClass().getAnnotation(Reusable.class);
         return reusable != null;
     }
@@ -220,21 +261,53 @@ final class RequestHandlerFactory implements Haltable {
     }
 
 
+    /**
+     * Returns the state and timings of the handler runtimes.
+     * 
+     * @return a human-readable status with one entry per handler class
+     */
+    public synchronized String getStatus() {
+        Map<String, HandlerPool> sorted = new TreeMap<String, HandlerPool>();
+        for (Map.Entry<Class<? extends RequestHandler>, HandlerPool> entry : pools.entrySet()) {
+            sorted.put(entry.getKey().getSimpleName(), entry.getValue());
+        }
+        StringBuilder out = new StringBuilder();
+        for (HandlerPool pool : sorted.values()) {
+            out.append(pool).append("\n");
+        }
+        return out.toString();
+    }
+
+
+    /**
+     * Returns the runtime of the given handler class.
+     * 
+     * @param handlerClass
+     *            the handler class
+     * @return the runtime or null if the class is unknown
+     */
+    synchronized HandlerPool getPool(Class<? extends RequestHandler> handlerClass) {
+        return pools.get(handlerClass);
+    }
+
+
     /**
      * {@inheritDoc}
      * <p>
-     * The {@link ExecutorService} is shutdown.
-     * 
-     * @see ExecutorService#shutdown()
+     * The handler runtimes stop accepting work. Handlers that are already
+     * scheduled are still run.
      */
     @Override
-    public void halt() {
-        executorService.shutdown();
+    public synchronized void halt() {
+        halted = true;
+        for (HandlerPool pool : pools.values()) {
+            pool.shutdown();
+        }
     }
 
 
     @Override
     public boolean isHalted() {
-        return executorService.isShutdown();
+        return halted;
     }
 }
@@ -176,6 +176,31 @@ public class RequestHandlerStore implements Haltable {
     }
 
 
+    /**
+     * Returns the state and timings of the handler runtimes.
+     * 
+     * @return a human-readable status with one entry per handler class
+     */
+    public String getStatus() {
+        return registry.getStatus();
+    }
+
+
+    /**
+     * Cleans up after a handler did not accept its initial message because its
+     * runtime is busy. Handlers that are not reusable are killed since they
+     * would never see their request.
+     * 
+     * @param handler
+     *            the handler that rejected the message
+     */
+    public void handlerRejected(RequestHandler handler) {
+        if (!registry.classIsReusable(handler)) {
+            killHandler(handler, false);
+        }
+    }
+
+
     /**
      * Kills the RequestHandler given by its reference.
      * 
@@ -18,6 +18,8 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.agent.timer;
 
+import java.util.concurrent.ScheduledFuture;
+
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 
 
@@ -28,8 +30,11 @@ import de.unidue.inf.is.ezdl.dlbackend.message.Message;
  * The Timer is initialized with either a Message or a String and waits for a
  * given time. After that time, the Timer wakes up and delivers the signal
  * (Message or String) to the Timeable given.
+ * <p>
+ * Timers don't have threads of their own. They are scheduled with the shared
+ * {@link TimerService} and the signal is delivered by one of its task threads.
  */
-public class Timer extends Thread {
+public class Timer {
 
     private enum TimerState {
         RAW, // state before being initialized
@@ -58,12 +63,16 @@ public class Timer extends Thread {
      * object.
      */
     private Object message;
+    /**
+     * The task scheduled with the {@link TimerService}.
+     */
+    private ScheduledFuture<?> future;
 
     private volatile TimerState state = TimerState.RAW;
 
 
     /**
-     * Constructor. Creates the Timer and starts its Thread.
+     * Constructor.
      */
     public Timer() {
     }
@@ -123,8 +132,8 @@ public class Timer extends Thread {
     public synchronized void startTimer() {
         if (state == TimerState.SET) {
             endTime = getNow() + time;
-            start();
-            notifyAll();
+            state = TimerState.RUNNING;
+            schedule(time);
         }
         else {
             throw new RuntimeException("You have to call init() before starting the timer");
@@ -133,60 +142,52 @@ public class Timer extends Thread {
 
 
     /**
-     * Kills the Timer, stops the Thread.
+     * Kills the Timer so that the signal is not delivered.
      */
     public synchronized void killTimer() {
         state = TimerState.KILLED;
-        interrupt();
-        notifyAll();
+        if (future != null) {
+            TimerService.getInstance().cancel(future);
+            future = null;
+        }
     }
 
 
-    @Override
-    public synchronized void run() {
+    private void schedule(long delayMs) {
+        future = TimerService.getInstance().schedule(new Runnable() {
 
-        state = TimerState.RUNNING;
-
-        while (state == TimerState.RUNNING) {
-            waitUntilTimeoutExpires();
-
-            // System.out.println("state after waiting: " + state);
-
-            if (state == TimerState.EXPIRED) {
-                if (message instanceof Message) {
-                    timeable.wakeup((Message) message);
-                }
-                else if (message instanceof String) {
-                    timeable.wakeup((String) message);
-                }
+            @Override
+            public void run() {
+                expire();
             }
-        }
+        }, delayMs);
     }
 
 
-    private void waitUntilTimeoutExpires() {
-        long timeLeftToWait;
-        while ((timeLeftToWait = endTime - getNow()) > 0) {
-            try {
-                // System.out.println("endtime " + endTime + " waiting " +
-                // timeLeftToWait);
-                waitTimer(timeLeftToWait);
-            }
-            catch (InterruptedException e) {
-                // System.out.println("interrupted");
-            }
+    /**
+     * Delivers the signal if the time has come. If {@link #getNow()} says it
+     * is too early, the timer is scheduled again for the time left.
+     */
+    private void expire() {
+        synchronized (this) {
             if (state != TimerState.RUNNING) {
                 return;
             }
+            final long timeLeftToWait = endTime - getNow();
+            if (timeLeftToWait > 0) {
+                schedule(timeLeftToWait);
+                return;
+            }
+            state = TimerState.EXPIRED;
+            future = null;
         }
 
-        state = TimerState.EXPIRED;
-        // System.out.println("left wait loop");
-    }
-
-
-    void waitTimer(long timeLeftToWait) throws InterruptedException {
-        wait(timeLeftToWait);
+        if (message instanceof Message) {
+            timeable.wakeup((Message) message);
+        }
+        else if (message instanceof String) {
+            timeable.wakeup((String) message);
+        }
     }
 
 
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.timer;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+
+
+/**
+ * The shared scheduler behind {@link Timer}.
+ * <p>
+ * All timers of the JVM share a few daemon threads, so a timer costs a
+ * scheduled task instead of a thread of its own. Cancelled tasks are purged
+ * from the queue now and then so that timers that are killed long before
+ * their timeout don't pile up.
+ * <p>
+ * The scheduler threads only fire the tasks. The tasks run on a separate
+ * pool, so a slow task, e.g. a {@link Timeable} that does a lot of work when
+ * it wakes up, does not hold up every other timer.
+ */
+public final class TimerService {
+
+    /**
+     * The number of scheduler threads that fire expired timers.
+     */
+    private static final int THREADS = 2;
+    /**
+     * The maximum number of threads that run tasks at the same time.
+     */
+    private static final int TASK_THREADS = 32;
+    /**
+     * Idle time after which task threads terminate.
+     */
+    private static final long TASK_KEEP_ALIVE_SEC = 60;
+    /**
+     * The number of cancellations after which cancelled tasks are removed from
+     * the queue.
+     */
+    private static final int PURGE_INTERVAL = 256;
+
+    private static final TimerService INSTANCE = new TimerService(THREADS);
+
+    private static final Logger logger = Logger.getLogger(TimerService.class);
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final ThreadPoolExecutor tasks;
+
+    private final AtomicInteger cancellations = new AtomicInteger();
+
+
+    private TimerService(int threads) {
+        executor = new ScheduledThreadPoolExecutor(threads, new DaemonThreadFactory("TimerService "));
+        tasks = new ThreadPoolExecutor(0, TASK_THREADS, TASK_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("TimerService task "),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        DaemonThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+
+    /**
+     * Returns the shared instance.
+     * 
+     * @return the timer service
+     */
+    public static TimerService getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Runs the task once after the given delay.
+     * <p>
+     * When the delay has passed, the task is handed to a pool of up to
+     * {@link #TASK_THREADS} threads. If all of them are busy, it runs on the
+     * scheduler thread.
+     * 
+     * @param task
+     *            the task to run
+     * @param delayMs
+     *            the delay in milliseconds
+     * @return the handle to pass to {@link #cancel(ScheduledFuture)}
+     */
+    public ScheduledFuture<?> schedule(final Runnable task, long delayMs) {
+        return executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                tasks.execute(new LoggingRunnable(task));
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Logs the exceptions of a task instead of letting them kill the thread.
+     */
+    private static final class LoggingRunnable implements Runnable {
+
+        private final Runnable task;
+
+
+        LoggingRunnable(Runnable task) {
+            this.task = task;
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                logger.error("Timer task failed", e);
+            }
+        }
+    }
+
+
+    /**
+     * Cancels a task scheduled with {@link #schedule(Runnable, long)}.
+     * 
+     * @param future
+     *            the handle of the task
+     */
+    public void cancel(ScheduledFuture<?> future) {
+        if (future.cancel(false) && (cancellations.incrementAndGet() % PURGE_INTERVAL == 0)) {
+            executor.purge();
+        }
+    }
+
+
+    /**
+     * Returns the number of tasks waiting, including cancelled ones that have
+     * not been purged yet.
+     * 
+     * @return the number of tasks
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+}
@@ -23,6 +23,8 @@ import java.net.URL;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 import de.unidue.inf.is.ezdl.dlcore.cache.Cache;
 
 
@@ -43,13 +45,7 @@ public class EhCache implements Cache {
 
 
     public EhCache(String cacheName, URL configuration) throws CacheException {
-        CacheManager cacheManager;
-        if (configuration != null) {
-            cacheManager = CacheManager.create(configuration);
-        }
-        else {
-            cacheManager = CacheManager.create();
-        }
+        CacheManager cacheManager = cacheManager(configuration);
         cache = cacheManager.getCache(cacheName);
         if (cache == null) {
             cacheManager.addCache(cacheName);
@@ -58,6 +54,49 @@ public class EhCache implements Cache {
     }
 
 
+    /**
+     * Creates a cache that keeps at most the given number of entries, evicting
+     * the least recently used ones. If the configuration defines a cache with
+     * the given name, that cache is used instead.
+     * 
+     * @param cacheName
+     *            the name of the cache
+     * @param configuration
+     *            the ehcache configuration or null for the default
+     *            configuration
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param persistent
+     *            if true, the entries are stored on disk and kept across
+     *            restarts. This needs a disk store in the configuration.
+     * @throws CacheException
+     *             if the cache cannot be created
+     */
+    public EhCache(String cacheName, URL configuration, int maxEntries, boolean persistent) throws CacheException {
+        CacheManager cacheManager = cacheManager(configuration);
+        cache = cacheManager.getCache(cacheName);
+        if (cache == null) {
+            CacheConfiguration config = new CacheConfiguration(cacheName, maxEntries);
+            config.memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU).eternal(true);
+            if (persistent) {
+                config.overflowToDisk(true).diskPersistent(true).maxElementsOnDisk(maxEntries);
+            }
+            cacheManager.addCache(new net.sf.ehcache.Cache(config));
+            cache = cacheManager.getCache(cacheName);
+        }
+    }
+
+
+    private static CacheManager cacheManager(URL configuration) throws CacheException {
+        if (configuration != null) {
+            return CacheManager.create(configuration);
+        }
+        else {
+            return CacheManager.create();
+        }
+    }
+
+
     @Override
     public Object get(Object key) {
         Element element = cache.get(key);
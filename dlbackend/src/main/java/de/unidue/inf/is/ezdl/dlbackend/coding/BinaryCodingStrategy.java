@@ -0,0 +1,773 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.coding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.core.JVM;
+
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
+/**
+ * Compact binary coding strategy for messages and their payload.
+ * <p>
+ * Values are written with a one byte type tag followed by their data. Numbers
+ * use variable length encoding, strings are interned per message and classes
+ * are described by a {@link ClassSchema} only the first time they occur. This
+ * keeps large result lists with many repeated field, source and author names
+ * small.
+ * <p>
+ * Objects of ezDL classes are written field by field like XStream does, so
+ * constructors are not called on decoding and transient fields keep their
+ * default values. Collections and maps are written by content. Anything else
+ * (e.g. arrays, JDK classes without a tag or classes that customize their
+ * serialization) is embedded using Java serialization. The same fallback is
+ * used for the whole object if the graph is too deep. Objects, collections
+ * and maps that occur more than once in the graph are written once and
+ * referenced afterwards, so shared and cyclic references survive. References
+ * from inside embedded Java serialization to objects outside of it are
+ * copied, though.
+ * <p>
+ * Decoding only loads ezDL classes, the JDK containers and value types
+ * written by content and a few more classes listed in
+ * {@link #SERIALIZABLE_CLASSES}, see {@link #isAllowed(String)}.
+ * <p>
+ * Encoded data starts with {@link #MAGIC} so receivers can tell it from other
+ * encodings, see {@link #isBinary(byte[])}.
+ */
+public class BinaryCodingStrategy implements BytesCodingStrategy {
+
+    /**
+     * The first bytes of every encoded object.
+     */
+    private static final byte[] MAGIC = {
+                    'E', 'Z', 'B', '1'
+    };
+    /**
+     * Only classes in this package are written field by field.
+     */
+    private static final String EZDL_PACKAGE = "de.unidue.inf.is.ezdl.";
+    /**
+     * Object graphs deeper than this are handed to Java serialization.
+     */
+    private static final int MAX_DEPTH = 256;
+    /**
+     * The JDK containers written by content.
+     */
+    private static final Set<String> CONTAINER_CLASSES = new HashSet<String>(Arrays.asList(
+                    ArrayList.class.getName(), LinkedList.class.getName(), HashSet.class.getName(),
+                    LinkedHashSet.class.getName(), TreeSet.class.getName(), HashMap.class.getName(),
+                    LinkedHashMap.class.getName(), TreeMap.class.getName()));
+    /**
+     * The packages whose classes may be embedded using Java serialization.
+     * Subpackages are not included.
+     */
+    private static final Set<String> SERIALIZABLE_PACKAGES = new HashSet<String>(Arrays.asList("java.lang",
+                    "java.util", "java.util.concurrent", "java.math"));
+    /**
+     * Further classes that may be embedded using Java serialization.
+     */
+    private static final Set<String> SERIALIZABLE_CLASSES = new HashSet<String>(Arrays.asList(
+                    URL.class.getName(), URI.class.getName(), Timestamp.class.getName(),
+                    "com.google.common.collect.ArrayListMultimap", "com.google.common.collect.HashMultimap",
+                    "com.google.common.collect.LinkedListMultimap", "com.google.common.collect.AbstractListMultimap",
+                    "com.google.common.collect.AbstractSetMultimap",
+                    "com.google.common.collect.AbstractMapBasedMultimap", "com.google.common.collect.AbstractMultimap"));
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_TRUE = 5;
+    private static final int TAG_FALSE = 6;
+    private static final int TAG_FLOAT = 7;
+    private static final int TAG_SHORT = 8;
+    private static final int TAG_BYTE = 9;
+    private static final int TAG_CHAR = 10;
+    private static final int TAG_DATE = 11;
+    private static final int TAG_URL = 12;
+    private static final int TAG_ENUM = 13;
+    private static final int TAG_ENUM_MAP = 14;
+    private static final int TAG_COLLECTION = 15;
+    private static final int TAG_MAP = 16;
+    private static final int TAG_OBJECT = 17;
+    private static final int TAG_SERIALIZED = 18;
+    private static final int TAG_REFERENCE = 19;
+
+    /**
+     * How values of a class are written.
+     */
+    private enum Kind {
+        OBJECT, COLLECTION, MAP, SERIALIZED
+    }
+
+
+    /**
+     * The reusable output buffers, one per thread.
+     */
+    private static final ThreadLocal<BinaryOutput> OUTPUT = new ThreadLocal<BinaryOutput>() {
+
+        @Override
+        protected BinaryOutput initialValue() {
+            return new BinaryOutput();
+        }
+    };
+
+    private Logger logger = Logger.getLogger(BinaryCodingStrategy.class);
+
+    private final ConcurrentMap<Class<?>, Kind> kinds = new ConcurrentHashMap<Class<?>, Kind>();
+    private final ConcurrentMap<Class<?>, ClassSchema> schemas = new ConcurrentHashMap<Class<?>, ClassSchema>();
+    private final ConcurrentMap<String, Class<?>> classesByName = new ConcurrentHashMap<String, Class<?>>();
+    private final ReflectionProvider reflectionProvider = new JVM().bestReflectionProvider();
+
+
+    /**
+     * Returns if the given data was encoded by this strategy.
+     * 
+     * @param bytes
+     *            the encoded data
+     * @return true, if the data starts with the magic bytes of this strategy
+     */
+    public static boolean isBinary(byte[] bytes) {
+        if (bytes == null || bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public byte[] encode(Object object) {
+        BinaryOutput out = OUTPUT.get();
+        byte[] result = null;
+        try {
+            out.reset();
+            out.writeBytes(MAGIC);
+            writeValue(out, object, 0);
+            result = out.toByteArray();
+        }
+        catch (Exception e) {
+            logger.debug("Falling back to Java serialization for " + object.getClass(), e);
+        }
+        catch (StackOverflowError e) {
+            logger.debug("Falling back to Java serialization for " + object.getClass(), e);
+        }
+
+        if (result == null) {
+            try {
+                out.reset();
+                out.writeBytes(MAGIC);
+                writeSerialized(out, object);
+                result = out.toByteArray();
+            }
+            catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+        out.reset();
+        return result;
+    }
+
+
+    @Override
+    public Object decode(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            logger.error("Data was not encoded by " + BinaryCodingStrategy.class.getSimpleName());
+            return null;
+        }
+        try {
+            return readValue(new BinaryInput(bytes, MAGIC.length), 0);
+        }
+        catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return null;
+    }
+
+
+    private void writeValue(BinaryOutput out, Object value, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Object graph deeper than " + MAX_DEPTH);
+        }
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+
+        final Class<?> type = value.getClass();
+        if (type == String.class) {
+            out.writeByte(TAG_STRING);
+            out.writeString((String) value);
+        }
+        else if (type == Integer.class) {
+            out.writeByte(TAG_INT);
+            out.writeVarLong(((Integer) value).intValue());
+        }
+        else if (type == Long.class) {
+            out.writeByte(TAG_LONG);
+            out.writeVarLong(((Long) value).longValue());
+        }
+        else if (type == Double.class) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        }
+        else if (type == Boolean.class) {
+            out.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+        }
+        else if (type == Float.class) {
+            out.writeByte(TAG_FLOAT);
+            out.writeDouble(((Float) value).doubleValue());
+        }
+        else if (type == Short.class) {
+            out.writeByte(TAG_SHORT);
+            out.writeVarLong(((Short) value).shortValue());
+        }
+        else if (type == Byte.class) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte(((Byte) value).byteValue());
+        }
+        else if (type == Character.class) {
+            out.writeByte(TAG_CHAR);
+            out.writeVarInt(((Character) value).charValue());
+        }
+        else if (type == Date.class) {
+            out.writeByte(TAG_DATE);
+            out.writeVarLong(((Date) value).getTime());
+        }
+        else if (type == URL.class) {
+            out.writeByte(TAG_URL);
+            out.writeString(((URL) value).toExternalForm());
+        }
+        else if (value instanceof Enum) {
+            Enum<?> constant = (Enum<?>) value;
+            out.writeByte(TAG_ENUM);
+            out.writeString(constant.getDeclaringClass().getName());
+            out.writeString(constant.name());
+        }
+        else if (writeReference(out, value)) {
+            return;
+        }
+        else if (type == EnumMap.class && !((EnumMap<?, ?>) value).isEmpty()) {
+            writeEnumMap(out, (EnumMap<?, ?>) value, depth);
+        }
+        else {
+            switch (kindOf(value)) {
+                case OBJECT:
+                    writeObject(out, value, depth);
+                    break;
+                case COLLECTION:
+                    writeCollection(out, (Collection<?>) value, depth);
+                    break;
+                case MAP:
+                    writeMap(out, (Map<?, ?>) value, depth);
+                    break;
+                default:
+                    writeSerialized(out, value);
+            }
+        }
+    }
+
+
+    private Object readValue(BinaryInput in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Object graph deeper than " + MAX_DEPTH);
+        }
+        final int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return in.readString();
+            case TAG_INT:
+                return Integer.valueOf((int) in.readVarLong());
+            case TAG_LONG:
+                return Long.valueOf(in.readVarLong());
+            case TAG_DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_FLOAT:
+                return Float.valueOf((float) in.readDouble());
+            case TAG_SHORT:
+                return Short.valueOf((short) in.readVarLong());
+            case TAG_BYTE:
+                return Byte.valueOf((byte) in.readByte());
+            case TAG_CHAR:
+                return Character.valueOf((char) in.readVarInt());
+            case TAG_DATE:
+                return new Date(in.readVarLong());
+            case TAG_URL:
+                return new URL(in.readString());
+            case TAG_ENUM:
+                return readEnum(in);
+            case TAG_ENUM_MAP:
+                return readEnumMap(in, depth);
+            case TAG_COLLECTION:
+                return readCollection(in, depth);
+            case TAG_MAP:
+                return readMap(in, depth);
+            case TAG_OBJECT:
+                return readObject(in, depth);
+            case TAG_SERIALIZED:
+                Object serialized = readSerialized(in);
+                in.addReference(serialized);
+                return serialized;
+            case TAG_REFERENCE:
+                return in.getReference(in.readVarInt());
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+
+    /**
+     * Writes a reference to the value if it was written before, else
+     * registers it.
+     * 
+     * @return true, if a reference was written
+     */
+    private boolean writeReference(BinaryOutput out, Object value) {
+        final int reference = out.registerReference(value);
+        if (reference < 0) {
+            return false;
+        }
+        out.writeByte(TAG_REFERENCE);
+        out.writeVarInt(reference);
+        return true;
+    }
+
+
+    private void writeObject(BinaryOutput out, Object value, int depth) throws IOException {
+        ClassSchema schema = schemaOf(value.getClass());
+        out.writeByte(TAG_OBJECT);
+        writeClass(out, schema);
+        try {
+            for (Field field : schema.getFields()) {
+                writeValue(out, field.get(value), depth + 1);
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    private Object readObject(BinaryInput in, int depth) throws IOException {
+        final int index = readClass(in);
+        ClassSchema schema = in.getSchema(index);
+        Field[] fields = in.getFieldMapping(index);
+        Object object = reflectionProvider.newInstance(schema.getType());
+        in.addReference(object);
+        try {
+            for (Field field : fields) {
+                Object value = readValue(in, depth + 1);
+                if (field != null) {
+                    field.set(object, value);
+                }
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+        return object;
+    }
+
+
+    private void writeCollection(BinaryOutput out, Collection<?> collection, int depth) throws IOException {
+        out.writeByte(TAG_COLLECTION);
+        writeClass(out, schemaOf(collection.getClass()));
+        out.writeVarInt(collection.size());
+        for (Object element : collection) {
+            writeValue(out, element, depth + 1);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private Object readCollection(BinaryInput in, int depth) throws IOException {
+        Collection<Object> collection = (Collection<Object>) newContainer(in.getSchema(readClass(in)));
+        in.addReference(collection);
+        final int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            collection.add(readValue(in, depth + 1));
+        }
+        return collection;
+    }
+
+
+    private void writeMap(BinaryOutput out, Map<?, ?> map, int depth) throws IOException {
+        out.writeByte(TAG_MAP);
+        writeClass(out, schemaOf(map.getClass()));
+        out.writeVarInt(map.size());
+        for (Entry<?, ?> entry : map.entrySet()) {
+            writeValue(out, entry.getKey(), depth + 1);
+            writeValue(out, entry.getValue(), depth + 1);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private Object readMap(BinaryInput in, int depth) throws IOException {
+        Map<Object, Object> map = (Map<Object, Object>) newContainer(in.getSchema(readClass(in)));
+        in.addReference(map);
+        final int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            Object key = readValue(in, depth + 1);
+            map.put(key, readValue(in, depth + 1));
+        }
+        return map;
+    }
+
+
+    private void writeEnumMap(BinaryOutput out, EnumMap<?, ?> map, int depth) throws IOException {
+        out.writeByte(TAG_ENUM_MAP);
+        out.writeString(map.keySet().iterator().next().getDeclaringClass().getName());
+        out.writeVarInt(map.size());
+        for (Entry<? extends Enum<?>, ?> entry : map.entrySet()) {
+            out.writeString(entry.getKey().name());
+            writeValue(out, entry.getValue(), depth + 1);
+        }
+    }
+
+
+    @SuppressWarnings({
+                    "unchecked", "rawtypes"
+    })
+    private Object readEnumMap(BinaryInput in, int depth) throws IOException {
+        Class enumType = enumForName(in.readString());
+        EnumMap map = new EnumMap(enumType);
+        in.addReference(map);
+        final int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            Enum key = Enum.valueOf(enumType, in.readString());
+            map.put(key, readValue(in, depth + 1));
+        }
+        return map;
+    }
+
+
+    @SuppressWarnings({
+                    "unchecked", "rawtypes"
+    })
+    private Object readEnum(BinaryInput in) throws IOException {
+        Class enumType = enumForName(in.readString());
+        return Enum.valueOf(enumType, in.readString());
+    }
+
+
+    private void writeSerialized(BinaryOutput out, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = null;
+        try {
+            oos = new ObjectOutputStream(bytes);
+            oos.writeObject(value);
+            oos.flush();
+        }
+        finally {
+            ClosingUtils.close(oos);
+        }
+        byte[] data = bytes.toByteArray();
+        out.writeByte(TAG_SERIALIZED);
+        out.writeVarInt(data.length);
+        out.writeBytes(data);
+    }
+
+
+    private Object readSerialized(BinaryInput in) throws IOException {
+        byte[] data = in.readBytes(in.readVarInt());
+        ObjectInputStream ois = null;
+        try {
+            ois = new FilteringObjectInputStream(new ByteArrayInputStream(data));
+            return ois.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            ClosingUtils.close(ois);
+        }
+    }
+
+
+    /**
+     * Writes a class reference. The first reference to a class in a run
+     * contains its name and the names of its fields.
+     */
+    private void writeClass(BinaryOutput out, ClassSchema schema) {
+        final int index = out.registerClass(schema.getType());
+        if (index >= 0) {
+            out.writeVarInt(index + 1);
+            return;
+        }
+        out.writeVarInt(0);
+        out.writeString(schema.getType().getName());
+        String[] names = schema.getNames();
+        out.writeVarInt(names.length);
+        for (String name : names) {
+            out.writeString(name);
+        }
+    }
+
+
+    /**
+     * Reads a class reference and returns its index in the class table of the
+     * input.
+     */
+    private int readClass(BinaryInput in) throws IOException {
+        final int reference = in.readVarInt();
+        if (reference > 0) {
+            return reference - 1;
+        }
+        Class<?> type = classForName(in.readString());
+        ClassSchema schema = schemaOf(type);
+        Field[] fields = new Field[in.readVarInt()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = schema.getField(in.readString());
+        }
+        in.addClass(schema, fields);
+        return in.schemaCount() - 1;
+    }
+
+
+    private Object newContainer(ClassSchema schema) throws IOException {
+        try {
+            return schema.newContainer();
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+
+    private Class<?> enumForName(String name) throws IOException {
+        Class<?> type = classForName(name);
+        if (!type.isEnum()) {
+            throw new IOException(name + " is not an enum");
+        }
+        return type;
+    }
+
+
+    private Class<?> classForName(String name) throws IOException {
+        Class<?> type = classesByName.get(name);
+        if (type == null) {
+            if (!name.startsWith(EZDL_PACKAGE) && !CONTAINER_CLASSES.contains(name)) {
+                throw new IOException("Class not allowed: " + name);
+            }
+            try {
+                type = Class.forName(name, false, BinaryCodingStrategy.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            classesByName.put(name, type);
+        }
+        return type;
+    }
+
+
+    private ClassSchema schemaOf(Class<?> type) throws IOException {
+        ClassSchema schema = schemas.get(type);
+        if (schema == null) {
+            Kind kind = kindOf(type);
+            try {
+                switch (kind) {
+                    case OBJECT:
+                        schema = ClassSchema.forObject(type);
+                        break;
+                    case COLLECTION:
+                    case MAP:
+                        schema = ClassSchema.forContainer(type);
+                        break;
+                    default:
+                        throw new IOException(type + " cannot be coded by schema");
+                }
+            }
+            catch (NoSuchMethodException e) {
+                throw new IOException(e);
+            }
+            schemas.put(type, schema);
+        }
+        return schema;
+    }
+
+
+    /**
+     * Returns how the given value is written. Sorted collections and maps
+     * with a comparator are serialized since the comparator is not
+     * transmitted.
+     */
+    private Kind kindOf(Object value) {
+        if (value instanceof SortedSet && ((SortedSet<?>) value).comparator() != null) {
+            return Kind.SERIALIZED;
+        }
+        if (value instanceof SortedMap && ((SortedMap<?, ?>) value).comparator() != null) {
+            return Kind.SERIALIZED;
+        }
+        return kindOf(value.getClass());
+    }
+
+
+    private Kind kindOf(Class<?> type) {
+        Kind kind = kinds.get(type);
+        if (kind == null) {
+            kind = computeKind(type);
+            kinds.put(type, kind);
+        }
+        return kind;
+    }
+
+
+    private static Kind computeKind(Class<?> type) {
+        if (Collection.class.isAssignableFrom(type)) {
+            return isPlainContainer(type, ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class,
+                            TreeSet.class) ? Kind.COLLECTION : Kind.SERIALIZED;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return isPlainContainer(type, HashMap.class, LinkedHashMap.class, TreeMap.class) ? Kind.MAP
+                            : Kind.SERIALIZED;
+        }
+        return ClassSchema.isPlainSerializable(type, EZDL_PACKAGE) ? Kind.OBJECT : Kind.SERIALIZED;
+    }
+
+
+    /**
+     * Returns if the class is one of the given JDK containers or an ezDL
+     * subclass of one of them that adds no state and has a no-argument
+     * constructor.
+     */
+    private static boolean isPlainContainer(Class<?> type, Class<?>... bases) {
+        for (Class<?> base : bases) {
+            if (type == base) {
+                return true;
+            }
+        }
+        if (!type.getName().startsWith(EZDL_PACKAGE)) {
+            return false;
+        }
+        for (Class<?> base : bases) {
+            if (base.isAssignableFrom(type) && ClassSchema.addsNoState(type, base)) {
+                try {
+                    type.getDeclaredConstructor();
+                    return true;
+                }
+                catch (NoSuchMethodException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Returns if instances of the named class may be embedded using Java
+     * serialization: ezDL classes, classes in {@link #SERIALIZABLE_PACKAGES},
+     * the classes in {@link #SERIALIZABLE_CLASSES} and arrays of them or of
+     * primitives.
+     */
+    static boolean isAllowed(String name) {
+        if (name.startsWith("[")) {
+            final String element = name.replaceFirst("^\\[+", "");
+            if (element.startsWith("L") && element.endsWith(";")) {
+                return isAllowed(element.substring(1, element.length() - 1));
+            }
+            return element.length() == 1;
+        }
+        if (name.startsWith(EZDL_PACKAGE) || SERIALIZABLE_CLASSES.contains(name)) {
+            return true;
+        }
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && SERIALIZABLE_PACKAGES.contains(name.substring(0, dot));
+    }
+
+
+    /**
+     * Refuses to load classes that are not allowed by
+     * {@link BinaryCodingStrategy#isAllowed(String)} and dynamic proxies.
+     */
+    private static final class FilteringObjectInputStream extends ObjectInputStream {
+
+        FilteringObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Class not allowed");
+            }
+            return super.resolveClass(desc);
+        }
+
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy classes not allowed");
+        }
+    }
+
+}
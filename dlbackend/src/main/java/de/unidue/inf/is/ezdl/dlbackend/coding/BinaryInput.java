@@ -0,0 +1,206 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.coding;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Reads the data written by {@link BinaryOutput}.
+ */
+final class BinaryInput {
+
+    private final byte[] buffer;
+    private int position;
+    private final List<String> strings = new ArrayList<String>();
+    private final List<ClassSchema> schemas = new ArrayList<ClassSchema>();
+    private final List<Field[]> fieldMappings = new ArrayList<Field[]>();
+    private final List<Object> references = new ArrayList<Object>();
+    private char[] chars = new char[BinaryOutput.MAX_INTERN_LENGTH];
+
+
+    /**
+     * Creates a new input.
+     * 
+     * @param buffer
+     *            the data to read
+     * @param offset
+     *            the position of the first byte to read
+     */
+    BinaryInput(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        this.position = offset;
+    }
+
+
+    private void require(int count) throws EOFException {
+        if (position + count > buffer.length) {
+            throw new EOFException("Unexpected end of data at " + position);
+        }
+    }
+
+
+    int readByte() throws IOException {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+
+    byte[] readBytes(int count) throws IOException {
+        require(count);
+        byte[] result = new byte[count];
+        System.arraycopy(buffer, position, result, 0, count);
+        position += count;
+        return result;
+    }
+
+
+    int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint at " + position);
+    }
+
+
+    long readVarLong() throws IOException {
+        long raw = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final int b = readByte();
+            raw |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+        }
+        throw new IOException("Malformed varlong at " + position);
+    }
+
+
+    double readDouble() throws IOException {
+        require(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buffer[position++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+
+    String readString() throws IOException {
+        final int header = readVarInt();
+        if (header == 0) {
+            return null;
+        }
+        if ((header & 1) == 1) {
+            final int index = header >>> 1;
+            if (index >= strings.size()) {
+                throw new IOException("Unknown string reference " + index);
+            }
+            return strings.get(index);
+        }
+        final int length = (header >>> 1) - 1;
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            final int b = readByte();
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            }
+            else if ((b & 0xE0) == 0xC0) {
+                chars[i] = (char) (((b & 0x1F) << 6) | (readByte() & 0x3F));
+            }
+            else {
+                final int b2 = readByte();
+                chars[i] = (char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (readByte() & 0x3F));
+            }
+        }
+        String s = new String(chars, 0, length);
+        if (length <= BinaryOutput.MAX_INTERN_LENGTH) {
+            strings.add(s);
+        }
+        return s;
+    }
+
+
+
+    /**
+     * Adds a class to the class table.
+     * 
+     * @param schema
+     *            the local schema of the class
+     * @param fields
+     *            the local fields in the order the sender writes them, null
+     *            for fields unknown locally
+     */
+    void addClass(ClassSchema schema, Field[] fields) {
+        schemas.add(schema);
+        fieldMappings.add(fields);
+    }
+
+
+    ClassSchema getSchema(int index) throws IOException {
+        if (index >= schemas.size()) {
+            throw new IOException("Unknown class reference " + index);
+        }
+        return schemas.get(index);
+    }
+
+
+    int schemaCount() {
+        return schemas.size();
+    }
+
+
+    Field[] getFieldMapping(int index) {
+        return fieldMappings.get(index);
+    }
+
+
+    /**
+     * Adds an object to the reference table. Objects have to be added as soon
+     * as they are created, before their content is read, so references back
+     * to them can be resolved.
+     * 
+     * @param object
+     *            the object
+     */
+    void addReference(Object object) {
+        references.add(object);
+    }
+
+
+    Object getReference(int index) throws IOException {
+        if (index >= references.size()) {
+            throw new IOException("Unknown object reference " + index);
+        }
+        return references.get(index);
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.coding;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+
+/**
+ * Growable output buffer used by the {@link BinaryCodingStrategy}.
+ * <p>
+ * Instances are meant to be reused per thread: {@link #reset()} keeps the
+ * underlying array so encoding many messages does not allocate a new buffer
+ * each time. Strings are interned per encoding run, so repeated values like
+ * source names or field names only go over the wire once. Objects are
+ * registered per run as well, so shared and cyclic references can be written
+ * as back references.
+ */
+final class BinaryOutput {
+
+    /**
+     * The initial and minimal size of the buffer.
+     */
+    private static final int INITIAL_SIZE = 8 * 1024;
+    /**
+     * Buffers that grew beyond this size are dropped on {@link #reset()} so a
+     * single huge message does not pin memory forever.
+     */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+    /**
+     * Strings longer than this are not interned.
+     */
+    static final int MAX_INTERN_LENGTH = 128;
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int position;
+    private Map<String, Integer> strings = new HashMap<String, Integer>();
+    private Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+    private Map<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+
+
+    /**
+     * Clears the buffer, the string table, the class table and the reference
+     * table.
+     */
+    void reset() {
+        if (buffer.length > MAX_RETAINED_SIZE) {
+            buffer = new byte[INITIAL_SIZE];
+        }
+        position = 0;
+        strings.clear();
+        classes.clear();
+        references.clear();
+    }
+
+
+    /**
+     * Registers a class in the class table of the current run.
+     * 
+     * @param type
+     *            the class
+     * @return the index of the class if it was already registered, else -1
+     */
+    int registerClass(Class<?> type) {
+        Integer index = classes.get(type);
+        if (index != null) {
+            return index.intValue();
+        }
+        classes.put(type, Integer.valueOf(classes.size()));
+        return -1;
+    }
+
+
+    /**
+     * Registers an object in the reference table of the current run.
+     * 
+     * @param object
+     *            the object
+     * @return the index of the object if it was already registered, else -1
+     */
+    int registerReference(Object object) {
+        Integer index = references.get(object);
+        if (index != null) {
+            return index.intValue();
+        }
+        references.put(object, Integer.valueOf(references.size()));
+        return -1;
+    }
+
+
+    /**
+     * Returns a copy of the written bytes.
+     * 
+     * @return the written bytes
+     */
+    byte[] toByteArray() {
+        byte[] result = new byte[position];
+        System.arraycopy(buffer, 0, result, 0, position);
+        return result;
+    }
+
+
+    private void ensure(int additional) {
+        final int required = position + additional;
+        if (required > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(required, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, position);
+            buffer = newBuffer;
+        }
+    }
+
+
+    void writeByte(int b) {
+        ensure(1);
+        buffer[position++] = (byte) b;
+    }
+
+
+    void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+
+    /**
+     * Writes a non-negative int using 1 to 5 bytes.
+     */
+    void writeVarInt(int value) {
+        ensure(5);
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+    }
+
+
+    /**
+     * Writes a long using 1 to 10 bytes with zig-zag encoding, so small
+     * negative values stay small.
+     */
+    void writeVarLong(long value) {
+        ensure(10);
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+    }
+
+
+    void writeDouble(double value) {
+        ensure(8);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 56; i >= 0; i -= 8) {
+            buffer[position++] = (byte) (bits >>> i);
+        }
+    }
+
+
+    /**
+     * Writes a string.
+     * <p>
+     * The header is a varint: 0 means null, an odd value 2i+1 refers to the
+     * i-th interned string and an even value 2(n+1) starts a literal of n
+     * chars encoded like modified UTF-8. Literals up to
+     * {@link #MAX_INTERN_LENGTH} chars are added to the table.
+     */
+    void writeString(String s) {
+        if (s == null) {
+            writeVarInt(0);
+            return;
+        }
+        final int length = s.length();
+        if (length <= MAX_INTERN_LENGTH) {
+            Integer index = strings.get(s);
+            if (index != null) {
+                writeVarInt((index.intValue() << 1) | 1);
+                return;
+            }
+            strings.put(s, Integer.valueOf(strings.size()));
+        }
+        writeVarInt((length + 1) << 1);
+        ensure(length * 3);
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c != 0 && c < 0x80) {
+                buffer[position++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+}
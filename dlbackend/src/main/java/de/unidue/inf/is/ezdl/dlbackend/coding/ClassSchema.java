@@ -0,0 +1,253 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.coding;
+
+import java.io.Externalizable;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * The layout of a class as seen by the {@link BinaryCodingStrategy}: the
+ * fields that are written, in a stable order, and their names on the wire.
+ * <p>
+ * Schemas are computed once per class and cached by the strategy. Field names
+ * are only transmitted the first time a class appears in a message, so the
+ * receiving side can map them to its own fields even if the classes differ
+ * slightly between versions.
+ */
+final class ClassSchema {
+
+    /**
+     * Methods that customize Java serialization.
+     */
+    private static final Set<String> SERIALIZATION_HOOKS = new HashSet<String>(Arrays.asList("writeObject",
+                    "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+    private static final Comparator<Field> BY_NAME = new Comparator<Field>() {
+
+        @Override
+        public int compare(Field f1, Field f2) {
+            return f1.getName().compareTo(f2.getName());
+        }
+    };
+
+    private final Class<?> type;
+    private final Field[] fields;
+    private final String[] names;
+    private final Map<String, Field> fieldsByName;
+    private final Constructor<?> constructor;
+
+
+    private ClassSchema(Class<?> type, List<Field> fields, Constructor<?> constructor) {
+        this.type = type;
+        this.fields = fields.toArray(new Field[fields.size()]);
+        this.names = new String[this.fields.length];
+        this.fieldsByName = new HashMap<String, Field>();
+        this.constructor = constructor;
+
+        Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+        for (Field field : this.fields) {
+            Integer count = nameCounts.get(field.getName());
+            nameCounts.put(field.getName(), count == null ? 1 : count + 1);
+        }
+        for (int i = 0; i < this.fields.length; i++) {
+            Field field = this.fields[i];
+            String name = field.getName();
+            if (nameCounts.get(name) > 1) {
+                name = field.getDeclaringClass().getName() + '#' + name;
+            }
+            names[i] = name;
+            fieldsByName.put(name, field);
+        }
+    }
+
+
+    /**
+     * Creates the schema of a class whose fields are written one by one.
+     * 
+     * @param type
+     *            the class
+     * @return the schema
+     */
+    static ClassSchema forObject(Class<?> type) {
+        LinkedList<Field> fields = new LinkedList<Field>();
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            Field[] declared = c.getDeclaredFields();
+            Arrays.sort(declared, BY_NAME);
+            List<Field> own = new ArrayList<Field>();
+            for (Field field : declared) {
+                if (isPersistent(field)) {
+                    field.setAccessible(true);
+                    own.add(field);
+                }
+            }
+            fields.addAll(0, own);
+        }
+        return new ClassSchema(type, fields, null);
+    }
+
+
+    /**
+     * Creates the schema of a collection or map class that is written by
+     * content and recreated with its no-argument constructor.
+     * 
+     * @param type
+     *            the class
+     * @return the schema
+     * @throws NoSuchMethodException
+     *             if the class has no no-argument constructor
+     */
+    static ClassSchema forContainer(Class<?> type) throws NoSuchMethodException {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return new ClassSchema(type, new ArrayList<Field>(), constructor);
+    }
+
+
+    /**
+     * Returns if the class can be written field by field without changing
+     * what Java serialization would transport: it must be serializable, must
+     * not customize its serialization and all its state must be declared in
+     * classes of the given package.
+     * 
+     * @param type
+     *            the class to check
+     * @param packagePrefix
+     *            the package prefix of classes whose fields may be accessed
+     * @return true, if the class can be written field by field
+     */
+    static boolean isPlainSerializable(Class<?> type, String packagePrefix) {
+        if (type.isArray() || type.isInterface() || !type.getName().startsWith(packagePrefix)
+                        || ObjectStreamClass.lookup(type) == null
+                        || Externalizable.class.isAssignableFrom(type)) {
+            return false;
+        }
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+            if (!c.getName().startsWith(packagePrefix)) {
+                if (hasPersistentFields(c)) {
+                    return false;
+                }
+            }
+            else if (hasSerializationHooks(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns if the class adds no state to the given base class.
+     * 
+     * @param type
+     *            the class to check
+     * @param base
+     *            the base class
+     * @return true, if all classes between type and base declare no instance
+     *         fields and no serialization hooks
+     */
+    static boolean addsNoState(Class<?> type, Class<?> base) {
+        for (Class<?> c = type; c != base; c = c.getSuperclass()) {
+            if (c == null || hasPersistentFields(c) || hasSerializationHooks(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isPersistent(Field field) {
+        final int modifiers = field.getModifiers();
+        return !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers);
+    }
+
+
+    private static boolean hasPersistentFields(Class<?> c) {
+        for (Field field : c.getDeclaredFields()) {
+            if (isPersistent(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static boolean hasSerializationHooks(Class<?> c) {
+        for (Method method : c.getDeclaredMethods()) {
+            if (SERIALIZATION_HOOKS.contains(method.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    Class<?> getType() {
+        return type;
+    }
+
+
+    Field[] getFields() {
+        return fields;
+    }
+
+
+    String[] getNames() {
+        return names;
+    }
+
+
+    /**
+     * Returns the field with the given wire name.
+     * 
+     * @param name
+     *            the name as written by {@link #getNames()}
+     * @return the field or null if this version of the class does not have it
+     */
+    Field getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+
+    /**
+     * Creates a new empty container using the no-argument constructor.
+     * 
+     * @return the new instance
+     * @throws Exception
+     *             if the constructor fails
+     */
+    Object newContainer() throws Exception {
+        return constructor.newInstance();
+    }
+
+}
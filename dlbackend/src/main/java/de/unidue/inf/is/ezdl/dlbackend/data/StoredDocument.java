@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.data.KeyedMergeable;
 import de.unidue.inf.is.ezdl.dlcore.data.Mergeable;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
 
@@ -37,7 +38,7 @@ import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
  * 
  * @author mj
  */
-public class StoredDocument implements Mergeable, Serializable {
+public class StoredDocument implements KeyedMergeable, Serializable {
 
     private static final long serialVersionUID = 3987239217089450803L;
 
@@ -177,6 +178,17 @@ public class StoredDocument implements Mergeable, Serializable {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Stored documents are similar if their documents have the same OID.
+     */
+    @Override
+    public Object getMergeKey() {
+        return (document == null) ? null : document.getMergeKey();
+    }
+
+
     @Override
     public void merge(Mergeable other) {
         if (other instanceof StoredDocument) {
@@ -18,33 +18,76 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.message;
 
+import de.unidue.inf.is.ezdl.dlbackend.coding.BinaryCodingStrategy;
 import de.unidue.inf.is.ezdl.dlbackend.coding.BytesCoder;
 import de.unidue.inf.is.ezdl.dlbackend.coding.JBossSerializationStrategy;
 
 
 
+/**
+ * Encodes messages to bytes, e.g. for JMS.
+ * <p>
+ * By default, messages are encoded using JBoss serialization. After
+ * {@link #setBinary(boolean)} is called with true, the
+ * {@link BinaryCodingStrategy} is used instead. Decoding detects the encoding
+ * automatically, so agents that use different settings can still talk to each
+ * other.
+ */
 public final class MessageBytesCoder {
 
     private static MessageBytesCoder instance;
 
     private BytesCoder coder;
 
+    private BytesCoder binaryCoder;
+
+    private volatile boolean binary;
+
 
     private MessageBytesCoder() {
         coder = new BytesCoder(new JBossSerializationStrategy());
+        binaryCoder = new BytesCoder(new BinaryCodingStrategy());
     }
 
 
     public byte[] encode(Message message) {
+        if (binary) {
+            return binaryCoder.encode(message);
+        }
         return coder.encode(message);
     }
 
 
     public Message decode(byte[] data) {
+        if (BinaryCodingStrategy.isBinary(data)) {
+            return (Message) binaryCoder.decode(data);
+        }
         return (Message) coder.decode(data);
     }
 
 
+    /**
+     * Selects the encoding of outgoing messages.
+     * 
+     * @param binary
+     *            true to use the {@link BinaryCodingStrategy}, false to use
+     *            JBoss serialization
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+
+    /**
+     * Returns if outgoing messages use the {@link BinaryCodingStrategy}.
+     * 
+     * @return true, if the binary encoding is used
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+
     public synchronized static MessageBytesCoder getInstance() {
         if (instance == null) {
             instance = new MessageBytesCoder();
@@ -20,33 +20,93 @@ package de.unidue.inf.is.ezdl.dlbackend.message;
 
 import java.io.IOException;
 
+import org.apache.commons.codec.binary.Base64;
+
+import de.unidue.inf.is.ezdl.dlbackend.coding.BinaryCodingStrategy;
+import de.unidue.inf.is.ezdl.dlbackend.coding.BytesCoder;
 import de.unidue.inf.is.ezdl.dlcore.coding.StringCoder;
 import de.unidue.inf.is.ezdl.dlcore.coding.XMLStrategy;
 
 
 
+/**
+ * Encodes messages to strings, e.g. for the HTTP and Corba connectors.
+ * <p>
+ * By default, messages are encoded as XML. After {@link #setBinary(boolean)}
+ * is called with true, the {@link BinaryCodingStrategy} is used instead and
+ * the result is Base64 encoded behind {@link #BINARY_PREFIX}. Decoding detects
+ * the encoding automatically. Note that the binary encoding only works if the
+ * MTA passes messages on without parsing them.
+ */
 public final class MessageStringCoder {
 
+    /**
+     * Prefix of messages in the binary encoding. XML never starts like this.
+     */
+    public static final String BINARY_PREFIX = "ezb:";
+
     private static MessageStringCoder instance;
 
     private StringCoder coder;
 
+    private BytesCoder binaryCoder;
+
+    private volatile boolean binary;
+
 
     public MessageStringCoder() {
         coder = new StringCoder(new XMLStrategy());
+        binaryCoder = new BytesCoder(new BinaryCodingStrategy());
     }
 
 
     public String encode(Message message) throws IOException {
+        if (binary) {
+            byte[] bytes = binaryCoder.encode(message);
+            if (bytes == null) {
+                throw new IOException("Could not encode " + message.shortForm());
+            }
+            return BINARY_PREFIX + Base64.encodeBase64String(bytes).replaceAll("\\s", "");
+        }
         return coder.encode(message);
     }
 
 
     public Message decode(String msgStr) throws IOException {
+        if (msgStr.startsWith(BINARY_PREFIX)) {
+            Message message = (Message) binaryCoder.decode(Base64.decodeBase64(msgStr.substring(BINARY_PREFIX
+                            .length())));
+            if (message == null) {
+                throw new IOException("Could not decode binary message");
+            }
+            return message;
+        }
         return (Message) coder.decode(msgStr);
     }
 
 
+    /**
+     * Selects the encoding of outgoing messages.
+     * 
+     * @param binary
+     *            true to use the {@link BinaryCodingStrategy}, false to use
+     *            XML
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+
+    /**
+     * Returns if outgoing messages use the {@link BinaryCodingStrategy}.
+     * 
+     * @return true, if the binary encoding is used
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+
     public synchronized static MessageStringCoder getInstance() {
         if (instance == null) {
             instance = new MessageStringCoder();
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.message.content;
+
+/**
+ * The DirectoryChangedNotify message content tells an agent that the set of
+ * agents registered at the directory changed.
+ * <p>
+ * The directory counts changes with a generation number that grows with every
+ * registration and deregistration. Agents that cache what the directory told
+ * them drop their cache when they learn about a newer generation.
+ */
+public class DirectoryChangedNotify implements SharedSecretMessageContent {
+
+    private static final long serialVersionUID = -2748911355309468402L;
+
+    /**
+     * The generation of an agent that has not been notified yet.
+     */
+    public static final long UNKNOWN_GENERATION = -1;
+
+    /**
+     * The generation of the directory's registry after the change.
+     */
+    private long generation;
+    /**
+     * The shared secret of the agent that is notified.
+     */
+    private String sharedSecret;
+
+
+    /**
+     * Creates a new notification.
+     * 
+     * @param generation
+     *            the generation of the directory's registry after the change
+     * @param sharedSecret
+     *            the shared secret of the agent that is notified
+     */
+    public DirectoryChangedNotify(long generation, String sharedSecret) {
+        if (sharedSecret == null) {
+            throw new IllegalArgumentException("Shared secret must not be null");
+        }
+        this.generation = generation;
+        this.sharedSecret = sharedSecret;
+    }
+
+
+    /**
+     * Returns the generation of the directory's registry after the change.
+     * 
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+
+    @Override
+    public String getSharedSecret() {
+        return sharedSecret;
+    }
+
+
+    @Override
+    public String toString() {
+        return "{DirectoryChangedNotify " + generation + "}";
+    }
+
+}
@@ -107,6 +107,11 @@ public class DefaultSecurityManager implements SecurityManager {
     }
 
 
+    /**
+     * Maximum number of privileges and session ids whose state is cached.
+     */
+    private static final int PRIVILEGES_CACHE_MAX_SIZE = 10000;
+
     private Logger logger = Logger.getLogger(DefaultSecurityManager.class);
 
     /**
@@ -130,7 +135,8 @@ public class DefaultSecurityManager implements SecurityManager {
      *            the agent that uses this security manager
      */
     public DefaultSecurityManager(Agent agent) {
-        this.privilegesCache = new TimedCache(new ConcurrentMapCache(), 10, TimeUnit.MINUTES);
+        this.privilegesCache = new TimedCache(new ConcurrentMapCache(), 10, TimeUnit.MINUTES,
+                        PRIVILEGES_CACHE_MAX_SIZE);
         this.agent = agent;
         this.running = true;
     }
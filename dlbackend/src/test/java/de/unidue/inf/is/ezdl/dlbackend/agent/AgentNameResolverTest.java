@@ -0,0 +1,155 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentRecord;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAllTell;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAsk;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameTell;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockSecurityManager;
+import de.unidue.inf.is.ezdl.dlcore.misc.EzDLException;
+import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
+
+
+
+public class AgentNameResolverTest extends AbstractBackendTestBase {
+
+    /**
+     * Answers questions to the directory without sending anything.
+     */
+    private class DirectoryAskingAgent extends AbstractAgent {
+
+        private final AtomicInteger asks = new AtomicInteger();
+        /**
+         * A generation the directory changes to while answering, or
+         * {@link DirectoryChangedNotify#UNKNOWN_GENERATION}.
+         */
+        private long changeWhileAsking = DirectoryChangedNotify.UNKNOWN_GENERATION;
+
+
+        @Override
+        public String getServiceName() {
+            return "/agent/resolvertest";
+        }
+
+
+        @Override
+        public void initOnline() {
+        }
+
+
+        @Override
+        public Message ask(Message message) throws TimeoutException {
+            asks.incrementAndGet();
+            if (changeWhileAsking != DirectoryChangedNotify.UNKNOWN_GENERATION) {
+                resolver.directoryChanged(changeWhileAsking);
+            }
+            if (message.getContent() instanceof AgentNameAsk) {
+                return message.tell(new AgentNameTell(new AgentRecord("/service/a", "A")));
+            }
+            return message.tell(new AgentNameAllTell(new ArrayList<AgentRecord>(Arrays.asList(new AgentRecord(
+                            "/wrapper/a", "A"), new AgentRecord("/wrapper/b", "B")))));
+        }
+    }
+
+
+    private DirectoryAskingAgent agent;
+    private AgentNameResolver resolver;
+
+
+    @Before
+    public void setUp() {
+        agent = new DirectoryAskingAgent();
+        agent.init("resolvertest", new MockSecurityManager(), new Properties());
+        resolver = new AgentNameResolver(agent);
+    }
+
+
+    @After
+    public void tearDown() {
+        agent.halt();
+    }
+
+
+    @Test
+    public void testNotCachedWithoutNotification() throws EzDLException {
+        Assert.assertEquals(2, resolver.findAllAgents("/wrapper").size());
+        Assert.assertEquals(2, resolver.findAllAgents("/wrapper").size());
+        Assert.assertEquals(2, agent.asks.get());
+        Assert.assertEquals(DirectoryChangedNotify.UNKNOWN_GENERATION, resolver.getGeneration());
+    }
+
+
+    @Test
+    public void testCachedUntilChanged() throws EzDLException {
+        resolver.directoryChanged(5);
+        Map<String, String> agents = resolver.findAllAgents("/wrapper");
+        agents.clear();
+        Assert.assertEquals("B", resolver.findAllAgents("/wrapper").get("/wrapper/b"));
+        Assert.assertEquals(1, agent.asks.get());
+
+        resolver.directoryChanged(4);
+        resolver.findAllAgents("/wrapper");
+        Assert.assertEquals("older generation ignored", 1, agent.asks.get());
+
+        resolver.directoryChanged(6);
+        resolver.findAllAgents("/wrapper");
+        Assert.assertEquals(2, agent.asks.get());
+        Assert.assertEquals(6, resolver.getGeneration());
+    }
+
+
+    @Test
+    public void testChangeWhileAsking() throws EzDLException {
+        resolver.directoryChanged(5);
+        agent.changeWhileAsking = 6;
+        resolver.findAllAgents("/wrapper");
+        agent.changeWhileAsking = DirectoryChangedNotify.UNKNOWN_GENERATION;
+        resolver.findAllAgents("/wrapper");
+        Assert.assertEquals("answer from before the change is not cached", 2, agent.asks.get());
+        resolver.findAllAgents("/wrapper");
+        Assert.assertEquals(2, agent.asks.get());
+    }
+
+
+    @Test
+    public void testFindAgentInvalidated() throws EzDLException {
+        Assert.assertEquals("A", resolver.findAgent("/service/a"));
+        Assert.assertEquals("A", resolver.findAgent("/service/a"));
+        Assert.assertEquals(1, agent.asks.get());
+
+        resolver.directoryChanged(1);
+        Assert.assertEquals("A", resolver.findAgent("/service/a"));
+        Assert.assertEquals(2, agent.asks.get());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlcore.message.content.AliveTell;
+import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
+
+
+
+public class MessageWaiterTest extends AbstractBackendTestBase {
+
+    private static Message answer(String requestId) {
+        return new Message("from", "to", new AliveTell(), requestId);
+    }
+
+
+    @Test
+    public void testAnswerBeforeWait() throws TimeoutException {
+        MessageWaiter waiter = new MessageWaiter(1000);
+        MessageReply reply = waiter.expect("r1");
+        Message message = answer("r1");
+
+        Assert.assertTrue(waiter.messageArrived(message));
+        Assert.assertTrue(reply.isDone());
+        Assert.assertSame(message, reply.getAnswer());
+        Assert.assertEquals(0, waiter.getPendingCount());
+    }
+
+
+    @Test
+    public void testAnswerWhileWaiting() throws TimeoutException {
+        final MessageWaiter waiter = new MessageWaiter(5000);
+        final Message message = answer("r2");
+        waiter.expect("r2");
+        new Thread() {
+
+            @Override
+            public void run() {
+                MessageWaiterTest.this.sleep(200);
+                waiter.messageArrived(message);
+            }
+        }.start();
+
+        Assert.assertSame(message, waiter.waitForRequestId("r2"));
+    }
+
+
+    @Test
+    public void testUnexpectedMessage() {
+        MessageWaiter waiter = new MessageWaiter(1000);
+        waiter.expect("r3");
+        Assert.assertFalse(waiter.messageArrived(answer("other")));
+        Assert.assertEquals(1, waiter.getPendingCount());
+    }
+
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        MessageWaiter waiter = new MessageWaiter(100);
+        final AtomicInteger called = new AtomicInteger();
+        MessageReply reply = waiter.expect("r4");
+        reply.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                called.incrementAndGet();
+            }
+        });
+
+        try {
+            reply.getAnswer();
+            Assert.fail("no timeout");
+        }
+        catch (TimeoutException e) {
+            // expected
+        }
+        try {
+            reply.get();
+            Assert.fail("no timeout");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(reply.isTimedOut());
+        Assert.assertEquals(1, called.get());
+        Assert.assertEquals(0, waiter.getPendingCount());
+        Assert.assertFalse("late answer", waiter.messageArrived(answer("r4")));
+    }
+
+
+    @Test
+    public void testListenerAfterCompletion() {
+        MessageWaiter waiter = new MessageWaiter(1000);
+        MessageReply reply = waiter.expect("r5");
+        waiter.messageArrived(answer("r5"));
+        final AtomicInteger called = new AtomicInteger();
+        reply.addListener(new Runnable() {
+
+            @Override
+            public void run() {
+                called.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, called.get());
+    }
+}
@@ -18,6 +18,11 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.agent;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -102,4 +107,134 @@ public class SendQueueTest extends AbstractBackendTestBase {
         Assert.assertTrue("queue halted", queue.isHalted());
     }
 
+
+    @Test
+    public void testSendBurstIsDeliveredInOrder() {
+        connector.clearMessagesSent();
+        final SendQueue queue = new SendQueue(connector);
+        final int burst = 500;
+        for (int i = 0; i < burst; i++) {
+            queue.send(new Message("from", "to", new LogAsk(), "reqid" + i));
+        }
+        queue.halt();
+
+        List<Message> sent = connector.getMessagesSent();
+        Assert.assertEquals(burst, sent.size());
+        for (int i = 0; i < burst; i++) {
+            Assert.assertEquals("reqid" + i, sent.get(i).getRequestId());
+        }
+        Assert.assertEquals(burst, queue.getSendLatency().getCount());
+    }
+
+
+    @Test
+    public void testSlowDestinationDoesNotBlockOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Message> sent = Collections.synchronizedList(new ArrayList<Message>());
+        SendQueue queue = new SendQueue(new MockAgentConnector(orb, agent) {
+
+            @Override
+            public void send(Message message) {
+                if ("slow".equals(message.getTo())) {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                sent.add(message);
+            }
+        });
+        queue.send(new Message("from", "slow", new LogAsk(), "slow0"));
+        for (int i = 0; i < 10; i++) {
+            queue.send(new Message("from", "fast", new LogAsk(), "fast" + i));
+        }
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return sent.size() == 10;
+            }
+        }.assertGetsOkay("Fast destination served");
+
+        release.countDown();
+        queue.halt();
+        Assert.assertEquals(11, sent.size());
+        Assert.assertEquals("slow0", sent.get(10).getRequestId());
+    }
+
+
+    @Test
+    public void testSendRacingHalt() throws Exception {
+        connector.clearMessagesSent();
+        final SendQueue queue = new SendQueue(connector);
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> senders = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final String to = "to" + t;
+            Thread sender = new Thread() {
+
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 200; i++) {
+                        queue.send(new Message("from", to, new LogAsk(), "reqid" + i));
+                    }
+                }
+            };
+            senders.add(sender);
+            sender.start();
+        }
+        started.await();
+        queue.halt();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        Assert.assertTrue("queue empty", queue.isEmpty());
+        final int sent = connector.getMessagesSent().size();
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return connector.getMessagesSent().size() == sent;
+            }
+        }.assertStaysOkay("Nothing sent after halt");
+    }
+
+
+    @Test
+    public void testDestinationsDiscardedWhenEmpty() {
+        connector.clearMessagesSent();
+        final SendQueue queue = new SendQueue(connector);
+        for (int i = 0; i < 20; i++) {
+            queue.send(new Message("from", "to" + i, new LogAsk(), "reqid" + i));
+        }
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return connector.getMessagesSent().size() == 20 && queue.destinations() == 0;
+            }
+        }.assertGetsOkay("Destinations discarded");
+        queue.halt();
+    }
+
+
+    @Test
+    public void testHaltFlushesQueue() {
+        connector.clearMessagesSent();
+        SendQueue queue = new SendQueue(connector);
+        for (int i = 0; i < 100; i++) {
+            queue.send(new Message("from", "to", new LogAsk(), "reqid" + i));
+        }
+        queue.halt();
+
+        Assert.assertEquals(100, connector.getMessagesSent().size());
+        Assert.assertTrue("queue empty", queue.isEmpty());
+    }
+
 }
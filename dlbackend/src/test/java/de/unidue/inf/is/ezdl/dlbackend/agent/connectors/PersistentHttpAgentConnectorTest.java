@@ -0,0 +1,326 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.connectors;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.MessageStringCoder;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.LogAsk;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
+public class PersistentHttpAgentConnectorTest extends AbstractBackendTestBase {
+
+    private ServerSocket serverSocket;
+    private Socket mtaSide;
+    private DataInputStream mtaIn;
+    private DataOutputStream mtaOut;
+    private PersistentHttpAgentConnector connector;
+    private List<Message> received = new CopyOnWriteArrayList<Message>();
+
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0);
+        MockAgent agent = new MockAgent("agent") {
+
+            @Override
+            public Message receive(Message message) {
+                received.add(message);
+                return message;
+            }
+        };
+        connector = new PersistentHttpAgentConnector(agent, "localhost", serverSocket.getLocalPort(), 5);
+
+        Thread mta = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    acceptAndHandshake();
+                }
+                catch (IOException e) {
+                    getLogger().error("Handshake failed", e);
+                }
+            }
+        };
+        mta.start();
+        connector.goOnline();
+        mta.join();
+    }
+
+
+    @After
+    public void teardown() {
+        connector.goOffline();
+        ClosingUtils.close(mtaIn, mtaOut);
+        ClosingUtils.close(mtaSide);
+        ClosingUtils.close(serverSocket);
+    }
+
+
+    private void acceptAndHandshake() throws IOException {
+        mtaSide = serverSocket.accept();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(mtaSide.getInputStream(), "UTF-8"), 1);
+        boolean framingRequested = false;
+        String line;
+        while (((line = reader.readLine()) != null) && !line.isEmpty()) {
+            framingRequested |= line.equals(PersistentHttpAgentConnector.FRAMING_LINE);
+        }
+        Assert.assertTrue("framing requested", framingRequested);
+
+        mtaIn = new DataInputStream(mtaSide.getInputStream());
+        mtaOut = new DataOutputStream(mtaSide.getOutputStream());
+        mtaOut.write(("HTTP/1.1 200 OK\r\n" + PersistentHttpAgentConnector.FRAMING_LINE + "\r\n\r\n")
+                        .getBytes("UTF-8"));
+        writeFrame("connection: conn1");
+    }
+
+
+    private void writeFrame(String payload) throws IOException {
+        ByteBuffer frame = PersistentHttpAgentConnector.frame(payload);
+        mtaOut.write(frame.array(), 0, frame.limit());
+        mtaOut.flush();
+    }
+
+
+    private String readFrame() throws IOException {
+        int length = mtaIn.readInt();
+        byte[] payload = new byte[length];
+        mtaIn.readFully(payload);
+        return new String(payload, "UTF-8");
+    }
+
+
+    @Test
+    public void testOnline() {
+        Assert.assertTrue("online", connector.isOnline());
+    }
+
+
+    @Test
+    public void testFramingAccepted() {
+        Assert.assertTrue(PersistentHttpAgentConnector
+                        .isFramingAccepted("HTTP/1.1 200 OK\r\nx-ezdl-framing: LENGTH\r\n\r\n"));
+        Assert.assertFalse(PersistentHttpAgentConnector
+                        .isFramingAccepted("HTTP/1.1 200 OK\r\nServer: EzDLServer/1.0\r\n\r\n"));
+    }
+
+
+    /**
+     * Runs the connector against an MTA that only speaks the line-based
+     * protocol of {@link HttpAgentConnector}.
+     */
+    @Test
+    public void testMTAWithoutFraming() throws Exception {
+        final ServerSocket lineServer = new ServerSocket(0);
+        final List<Message> lineReceived = new CopyOnWriteArrayList<Message>();
+        final List<String> posted = new CopyOnWriteArrayList<String>();
+        PersistentHttpAgentConnector lineConnector = new PersistentHttpAgentConnector(new MockAgent("agent2") {
+
+            @Override
+            public Message receive(Message message) {
+                lineReceived.add(message);
+                return message;
+            }
+        }, "localhost", lineServer.getLocalPort(), 5);
+        final Message incoming = new Message("from", "agent2", new LogAsk(), "in");
+
+        Thread mta = new Thread() {
+
+            @Override
+            public void run() {
+                Socket connect = null;
+                try {
+                    connect = lineServer.accept();
+                    Assert.assertEquals("GET /connect HTTP/1.1", readHeader(connect));
+                    connect.getOutputStream().write(
+                                    ("HTTP/1.1 200 OK\r\n\r\nconnection: conn2\r\nmessage: "
+                                                    + MessageStringCoder.getInstance().encode(incoming)
+                                                    + "\r\n\r\nping: now\r\n").getBytes("UTF-8"));
+                    while (posted.size() < 2) {
+                        Socket post = lineServer.accept();
+                        Assert.assertEquals("POST /message HTTP/1.1", readHeader(post));
+                        posted.add(readBody(post));
+                        post.close();
+                    }
+                }
+                catch (Exception e) {
+                    getLogger().error("MTA failed", e);
+                }
+                finally {
+                    ClosingUtils.close(connect);
+                }
+            }
+        };
+        mta.start();
+        try {
+            lineConnector.goOnline();
+            Assert.assertTrue("online", lineConnector.isOnline());
+            new AssertWaiter() {
+
+                @Override
+                protected boolean isConditionMet() {
+                    return (lineReceived.size() == 1) && (posted.size() == 1);
+                }
+            }.assertGetsOkay("message received and ping answered");
+            Assert.assertEquals("message", incoming, lineReceived.get(0));
+            Assert.assertEquals("pong", posted.get(0));
+
+            lineConnector.send(new Message("agent2", "to", new LogAsk(), "out"));
+            mta.join(5000);
+            Message sent = MessageStringCoder.getInstance().decode(posted.get(1));
+            Assert.assertEquals("from set by connection", "conn2", sent.getFrom());
+            Assert.assertEquals("out", sent.getRequestId());
+        }
+        finally {
+            lineConnector.goOffline();
+            mta.join();
+            ClosingUtils.close(lineServer);
+        }
+    }
+
+
+    /**
+     * Reads an HTTP request header byte by byte, so nothing after it is
+     * consumed.
+     * 
+     * @return the request line
+     */
+    private static String readHeader(Socket socket) throws IOException {
+        String requestLine = readLine(socket);
+        while (readLine(socket).length() != 0) {
+            // skip header fields
+        }
+        return requestLine;
+    }
+
+
+    /**
+     * Reads the body of a <code>POST /message</code> request, which is
+     * terminated by an empty line.
+     */
+    private static String readBody(Socket socket) throws IOException {
+        StringBuilder body = new StringBuilder();
+        String line;
+        while ((line = readLine(socket)).length() != 0) {
+            if (body.length() != 0) {
+                body.append("\r\n");
+            }
+            body.append(line);
+        }
+        return body.toString();
+    }
+
+
+    private static String readLine(Socket socket) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = socket.getInputStream().read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+
+
+    @Test
+    public void testReceive() throws IOException {
+        Message message = new Message("from", "agent", new LogAsk(), "reqid");
+        writeFrame("message: " + MessageStringCoder.getInstance().encode(message));
+        writeFrame("message: " + MessageStringCoder.getInstance().encode(message));
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return received.size() == 2;
+            }
+        }.assertGetsOkay("messages received");
+        Assert.assertEquals("message", message, received.get(0));
+    }
+
+
+    @Test
+    public void testSendOverSameConnection() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            connector.send(new Message("agent", "to", new LogAsk(), "reqid" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            String frame = readFrame();
+            Assert.assertTrue("message frame", frame.startsWith("message: "));
+            Message sent = MessageStringCoder.getInstance().decode(frame.substring(9));
+            Assert.assertEquals("from set by connection", "conn1", sent.getFrom());
+            Assert.assertEquals("order kept", "reqid" + i, sent.getRequestId());
+        }
+    }
+
+
+    @Test
+    public void testPingPong() throws IOException {
+        writeFrame("ping: now");
+        Assert.assertEquals("pong", "pong", readFrame());
+    }
+
+
+    @Test
+    public void testLargeFrame() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            large.append(i);
+        }
+        Message message = new Message("from", large.toString(), new LogAsk(), "reqid");
+        writeFrame("message: " + MessageStringCoder.getInstance().encode(message));
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return received.size() == 1;
+            }
+        }.assertGetsOkay("message received");
+        Assert.assertEquals("message", message, received.get(0));
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.agent.requesthandling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.AbstractRequestHandler;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.LogAsk;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
+
+
+
+public class HandlerPoolTest extends AbstractBackendTestBase {
+
+    private MockAgent agent = new MockAgent();
+
+    private CountDownLatch release = new CountDownLatch(1);
+
+    private AtomicInteger running = new AtomicInteger();
+
+    private AtomicInteger maxRunning = new AtomicInteger();
+
+    private AtomicInteger processed = new AtomicInteger();
+
+    private HandlerPool pool;
+
+
+    /**
+     * Blocks in work() until the test releases it.
+     */
+    private class BlockingHandler extends AbstractRequestHandler {
+
+        private List<String> seen = new ArrayList<String>();
+
+
+        @Override
+        protected boolean work(Message message) {
+            int now = running.incrementAndGet();
+            int max = maxRunning.get();
+            while ((now > max) && !maxRunning.compareAndSet(max, now)) {
+                max = maxRunning.get();
+            }
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+            }
+            seen.add(message.getRequestId());
+            running.decrementAndGet();
+            processed.incrementAndGet();
+            return true;
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testBoundedConcurrency() {
+        pool = new HandlerPool("BlockingHandler", 2, 1);
+
+        for (int i = 0; (i < 3); i++) {
+            newHandler("req" + i).addMessageToQueue(message("req" + i));
+        }
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return running.get() == 2;
+            }
+        }.assertGetsOkay("two handlers run");
+        Assert.assertEquals("one handler waits", 1, pool.getQueued());
+
+        BlockingHandler rejected = newHandler("req3");
+        try {
+            rejected.addMessageToQueue(message("req3"));
+            Assert.fail("Handler should be rejected");
+        }
+        catch (RejectedExecutionException e) {
+            Assert.assertEquals(1, pool.getRejected());
+        }
+
+        release.countDown();
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return processed.get() == 3;
+            }
+        }.assertGetsOkay("admitted messages processed");
+        Assert.assertEquals("never more than two at once", 2, maxRunning.get());
+        Assert.assertTrue("rejected message dropped", rejected.seen.isEmpty());
+        Assert.assertEquals(3, pool.getQueueTime().getCount());
+        Assert.assertEquals(3, pool.getRunTime().getCount());
+    }
+
+
+    @Test
+    public void testLaterMessageWaitsForBusyRuntime() {
+        pool = new HandlerPool("BlockingHandler", 1, 1);
+
+        final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+        AbstractRequestHandler handler = new AbstractRequestHandler() {
+
+            @Override
+            protected boolean work(Message message) {
+                seen.add(message.getRequestId());
+                return true;
+            }
+        };
+        handler.init("req", agent);
+        handler.setRuntime(pool);
+        handler.addMessageToQueue(message("req0"));
+
+        newHandler("busy").addMessageToQueue(message("busy"));
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return running.get() == 1;
+            }
+        }.assertGetsOkay("pool busy");
+        newHandler("queued").addMessageToQueue(message("queued"));
+
+        handler.addMessageToQueue(message("req1"));
+        Assert.assertTrue(pool.getRejected() > 0);
+
+        release.countDown();
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return seen.size() == 2;
+            }
+        }.assertGetsOkay("later message processed");
+        Assert.assertEquals("[req0, req1]", seen.toString());
+        Assert.assertFalse(handler.isHalted());
+    }
+
+
+    @Test
+    public void testMessagesOfOneHandlerInOrder() {
+        pool = new HandlerPool("BlockingHandler", 4, 16);
+        release.countDown();
+
+        final BlockingHandler handler = newHandler("req");
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; (i < 100); i++) {
+            expected.add("req" + i);
+            handler.addMessageToQueue(message("req" + i));
+        }
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return processed.get() == 100;
+            }
+        }.assertGetsOkay("all messages processed");
+        Assert.assertEquals("one message at a time", 1, maxRunning.get());
+        Assert.assertEquals(expected, handler.seen);
+    }
+
+
+    @Test
+    public void testHaltedHandlerDropsMessages() {
+        pool = new HandlerPool("BlockingHandler", 1, 16);
+
+        newHandler("busy").addMessageToQueue(message("busy"));
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return running.get() == 1;
+            }
+        }.assertGetsOkay("pool busy");
+
+        BlockingHandler handler = newHandler("req");
+        handler.addMessageToQueue(message("req0"));
+        handler.addMessageToQueue(message("req1"));
+        handler.halt();
+        release.countDown();
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return processed.get() <= 1;
+            }
+        }.assertStaysOkay("queued messages dropped", 500, 20);
+        Assert.assertTrue(handler.seen.isEmpty());
+    }
+
+
+    private BlockingHandler newHandler(String requestId) {
+        BlockingHandler handler = new BlockingHandler();
+        handler.init(requestId, agent);
+        handler.setRuntime(pool);
+        return handler;
+    }
+
+
+    private static Message message(String requestId) {
+        return new Message("from", "to", new LogAsk(), requestId);
+    }
+
+}
@@ -21,8 +21,10 @@ package de.unidue.inf.is.ezdl.dlbackend.agent.timer;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.log4j.Logger;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -59,12 +61,6 @@ public class TimerTest extends AbstractBackendTestBase {
             // System.out.println("getNow(): " + timestamp);
             return timestamp;
         }
-
-
-        @Override
-        void waitTimer(long timeLeftToWait) throws InterruptedException {
-            wait(1);
-        }
     }
 
 
@@ -218,6 +214,82 @@ public class TimerTest extends AbstractBackendTestBase {
     }
 
 
+    /**
+     * A killed timer doesn't deliver anything.
+     */
+    @Test
+    public void timerTestKilled() {
+        Timer timer = new Timer();
+        timer.init(200, timeable, "msg1");
+        timer.startTimer();
+        timer.killTimer();
+
+        Assert.assertFalse(timer.isWaiting());
+        new StringsReceivedWaiter("[]").assertStaysOkay("1", 1000, 50);
+    }
+
+
+    /**
+     * Many timers share the threads of the {@link TimerService}.
+     */
+    @Test
+    public void timerTestMany() {
+        final int count = 1000;
+        final int threadsBefore = Thread.activeCount();
+        for (int i = 0; i < count; i++) {
+            Timer timer = new Timer();
+            timer.init(300, timeable, "msg" + i);
+            timer.startTimer();
+        }
+        Assert.assertTrue("threads started", Thread.activeCount() - threadsBefore < 10);
+
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return timeable.getStringsReceived().size() == count;
+            }
+        }.assertGetsOkay("all delivered", 5000, 50);
+    }
+
+
+    /**
+     * A Timeable that takes long to wake up does not delay other timers.
+     */
+    @Test
+    public void timerTestSlowTimeable() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        Timeable slow = new TestTimeable() {
+
+            @Override
+            public void wakeup(String message) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            Timer timer = new Timer();
+            timer.init(10, slow, "slow" + i);
+            timer.startTimer();
+        }
+        Thread.sleep(100);
+
+        Timer timer = new Timer();
+        timer.init(10, timeable, "msg1");
+        timer.startTimer();
+        try {
+            new StringsReceivedWaiter("[msg1]").assertGetsOkay("1", 2000, 50);
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+
     class StringsReceivedWaiter extends AssertWaiter {
 
         private String expected;
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbackend.coding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.BackendDocumentFactory;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DocumentQueryStoredTell;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.DocumentFactory;
+import de.unidue.inf.is.ezdl.dlcore.coding.XMLStrategy;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.message.content.DocumentQueryResultTell;
+import de.unidue.inf.is.ezdl.dlcore.message.content.LoginAsk;
+import de.unidue.inf.is.ezdl.dlcore.message.content.MessageContent;
+import de.unidue.inf.is.ezdl.dlcore.message.content.UserLogNotify;
+
+
+
+public class BinaryCodingStrategyTest extends AbstractBackendTestBase {
+
+    private BinaryCodingStrategy strategy = new BinaryCodingStrategy();
+
+
+    @Test
+    public void testSimpleMessage() {
+        Message message = new Message("from", "to", new LoginAsk("a", "b"), "reqid");
+        message.setRequestInternalId("internal");
+
+        byte[] bytes = strategy.encode(message);
+        Assert.assertTrue(BinaryCodingStrategy.isBinary(bytes));
+
+        Message decoded = (Message) strategy.decode(bytes);
+        Assert.assertEquals(message, decoded);
+        Assert.assertEquals("internal", decoded.getRequestInternalId());
+    }
+
+
+    @Test
+    public void testResultList() throws Exception {
+        Message message = new Message("search", "client", new DocumentQueryResultTell(resultList(500), 1000, true),
+                        "reqid");
+
+        byte[] bytes = strategy.encode(message);
+        Message decoded = (Message) strategy.decode(bytes);
+        Assert.assertEquals(message, decoded);
+
+        DocumentQueryResultTell tell = (DocumentQueryResultTell) decoded.getContent();
+        Assert.assertEquals(500, tell.getResults().size());
+        Assert.assertEquals(1000, tell.getTotalDocCount());
+        Assert.assertTrue(tell.isDelta());
+        ResultDocument first = tell.getResults().get(0);
+        Assert.assertEquals(0.5, first.getRsv(), 0.0001);
+        Assert.assertTrue(first.getSources().contains("source1"));
+
+        int xmlSize = new XMLStrategy().encode(message).getBytes("UTF-8").length;
+        Assert.assertTrue(bytes.length + " vs. " + xmlSize, bytes.length * 4 < xmlSize);
+    }
+
+
+    @Test
+    public void testStoredList() {
+        StoredDocumentList list = new StoredDocumentList();
+        for (int i = 0; i < 20; i++) {
+            StoredDocument stored = BackendDocumentFactory.createStoredDocument("Abstract " + i, "Title " + i,
+                            1990 + i, "Jörg Müller", "Ann Author" + i);
+            stored.addSource(new SourceInfo(new SourceID("dblp", "api"), "details" + i, new Date(i * 1000L)));
+            stored.addMiss(new SourceInfo(new SourceID("acm", "web"), null));
+            list.add(stored);
+        }
+        MessageContent content = new DocumentQueryStoredTell(list, 20);
+        Message message = new Message("search", "wrapper", content, "reqid");
+
+        Message decoded = (Message) strategy.decode(strategy.encode(message));
+        Assert.assertEquals(message, decoded);
+        Assert.assertEquals(StoredDocumentList.class, ((DocumentQueryStoredTell) decoded.getContent()).getResults()
+                        .getClass());
+    }
+
+
+    @Test
+    public void testUserLog() {
+        UserLogNotify notify = new UserLogNotify("session", "event");
+        notify.addParameter("name", "value");
+        notify.addParameter("name", 2);
+
+        UserLogNotify decoded = (UserLogNotify) strategy.decode(strategy.encode(notify));
+        Assert.assertEquals(notify.getParameters(), decoded.getParameters());
+    }
+
+
+    @Test
+    public void testPlainValues() {
+        List<Object> values = new ArrayList<Object>();
+        values.add("äöü € \u0000 text");
+        values.add(Integer.valueOf(-5));
+        values.add(Long.valueOf(Long.MIN_VALUE));
+        values.add(Double.valueOf(Math.PI));
+        values.add(Boolean.TRUE);
+        values.add(null);
+        values.add(new Date(123456789L));
+        values.add(new int[] {
+                        1, 2, 3
+        });
+
+        @SuppressWarnings("unchecked")
+        List<Object> decoded = (List<Object>) strategy.decode(strategy.encode(values));
+        Assert.assertEquals(values.subList(0, 7), decoded.subList(0, 7));
+        Assert.assertArrayEquals((int[]) values.get(7), (int[]) decoded.get(7));
+    }
+
+
+    @Test
+    public void testCycles() {
+        List<Object> cycle = new ArrayList<Object>();
+        cycle.add("item");
+        cycle.add(cycle);
+
+        byte[] bytes = strategy.encode(cycle);
+        Assert.assertTrue(BinaryCodingStrategy.isBinary(bytes));
+        List<?> decoded = (List<?>) strategy.decode(bytes);
+        Assert.assertEquals("item", decoded.get(0));
+        Assert.assertSame(decoded, decoded.get(1));
+    }
+
+
+    @Test
+    public void testSharedReferences() {
+        ResultDocumentList results = resultList(2);
+        List<Object> values = new ArrayList<Object>();
+        values.add(results);
+        values.add(results.get(1));
+        values.add(new int[] {
+                        1
+        });
+        values.add(values.get(2));
+
+        List<?> decoded = (List<?>) strategy.decode(strategy.encode(values));
+        Assert.assertEquals(results, decoded.get(0));
+        Assert.assertSame(((ResultDocumentList) decoded.get(0)).get(1), decoded.get(1));
+        Assert.assertSame(decoded.get(2), decoded.get(3));
+    }
+
+
+    @Test
+    public void testClassesNotAllowed() throws Exception {
+        BinaryOutput out = new BinaryOutput();
+        out.writeBytes(new byte[] {
+                        'E', 'Z', 'B', '1', 17, 0
+        });
+        out.writeString(File.class.getName());
+        out.writeVarInt(0);
+        Assert.assertNull(strategy.decode(out.toByteArray()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(new File("file"));
+        oos.close();
+        out.reset();
+        out.writeBytes(new byte[] {
+                        'E', 'Z', 'B', '1', 18
+        });
+        out.writeVarInt(bytes.size());
+        out.writeBytes(bytes.toByteArray());
+        Assert.assertNull(strategy.decode(out.toByteArray()));
+
+        Assert.assertTrue(BinaryCodingStrategy.isAllowed("[[Ljava.lang.String;"));
+        Assert.assertTrue(BinaryCodingStrategy.isAllowed("[I"));
+        Assert.assertFalse(BinaryCodingStrategy.isAllowed("[Ljava.io.File;"));
+        Assert.assertFalse(BinaryCodingStrategy.isAllowed("java.lang.reflect.Proxy"));
+    }
+
+
+    @Test
+    public void testDecodeGarbage() {
+        Assert.assertFalse(BinaryCodingStrategy.isBinary(new byte[] {
+                        1, 2
+        }));
+        Assert.assertNull(strategy.decode(new byte[] {
+                        'E', 'Z', 'B', '1', 99
+        }));
+    }
+
+
+    static ResultDocumentList resultList(int size) {
+        ResultDocumentList list = new ResultDocumentList();
+        for (int i = 0; i < size; i++) {
+            ResultDocument document = DocumentFactory.createResultDocument("This is the abstract of document " + i,
+                            "Document number " + i, 1980 + (i % 30), "Norbert Fuhr", "Author " + (i % 50));
+            document.setRsv(0.5);
+            document.addSource("source" + (i % 3 + 1));
+            list.add(document);
+        }
+        return list;
+    }
+
+}
@@ -18,11 +18,14 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.message;
 
+import java.io.IOException;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
 
 import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.coding.BinaryCodingStrategy;
 import de.unidue.inf.is.ezdl.dlcore.message.content.LoginAsk;
 
 
@@ -45,4 +48,36 @@ public class MessageBytesCoderTest extends AbstractBackendTestBase {
         Assert.assertTrue(message.equals(message2));
     }
 
+
+    @Test
+    public void testEncodeDecodeBinary() {
+        Message message = new Message("from", "to", new LoginAsk("a", "b"), "reqid");
+        byte[] plain = messageBytesCoder.encode(message);
+        messageBytesCoder.setBinary(true);
+        try {
+            byte[] binary = messageBytesCoder.encode(message);
+            Assert.assertTrue(BinaryCodingStrategy.isBinary(binary));
+            Assert.assertEquals(message, messageBytesCoder.decode(binary));
+            Assert.assertEquals(message, messageBytesCoder.decode(plain));
+        }
+        finally {
+            messageBytesCoder.setBinary(false);
+        }
+    }
+
+
+    @Test
+    public void testStringCoderBinary() throws IOException {
+        MessageStringCoder stringCoder = new MessageStringCoder();
+        Message message = new Message("from", "to", new LoginAsk("a", "b"), "reqid");
+        String xml = stringCoder.encode(message);
+        stringCoder.setBinary(true);
+        String binary = stringCoder.encode(message);
+
+        Assert.assertTrue(binary.startsWith(MessageStringCoder.BINARY_PREFIX));
+        Assert.assertEquals(-1, binary.indexOf('\n'));
+        Assert.assertEquals(message, stringCoder.decode(binary));
+        Assert.assertEquals(message, stringCoder.decode(xml));
+    }
+
 }
@@ -27,12 +27,14 @@ import java.util.Properties;
 import org.apache.log4j.Logger;
 
 import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
+import de.unidue.inf.is.ezdl.dlbackend.agent.MessageReply;
 import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.AgentConnector;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentLog;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentStatus;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.RequestHandlerInfo;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.StringAgentStatus;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
 import de.unidue.inf.is.ezdl.dlbackend.security.SecurityManager;
 import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionFailedException;
 import de.unidue.inf.is.ezdl.dlcore.misc.EzDLException;
@@ -205,6 +207,18 @@ public class MockAgent implements Agent {
     }
 
 
+    @Override
+    public long getDirectoryGeneration() {
+        return DirectoryChangedNotify.UNKNOWN_GENERATION;
+    }
+
+
+    @Override
+    public void directoryChanged(long generation) {
+        logger.debug("directoryChanged(long " + generation + ")");
+    }
+
+
     @Override
     public Map<String, RequestHandlerInfo> getRequestInfo() {
         return Collections.emptyMap();
@@ -230,6 +244,13 @@ public class MockAgent implements Agent {
     }
 
 
+    @Override
+    public MessageReply askAsync(Message message) {
+        send(message);
+        return MessageReply.answered(nextAnswer);
+    }
+
+
     public void setNextAskAnswer(Message nextAnswer) {
         this.nextAnswer = nextAnswer;
     }
@@ -18,6 +18,7 @@
 
 package de.unidue.inf.is.ezdl.dlbackend.mock;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -43,7 +44,7 @@ public class MockAgentConnector extends Thread implements AgentConnector {
 
     private Agent agent;
 
-    private List<Message> messagesSent;
+    private volatile List<Message> messagesSent;
 
     private boolean isOnline = false;
 
@@ -83,6 +84,14 @@ public class MockAgentConnector extends Thread implements AgentConnector {
     }
 
 
+    @Override
+    public void send(List<Message> messages) {
+        for (Message message : messages) {
+            send(message);
+        }
+    }
+
+
     @Override
     public void goOffline() {
         orb.disconnectAgent(agent);
@@ -95,7 +104,7 @@ public class MockAgentConnector extends Thread implements AgentConnector {
 
 
     public void clearMessagesSent() {
-        messagesSent = new LinkedList<Message>();
+        messagesSent = Collections.synchronizedList(new LinkedList<Message>());
     }
 
 
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Date;
+import java.util.Random;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.data.OIDFactory;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Person;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.PersonList;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Term;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TermList;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.URLList;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Creates realistic, reproducible test data for the benchmarks.
+ * <p>
+ * Documents look like typical wrapper results: a handful of authors drawn from
+ * a limited pool, a title, a year, an abstract of about 150 words, subjects
+ * and detail URLs, found by one or more of a few sources.
+ */
+public final class BenchmarkData {
+
+    private static final String[] FIRST_NAMES = {
+                    "Norbert", "Matthias", "Thomas", "Sascha", "Anna", "Maria", "Jörg", "Claudia", "Hans-Peter", "Li"
+    };
+    private static final String[] LAST_NAMES = {
+                    "Fuhr", "Jordan", "Beckers", "Kriewel", "Müller", "Schmidt", "van Rijsbergen", "Robertson",
+                    "Salton", "Zhang", "Nguyen", "Smith"
+    };
+    private static final String[] WORDS = {
+                    "retrieval", "information", "digital", "library", "search", "user", "interface", "evaluation",
+                    "ranking", "query", "document", "model", "probabilistic", "federated", "metadata", "strategic",
+                    "support", "collection", "relevance", "feedback", "system", "analysis", "web", "semantic",
+                    "the", "of", "and", "for", "in", "with", "a", "on"
+    };
+    private static final String[] SOURCES = {
+                    "dblp", "acm", "citeseer", "springer", "ieee"
+    };
+
+
+    private BenchmarkData() {
+    }
+
+
+    /**
+     * Creates a document.
+     * 
+     * @param random
+     *            the random generator to use
+     * @param index
+     *            the number of the document
+     * @return the document
+     */
+    public static TextDocument createDocument(Random random, int index) {
+        TextDocument document = new TextDocument();
+        PersonList authors = new PersonList();
+        final int authorCount = 1 + random.nextInt(5);
+        for (int i = 0; i < authorCount; i++) {
+            authors.add(new Person(pick(random, FIRST_NAMES), pick(random, LAST_NAMES)));
+        }
+        document.setAuthorList(authors);
+        document.setTitle(words(random, 6 + random.nextInt(8)) + " " + index);
+        document.setYear(1970 + random.nextInt(42));
+        document.setAbstract(words(random, 100 + random.nextInt(100)));
+
+        TermList subjects = new TermList();
+        final int subjectCount = 2 + random.nextInt(5);
+        for (int i = 0; i < subjectCount; i++) {
+            subjects.add(new Term(pick(random, WORDS)));
+        }
+        document.setFieldValue(Field.SUBJECTS, subjects);
+
+        URLList urls = new URLList();
+        try {
+            urls.add(new URL("http://dl.example.org/" + pick(random, SOURCES) + "/details?id=" + index));
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        document.setDetailURLs(urls);
+
+        document.setOid(OIDFactory.calcOid(document));
+        return document;
+    }
+
+
+    /**
+     * Creates a ranked result list.
+     * 
+     * @param size
+     *            the number of documents
+     * @param seed
+     *            the seed for the random generator
+     * @return the list
+     */
+    public static ResultDocumentList createResultList(int size, long seed) {
+        ResultDocumentList list = new ResultDocumentList();
+        for (int i = 0; i < size; i++) {
+            Random random = random(seed, i);
+            ResultDocument result = new ResultDocument(createDocument(random, i));
+            final int sourceCount = 1 + random.nextInt(3);
+            for (int s = 0; s < sourceCount; s++) {
+                result.addSource(pick(random, SOURCES));
+            }
+            result.setUnnormalizedRsv(random.nextDouble() * 20);
+            result.setRsv(random.nextDouble());
+            list.add(result);
+        }
+        return list;
+    }
+
+
+    /**
+     * Creates a list of stored documents as sent between search agent,
+     * repository and wrappers.
+     * 
+     * @param size
+     *            the number of documents
+     * @param seed
+     *            the seed for the random generator
+     * @return the list
+     */
+    public static StoredDocumentList createStoredList(int size, long seed) {
+        return createStoredList(0, size, seed);
+    }
+
+
+    /**
+     * Creates a list of stored documents with the numbers first to first +
+     * size - 1. Documents with the same number and seed are equal, so lists
+     * with overlapping ranges share documents.
+     * 
+     * @param first
+     *            the number of the first document
+     * @param size
+     *            the number of documents
+     * @param seed
+     *            the seed for the random generator
+     * @return the list
+     */
+    public static StoredDocumentList createStoredList(int first, int size, long seed) {
+        StoredDocumentList list = new StoredDocumentList();
+        for (int i = first; i < first + size; i++) {
+            Random random = random(seed, i);
+            StoredDocument stored = new StoredDocument(createDocument(random, i));
+            final int sourceCount = 1 + random.nextInt(3);
+            for (int s = 0; s < sourceCount; s++) {
+                SourceInfo info = new SourceInfo(new SourceID(pick(random, SOURCES), "api"), "id=" + i);
+                if (random.nextBoolean()) {
+                    info.setDetailTimestamp(new Date(1300000000000L + random.nextInt(1000000)));
+                }
+                stored.addSource(info);
+            }
+            list.add(stored);
+        }
+        return list;
+    }
+
+
+    private static Random random(long seed, int index) {
+        return new Random(seed * 1000003L + index);
+    }
+
+
+    private static String words(Random random, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i != 0) {
+                out.append(' ');
+            }
+            out.append(pick(random, WORDS));
+        }
+        return out.toString();
+    }
+
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+}
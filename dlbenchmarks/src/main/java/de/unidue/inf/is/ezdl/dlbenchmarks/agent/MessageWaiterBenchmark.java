@@ -0,0 +1,253 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbackend.agent.MessageReply;
+import de.unidue.inf.is.ezdl.dlbackend.agent.MessageWaiter;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
+
+
+
+/**
+ * Measures a round of concurrent asks against a {@link MessageWaiter}: every
+ * operation waits for {@link #ASKS} replies that arrive in random order.
+ * <p>
+ * The blocking variants park one thread per ask, as agents calling
+ * {@link MessageWaiter#waitForRequestId(String)} do. The async variant
+ * registers all replies up front and collects them afterwards. The previous
+ * monitor-based implementation is kept as {@link LegacyMessageWaiter} for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageWaiterBenchmark {
+
+    private static final int ASKS = 1000;
+    private static final int TIMEOUT_MS = 30000;
+
+    private ExecutorService askers;
+    private Message[] answers;
+    private int round;
+
+
+    /**
+     * Common view of both waiter implementations.
+     */
+    private interface Waiter {
+
+        Message waitForRequestId(String requestId) throws TimeoutException;
+
+
+        boolean messageArrived(Message message);
+    }
+
+
+    @Setup
+    public void setUp() {
+        askers = Executors.newFixedThreadPool(ASKS);
+        answers = new Message[ASKS];
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        askers.shutdownNow();
+    }
+
+
+    @Benchmark
+    public int blockingAsks() throws InterruptedException {
+        final MessageWaiter waiter = new MessageWaiter(TIMEOUT_MS);
+        return blockingRound(new Waiter() {
+
+            @Override
+            public Message waitForRequestId(String requestId) throws TimeoutException {
+                return waiter.waitForRequestId(requestId);
+            }
+
+
+            @Override
+            public boolean messageArrived(Message message) {
+                return waiter.messageArrived(message);
+            }
+        });
+    }
+
+
+    @Benchmark
+    public int legacyBlockingAsks() throws InterruptedException {
+        final LegacyMessageWaiter waiter = new LegacyMessageWaiter(TIMEOUT_MS);
+        return blockingRound(new Waiter() {
+
+            @Override
+            public Message waitForRequestId(String requestId) throws TimeoutException {
+                return waiter.waitForRequestId(requestId);
+            }
+
+
+            @Override
+            public boolean messageArrived(Message message) {
+                return waiter.messageArrived(message);
+            }
+        });
+    }
+
+
+    @Benchmark
+    public int asyncAsks() throws TimeoutException {
+        MessageWaiter waiter = new MessageWaiter(TIMEOUT_MS);
+        List<Message> shuffled = prepareRound();
+        MessageReply[] replies = new MessageReply[ASKS];
+        for (int i = 0; (i < ASKS); i++) {
+            replies[i] = waiter.expect(answers[i].getRequestId());
+        }
+        for (Message answer : shuffled) {
+            waiter.messageArrived(answer);
+        }
+        int received = 0;
+        for (MessageReply reply : replies) {
+            if (reply.getAnswer() != null) {
+                received++;
+            }
+        }
+        return received;
+    }
+
+
+    private int blockingRound(final Waiter waiter) throws InterruptedException {
+        List<Message> shuffled = prepareRound();
+        final CountDownLatch done = new CountDownLatch(ASKS);
+        for (int i = 0; (i < ASKS); i++) {
+            final String requestId = answers[i].getRequestId();
+            askers.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        waiter.waitForRequestId(requestId);
+                        done.countDown();
+                    }
+                    catch (TimeoutException e) {
+                        throw new IllegalStateException("Ask " + requestId + " timed out");
+                    }
+                }
+            });
+        }
+        for (Message answer : shuffled) {
+            while (!waiter.messageArrived(answer)) {
+                Thread.yield();
+            }
+        }
+        done.await();
+        return ASKS;
+    }
+
+
+    private List<Message> prepareRound() {
+        round++;
+        List<Message> shuffled = new ArrayList<Message>(ASKS);
+        for (int i = 0; (i < ASKS); i++) {
+            answers[i] = new Message("responder", "asker", null, round + "-" + i);
+            shuffled.add(answers[i]);
+        }
+        Collections.shuffle(shuffled, new Random(round));
+        return shuffled;
+    }
+
+
+    /**
+     * The synchronized implementation that {@link MessageWaiter} replaced.
+     * Every arrival wakes all waiting threads.
+     */
+    private static class LegacyMessageWaiter {
+
+        private int timeoutMs;
+        private Map<String, Message> arrived = new HashMap<String, Message>();
+        private Set<String> awaitedRequestIDs = new HashSet<String>();
+
+
+        public LegacyMessageWaiter(int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+
+        public synchronized Message waitForRequestId(String requestId) throws TimeoutException {
+            long timeout = System.currentTimeMillis();
+            Message message = arrived.remove(requestId);
+            awaitedRequestIDs.add(requestId);
+
+            while ((System.currentTimeMillis() - timeout <= timeoutMs) && (message == null)) {
+                try {
+                    wait(timeoutMs);
+                }
+                catch (InterruptedException e) {
+                }
+                message = arrived.remove(requestId);
+            }
+
+            if (message == null) {
+                throw new TimeoutException();
+            }
+
+            return message;
+        }
+
+
+        public synchronized boolean messageArrived(Message message) {
+            final String requestId = message.getRequestId();
+            if (awaitedRequestIDs.remove(requestId)) {
+                arrived.put(requestId, message);
+                notifyAll();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.coding;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbackend.coding.BinaryCodingStrategy;
+import de.unidue.inf.is.ezdl.dlbackend.coding.BytesCodingStrategy;
+import de.unidue.inf.is.ezdl.dlbackend.coding.JBossSerializationStrategy;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DocumentQueryStoredTell;
+import de.unidue.inf.is.ezdl.dlbenchmarks.BenchmarkData;
+import de.unidue.inf.is.ezdl.dlcore.coding.XMLStrategy;
+import de.unidue.inf.is.ezdl.dlcore.message.content.DocumentQueryResultTell;
+
+
+
+/**
+ * Compares the wire codecs on result lists of realistic size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodingBenchmark {
+
+    /**
+     * The codec to measure.
+     */
+    @Param({
+                    "jboss", "xml", "binary"
+    })
+    public String codec;
+
+    /**
+     * The payload: a ranked result list for the client or a stored document
+     * list as exchanged between backend agents.
+     */
+    @Param({
+                    "result", "stored"
+    })
+    public String payload;
+
+    /**
+     * The number of documents in the payload.
+     */
+    @Param({
+                    "500"
+    })
+    public int size;
+
+    private Message message;
+    private XMLStrategy xml;
+    private BytesCodingStrategy bytes;
+    private Object encoded;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if ("result".equals(payload)) {
+            message = new Message("search", "client", new DocumentQueryResultTell(BenchmarkData.createResultList(
+                            size, 42), size), "request");
+        }
+        else {
+            message = new Message("search", "repository", new DocumentQueryStoredTell(BenchmarkData
+                            .createStoredList(size, 42)), "request");
+        }
+
+        if ("xml".equals(codec)) {
+            xml = new XMLStrategy();
+        }
+        else if ("jboss".equals(codec)) {
+            bytes = new JBossSerializationStrategy();
+        }
+        else {
+            bytes = new BinaryCodingStrategy();
+        }
+
+        encoded = encode();
+    }
+
+
+    @Benchmark
+    public Object encode() throws IOException {
+        if (xml != null) {
+            return xml.encode(message);
+        }
+        return bytes.encode(message);
+    }
+
+
+    @Benchmark
+    public Object decode() throws IOException {
+        if (xml != null) {
+            return xml.decode((String) encoded);
+        }
+        return bytes.decode((byte[]) encoded);
+    }
+
+
+    @Benchmark
+    public Object roundTrip() throws IOException {
+        if (xml != null) {
+            return xml.decode(xml.encode(message));
+        }
+        return bytes.decode(bytes.encode(message));
+    }
+
+}
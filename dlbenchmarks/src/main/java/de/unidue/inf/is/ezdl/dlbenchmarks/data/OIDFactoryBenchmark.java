@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.data;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbenchmarks.BenchmarkData;
+import de.unidue.inf.is.ezdl.dlcore.data.OIDFactory;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+
+
+
+/**
+ * Measures the calculation of document OIDs, which is done for every document
+ * a wrapper returns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OIDFactoryBenchmark {
+
+    private static final int DOCUMENT_COUNT = 1024;
+
+    private Document[] documents;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        documents = new Document[DOCUMENT_COUNT];
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            documents[i] = BenchmarkData.createDocument(random, i);
+        }
+    }
+
+
+    @Benchmark
+    public String calcOid() {
+        next = (next + 1) & (DOCUMENT_COUNT - 1);
+        return OIDFactory.calcOid(documents[next]);
+    }
+
+}
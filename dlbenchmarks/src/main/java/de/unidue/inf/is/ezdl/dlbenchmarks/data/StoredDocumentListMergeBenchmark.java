@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.data;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbenchmarks.BenchmarkData;
+
+
+
+/**
+ * Measures merging two stored document lists that overlap by half, as the
+ * search agent does when a second wrapper reports documents that were already
+ * found by another one. The federated case merges the overlapping results of
+ * {@link #WRAPPERS} wrappers into an empty list one after another, so that the
+ * merged list grows to about <code>size</code> documents.
+ * <p>
+ * Merging modifies both the list and its documents, so fresh lists are
+ * created for every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoredDocumentListMergeBenchmark {
+
+    /**
+     * The number of wrapper results in the federated case.
+     */
+    private static final int WRAPPERS = 8;
+
+    /**
+     * The number of documents in each list.
+     */
+    @Param({
+                    "100", "1000", "10000"
+    })
+    public int size;
+
+    private StoredDocumentList target;
+    private StoredDocumentList other;
+    private StoredDocumentList[] wrapperResults;
+
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        target = BenchmarkData.createStoredList(0, size, 42);
+        other = BenchmarkData.createStoredList(size / 2, size, 42);
+        final int resultSize = size / 4;
+        final int step = (size - resultSize) / (WRAPPERS - 1);
+        wrapperResults = new StoredDocumentList[WRAPPERS];
+        for (int i = 0; i < WRAPPERS; i++) {
+            wrapperResults[i] = BenchmarkData.createStoredList(i * step, resultSize, 42);
+        }
+    }
+
+
+    @Benchmark
+    public StoredDocumentList merge() {
+        target.merge(other);
+        return target;
+    }
+
+
+    @Benchmark
+    public StoredDocumentList federatedMerge() {
+        StoredDocumentList merged = new StoredDocumentList();
+        for (StoredDocumentList result : wrapperResults) {
+            merged.merge(result);
+        }
+        return merged;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.query;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.Query;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare.Predicate;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.transformation.DefaultDNFTransformer;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.transformation.TreeWalkerDNFTransformer;
+import de.unidue.inf.is.ezdl.dlcore.query.SolrQueryConverter;
+
+
+
+/**
+ * Measures the query transformations done by wrappers before a query is sent
+ * to a remote service.
+ * <p>
+ * The transformers may modify the tree they get, so a new tree is built for
+ * each call. {@link #buildTree()} measures this overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTransformationBenchmark {
+
+    private SolrQueryConverter solrConverter;
+    private Query query;
+
+
+    @Setup
+    public void setUp() {
+        solrConverter = new SolrQueryConverter();
+        query = new DefaultQuery(createTree());
+    }
+
+
+    /**
+     * Creates a query with six terms in three groups: (title=digital OR
+     * title=library) AND (author=Fuhr OR NOT author=Jordan) AND (text=search
+     * OR year>=2000).
+     * 
+     * @return the root of the query tree
+     */
+    static QueryNode createTree() {
+        QueryNodeBool root = new QueryNodeBool(NodeType.AND);
+
+        QueryNodeBool title = new QueryNodeBool(NodeType.OR);
+        title.addChild(new QueryNodeCompare(Field.TITLE, "digital"));
+        title.addChild(new QueryNodeCompare(Field.TITLE, "library"));
+        root.addChild(title);
+
+        QueryNodeBool author = new QueryNodeBool(NodeType.OR);
+        author.addChild(new QueryNodeCompare(Field.AUTHOR, "Fuhr"));
+        QueryNodeCompare notJordan = new QueryNodeCompare(Field.AUTHOR, "Jordan");
+        notJordan.setNegated(true);
+        author.addChild(notJordan);
+        root.addChild(author);
+
+        QueryNodeBool other = new QueryNodeBool(NodeType.OR);
+        other.addChild(new QueryNodeCompare(Field.TEXT, "search"));
+        other.addChild(new QueryNodeCompare(Field.YEAR, Predicate.GTE, "2000"));
+        root.addChild(other);
+
+        return root;
+    }
+
+
+    @Benchmark
+    public QueryNode buildTree() {
+        return createTree();
+    }
+
+
+    @Benchmark
+    public QueryNode defaultDnf() {
+        return new DefaultDNFTransformer().transform(createTree());
+    }
+
+
+    @Benchmark
+    public QueryNode treeWalkerDnf() {
+        return new TreeWalkerDNFTransformer().transform(createTree());
+    }
+
+
+    @Benchmark
+    public String solrConvert() {
+        return solrConverter.convert(query);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.ranking;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbenchmarks.BenchmarkData;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.LuceneRanker;
+
+
+
+/**
+ * Measures ranking a merged result list with the {@link LuceneRanker}, which
+ * is done for every incoming wrapper result.
+ * <p>
+ * {@link #rank()} ranks a list the ranker has not seen before.
+ * {@link #rankAgain()} ranks a list again after a wrapper has added a tenth
+ * of the documents, which is what happens while results come in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuceneRankerBenchmark {
+
+    /**
+     * The number of documents to rank.
+     */
+    @Param({
+                    "100", "1000", "10000"
+    })
+    public int size;
+
+    private ResultDocumentList results;
+    private ResultDocumentList known;
+    private DocumentQuery query;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        results = BenchmarkData.createResultList(size, 42);
+
+        QueryNodeBool root = new QueryNodeBool(NodeType.AND);
+        QueryNodeBool terms = new QueryNodeBool(NodeType.OR);
+        terms.addChild(new QueryNodeCompare(Field.TITLE, "digital"));
+        terms.addChild(new QueryNodeCompare(Field.TITLE, "library"));
+        root.addChild(terms);
+        root.addChild(new QueryNodeCompare(Field.TEXT, "retrieval"));
+        query = new DocumentQuery(new DefaultQuery(root), Collections.<String> emptyList());
+
+        known = new ResultDocumentList();
+        for (int i = 0; i < size - size / 10; i++) {
+            known.add(results.get(i));
+        }
+    }
+
+
+    @Benchmark
+    public ResultDocumentList rank() {
+        new LuceneRanker().rank(results, query);
+        return results;
+    }
+
+
+    @Benchmark
+    public ResultDocumentList rankAgain(RankerState state) {
+        state.ranker.rank(results, query);
+        return results;
+    }
+
+
+    /**
+     * A ranker that has already ranked all but the last tenth of the list.
+     */
+    @State(Scope.Thread)
+    public static class RankerState {
+
+        private LuceneRanker ranker;
+
+
+        @Setup(Level.Invocation)
+        public void setUp(LuceneRankerBenchmark benchmark) {
+            ranker = new LuceneRanker();
+            ranker.rank(benchmark.known, benchmark.query);
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.ranking;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.DocumentListConverter;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.utils.Histogram;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.Ranker;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankerFactory;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankingRecording;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.SourcePositions;
+
+
+
+/**
+ * Replays {@link RankingRecording}s through several ranker configurations and
+ * prints the ranking quality and latency of each side by side.
+ * <p>
+ * The results of each recording are merged and ranked in the order they
+ * arrived, like the search agent does in incremental mode, and each call to
+ * the ranker is timed. The final ranking is compared to the relevance
+ * judgments of the recording, if there are any.
+ * <p>
+ * Usage: <code>RankingEvaluation [-rankers spec;spec...] file|dir...</code>
+ * where the specs are given as for {@link RankerFactory}.
+ */
+public final class RankingEvaluation {
+
+    /**
+     * The number of top documents the quality measures look at.
+     */
+    static final int CUTOFF = 10;
+
+    private static final List<String> DEFAULT_SPECS = Arrays.asList("lucene", "bm25f", "lucene,rrf,boost",
+                    "bm25f,rrf,boost");
+
+
+    private RankingEvaluation() {
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        List<String> specs = DEFAULT_SPECS;
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-rankers".equals(args[i]) && i + 1 < args.length) {
+                specs = Arrays.asList(args[++i].split(";"));
+            }
+            else {
+                collectFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: RankingEvaluation [-rankers spec;spec...] file|dir...");
+            return;
+        }
+
+        System.out.println(String.format(Locale.ENGLISH, "%-24s %8s %8s %8s %10s %10s", "ranker", "queries",
+                        "nDCG@" + CUTOFF, "P@" + CUTOFF, "mean ms", "p95 ms <="));
+        for (String spec : specs) {
+            evaluate(spec, files);
+        }
+    }
+
+
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.getName().endsWith(".xml")) {
+                        files.add(child);
+                    }
+                }
+            }
+        }
+        else {
+            files.add(file);
+        }
+    }
+
+
+    private static void evaluate(String spec, List<File> files) throws IOException {
+        final Histogram latency = new Histogram("us");
+        double ndcgSum = 0;
+        double precisionSum = 0;
+        int judged = 0;
+
+        for (File file : files) {
+            /*
+             * Read the recording again for each ranker since merging changes
+             * the recorded documents.
+             */
+            final RankingRecording recording = RankingRecording.read(file);
+            final List<ResultDocument> ranking = replay(recording, spec, latency);
+            if (recording.isJudged()) {
+                ndcgSum += ndcg(recording, ranking);
+                precisionSum += precision(recording, ranking);
+                judged++;
+            }
+        }
+
+        System.out.println(String.format(Locale.ENGLISH, "%-24s %8d %8s %8s %10.3f %10.3f", spec, files.size(),
+                        judged == 0 ? "-" : String.format(Locale.ENGLISH, "%.4f", ndcgSum / judged),
+                        judged == 0 ? "-" : String.format(Locale.ENGLISH, "%.4f", precisionSum / judged),
+                        latency.getMean() / 1000, latency.getPercentile(95) / 1000d));
+    }
+
+
+    /**
+     * Feeds the recorded results to a new ranker one source at a time.
+     * 
+     * @return the final ranking, best document first
+     */
+    private static List<ResultDocument> replay(RankingRecording recording, String spec, Histogram latency) {
+        final SourcePositions positions = new SourcePositions();
+        final Ranker ranker = RankerFactory.create(spec, positions);
+        final StoredDocumentList merged = new StoredDocumentList();
+
+        ResultDocumentList ranked = new ResultDocumentList();
+        for (StoredDocumentList results : recording.getResults()) {
+            positions.add(results);
+            merged.merge(results);
+            ranked = DocumentListConverter.toResultDocumentList(merged);
+
+            final long start = System.nanoTime();
+            ranker.rank(ranked, recording.getQuery());
+            latency.record((System.nanoTime() - start) / 1000);
+        }
+
+        List<ResultDocument> ranking = new ArrayList<ResultDocument>(ranked);
+        Collections.sort(ranking, new Comparator<ResultDocument>() {
+
+            @Override
+            public int compare(ResultDocument o1, ResultDocument o2) {
+                return Double.compare(o2.getRsv(), o1.getRsv());
+            }
+        });
+        return ranking;
+    }
+
+
+    private static double ndcg(RankingRecording recording, List<ResultDocument> ranking) {
+        double dcg = 0;
+        for (int i = 0; i < Math.min(CUTOFF, ranking.size()); i++) {
+            dcg += gain(recording.getJudgment(ranking.get(i).getOid()), i);
+        }
+        double idealDcg = 0;
+        final List<Integer> grades = recording.getGrades();
+        for (int i = 0; i < Math.min(CUTOFF, grades.size()); i++) {
+            idealDcg += gain(grades.get(i), i);
+        }
+        return idealDcg == 0 ? 0 : dcg / idealDcg;
+    }
+
+
+    private static double gain(int grade, int rank) {
+        return (Math.pow(2, grade) - 1) / (Math.log(rank + 2) / Math.log(2));
+    }
+
+
+    private static double precision(RankingRecording recording, List<ResultDocument> ranking) {
+        int relevant = 0;
+        for (int i = 0; i < Math.min(CUTOFF, ranking.size()); i++) {
+            if (recording.getJudgment(ranking.get(i).getOid()) > 0) {
+                relevant++;
+            }
+        }
+        return (double) relevant / CUTOFF;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.database.ApacheDBCPConnectionProvider;
+import de.unidue.inf.is.ezdl.dlbackend.database.ConnectionProvider;
+import de.unidue.inf.is.ezdl.dlbenchmarks.BenchmarkData;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+import de.unidue.inf.is.ezdl.dlservices.repository.store.repositories.DBRepository;
+
+
+
+/**
+ * Measures document reads and writes of the {@link DBRepository} against an
+ * in-memory H2 database, the same database the tests use. The batch
+ * benchmarks read or write {@link #BATCH_SIZE} documents per call.
+ * <p>
+ * The numbers do not include network latency to a real database server, so
+ * they show the cost of serialization and JDBC handling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBRepositoryBenchmark {
+
+    private static final int DOCUMENT_COUNT = 1024;
+    private static final int BATCH_SIZE = 100;
+
+    private ConnectionProvider provider;
+    private DBRepository repository;
+    private StoredDocument[] documents;
+    private List<String> oids;
+    private int next;
+
+
+    @Setup
+    public void setUp() throws SQLException {
+        provider = new ApacheDBCPConnectionProvider("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "sa", "sa", true);
+        execute("create table repo_document (id varchar(255) primary key, data blob)");
+
+        repository = new DBRepository(provider);
+        StoredDocumentList list = BenchmarkData.createStoredList(DOCUMENT_COUNT, 42);
+        documents = list.toArray(new StoredDocument[DOCUMENT_COUNT]);
+        oids = new ArrayList<String>(DOCUMENT_COUNT);
+        for (StoredDocument document : documents) {
+            oids.add(document.getOid());
+        }
+        repository.addDocuments(list);
+    }
+
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        execute("drop table repo_document");
+    }
+
+
+    private void execute(String sql) throws SQLException {
+        Connection connection = null;
+        Statement statement = null;
+        try {
+            connection = provider.connection();
+            statement = connection.createStatement();
+            statement.execute(sql);
+        }
+        finally {
+            ClosingUtils.close(statement);
+            ClosingUtils.close(connection);
+        }
+    }
+
+
+    private StoredDocument nextDocument() {
+        next = (next + 1) & (DOCUMENT_COUNT - 1);
+        return documents[next];
+    }
+
+
+    @Benchmark
+    public StoredDocument get() {
+        return repository.getDocument(nextDocument().getOid());
+    }
+
+
+    /**
+     * Adds a document that is already stored, which reads, merges and writes
+     * it.
+     */
+    @Benchmark
+    public void addExisting() {
+        StoredDocument document = nextDocument();
+        repository.addDocument(document.getOid(), document);
+    }
+
+
+    private int nextBatch() {
+        next = (next + BATCH_SIZE) % (DOCUMENT_COUNT - BATCH_SIZE);
+        return next;
+    }
+
+
+    @Benchmark
+    public StoredDocumentList getBatch() {
+        final int first = nextBatch();
+        return repository.getDocuments(oids.subList(first, first + BATCH_SIZE));
+    }
+
+
+    /**
+     * Adds a batch of documents that are already stored in one transaction.
+     */
+    @Benchmark
+    public void addExistingBatch() {
+        final int first = nextBatch();
+        repository.addDocuments(Arrays.asList(documents).subList(first, first + BATCH_SIZE));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlbenchmarks.wrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.HttpClientCrawler;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitAPI;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitConfig;
+
+
+
+/**
+ * Measures the shipped wrapper configurations on recorded pages of the remote
+ * DLs, without network access.
+ * <p>
+ * {@link #execute()} runs a configuration on a page, i.e. cleaning the HTML
+ * and extracting the data, which is done for every result and detail page.
+ * {@link #compile()} compiles the configuration, which is done once per
+ * configuration.
+ * <p>
+ * The pages are read from the test resources of the dlwrapper module. The
+ * directory is given by the system property {@value #FIXTURES_PROPERTY} and
+ * defaults to {@value #DEFAULT_FIXTURES}, relative to the project root.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToolkitConfigBenchmark {
+
+    /**
+     * System property for the directory of the recorded pages.
+     */
+    public static final String FIXTURES_PROPERTY = "ezdl.toolkit.fixtures";
+    /**
+     * The default directory of the recorded pages.
+     */
+    public static final String DEFAULT_FIXTURES = "dlwrapper/src/test/resources";
+
+    /**
+     * The configuration and the recorded page, separated by a colon.
+     */
+    @Param({
+                    "acm_search_adv:acm/errorCounter_connectionError/input-3.html",
+                    "acm_details:acm/askDetails8/input-1.html",
+                    "ieee_search_adv:ieee/yearRange1/input-1.html",
+                    "springer_search:springer/test1/input-3.html",
+                    "springer_details:springer/testDetails1/input-1.html",
+                    "citeseer_details:citeseer/testDetails3/input-1.html",
+                    "wiley_search:wiley/test3/input-1.html",
+                    "leabib_search:leabib/titleSearch1/input-1.html"
+    })
+    public String config;
+
+    private ToolkitConfig compiled;
+    private FixtureToolkit toolkit;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final int colon = config.indexOf(':');
+        final String configName = config.substring(0, colon);
+        final File fixture = new File(System.getProperty(FIXTURES_PROPERTY, DEFAULT_FIXTURES),
+                        config.substring(colon + 1));
+
+        URL configURL = ToolkitAPI.class.getResource("/wrapperconfigs/" + configName + ".xml");
+        compiled = ToolkitConfig.get(configURL);
+        toolkit = new FixtureToolkit(readFile(fixture));
+        toolkit.setConfigFile(configURL);
+        if (execute() == null) {
+            throw new IllegalStateException(config + " does not extract anything");
+        }
+    }
+
+
+    @Benchmark
+    public Object execute() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("url", "http://dl.test/search?q=retrieval");
+        props.put("query", "information retrieval");
+        props.put("maxresults", "20");
+        toolkit.setPageNumber(1);
+        return toolkit.execute(props);
+    }
+
+
+    @Benchmark
+    public ToolkitConfig compile() {
+        return ToolkitConfig.compile(compiled.getDocument());
+    }
+
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            ClosingUtils.close(in);
+        }
+    }
+
+
+    /**
+     * A toolkit that answers every fetch with the recorded page.
+     */
+    private static class FixtureToolkit extends ToolkitAPI {
+
+        private final byte[] page;
+
+
+        FixtureToolkit(byte[] page) {
+            this.page = page;
+        }
+
+
+        @Override
+        protected HttpClientCrawler getHttpClientCrawler(URL baseurl, String encoding) {
+            return new HttpClientCrawler(baseurl, encoding) {
+
+                @Override
+                protected InputStream fetch(Method method, List<NameValuePair> params, List<NameValuePair> formFields) {
+                    return new ByteArrayInputStream(page);
+                }
+            };
+        }
+    }
+}
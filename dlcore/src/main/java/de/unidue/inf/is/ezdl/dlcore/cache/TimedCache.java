@@ -18,111 +18,285 @@
 
 package de.unidue.inf.is.ezdl.dlcore.cache;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
-
-import org.apache.log4j.Logger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
 /**
  * Cache that provides timeouts for stored values.
+ * <p>
+ * The values are kept in another cache, this class keeps track of their
+ * expiry times. Each entry has its own time to live, which defaults to the one
+ * given to the constructor. If a maximum size is given, the entries that
+ * expire first are evicted when the cache grows beyond it.
+ * <p>
+ * There is no cleaner thread. Expired entries are removed a few at a time
+ * whenever the cache is accessed, and an expired entry is never returned by
+ * {@link #get(Object)}. {@link #cleanUp()} removes all expired entries at
+ * once.
+ * <p>
+ * The cache is thread-safe if the wrapped cache is. Operations on the same key
+ * are serialized, so the wrapped cache never sees concurrent puts of a key.
+ * Putting a value replaces a value stored under the same key.
  * 
  * @author tbeckers
  */
 public final class TimedCache implements Cache {
 
-    private static final int CLEANING_INTERVAL_MS = 200;
+    /**
+     * The maximum number of expired entries removed by a single access.
+     */
+    private static final int EXPIRE_BATCH_SIZE = 16;
+    /**
+     * The number of locks that operations on keys are distributed over.
+     */
+    private static final int LOCK_COUNT = 32;
 
-    private static Logger logger = Logger.getLogger(TimedCache.class);
+    private final Cache cache;
+    private final long timeoutNs;
+    private final int maxSize;
 
-    private Cache cache;
-    private Map<Object, Long> timestamps;
-    private int timeout;
-    private TimeUnit timeUnit;
-    private ScheduledExecutorService executorService;
+    /**
+     * The expiry of each key in the cache.
+     */
+    private final ConcurrentMap<Object, Expiry> expiries = new ConcurrentHashMap<Object, Expiry>();
+    /**
+     * The same expiries as in {@link #expiries}, the one that expires first
+     * comes first.
+     */
+    private final ConcurrentSkipListSet<Expiry> queue = new ConcurrentSkipListSet<Expiry>();
+    private final Object[] locks = new Object[LOCK_COUNT];
+    private final AtomicLong sequence = new AtomicLong();
 
 
+    /**
+     * Creates a new cache without size limit.
+     * 
+     * @param cache
+     *            the cache to store the values in
+     * @param timeOut
+     *            the default time to live of the entries
+     * @param timeUnit
+     *            the unit of timeOut
+     */
     public TimedCache(Cache cache, int timeOut, TimeUnit timeUnit) {
-        this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this(cache, timeOut, timeUnit, 0);
+    }
+
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param cache
+     *            the cache to store the values in
+     * @param timeOut
+     *            the default time to live of the entries
+     * @param timeUnit
+     *            the unit of timeOut
+     * @param maxSize
+     *            the maximum number of entries, 0 for no limit
+     */
+    public TimedCache(Cache cache, int timeOut, TimeUnit timeUnit, int maxSize) {
+        if (timeOut <= 0) {
+            throw new IllegalArgumentException("time out must be positive: " + timeOut);
+        }
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative: " + maxSize);
+        }
         this.cache = cache;
-        this.timestamps = new HashMap<Object, Long>();
-        this.timeout = timeOut;
-        this.timeUnit = timeUnit;
-        startCleaner();
+        this.timeoutNs = timeUnit.toNanos(timeOut);
+        this.maxSize = maxSize;
+        for (int i = 0; (i < LOCK_COUNT); i++) {
+            locks[i] = new Object();
+        }
     }
 
 
-    private void startCleaner() {
-        Runnable r = new Runnable() {
-
-            @Override
-            public void run() {
-                long currentTime = System.currentTimeMillis();
-                Set<Object> keysToRemove = new HashSet<Object>();
-                for (Entry<Object, Long> entry : timestamps.entrySet()) {
-                    Long timestamp = timestamps.get(entry.getKey());
-                    if (timestamp != null && currentTime - timestamp > timeUnit.toMillis(timeout)) {
-                        keysToRemove.add(entry.getKey());
-                    }
-                }
-                for (Object key : keysToRemove) {
-                    cache.remove(key);
-                }
+    /**
+     * The time a key expires.
+     */
+    private static final class Expiry implements Comparable<Expiry> {
+
+        private final Object key;
+        private final long deadlineNs;
+        private final long sequence;
+
+
+        Expiry(Object key, long deadlineNs, long sequence) {
+            this.key = key;
+            this.deadlineNs = deadlineNs;
+            this.sequence = sequence;
+        }
+
+
+        boolean isExpired(long nowNs) {
+            return deadlineNs - nowNs <= 0;
+        }
+
+
+        @Override
+        public int compareTo(Expiry other) {
+            final long diff = deadlineNs - other.deadlineNs;
+            if (diff != 0) {
+                return (diff < 0) ? -1 : 1;
             }
-        };
-        executorService.scheduleWithFixedDelay(r, 200, CLEANING_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
+
+
+    private Object lockFor(Object key) {
+        return locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
     }
 
 
     @Override
-    public synchronized void put(Object key, Object value) {
-        cache.put(key, value);
-        timestamps.put(key, System.currentTimeMillis());
+    public void put(Object key, Object value) {
+        put(key, value, timeoutNs, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Puts a value into the cache that expires after the given time instead of
+     * the default time out.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param timeToLive
+     *            the time until the entry expires
+     * @param timeUnit
+     *            the unit of timeToLive
+     */
+    public void put(Object key, Object value, long timeToLive, TimeUnit timeUnit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("time to live must be positive: " + timeToLive);
+        }
+        final Expiry expiry = new Expiry(key, System.nanoTime() + timeUnit.toNanos(timeToLive),
+                        sequence.incrementAndGet());
+        synchronized (lockFor(key)) {
+            final Expiry old = expiries.put(key, expiry);
+            if (old != null) {
+                queue.remove(old);
+                cache.remove(key);
+            }
+            cache.put(key, value);
+            queue.add(expiry);
+        }
+        expire();
     }
 
 
     @Override
-    public synchronized Object get(Object key) {
+    public Object get(Object key) {
+        expire();
+        final Expiry expiry = expiries.get(key);
+        if ((expiry != null) && expiry.isExpired(System.nanoTime())) {
+            remove(expiry);
+            return null;
+        }
         return cache.get(key);
     }
 
 
     @Override
-    public synchronized void remove(Object key) {
-        cache.remove(key);
+    public void remove(Object key) {
+        synchronized (lockFor(key)) {
+            final Expiry expiry = expiries.remove(key);
+            if (expiry != null) {
+                queue.remove(expiry);
+            }
+            cache.remove(key);
+        }
+    }
+
+
+    /**
+     * Removes an entry if it still has the given expiry.
+     */
+    private void remove(Expiry expiry) {
+        synchronized (lockFor(expiry.key)) {
+            if (expiries.remove(expiry.key, expiry)) {
+                cache.remove(expiry.key);
+            }
+            queue.remove(expiry);
+        }
+    }
+
+
+    /**
+     * Removes some of the expired entries and, if the cache is too large, the
+     * entries that expire first.
+     */
+    private void expire() {
+        final long now = System.nanoTime();
+        int expired = 0;
+        Iterator<Expiry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final Expiry first = iterator.next();
+            final boolean full = (maxSize > 0) && (expiries.size() > maxSize);
+            if (full || ((expired < EXPIRE_BATCH_SIZE) && first.isExpired(now))) {
+                remove(first);
+                expired++;
+                iterator = queue.iterator();
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Removes all expired entries.
+     */
+    public void cleanUp() {
+        final long now = System.nanoTime();
+        for (Expiry expiry : queue) {
+            if (!expiry.isExpired(now)) {
+                break;
+            }
+            remove(expiry);
+        }
+    }
+
+
+    /**
+     * Returns the number of entries, including expired entries that were not
+     * removed yet.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return expiries.size();
     }
 
 
     @Override
-    public synchronized void flush() {
+    public void flush() {
         cache.flush();
     }
 
 
     @Override
-    public synchronized void shutdown() {
-        executorService.shutdown();
-        try {
-            executorService.awaitTermination(500, TimeUnit.MILLISECONDS);
-        }
-        catch (InterruptedException e) {
-            logger.error(e.getMessage(), e);
-        }
+    public void shutdown() {
+        expiries.clear();
+        queue.clear();
         cache.shutdown();
     }
 
 
     @Override
-    public synchronized void clear() {
+    public void clear() {
+        expiries.clear();
+        queue.clear();
         cache.clear();
-        timestamps.clear();
     }
 
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlcore.data;
+
+/**
+ * A {@link Mergeable} whose similarity can be expressed by a key, so that
+ * similar objects can be found by hashing instead of comparing each pair.
+ * <p>
+ * Implementations guarantee that if <code>a.isSimilar(b)</code> is true, both
+ * keys are not null and equal. Objects with a null key are not similar to
+ * anything. Equal keys do not have to imply similarity, so callers still check
+ * {@link #isSimilar(Mergeable)} on a hit. The key must not change when a
+ * similar object is merged in.
+ */
+public interface KeyedMergeable extends Mergeable {
+
+    /**
+     * Returns the key that identifies similar objects.
+     * 
+     * @return the key or null if the object is not similar to any other object
+     */
+    Object getMergeKey();
+
+}
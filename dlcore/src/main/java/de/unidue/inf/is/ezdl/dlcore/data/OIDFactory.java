@@ -18,9 +18,9 @@
 
 package de.unidue.inf.is.ezdl.dlcore.data;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Person;
@@ -41,13 +41,35 @@ import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
  * The main problem, though, is that incomplete documents in the repository
  * cannot be merged any longer with new documents because they might not
  * generate the same object ID and thus cannot be matched against each other.
+ * <p>
+ * The object IDs are checked against a recorded corpus by
+ * <code>OIDFactoryGoldenTest</code>. If that test fails, the keys changed.
  * 
  * @author mjordan
  */
 public final class OIDFactory {
 
     private static final char SEP = ':';
-    private static final String FILTER_STRING = "[^a-zA-Z0-9]";
+    private static final char HASH_SEP = '#';
+    private static final Pattern FILTER_PATTERN = Pattern.compile("[^a-zA-Z0-9]");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Buffers reused by the threads that calculate object IDs.
+     */
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+
+    private OIDFactory() {
+    }
 
 
     /**
@@ -65,7 +87,6 @@ public final class OIDFactory {
      * @return the object ID or null if the document had insufficient data.
      */
     public static String calcOid(Document d) {
-        StringBuffer out = new StringBuffer();
         String type = getType(d);
         String title = d.getTitle();
         PersonList authors = d.getAuthorList();
@@ -73,16 +94,67 @@ public final class OIDFactory {
         if ((type == null) || (title == null) || (authors == null) || (authors.isEmpty())) {
             return null;
         }
+        final boolean localeSafe = isLocaleSafe();
+        Buffers buffers = BUFFERS.get();
+        StringBuilder out = buffers.out;
+        out.setLength(0);
         out.append(type);
         out.append(SEP);
-        out.append(normalizeString(title));
+        normalizeString(title, localeSafe, out);
         out.append(SEP);
         out.append(d.getYear());
-        if (d.getAuthorList() != null) {
-            out.append(SEP);
-            out.append(normalizeAuthors(authors));
+        out.append(SEP);
+        normalizeAuthors(authors, localeSafe, buffers, out);
+        String oid = out.toString();
+        buffers.trim();
+        return oid;
+    }
+
+
+    /**
+     * Calculates the hashed form of the object ID of the given document.
+     * 
+     * @param d
+     *            the document
+     * @return the hashed object ID or null if the document had insufficient
+     *         data.
+     * @see #hashOid(String)
+     */
+    public static String calcHashedOid(Document d) {
+        String oid = calcOid(d);
+        return (oid != null) ? hashOid(oid) : null;
+    }
+
+
+    /**
+     * Returns the hashed form of an object ID.
+     * <p>
+     * The hashed form is the type of the object, a '#' and the 64 bit FNV-1a
+     * hash of the (ASCII) object ID as 16 hex digits, e.g.
+     * <code>txt#3f1c0e57a9b2d604</code>. It has a fixed length and only depends
+     * on the object ID, so it can also be derived from object IDs that are
+     * already stored.
+     * 
+     * @param oid
+     *            the object ID as returned by {@link #calcOid(Document)}
+     * @return the hashed form
+     */
+    public static String hashOid(String oid) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < oid.length(); i++) {
+            hash = (hash ^ oid.charAt(i)) * FNV_PRIME;
+        }
+        int typeEnd = oid.indexOf(SEP);
+        String type = (typeEnd == -1) ? oid : oid.substring(0, typeEnd);
+
+        char[] out = new char[type.length() + 17];
+        type.getChars(0, type.length(), out, 0);
+        out[type.length()] = HASH_SEP;
+        for (int i = out.length - 1; i > type.length(); i--) {
+            out[i] = Character.forDigit((int) (hash & 0xf), 16);
+            hash >>>= 4;
         }
-        return out.toString();
+        return new String(out);
     }
 
 
@@ -99,34 +171,111 @@ public final class OIDFactory {
     }
 
 
-    private static String normalizeAuthors(PersonList authorList) {
-        List<String> lastNames = new ArrayList<String>();
+    private static void normalizeAuthors(PersonList authorList, boolean localeSafe, Buffers buffers,
+                    StringBuilder out) {
+        char[] initials = buffers.initials(authorList.size());
+        int count = 0;
         for (Person a : authorList) {
             String lastName = a.getLastName();
             if ((lastName != null) && (!lastName.isEmpty())) {
-                lastNames.add(lastName.substring(0, 1));
+                initials[count++] = lastName.charAt(0);
             }
         }
+        /*
+         * Sorting the initials before lower casing them is what the object IDs
+         * always did, so "B" sorts before "a".
+         */
+        Arrays.sort(initials, 0, count);
 
-        String[] names = lastNames.toArray(new String[lastNames.size()]);
-        Arrays.sort(names);
+        if (localeSafe) {
+            for (int i = 0; i < count; i++) {
+                appendNormalized(initials[i], out);
+            }
+        }
+        else {
+            out.append(filterLetters(new String(initials, 0, count).toLowerCase()));
+        }
+    }
+
+
+    private static void normalizeString(String str, boolean localeSafe, StringBuilder out) {
+        if (localeSafe) {
+            for (int i = 0; i < str.length(); i++) {
+                appendNormalized(str.charAt(i), out);
+            }
+        }
+        else {
+            out.append(filterLetters(str.toLowerCase()));
+        }
+    }
 
-        StringBuffer out = new StringBuffer();
-        for (String n : names) {
-            out.append(n);
+
+    /**
+     * Appends the lower case form of a char if it is an ASCII letter or digit.
+     * <p>
+     * This is what lower casing a string and filtering out everything that
+     * isn't a letter or digit does, one char at a time. A few non-ASCII chars
+     * turn into ASCII letters when lower cased, e.g. the Kelvin sign or the
+     * capital I with dot above.
+     */
+    private static void appendNormalized(char c, StringBuilder out) {
+        char lower = (c < 0x80) ? c : Character.toLowerCase(c);
+        if ((lower >= 'a') && (lower <= 'z') || (lower >= '0') && (lower <= '9')) {
+            out.append(lower);
+        }
+        else if ((lower >= 'A') && (lower <= 'Z')) {
+            out.append((char) (lower + ('a' - 'A')));
         }
-        return filterLetters(out.toString().toLowerCase());
     }
 
 
-    private static String normalizeString(String str) {
-        String out = str.toLowerCase();
-        out = out.replaceAll("[ \t\n\r]", "");
-        return filterLetters(out.toLowerCase());
+    /**
+     * Returns if lower casing a string in the default locale works char by
+     * char. Turkish, Azeri and Lithuanian have special rules for the letter I,
+     * so those locales take the slow way that lower cases whole strings.
+     */
+    private static boolean isLocaleSafe() {
+        String language = Locale.getDefault().getLanguage();
+        return !("tr".equals(language) || "az".equals(language) || "lt".equals(language));
     }
 
 
     private static String filterLetters(String str) {
-        return str.replaceAll(FILTER_STRING, "");
+        return FILTER_PATTERN.matcher(str).replaceAll("");
+    }
+
+
+    /**
+     * The buffers a thread uses to build object IDs.
+     */
+    private static final class Buffers {
+
+        /**
+         * Buffers that grew larger than this are dropped after use, so a
+         * single huge document doesn't pin memory for the life of the thread.
+         */
+        private static final int MAX_RETAINED = 1024;
+
+        final StringBuilder out = new StringBuilder(128);
+        private char[] initials = new char[16];
+
+
+        char[] initials(int size) {
+            if (initials.length < size) {
+                initials = new char[size];
+            }
+            return initials;
+        }
+
+
+        void trim() {
+            if (out.capacity() > MAX_RETAINED) {
+                out.setLength(0);
+                out.trimToSize();
+            }
+            if (initials.length > MAX_RETAINED) {
+                initials = new char[16];
+            }
+        }
     }
 }
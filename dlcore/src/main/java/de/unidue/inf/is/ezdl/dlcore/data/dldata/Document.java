@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import de.unidue.inf.is.ezdl.dlcore.data.KeyedMergeable;
 import de.unidue.inf.is.ezdl.dlcore.data.Mergeable;
 import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
 import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
@@ -34,7 +35,7 @@ import de.unidue.inf.is.ezdl.dlcore.utils.merge.MergeUtils;
 /**
  * "What's metadata to you, is someone else's fundamental data." (Ralph Swick).
  */
-public abstract class Document extends AbstractDLObject {
+public abstract class Document extends AbstractDLObject implements KeyedMergeable {
 
     private static final long serialVersionUID = -4347509956016642262L;
 
@@ -311,6 +312,17 @@ public abstract class Document extends AbstractDLObject {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Documents are similar if they have the same OID.
+     */
+    @Override
+    public Object getMergeKey() {
+        return oid;
+    }
+
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -20,9 +20,12 @@ package de.unidue.inf.is.ezdl.dlcore.data.dldata;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import de.unidue.inf.is.ezdl.dlcore.data.KeyedMergeable;
 import de.unidue.inf.is.ezdl.dlcore.data.Mergeable;
 import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
 import de.unidue.inf.is.ezdl.dlcore.utils.merge.MergeUtils;
@@ -31,6 +34,12 @@ import de.unidue.inf.is.ezdl.dlcore.utils.merge.MergeUtils;
 
 /**
  * A list of {@link Mergeable}s.
+ * <p>
+ * Merging another list merges each of its elements into the first similar
+ * element of this list or appends it if there is none. If all elements are
+ * {@link KeyedMergeable}s, similar elements are found through a hash index
+ * over the merge keys, so merging is linear in the size of both lists.
+ * Otherwise each element is compared with each element of this list.
  * 
  * @param <T>
  *            the type of the list
@@ -103,27 +112,80 @@ public class MergeableArrayList<T extends Mergeable> extends ArrayList<T> implem
     public void merge(Mergeable other) {
         if (other instanceof MergeableArrayList<?>) {
             MergeableArrayList<Mergeable> obj = (MergeableArrayList<Mergeable>) other;
+            Map<Object, T> index = buildIndex();
             for (Mergeable o : obj) {
-                mergeOrAdd(o);
+                index = mergeOrAdd(o, index);
             }
         }
         else if (other != null) {
-            mergeOrAdd(other);
+            mergeOrAdd(other, null);
         }
 
         MergeUtils.merge(this, other);
     }
 
 
+    /**
+     * Merges an object into the first similar element or adds it.
+     * 
+     * @param o
+     *            the object to merge
+     * @param index
+     *            the index of the elements by merge key or null if the index
+     *            cannot be used
+     * @return the index to use for the next object, which is null if o could
+     *         not be indexed
+     */
     @SuppressWarnings("unchecked")
-    private void mergeOrAdd(Mergeable o) {
-        T left = findSimilar(o);
+    private Map<Object, T> mergeOrAdd(Mergeable o, Map<Object, T> index) {
+        final boolean indexed = (index != null) && (o instanceof KeyedMergeable);
+        final Object key = indexed ? ((KeyedMergeable) o).getMergeKey() : null;
+        T left = null;
+        if (!indexed) {
+            left = findSimilar(o);
+        }
+        else if (key != null) {
+            left = index.get(key);
+            if ((left != null) && !left.isSimilar(o)) {
+                left = findSimilar(o);
+            }
+        }
+
         if (left == null) {
             add((T) o);
+            if (!indexed) {
+                return null;
+            }
+            if ((key != null) && !index.containsKey(key)) {
+                index.put(key, (T) o);
+            }
         }
         else {
             left.merge(o);
         }
+        return index;
+    }
+
+
+    /**
+     * Builds an index of the elements by their merge keys. Elements with a
+     * null key are not similar to anything and left out. If several elements
+     * have the same key, the first one is indexed.
+     * 
+     * @return the index or null if an element is not a {@link KeyedMergeable}
+     */
+    private Map<Object, T> buildIndex() {
+        Map<Object, T> index = new HashMap<Object, T>(Math.max(16, size() * 2));
+        for (T n : this) {
+            if (!(n instanceof KeyedMergeable)) {
+                return null;
+            }
+            final Object key = ((KeyedMergeable) n).getMergeKey();
+            if ((key != null) && !index.containsKey(key)) {
+                index.put(key, n);
+            }
+        }
+        return index;
     }
 
 
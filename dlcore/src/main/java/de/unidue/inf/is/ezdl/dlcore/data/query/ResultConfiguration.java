@@ -58,6 +58,11 @@ public class ResultConfiguration implements Serializable {
      * The list of fields that should be in the documents
      */
     private List<Field> fields;
+    /**
+     * If true, intermediate result pages are sent as soon as single sources
+     * answer instead of a single result list after all sources have answered.
+     */
+    private boolean incremental;
 
 
     /**
@@ -155,4 +160,31 @@ public class ResultConfiguration implements Serializable {
         return fields;
     }
 
+
+    /**
+     * Returns if the results are to be delivered incrementally.
+     * <p>
+     * If true, the client receives an intermediate
+     * {@link de.unidue.inf.is.ezdl.dlcore.message.content.DocumentQueryResultTell}
+     * every time a source has answered. Such a delta page only contains the
+     * documents that are new, have changed their position in the ranking or
+     * have been merged with documents from other sources since the last page.
+     * The final result list is sent as usual.
+     * 
+     * @return true, if results are to be delivered incrementally
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+
+    /**
+     * @param incremental
+     *            true, if results are to be delivered incrementally
+     * @see #isIncremental()
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
 }
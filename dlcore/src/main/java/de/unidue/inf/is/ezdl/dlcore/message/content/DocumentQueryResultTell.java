@@ -18,6 +18,9 @@
 
 package de.unidue.inf.is.ezdl.dlcore.message.content;
 
+import java.util.Collections;
+import java.util.List;
+
 import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
 
 
@@ -34,6 +37,20 @@ public class DocumentQueryResultTell extends AbstractResultDocumentTell {
      * The total number of results available.
      */
     private int totalDocCount;
+    /**
+     * True, if the results are an intermediate delta page.
+     */
+    private boolean delta;
+    /**
+     * The positions of the results in the result page, if this is a delta
+     * page.
+     */
+    private List<Integer> positions;
+    /**
+     * The OIDs of the documents no longer in the result page, if this is a
+     * delta page.
+     */
+    private List<String> removedOids;
 
 
     /**
@@ -58,8 +75,48 @@ public class DocumentQueryResultTell extends AbstractResultDocumentTell {
      *            the total number of results available for the related query
      */
     public DocumentQueryResultTell(ResultDocumentList results, int totalDocCount) {
+        this(results, totalDocCount, false);
+    }
+
+
+    /**
+     * Creates a new object with the given results and the total result size
+     * given.
+     * 
+     * @param results
+     *            the result list
+     * @param totalDocCount
+     *            the total number of results available for the related query
+     * @param delta
+     *            true, if the results are an intermediate delta page that
+     *            only contains new and changed documents
+     */
+    public DocumentQueryResultTell(ResultDocumentList results, int totalDocCount, boolean delta) {
         super(results);
         this.totalDocCount = totalDocCount;
+        this.delta = delta;
+    }
+
+
+    /**
+     * Creates a new delta page.
+     * 
+     * @param results
+     *            the documents that are new or changed since the last page
+     * @param totalDocCount
+     *            the total number of results available for the related query
+     * @param positions
+     *            the position of each of the results in the result page,
+     *            starting at 0
+     * @param removedOids
+     *            the OIDs of the documents that are no longer in the result
+     *            page
+     */
+    public DocumentQueryResultTell(ResultDocumentList results, int totalDocCount, List<Integer> positions,
+                    List<String> removedOids) {
+        this(results, totalDocCount, true);
+        this.positions = positions;
+        this.removedOids = removedOids;
     }
 
 
@@ -80,6 +137,53 @@ public class DocumentQueryResultTell extends AbstractResultDocumentTell {
     }
 
 
+    /**
+     * Returns if this is an intermediate delta page.
+     * <p>
+     * Delta pages are only sent if the client asked for incremental results
+     * and only contain the documents that are new or changed since the last
+     * page, see {@link #getPositions()} and {@link #getRemovedOids()}. The
+     * final result list is never a delta page.
+     * 
+     * @return true, if the results are an intermediate delta page
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+
+    /**
+     * Returns the positions of the results in the result page.
+     * <p>
+     * Only set for delta pages. Documents of the last page that are neither in
+     * the results nor in {@link #getRemovedOids()} keep their positions.
+     * 
+     * @return the position of each of the results, starting at 0
+     */
+    public List<Integer> getPositions() {
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        return positions;
+    }
+
+
+    /**
+     * Returns the OIDs of the documents that were in the last page but are no
+     * longer in the result page.
+     * <p>
+     * Only set for delta pages.
+     * 
+     * @return the OIDs of the removed documents
+     */
+    public List<String> getRemovedOids() {
+        if (removedOids == null) {
+            return Collections.emptyList();
+        }
+        return removedOids;
+    }
+
+
     @Override
     public String toString() {
         return toInnerString("DocumentQueryTell");
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlcore.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * A thread-safe histogram of non-negative long values with power-of-two
+ * buckets.
+ * <p>
+ * Recording a value is lock-free and does not allocate, so the histogram can
+ * be updated on hot paths like message sending. Percentiles are approximated
+ * by the upper bound of the bucket they fall into and are therefore at most a
+ * factor of two off.
+ */
+public final class Histogram {
+
+    /**
+     * Number of buckets. Bucket i holds values v with 2^(i-1) <= v < 2^i,
+     * bucket 0 holds the value 0.
+     */
+    private static final int BUCKET_COUNT = 64;
+    /**
+     * The unit of the recorded values, used for printing.
+     */
+    private final String unit;
+    /**
+     * The bucket counters.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    /**
+     * The number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * The sum of all recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * The largest recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Creates a new histogram.
+     * 
+     * @param unit
+     *            the unit of the recorded values, e.g. "us"
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * 
+     * @param value
+     *            the value to record
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long currentMax = max.get();
+        while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * Returns the number of recorded values.
+     * 
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * Returns the largest recorded value.
+     * 
+     * @return the largest recorded value or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Returns the arithmetic mean of the recorded values.
+     * 
+     * @return the mean or 0 if nothing was recorded
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+
+    /**
+     * Returns an upper bound for the given percentile.
+     * 
+     * @param percentile
+     *            the percentile between 0 and 100
+     * @return the upper bound of the bucket that contains the percentile,
+     *         never larger than {@link #getMax()}
+     */
+    public long getPercentile(double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append("count=").append(getCount());
+        out.append(", mean=").append(Math.round(getMean())).append(unit);
+        out.append(", p50<=").append(getPercentile(50)).append(unit);
+        out.append(", p90<=").append(getPercentile(90)).append(unit);
+        out.append(", p99<=").append(getPercentile(99)).append(unit);
+        out.append(", max=").append(getMax()).append(unit);
+        return out.toString();
+    }
+
+
+    private static int bucketOf(long value) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+
+    private static long upperBoundOf(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlcore.utils.merge;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+
+
+/**
+ * The fields of a class that are annotated with {@link MergeIfNull}, together
+ * with their resolved accessors.
+ * <p>
+ * Plans are computed once per class by {@link MergeUtils}, so merging does
+ * not have to walk the class hierarchy or look up getters and setters by name.
+ */
+final class MergePlan {
+
+    /**
+     * The annotated fields in the order they are merged.
+     */
+    private final List<MergeField> fields;
+
+
+    /**
+     * Computes the plan for a class.
+     * 
+     * @param clz
+     *            the class
+     */
+    MergePlan(Class<?> clz) {
+        List<MergeField> found = new ArrayList<MergeField>();
+        for (Entry<Field, MergeIfNull> e : loadFields(clz).entrySet()) {
+            found.add(new MergeField(clz, e.getKey(), e.getValue()));
+        }
+        fields = Collections.unmodifiableList(found);
+    }
+
+
+    /**
+     * Returns the annotated fields.
+     * 
+     * @return the fields, which might be empty but never null
+     */
+    List<MergeField> getFields() {
+        return fields;
+    }
+
+
+    /**
+     * Returns if the class has no annotated fields.
+     * 
+     * @return true, if there is nothing to merge
+     */
+    boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+
+    private static Map<Field, MergeIfNull> loadFields(Class<?> clzx) {
+        Map<Field, MergeIfNull> fields = new HashMap<Field, MergeIfNull>();
+
+        Class<?> clz = clzx;
+        do {
+            for (Field f : clz.getDeclaredFields()) {
+                MergeIfNull anno = f.getAnnotation(MergeIfNull.class);
+                if (anno != null) {
+                    fields.put(f, anno);
+                }
+            }
+            clz = clz.getSuperclass();
+        }
+        while (clz != null);
+        return fields;
+    }
+
+
+    /**
+     * An annotated field and the accessors to read and write it.
+     */
+    static final class MergeField {
+
+        private final String key;
+        private final MergeIfNull annotation;
+        private final Field field;
+        /**
+         * The getter or null if the class has none.
+         */
+        private final Method getter;
+        /**
+         * Setters declared by the class itself, by parameter type.
+         */
+        private final Map<Class<?>, Method> declaredSetters = new HashMap<Class<?>, Method>();
+        /**
+         * The public setter used if no declared one matches the value type.
+         */
+        private final Method publicSetter;
+
+
+        MergeField(Class<?> clz, Field field, MergeIfNull annotation) {
+            this.field = field;
+            this.annotation = annotation;
+            this.key = annotation.value().isEmpty() ? field.getName() : annotation.value();
+
+            final String property = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+            final String getterName = "get" + property;
+            final String setterName = "set" + property;
+
+            Method declaredGetter = null;
+            for (Method m : clz.getDeclaredMethods()) {
+                if (m.getName().equals(getterName) && (m.getParameterTypes().length == 0)) {
+                    declaredGetter = m;
+                }
+                else if (m.getName().equals(setterName) && (m.getParameterTypes().length == 1)) {
+                    declaredSetters.put(m.getParameterTypes()[0], accessible(m));
+                }
+            }
+            Method lastPublicGetter = null;
+            Method lastPublicSetter = null;
+            for (Method m : clz.getMethods()) {
+                if (m.getName().equals(getterName)) {
+                    lastPublicGetter = m;
+                }
+                else if (m.getName().equals(setterName)) {
+                    lastPublicSetter = m;
+                }
+            }
+            getter = accessible(declaredGetter != null ? declaredGetter : lastPublicGetter);
+            publicSetter = accessible(lastPublicSetter);
+
+            if (!annotation.isPOJO() && !field.isAccessible()) {
+                field.setAccessible(true);
+            }
+        }
+
+
+        private static Method accessible(Method m) {
+            if ((m != null) && !m.isAccessible()) {
+                m.setAccessible(true);
+            }
+            return m;
+        }
+
+
+        String getKey() {
+            return key;
+        }
+
+
+        MergeIfNull getAnnotation() {
+            return annotation;
+        }
+
+
+        /**
+         * Reads the value of the field.
+         * 
+         * @param obj
+         *            the object to read from
+         * @return the value or null if there is no getter
+         */
+        Object read(Object obj) throws IllegalAccessException, InvocationTargetException {
+            if (annotation.isPOJO()) {
+                return (getter != null) ? getter.invoke(obj) : null;
+            }
+            return field.get(obj);
+        }
+
+
+        /**
+         * Writes the value of the field.
+         * 
+         * @param obj
+         *            the object to write to
+         * @param value
+         *            the new value
+         * @throws NoSuchMethodException
+         *             if the field is accessed by a setter and there is none
+         */
+        void write(Object obj, Object value) throws IllegalAccessException, InvocationTargetException,
+                        NoSuchMethodException {
+            if (annotation.isPOJO()) {
+                Method setter = declaredSetters.get(value != null ? value.getClass() : Object.class);
+                if (setter == null) {
+                    setter = publicSetter;
+                }
+                if (setter == null) {
+                    throw new NoSuchMethodException("No setter for " + field);
+                }
+                setter.invoke(obj, value);
+            }
+            else {
+                field.set(obj, value);
+            }
+        }
+    }
+
+}
@@ -20,44 +20,52 @@ package de.unidue.inf.is.ezdl.dlcore.utils.merge;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 
+import de.unidue.inf.is.ezdl.dlcore.utils.merge.MergePlan.MergeField;
+
 
 
 final public class MergeUtils {
 
     private static Logger logger = Logger.getLogger(MergeUtils.class);
 
+    /**
+     * The merge plans computed so far, by class.
+     */
+    private static final ConcurrentMap<Class<?>, MergePlan> PLANS = new ConcurrentHashMap<Class<?>, MergePlan>();
+
 
     private MergeUtils() {
     }
 
 
-    private static Map<Field, MergeIfNull> loadFields(Class<?> clzx) {
-        // finde alle Merge daten
-        Map<Field, MergeIfNull> fields = new HashMap<Field, MergeIfNull>();
-
-        Class<?> clz = clzx;
-        do {
-            for (Field f : clz.getDeclaredFields()) {
-                MergeIfNull anno = f.getAnnotation(MergeIfNull.class);
-                if (anno != null) {
-                    fields.put(f, anno);
-                }
+    /**
+     * Returns the merge plan of a class, computing it on first use.
+     * 
+     * @param clz
+     *            the class
+     * @return the plan
+     */
+    static MergePlan planFor(Class<?> clz) {
+        MergePlan plan = PLANS.get(clz);
+        if (plan == null) {
+            plan = new MergePlan(clz);
+            MergePlan existing = PLANS.putIfAbsent(clz, plan);
+            if (existing != null) {
+                plan = existing;
             }
-            clz = clz.getSuperclass();
         }
-        while (clz != null);
-        return fields;
+        return plan;
     }
 
 
@@ -67,19 +75,10 @@ final public class MergeUtils {
         if (map != null) {
             data.putAll(map);
         }
-        // finde alle Merge daten
-        Map<Field, MergeIfNull> fields = loadFields(obj.getClass());
-
-        // habe nun alle Felder
-        // nun die Annotation checken und getter sowie setter oder den Wert
-        // laden
-        for (Entry<Field, MergeIfNull> e : fields.entrySet()) {
-            MergeIfNull m = e.getValue();
-            // nun getter und setter
-            String key = m.value();
-            if (key.isEmpty()) {
-                key = e.getKey().getName();
-            }
+
+        for (MergeField f : planFor(obj.getClass()).getFields()) {
+            MergeIfNull m = f.getAnnotation();
+            String key = f.getKey();
             Object cache = data.get(key);
             boolean replace = (cache == null);
             if (cache instanceof Number) {
@@ -89,120 +88,67 @@ final public class MergeUtils {
             }
 
             if (replace) {
-                if (m.isPOJO()) {
-                    cache = invokeGetter(obj, e.getKey());
-                }
-                else {
-                    Field f = e.getKey();
-                    if (!f.isAccessible()) {
-                        f.setAccessible(true);
-                    }
-                    cache = f.get(obj); // einfaches auslesen
-                }
                 // insert or replace
-                data.put(key, cache);
+                data.put(key, f.read(obj));
             }
-
         }
 
         return data;
     }
 
 
-    private static Object invokeGetter(Object obj, Field f) throws IllegalAccessException, InvocationTargetException {
-        String getterName = "get" + Character.toUpperCase(f.getName().charAt(0)) + f.getName().substring(1);
-        Method m = null;
-        try {
-            m = obj.getClass().getDeclaredMethod(getterName);
-        }
-        catch (NoSuchMethodException e) {
-            for (Method mx : obj.getClass().getMethods()) {
-                if (mx.getName().equals(getterName)) {
-                    // use first one
-                    m = mx;
-                }
-            }
-        }
-        Object out = null;
-        if (m != null) {
-            if (!m.isAccessible()) {
-                m.setAccessible(true); // error if not public
-            }
-            out = m.invoke(obj);
-        }
-        return out;
-    }
-
-
-    private static void invokeSetter(Object obj, Field f, Object value) throws IllegalArgumentException,
-                    IllegalAccessException, InvocationTargetException {
-        String setterName = "set" + Character.toUpperCase(f.getName().charAt(0)) + f.getName().substring(1);
-        Class<?> param = value != null ? value.getClass() : Object.class;
-        // problem mit auto-boxing
-        Method m = null;
-        try {
-            m = obj.getClass().getDeclaredMethod(setterName, param);
-        }
-        catch (NoSuchMethodException e) {
-            for (Method mx : obj.getClass().getMethods()) {
-                if (mx.getName().equals(setterName)) {
-                    // use first one
-                    m = mx;
-                }
-            }
-        }
-        if (!m.isAccessible()) {
-            m.setAccessible(true); // error if not public
-        }
-        m.invoke(obj, value);
-    }
-
-
     private static void setValues(Map<String, Object> map, Object target) throws Exception {
-
-        // find MergeStuff
-        Map<Field, MergeIfNull> fields = loadFields(target.getClass());
-
-        for (Entry<Field, MergeIfNull> e : fields.entrySet()) {
-            MergeIfNull m = e.getValue();
-            // nun getter und setter
-            String key = m.value();
-            if (key.isEmpty()) {
-                key = e.getKey().getName();
-            }
+        for (MergeField f : planFor(target.getClass()).getFields()) {
+            MergeIfNull m = f.getAnnotation();
+            String key = f.getKey();
             Object cache = map.get(key);
             if (cache != null) {
-                // deepcopy?
-                if (m.deepCopy()) {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    oos.writeObject(cache);
-                    oos.close();
-                    bos.flush();
-                    ByteArrayInputStream bin = new ByteArrayInputStream(bos.toByteArray());
-                    ObjectInputStream oin = new ObjectInputStream(bin);
-                    cache = oin.readObject();
-                    oin.close();
-                    bin.close();
-                    bos.close();
+                boolean immutable = isImmutable(cache);
+                if ((immutable || !m.deepCopy()) && (cache == f.read(target))) {
+                    // the target already holds this very value
+                    continue;
+                }
+                if (m.deepCopy() && !immutable) {
+                    cache = deepCopy(cache);
                 }
 
-                //
-                if (m.isPOJO()) {
-                    invokeSetter(target, e.getKey(), cache);
+                try {
+                    f.write(target, cache);
                 }
-                else {
-                    try {
-                        e.getKey().set(target, cache);
-                    }
-                    catch (IllegalAccessException ex) {
-                        logger.error("can't set " + key);
-                        throw ex;
-                    }
+                catch (IllegalAccessException ex) {
+                    logger.error("can't set " + key);
+                    throw ex;
                 }
             }
         }
+    }
 
+
+    /**
+     * Returns if a value cannot change, so that copying it is unnecessary.
+     */
+    private static boolean isImmutable(Object value) {
+        if ((value instanceof Number) && (value.getClass().getPackage() == Integer.class.getPackage())) {
+            return true;
+        }
+        return (value instanceof String) || (value instanceof Character) || (value instanceof Boolean)
+                        || (value instanceof Enum<?>);
+    }
+
+
+    private static Object deepCopy(Object value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(value);
+        oos.close();
+        bos.flush();
+        ByteArrayInputStream bin = new ByteArrayInputStream(bos.toByteArray());
+        ObjectInputStream oin = new ObjectInputStream(bin);
+        Object copy = oin.readObject();
+        oin.close();
+        bin.close();
+        bos.close();
+        return copy;
     }
 
 
@@ -210,6 +156,9 @@ final public class MergeUtils {
         // init if target
         Object t = null;
         try {
+            if (planFor(target.getClass()).isEmpty()) {
+                return target;
+            }
             Map<String, Object> map = collectValues(null, target);
             for (Object node : src) {
                 map = collectValues(map, node);
@@ -18,8 +18,16 @@
 
 package de.unidue.inf.is.ezdl.dlcore.cache;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
@@ -107,4 +115,111 @@ public class TimedCacheTest extends AbstractTestBase {
         Assert.assertEquals(VALUE, timedCache.get(KEY));
     }
 
+
+    @Test
+    public void testPerEntryTimeToLive() {
+        timedCache.put(KEY, VALUE, 50, TimeUnit.MILLISECONDS);
+        timedCache.put("y", VALUE);
+        sleep(100);
+        Assert.assertNull(timedCache.get(KEY));
+        Assert.assertEquals(VALUE, timedCache.get("y"));
+    }
+
+
+    @Test
+    public void testPutReplaces() {
+        timedCache.put(KEY, VALUE, 50, TimeUnit.MILLISECONDS);
+        timedCache.put(KEY, "456");
+        sleep(100);
+        Assert.assertEquals("456", timedCache.get(KEY));
+        Assert.assertEquals(1, timedCache.size());
+    }
+
+
+    @Test
+    public void testRemove() {
+        timedCache.put(KEY, VALUE);
+        timedCache.remove(KEY);
+        Assert.assertNull(timedCache.get(KEY));
+        Assert.assertEquals(0, timedCache.size());
+    }
+
+
+    @Test
+    public void testMaxSize() {
+        timedCache = new TimedCache(new MockCache(), 2, TimeUnit.SECONDS, 2);
+        timedCache.put("a", VALUE, 1, TimeUnit.MINUTES);
+        timedCache.put("b", VALUE, 1, TimeUnit.SECONDS);
+        timedCache.put("c", VALUE, 1, TimeUnit.MINUTES);
+        Assert.assertEquals(2, timedCache.size());
+        Assert.assertNull("entry that expires first evicted", timedCache.get("b"));
+        Assert.assertEquals(VALUE, timedCache.get("a"));
+        Assert.assertEquals(VALUE, timedCache.get("c"));
+    }
+
+
+    @Test
+    public void testExpiredEntriesRemoved() {
+        for (int i = 0; (i < 100); i++) {
+            timedCache.put(i, VALUE, 10, TimeUnit.MILLISECONDS);
+        }
+        sleep(50);
+        timedCache.cleanUp();
+        Assert.assertEquals(0, timedCache.size());
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int threads = 8;
+        final int operations = 20000;
+        final int maxSize = 500;
+        final ConcurrentMapCache backing = new ConcurrentMapCache();
+        final TimedCache cache = new TimedCache(backing, 20, TimeUnit.MILLISECONDS, maxSize);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; (t < threads); t++) {
+            final long seed = t;
+            results.add(executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    Random random = new Random(seed);
+                    int maxSeen = 0;
+                    start.await();
+                    for (int i = 0; (i < operations); i++) {
+                        Integer key = random.nextInt(2000);
+                        int op = random.nextInt(10);
+                        if (op < 4) {
+                            cache.put(key, key, 1 + random.nextInt(20), TimeUnit.MILLISECONDS);
+                        }
+                        else if (op < 9) {
+                            Object value = cache.get(key);
+                            if ((value != null) && !key.equals(value)) {
+                                throw new AssertionError("wrong value " + value + " for key " + key);
+                            }
+                        }
+                        else {
+                            cache.remove(key);
+                        }
+                        maxSeen = Math.max(maxSeen, cache.size());
+                    }
+                    return maxSeen;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Integer> result : results) {
+            int maxSeen = result.get(1, TimeUnit.MINUTES);
+            Assert.assertTrue("size " + maxSeen, maxSeen <= maxSize + threads);
+        }
+        executor.shutdown();
+
+        sleep(50);
+        cache.cleanUp();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertTrue(backing.getMap().isEmpty());
+    }
+
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlcore.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Person;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.PersonList;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
+
+
+
+/**
+ * Checks that the object IDs of a generated corpus do not drift from the ones
+ * recorded in <code>/oid/golden-oids.txt</code>.
+ * <p>
+ * Each line of the file holds the object ID of the document with the same
+ * index in {@link #corpus()} or "null" if the document has no object ID.
+ */
+public class OIDFactoryGoldenTest extends AbstractTestBase {
+
+    static final int CORPUS_SIZE = 5000;
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String DIGITS = "0123456789";
+    private static final String WHITESPACE = "   \t\n\r";
+    private static final String PUNCTUATION = ".,:;'\"&-()[]/?!_#+*";
+    private static final String SPECIAL = "\u00E4\u00F6\u00FC\u00C4\u00D6\u00DC\u00DF\u00E9\u00E8\u00F1\u00E7\u0130\u0131"
+                    + "\u03A3\u03C3\u03C2\uFF21\uFF41\u212A\u00C5\u212B";
+    private static final String SURROGATE_PAIR = "\uD835\uDC00";
+
+
+    @Test
+    public void testGoldenOids() throws IOException {
+        List<String> golden = readGolden();
+        List<Document> corpus = corpus();
+        Assert.assertEquals(corpus.size(), golden.size());
+        for (int i = 0; i < corpus.size(); i++) {
+            String expected = golden.get(i);
+            Assert.assertEquals("document " + i, "null".equals(expected) ? null : expected,
+                            OIDFactory.calcOid(corpus.get(i)));
+        }
+    }
+
+
+    private List<String> readGolden() throws IOException {
+        InputStream in = getClass().getResourceAsStream("/oid/golden-oids.txt");
+        try {
+            return IOUtils.readLines(in, "UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Generates the corpus. The generator is seeded, so the corpus is the same
+     * on every run.
+     * 
+     * @return the documents
+     */
+    static List<Document> corpus() {
+        Random random = new Random(20111017L);
+        List<Document> documents = new ArrayList<Document>(CORPUS_SIZE);
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            TextDocument d = new TextDocument();
+            if (random.nextInt(50) != 0) {
+                d.setTitle(randomText(random, random.nextInt(80)));
+            }
+            d.setYear(random.nextInt(10) == 0 ? 0 : 1950 + random.nextInt(70));
+            if (random.nextInt(50) != 0) {
+                PersonList authors = new PersonList();
+                int count = random.nextInt(7);
+                for (int j = 0; j < count; j++) {
+                    String lastName = random.nextInt(10) == 0 ? "" : randomText(random, 1 + random.nextInt(12));
+                    authors.add(new Person(randomText(random, random.nextInt(8)), lastName));
+                }
+                d.setAuthorList(authors);
+            }
+            documents.add(d);
+        }
+        return documents;
+    }
+
+
+    private static String randomText(Random random, int length) {
+        StringBuilder out = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 55) {
+                out.append(pick(random, LETTERS));
+            }
+            else if (kind < 65) {
+                out.append(pick(random, DIGITS));
+            }
+            else if (kind < 80) {
+                out.append(pick(random, WHITESPACE));
+            }
+            else if (kind < 90) {
+                out.append(pick(random, PUNCTUATION));
+            }
+            else if (kind < 98) {
+                out.append(pick(random, SPECIAL));
+            }
+            else {
+                out.append(SURROGATE_PAIR);
+            }
+        }
+        return out.toString();
+    }
+
+
+    private static char pick(Random random, String chars) {
+        return chars.charAt(random.nextInt(chars.length()));
+    }
+}
@@ -18,6 +18,8 @@
 
 package de.unidue.inf.is.ezdl.dlcore.data;
 
+import java.util.Locale;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -64,6 +66,33 @@ public class OIDFactoryTest extends AbstractTestBase {
     }
 
 
+    @Test
+    public void oidTestTurkishLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            // a dotless i is not an ASCII letter
+            testOid("1", "txt:stanbul:2000:", "ISTANBUL", 2000, "Ilhan Irem");
+        }
+        finally {
+            Locale.setDefault(locale);
+        }
+        testOid("2", "txt:istanbul:2000:i", "ISTANBUL", 2000, "Ilhan Irem");
+    }
+
+
+    @Test
+    public void oidTestHashed() {
+        Assert.assertEquals("a#af63dc4c8601ec8c", OIDFactory.hashOid("a"));
+        Assert.assertEquals("txt#", OIDFactory.hashOid("txt:title:2000:bf").substring(0, 4));
+        Assert.assertEquals(20, OIDFactory.hashOid("txt:title:2000:bf").length());
+
+        Document d = DocumentFactory.createDocument("title", 2000, "Norbert Fuhr", "Nick Belkin");
+        Assert.assertEquals(OIDFactory.hashOid("txt:title:2000:bf"), OIDFactory.calcHashedOid(d));
+        Assert.assertNull(OIDFactory.calcHashedOid(DocumentFactory.createDocument("title", 2000)));
+    }
+
+
     private void testOid(String id, String expected, String title, int year, String... authors) {
         Document d = DocumentFactory.createDocument(title, year, authors);
         String oid = OIDFactory.calcOid(d);
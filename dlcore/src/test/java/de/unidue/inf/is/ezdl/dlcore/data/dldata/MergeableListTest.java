@@ -159,6 +159,92 @@ public class MergeableListTest extends AbstractTestBase {
     }
 
 
+    @Test
+    public void testMergeKeepsOrder() {
+        MergeableList<TextDocument> list1 = new MergeableArrayList<TextDocument>();
+        list1.add(createDocument("title 1", 2000, null, "a b"));
+        list1.add(createDocument("title 2", 2001, null, "j g"));
+        list1.add(createDocument("title 3", 2002, null, "i z"));
+
+        MergeableList<TextDocument> list2 = new MergeableArrayList<TextDocument>();
+        list2.add(createDocument("title 4", 2003, null, "a s"));
+        list2.add(createDocument("title 2", 2001, "abstract", "j g"));
+        list2.add(createDocument("title 5", 2004, null, "n e"));
+        list2.add(createDocument("title 4", 2003, "abstract 4", "a s"));
+
+        list1.merge(list2);
+
+        Assert.assertEquals(5, list1.size());
+        Assert.assertEquals("title 1", list1.get(0).getTitle());
+        Assert.assertEquals("title 2", list1.get(1).getTitle());
+        Assert.assertEquals("abstract", list1.get(1).getAbstract());
+        Assert.assertEquals("title 3", list1.get(2).getTitle());
+        Assert.assertEquals("title 4", list1.get(3).getTitle());
+        Assert.assertEquals("abstract 4", list1.get(3).getAbstract());
+        Assert.assertEquals("title 5", list1.get(4).getTitle());
+    }
+
+
+    @Test
+    public void testMergeIntoFirstOfDuplicates() {
+        MergeableList<TextDocument> list1 = new MergeableArrayList<TextDocument>();
+        list1.add(createDocument("title 1", 2000, null, "a b"));
+        list1.add(createDocument("title 1", 2000, null, "a b"));
+
+        MergeableList<TextDocument> list2 = new MergeableArrayList<TextDocument>();
+        list2.add(createDocument("title 1", 2000, "abstract", "a b"));
+
+        list1.merge(list2);
+
+        Assert.assertEquals(2, list1.size());
+        Assert.assertEquals("abstract", list1.get(0).getAbstract());
+        Assert.assertNull(list1.get(1).getAbstract());
+    }
+
+
+    @Test
+    public void testMergeWithoutOid() {
+        MergeableList<TextDocument> list1 = new MergeableArrayList<TextDocument>();
+        list1.add(createDocumentWithoutOid("title 1"));
+
+        MergeableList<TextDocument> list2 = new MergeableArrayList<TextDocument>();
+        list2.add(createDocumentWithoutOid("title 1"));
+        list2.add(createDocument("title 1", 2000, "abstract", "a b"));
+
+        list1.merge(list2);
+
+        Assert.assertEquals("documents without OID are never similar", 3, list1.size());
+    }
+
+
+    @Test
+    public void testMergeMixedWithUnkeyed() {
+        MergeableList<Mergeable> list1 = new MergeableArrayList<Mergeable>();
+        list1.add(createDocument("title 1", 2000, null, "a b"));
+        list1.add(createMergeable("s43"));
+
+        MergeableList<Mergeable> list2 = new MergeableArrayList<Mergeable>();
+        list2.add(createMergeable("s43"));
+        list2.add(createMergeable("s44"));
+        list2.add(createDocument("title 1", 2000, "abstract", "a b"));
+        list2.add(createDocument("title 2", 2001, null, "a b"));
+
+        list1.merge(list2);
+
+        Assert.assertEquals(4, list1.size());
+        Assert.assertEquals("abstract", ((TextDocument) list1.get(0)).getAbstract());
+        Assert.assertEquals("s43s43", list1.get(1).toString());
+        Assert.assertEquals("s44", list1.get(2).toString());
+    }
+
+
+    private TextDocument createDocumentWithoutOid(String title) {
+        TextDocument d = new TextDocument();
+        d.setTitle(title);
+        return d;
+    }
+
+
     public TextDocument createDocument(String title, int year, String abs, String... authors) {
         TextDocument d = DocumentFactory.createDocument(title, year, authors);
         d.setAbstract(abs);
@@ -30,6 +30,7 @@ import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
 import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
 import de.unidue.inf.is.ezdl.dlcore.tools.merge.data.NextLevel;
 import de.unidue.inf.is.ezdl.dlcore.tools.merge.data.SimpleObject;
+import de.unidue.inf.is.ezdl.dlcore.utils.merge.MergeUtils;
 
 
 
@@ -76,6 +77,32 @@ public class MergeTest extends AbstractTestBase {
     }
 
 
+    @Test
+    public void mergeRepeatedly() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            NextLevel target = new NextLevel();
+            NextLevel src = new NextLevel();
+            src.setAge(20 + i);
+            src.setFlat("flat" + i);
+            src.setNames(new ArrayList<String>(Arrays.asList("a" + i)));
+
+            target.xmerge(src);
+            Assert.assertEquals(20 + i, target.getAge());
+            Assert.assertEquals("flat" + i, target.getFlat());
+            Assert.assertEquals(src.getNames(), target.getNames());
+            Assert.assertNotSame(src.getNames(), target.getNames());
+        }
+    }
+
+
+    @Test
+    public void mergeWithoutAnnotatedFields() {
+        StringBuilder target = new StringBuilder("target");
+        Assert.assertSame(target, MergeUtils.merge(target, new StringBuilder("src")));
+        Assert.assertEquals("target", target.toString());
+    }
+
+
     /**
      * This test case checks merging a document whose abstract is there with a
      * document that has a valid abstract, too.
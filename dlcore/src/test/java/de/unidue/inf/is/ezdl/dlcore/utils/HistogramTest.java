@@ -0,0 +1,67 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlcore.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+
+
+
+public class HistogramTest extends AbstractTestBase {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram("ms");
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+        Assert.assertEquals(0d, histogram.getMean(), 0d);
+    }
+
+
+    @Test
+    public void testRecord() {
+        Histogram histogram = new Histogram("ms");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(100, histogram.getMax());
+        Assert.assertEquals(50.5d, histogram.getMean(), 0.001d);
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue("p50 " + p50, p50 >= 50 && p50 < 100);
+        Assert.assertEquals(100, histogram.getPercentile(99));
+        Assert.assertEquals(100, histogram.getPercentile(100));
+    }
+
+
+    @Test
+    public void testNegativeAndReset() {
+        Histogram histogram = new Histogram("ms");
+        histogram.record(-5);
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals("count=0, mean=0ms, p50<=0ms, p90<=0ms, p99<=0ms, max=0ms", histogram.toString());
+    }
+
+}
@@ -21,12 +21,15 @@ package de.unidue.inf.is.ezdl.dlservices.backbone.directory;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.unidue.inf.is.ezdl.dlbackend.agent.AbstractAgent;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
+import de.unidue.inf.is.ezdl.dlbackend.agent.timer.TimerService;
 import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentRecord;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.AgentNameAllTell;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
 import de.unidue.inf.is.ezdl.dlbackend.message.content.KillAsk;
 import de.unidue.inf.is.ezdl.dlcore.message.content.MessageContent;
 import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
@@ -42,9 +45,19 @@ import de.unidue.inf.is.ezdl.dlservices.backbone.directory.handlers.WrapperDirec
 /**
  * The Directory is the central agent that allows other agents to register,
  * deregister and find other agents based on service names.
+ * <p>
+ * When agents register or deregister, the Directory sends a
+ * {@link DirectoryChangedNotify} to all registered agents so they can drop
+ * what they cached about other agents. Changes that happen within
+ * {@link #NOTIFY_DELAY_MS} are reported together.
  */
 public final class Directory extends AbstractAgent {
 
+    /**
+     * How long to wait for more changes before notifying the agents.
+     */
+    static final long NOTIFY_DELAY_MS = 100;
+
     /**
      * Store for information about the agents the directory knows about.
      */
@@ -53,6 +66,24 @@ public final class Directory extends AbstractAgent {
      * Reference to the web server.
      */
     private DirectoryWeb web;
+    /**
+     * True, if a notification about changes is scheduled but not sent yet.
+     */
+    private final AtomicBoolean notifyPending = new AtomicBoolean();
+
+
+    /**
+     * Creates a new Directory.
+     */
+    public Directory() {
+        agentCache.setChangeListener(new AgentCache.ChangeListener() {
+
+            @Override
+            public void agentsChanged(long generation) {
+                scheduleChangeNotification();
+            }
+        });
+    }
 
 
     @Override
@@ -85,12 +116,10 @@ public final class Directory extends AbstractAgent {
      *         null if no such message was received.
      * @throws TimeoutException
      */
-    public synchronized MessageContent ask(MessageContent content, String agent) throws TimeoutException {
+    public MessageContent ask(MessageContent content, String agent) throws TimeoutException {
         final String ds = getNextRequestID();
 
-        send(new Message(agentName(), agent, content, ds));
-
-        Message answer = getMessageWaiter().waitForRequestId(ds);
+        Message answer = askAsync(new Message(agentName(), agent, content, ds)).getAnswer();
         MessageContent out = null;
         if (answer != null) {
             out = answer.getContent();
@@ -134,6 +163,37 @@ public final class Directory extends AbstractAgent {
     }
 
 
+    private void scheduleChangeNotification() {
+        if (notifyPending.compareAndSet(false, true)) {
+            TimerService.getInstance().schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    notifyPending.set(false);
+                    if (!isHalted()) {
+                        notifyAgents();
+                    }
+                }
+            }, NOTIFY_DELAY_MS);
+        }
+    }
+
+
+    /**
+     * Tells all registered agents the current generation of the agent cache.
+     */
+    void notifyAgents() {
+        final long generation = agentCache.getGeneration();
+        for (AgentRecord agent : agentCache.createAgentList("")) {
+            final String sharedSecret = agent.getSharedSecret();
+            if (sharedSecret != null) {
+                DirectoryChangedNotify content = new DirectoryChangedNotify(generation, sharedSecret);
+                send(new Message(agentName(), agent.getName(), content, getNextRequestID()));
+            }
+        }
+    }
+
+
     /**
      * Sends agent information about multiple agents in an answer to the given
      * message.
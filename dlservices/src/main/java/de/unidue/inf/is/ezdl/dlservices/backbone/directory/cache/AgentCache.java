@@ -18,10 +18,14 @@
 
 package de.unidue.inf.is.ezdl.dlservices.backbone.directory.cache;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
@@ -36,17 +40,109 @@ import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
  * <p>
  * Agents are identified by their unique name and organized by a service name
  * that looks similar to a Unix path name (e.g. "/wrappers/dl/acm").
+ * <p>
+ * The records are indexed by name and by service. Changes are rare compared to
+ * lookups, so every change publishes a new immutable {@link Registry} and
+ * lookups read the current one without locking. Every change also increments
+ * the generation number of the cache and is reported to the
+ * {@link ChangeListener}.
  * 
  * @author mjordan
  */
 public class AgentCache {
 
+    /**
+     * Is told about changes of the cache.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called after agents have been added or removed.
+         * 
+         * @param generation
+         *            the generation of the cache after the change
+         */
+        void agentsChanged(long generation);
+    }
+
+
+    /**
+     * An immutable state of the cache.
+     */
+    private static final class Registry {
+
+        final long generation;
+        final Map<String, AgentRecord> byName;
+        /**
+         * The agents by service, sorted so that all services under a root are
+         * next to each other. Agents that share a service are kept in the
+         * order they registered.
+         */
+        final NavigableMap<String, List<AgentRecord>> byService;
+
+
+        Registry(long generation, Map<String, AgentRecord> byName) {
+            this.generation = generation;
+            this.byName = Collections.unmodifiableMap(byName);
+            this.byService = new TreeMap<String, List<AgentRecord>>();
+            for (AgentRecord agent : byName.values()) {
+                List<AgentRecord> agents = byService.get(agent.getService());
+                if (agents == null) {
+                    agents = new ArrayList<AgentRecord>(1);
+                    byService.put(agent.getService(), agents);
+                }
+                agents.add(agent);
+            }
+        }
+    }
+
+
     /**
      * The logger.
      */
     private static final Logger logger = Logger.getLogger(AgentCache.class);
 
-    private final Map<String, AgentRecord> agentMap = new HashMap<String, AgentRecord>();
+    /**
+     * The current state. Replaced as a whole on every change.
+     */
+    private volatile Registry registry;
+    /**
+     * Is told about changes.
+     */
+    private volatile ChangeListener listener;
+
+
+    /**
+     * Creates a new, empty cache.
+     * <p>
+     * The generation starts at the current time in milliseconds, so the
+     * generations of a restarted directory are newer than the ones its agents
+     * might remember.
+     */
+    public AgentCache() {
+        registry = new Registry(System.currentTimeMillis(), new LinkedHashMap<String, AgentRecord>());
+    }
+
+
+    /**
+     * Sets the listener that is told about changes.
+     * 
+     * @param listener
+     *            the listener or null
+     */
+    public void setChangeListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Returns the generation number, which is incremented with each change.
+     * 
+     * @return the generation
+     */
+    public long getGeneration() {
+        return registry.generation;
+    }
 
 
     private String getKey(AgentRecord agentInfo) {
@@ -62,24 +158,33 @@ public class AgentCache {
      * @return true if the agent information was added. Else false.
      */
     public boolean addAgent(AgentRecord agentInfo) {
-        boolean addedAgent = false;
         final String key = getKey(agentInfo);
         final boolean serviceSet = !StringUtils.isEmpty(agentInfo.getService());
-        if (!key.isEmpty() && !agentMap.containsKey(key) && serviceSet) {
-            agentMap.put(key, agentInfo);
-            addedAgent = true;
+        if (key.isEmpty() || !serviceSet) {
+            return false;
         }
-        return addedAgent;
+        long generation;
+        synchronized (this) {
+            if (registry.byName.containsKey(key)) {
+                return false;
+            }
+            Map<String, AgentRecord> byName = new LinkedHashMap<String, AgentRecord>(registry.byName);
+            byName.put(key, agentInfo);
+            generation = publish(byName);
+        }
+        fireChanged(generation);
+        return true;
     }
 
 
     /**
-     * Returns the internal map between service names and AgentRecords.
+     * Returns a read-only view of the map between agent names and
+     * AgentRecords.
      * 
      * @return the map
      */
     public Map<String, AgentRecord> getDirMap() {
-        return agentMap;
+        return registry.byName;
     }
 
 
@@ -94,15 +199,7 @@ public class AgentCache {
      * @return true, if the agent was removed. Else false.
      */
     public boolean removeAgent(String agentName, String sharedSecret) {
-        boolean success = false;
-        if (agentName != null && agentMap.containsKey(agentName)) {
-            AgentRecord agent = agentMap.get(agentName);
-            if (sharedSecretOkay(sharedSecret, agent)) {
-                agentMap.remove(agentName);
-                success = true;
-            }
-        }
-        return success;
+        return remove(agentName, sharedSecret, true);
     }
 
 
@@ -114,12 +211,43 @@ public class AgentCache {
      * @return true, if the agent was removed. Else false.
      */
     public boolean removeAgent(String agentName) {
-        boolean success = false;
-        if (agentName != null && agentMap.containsKey(agentName)) {
-            agentMap.remove(agentName);
-            success = true;
+        return remove(agentName, null, false);
+    }
+
+
+    private boolean remove(String agentName, String sharedSecret, boolean checkSecret) {
+        if (agentName == null) {
+            return false;
+        }
+        long generation;
+        synchronized (this) {
+            AgentRecord agent = registry.byName.get(agentName);
+            if ((agent == null) || (checkSecret && !sharedSecretOkay(sharedSecret, agent))) {
+                return false;
+            }
+            Map<String, AgentRecord> byName = new LinkedHashMap<String, AgentRecord>(registry.byName);
+            byName.remove(agentName);
+            generation = publish(byName);
+        }
+        fireChanged(generation);
+        return true;
+    }
+
+
+    /**
+     * Publishes the new state. Callers hold the lock.
+     */
+    private long publish(Map<String, AgentRecord> byName) {
+        registry = new Registry(registry.generation + 1, byName);
+        return registry.generation;
+    }
+
+
+    private void fireChanged(long generation) {
+        ChangeListener l = listener;
+        if (l != null) {
+            l.agentsChanged(generation);
         }
-        return success;
     }
 
 
@@ -136,13 +264,12 @@ public class AgentCache {
      * @return the list of agents which might be empty, but never null
      */
     public List<AgentRecord> createAgentList(String serviceRoot) {
-        List<AgentRecord> list = new LinkedList<AgentRecord>();
-
-        for (AgentRecord agent : agentMap.values()) {
-            final String service = agent.getService();
-            if (!StringUtils.isEmpty(service) && service.startsWith(serviceRoot)) {
-                list.add(agent);
+        List<AgentRecord> list = new ArrayList<AgentRecord>();
+        for (Entry<String, List<AgentRecord>> e : registry.byService.tailMap(serviceRoot, true).entrySet()) {
+            if (!e.getKey().startsWith(serviceRoot)) {
+                break;
             }
+            list.addAll(e.getValue());
         }
         return list;
     }
@@ -156,11 +283,7 @@ public class AgentCache {
      * @return the AgentRecord or null if no agent is found with the given name
      */
     public AgentRecord getByName(String nameStr) {
-        AgentRecord service = null;
-        if (agentMap.containsKey(nameStr)) {
-            service = agentMap.get(nameStr);
-        }
-        return service;
+        return registry.byName.get(nameStr);
     }
 
 
@@ -173,12 +296,8 @@ public class AgentCache {
      *         service
      */
     public AgentRecord getByService(String service) {
-        for (AgentRecord agent : agentMap.values()) {
-            if (agent.getService().equals(service)) {
-                return agent;
-            }
-        }
-        return null;
+        List<AgentRecord> agents = registry.byService.get(service);
+        return (agents != null) ? agents.get(0) : null;
     }
 
 
@@ -188,7 +307,7 @@ public class AgentCache {
      * @return the list of wrappers
      */
     public List<WrapperRecord> getWrappers() {
-        List<WrapperRecord> wrappers = new LinkedList<WrapperRecord>();
+        List<WrapperRecord> wrappers = new ArrayList<WrapperRecord>();
         List<AgentRecord> agents = createAgentList("/");
         for (AgentRecord agent : agents) {
             if (agent instanceof WrapperRecord) {
@@ -208,13 +327,7 @@ public class AgentCache {
      * @return true if the agent is active. Else false.
      */
     public boolean isAgentRegistered(String agentName) {
-        boolean registered = false;
-        for (AgentRecord agent : agentMap.values()) {
-            if (agent.getName().equals(agentName)) {
-                registered = true;
-                break;
-            }
-        }
+        boolean registered = registry.byName.containsKey(agentName);
         logger.debug("Agent " + agentName + " is active: " + registered);
         return registered;
     }
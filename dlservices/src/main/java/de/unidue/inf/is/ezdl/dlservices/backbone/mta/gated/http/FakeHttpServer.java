@@ -20,11 +20,22 @@ package de.unidue.inf.is.ezdl.dlservices.backbone.mta.gated.http;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -36,11 +47,20 @@ import de.unidue.inf.is.ezdl.dlservices.backbone.mta.gated.Server;
 
 /**
  * The FakeHttpServer is a small and very, very dump HTTP server. It listens to
- * new connections on a given port and passes the connection to a new
- * {@link ConnectionThread} that does all the hard work.
+ * new connections on a given port, answers the HTTP request that comes in with
+ * a dummy answer and then keeps the connection open to exchange chunks between
+ * the MTA and the client.
  * <p>
- * The only thing but dealing with new connections that is done in this class is
- * forwarding chunks between MTA and ConnectionThread.
+ * The server thread runs a single selector-driven event loop that accepts
+ * connections and does all reading and writing without blocking. The state of
+ * each connection is kept in an {@link HttpConnection}. Received chunks are
+ * handed to a bounded pool of handler threads, keeping the order per
+ * connection, because handling a message may block (e.g. during login).
+ * <p>
+ * The re-occurring ping messages are used for keeping the connection open in
+ * case HTTP proxies are involved. Connections that haven't sent anything for
+ * {@link #IDLE_TIMEOUT_MS} are closed. Clients answer pings, so this only hits
+ * clients that are gone.
  * 
  * @author mjordan
  */
@@ -55,16 +75,52 @@ final class FakeHttpServer extends Thread implements Server {
 
 
     /**
-     * The time in milliseconds to wait until {@link ServerSocket#accept()}
-     * returns even if no new connection could be established. This should be
-     * fairly small so ending the FakeHttpServer doesn't take ages.
+     * The time in milliseconds the event loop waits for I/O before it checks
+     * the timers of the connections.
+     */
+    public static final int SELECT_TIMEOUT_MS = 500;
+    /**
+     * The wait time in milliseconds between "ping" messages (e.g. AskAlive).
+     */
+    static final long PING_INTERVAL_MS = 10000;
+    /**
+     * The time in milliseconds without incoming data after which a connection
+     * is closed.
+     */
+    static final long IDLE_TIMEOUT_MS = 6 * PING_INTERVAL_MS;
+    /**
+     * The grace period for letting the send queue of a halted connection run
+     * empty.
+     */
+    static final int SEND_QUEUE_TIMEOUT_MS = 1000;
+    /**
+     * The maximum number of threads that handle received chunks.
+     */
+    private static final int HANDLER_THREADS = 32;
+    /**
+     * The number of pending connections the operating system queues until the
+     * event loop accepts them.
+     */
+    private static final int ACCEPT_BACKLOG = 1024;
+    /**
+     * The time in milliseconds the event loop stops accepting connections
+     * after accepting failed, e.g. because the process ran out of file
+     * descriptors.
      */
-    public static final int LISTEN_TIMEOUT_MS = 500;
+    private static final long ACCEPT_BACKOFF_MS = 1000;
+    /**
+     * The size of the buffer the event loop reads into.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
 
     /**
-     * The server socket that the FakeHttpServer listens on.
+     * The channel that the FakeHttpServer listens on.
+     */
+    private final ServerSocketChannel serverChannel;
+    /**
+     * The selector of the event loop.
      */
-    private final ServerSocket serverSocket;
+    private final Selector selector;
     /**
      * Used to delegate message handling.
      */
@@ -78,9 +134,27 @@ final class FakeHttpServer extends Thread implements Server {
      */
     private volatile RunningState runningState = RunningState.INIT;
     /**
-     * The map between connection ID's and connection threads.
+     * The map between connection ID's and connections.
      */
-    private Map<String, ConnectionThread> connections;
+    private final Map<String, HttpConnection> connections;
+    /**
+     * The connections that have data to write or are to be closed, passed from
+     * other threads to the event loop.
+     */
+    private final Queue<HttpConnection> writeRequests = new ConcurrentLinkedQueue<HttpConnection>();
+    /**
+     * Runs the handling of received chunks.
+     */
+    private final ThreadPoolExecutor handlers;
+    /**
+     * Counter to make connection IDs unique.
+     */
+    private final AtomicInteger connectionCounter = new AtomicInteger();
+    /**
+     * The time when accepting connections resumes after a failure, or 0 if
+     * connections are accepted. Only used by the event loop.
+     */
+    private long acceptPausedUntil;
     /**
      * The logger.
      */
@@ -107,83 +181,274 @@ final class FakeHttpServer extends Thread implements Server {
         this.pingMessage = pingMessage;
 
         InetAddress hostAddress = InetAddress.getByName(hostName);
-        this.serverSocket = new ServerSocket(port, 0, hostAddress);
-        this.serverSocket.setSoTimeout(LISTEN_TIMEOUT_MS);
-        this.serverSocket.setReuseAddress(true);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(new InetSocketAddress(hostAddress, port), ACCEPT_BACKLOG);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-        this.connections = new ConcurrentHashMap<String, ConnectionThread>();
+        this.connections = new ConcurrentHashMap<String, HttpConnection>();
+        this.handlers = createHandlerPool();
 
         setName("MTA.HttpServerThread");
         start();
     }
 
 
+    private static ThreadPoolExecutor createHandlerPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(HANDLER_THREADS, HANDLER_THREADS, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                            private final AtomicInteger count = new AtomicInteger();
+
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "MTA.HttpHandler " + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+
     /**
-     * Listens on the given port and creates new ConnectionThreads for incomming
-     * connections.
+     * Runs the event loop until the server is halted.
      */
     @Override
     public void run() {
         runningState = RunningState.RUNNING;
-        Socket socket = null;
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long lastTimerCheck = System.currentTimeMillis();
 
         while (runningState == RunningState.RUNNING) {
             try {
-                socket = serverSocket.accept();
-                messageHandler.log("connection opened", "Remote party " + socket.getRemoteSocketAddress());
-                String connectionId = getNewConnectionId(socket);
-                ConnectionThread connectionThread = new ConnectionThread(this, socket, connectionId, pingMessage);
-                connections.put(connectionId, connectionThread);
-                connectionThread.start();
-            }
-            catch (SocketTimeoutException e) {
-                // we don't really care
+                selector.select(SELECT_TIMEOUT_MS);
+                processSelectedKeys(readBuffer);
+
+                final long now = System.currentTimeMillis();
+                if (now - lastTimerCheck >= SELECT_TIMEOUT_MS) {
+                    lastTimerCheck = now;
+                    checkTimers(now);
+                }
+                if ((acceptPausedUntil != 0) && (now >= acceptPausedUntil)) {
+                    acceptPausedUntil = 0;
+                    setAcceptInterest(SelectionKey.OP_ACCEPT);
+                }
+                processWriteRequests();
             }
             catch (IOException e) {
+                logger.error("Event loop failed", e);
                 halt();
             }
         }
-        closeResources(socket);
+        closeResources();
         runningState = RunningState.HALTED;
     }
 
 
+    private void processWriteRequests() {
+        HttpConnection connection;
+        while ((connection = writeRequests.poll()) != null) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            try {
+                if (connection.write()) {
+                    setInterest(connection, SelectionKey.OP_READ);
+                }
+                else {
+                    setInterest(connection, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+            catch (IOException e) {
+                logger.debug("Connection lost while writing: " + connection.getConnectionId());
+                connection.close();
+            }
+        }
+    }
+
+
+    private void processSelectedKeys(ByteBuffer readBuffer) throws IOException {
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                continue;
+            }
+            final HttpConnection connection = (HttpConnection) key.attachment();
+            try {
+                if (key.isReadable()) {
+                    connection.read(readBuffer);
+                }
+                if (key.isValid() && key.isWritable() && connection.write()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+            catch (IOException e) {
+                logger.debug("Connection lost: " + connection.getConnectionId() + " (" + e.getMessage() + ")");
+                readBuffer.clear();
+                connection.close();
+            }
+        }
+    }
+
+
     /**
-     * Closes the resources of the server and the {@link ConnectionThread}
-     * objects.
-     * 
-     * @param socket
-     *            the socket to close
+     * Accepts new connections and creates {@link HttpConnection} objects for
+     * them.
+     * <p>
+     * If accepting fails, no connections are accepted for
+     * {@link #ACCEPT_BACKOFF_MS}, so the event loop does not spin while the
+     * cause (e.g. too many open files) lasts. A connection that fails while it
+     * is set up is closed without affecting the others.
      */
-    private void closeResources(Socket socket) {
-        if (socket != null) {
-            ClosingUtils.close(socket);
-            for (ConnectionThread con : connections.values()) {
-                con.halt();
+    private void accept() {
+        while (true) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            }
+            catch (IOException e) {
+                logger.error("Accepting connections failed, pausing for " + ACCEPT_BACKOFF_MS + " ms", e);
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_BACKOFF_MS;
+                setAcceptInterest(0);
+                return;
+            }
+            if (channel == null) {
+                return;
             }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                messageHandler.log("connection opened", "Remote party " + channel.socket().getRemoteSocketAddress());
+                final String connectionId = getNewConnectionId(channel);
+                final HttpConnection connection = new HttpConnection(this, channel, connectionId, handlers);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                connections.put(connectionId, connection);
+            }
+            catch (IOException e) {
+                logger.debug("Could not set up connection: " + e.getMessage());
+                ClosingUtils.close(channel);
+            }
+        }
+    }
+
+
+    private void setAcceptInterest(int ops) {
+        final SelectionKey key = serverChannel.keyFor(selector);
+        if ((key != null) && key.isValid()) {
+            key.interestOps(ops);
+        }
+    }
+
+
+    private static void setInterest(HttpConnection connection, int ops) {
+        final SelectionKey key = connection.getKey();
+        if ((key != null) && key.isValid()) {
+            key.interestOps(ops);
+        }
+    }
+
+
+    private void checkTimers(long now) {
+        for (HttpConnection connection : connections.values()) {
+            connection.checkTimers(now, PING_INTERVAL_MS, IDLE_TIMEOUT_MS);
         }
     }
 
 
+    /**
+     * Closes the connections, the channel and the selector and lets the
+     * handler threads finish what is queued.
+     */
+    private void closeResources() {
+        for (HttpConnection connection : connections.values()) {
+            try {
+                connection.write();
+            }
+            catch (IOException e) {
+                logger.debug("Connection lost while flushing: " + connection.getConnectionId());
+            }
+            connection.close();
+        }
+        ClosingUtils.close(serverChannel);
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        handlers.shutdown();
+    }
+
+
     /**
      * Calculates a new connection ID.
      * 
-     * @param socket
-     *            the socket to calculate an ID for
+     * @param channel
+     *            the channel to calculate an ID for
      * @return the ID
      */
-    private String getNewConnectionId(Socket socket) {
-        String port = Integer.toHexString(socket.getLocalPort());
+    private String getNewConnectionId(SocketChannel channel) {
+        String port = Integer.toHexString(channel.socket().getLocalPort());
         String time = Long.toHexString(System.currentTimeMillis());
-        StringBuffer out = new StringBuffer();
-        out.append(port).append(':').append(time);
+        String count = Integer.toHexString(connectionCounter.incrementAndGet());
+        StringBuilder out = new StringBuilder();
+        out.append(port).append(':').append(time).append(':').append(count);
         return out.toString();
     }
 
 
+    /**
+     * Asks the event loop to write the queued data of the connection or to
+     * close it. Can be called from any thread.
+     * 
+     * @param connection
+     *            the connection
+     */
+    void requestWrite(HttpConnection connection) {
+        writeRequests.add(connection);
+        if (Thread.currentThread() != this) {
+            selector.wakeup();
+        }
+    }
+
+
+    /**
+     * Called by a connection that has been closed.
+     * 
+     * @param connection
+     *            the closed connection
+     */
+    void connectionClosed(final HttpConnection connection) {
+        connection.dispatch(new Runnable() {
+
+            @Override
+            public void run() {
+                connectionLost(connection.getConnectionId());
+            }
+        });
+    }
+
+
+    String getPingMessage() {
+        return pingMessage;
+    }
+
+
     @Override
     public void halt() {
         runningState = RunningState.LEAVING;
+        selector.wakeup();
     }
 
 
@@ -195,7 +460,7 @@ final class FakeHttpServer extends Thread implements Server {
 
     @Override
     public void haltConnection(String connectionId) {
-        ConnectionThread conn = connections.get(connectionId);
+        HttpConnection conn = connections.get(connectionId);
         if (conn != null) {
             conn.halt();
         }
@@ -204,7 +469,7 @@ final class FakeHttpServer extends Thread implements Server {
 
     @Override
     public void send(String connectionId, String chunk) {
-        ConnectionThread connection = connections.get(connectionId);
+        HttpConnection connection = connections.get(connectionId);
         if (connection != null) {
             connection.send(chunk);
         }
@@ -227,9 +492,9 @@ final class FakeHttpServer extends Thread implements Server {
 
     @Override
     public String getClientHost(String connectionId) {
-        ConnectionThread ct = connections.get(connectionId);
-        if (ct != null) {
-            return ct.getClientHost();
+        HttpConnection connection = connections.get(connectionId);
+        if (connection != null) {
+            return connection.getClientHost();
         }
         else {
             return null;
@@ -241,4 +506,4 @@ final class FakeHttpServer extends Thread implements Server {
     public int connections() {
         return connections.size();
     }
-}
\ No newline at end of file
+}
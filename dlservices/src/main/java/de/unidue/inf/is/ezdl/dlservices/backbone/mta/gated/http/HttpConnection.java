@@ -0,0 +1,569 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.backbone.mta.gated.http;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
+/**
+ * HttpConnection holds the state of a single client connection of the
+ * {@link FakeHttpServer}.
+ * <p>
+ * All I/O happens on the event loop of the server. Incoming data is framed
+ * without blocking: first the fake HTTP request header is skipped and answered
+ * with a dummy answer, then the data is cut into chunks as defined by
+ * {@link de.unidue.inf.is.ezdl.dlcore.utils.HttpMessagingUtils}. The chunks are
+ * handed to an executor one after another, so a slow handler never blocks the
+ * event loop or other connections.
+ * <p>
+ * Outgoing chunks are encoded by the sending thread and put into a write queue
+ * that the event loop drains whenever the socket accepts data.
+ * <p>
+ * Since the separators "\r" and "\n" cannot be part of a multi-byte UTF-8
+ * sequence, the framing works on bytes and a chunk is only decoded once it is
+ * complete.
+ */
+final class HttpConnection {
+
+    /**
+     * The maximum numbers of unhandled chunks tolerated before the connection
+     * is halted.
+     */
+    static final int ERRORS_BEFORE_CONNECTION_KILLED = 5;
+    /**
+     * The maximum size of a chunk in bytes. Larger chunks are likely someone
+     * talking to the wrong port and lead to the connection being dropped.
+     */
+    static final int MAX_CHUNK_BYTES = 16 * 1024 * 1024;
+    /**
+     * The line end in HTTP.
+     */
+    private static final String CRLF = "\r\n";
+    /**
+     * The encoding of the data exchanged.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * The server version to send. This is just a gag because nobody really
+     * cares.
+     */
+    private static final String SERVER_VERSION = "EzDLServer/1.0";
+
+    /**
+     * The logger.
+     */
+    private static final Logger logger = Logger.getLogger(HttpConnection.class);
+
+    /**
+     * The server that owns the connection.
+     */
+    private final FakeHttpServer server;
+    /**
+     * The ID of this connection.
+     */
+    private final String connectionId;
+    /**
+     * The channel to exchange data over.
+     */
+    private final SocketChannel channel;
+    /**
+     * The key of {@link #channel} with the selector of the server.
+     */
+    private SelectionKey key;
+    /**
+     * The chunks waiting to be written.
+     */
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+    /**
+     * The handler tasks waiting to be run.
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    /**
+     * True while a task of this connection is scheduled with the executor.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * Runs the handler tasks.
+     */
+    private final Executor executor;
+    /**
+     * True, once the fake HTTP request header has been skipped.
+     */
+    private boolean headerDone;
+    /**
+     * The length of the current header line.
+     */
+    private int headerLineLength;
+    /**
+     * True, if a "\n" has to be skipped because it belongs to a "\r\n".
+     */
+    private boolean skipLF;
+    /**
+     * True, if the last character in chunk mode was an unescaped "\r".
+     */
+    private boolean escapeOn;
+    /**
+     * The bytes of the current chunk.
+     */
+    private byte[] chunk = new byte[256];
+    /**
+     * The number of valid bytes in {@link #chunk}.
+     */
+    private int chunkLength;
+    /**
+     * The time of the last data received.
+     */
+    private long lastActivity;
+    /**
+     * The time the last ping was sent.
+     */
+    private long lastPing;
+    /**
+     * The number of chunks the server couldn't handle. Only accessed by the
+     * handler tasks.
+     */
+    private int errorCount;
+    /**
+     * Set when the connection is to be closed once the write queue is empty.
+     */
+    private volatile boolean closing;
+    /**
+     * The time after which a closing connection is closed even if there is
+     * still data to be sent.
+     */
+    private volatile long closeDeadline;
+    /**
+     * Set when the connection is closed.
+     */
+    private volatile boolean closed;
+
+
+    /**
+     * Creates a new connection.
+     * 
+     * @param server
+     *            the server that owns the connection
+     * @param channel
+     *            the non-blocking channel of the connection
+     * @param connectionId
+     *            the ID of this connection
+     * @param executor
+     *            the executor that runs the handler tasks
+     */
+    HttpConnection(FakeHttpServer server, SocketChannel channel, String connectionId, Executor executor) {
+        this.server = server;
+        this.channel = channel;
+        this.connectionId = connectionId;
+        this.executor = executor;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+
+    String getConnectionId() {
+        return connectionId;
+    }
+
+
+    boolean isClosed() {
+        return closed;
+    }
+
+
+    /**
+     * Reads what is available from the channel. Called by the event loop.
+     * 
+     * @param buffer
+     *            a buffer to read into
+     * @throws IOException
+     *             if the connection is broken
+     */
+    void read(ByteBuffer buffer) throws IOException {
+        int count;
+        while ((count = channel.read(buffer)) > 0) {
+            lastActivity = System.currentTimeMillis();
+            buffer.flip();
+            while (buffer.hasRemaining() && !closed) {
+                consume(buffer.get());
+            }
+            buffer.clear();
+        }
+        if (count == -1) {
+            close();
+        }
+    }
+
+
+    private void consume(byte b) throws IOException {
+        if (skipLF) {
+            skipLF = false;
+            if (b == '\n') {
+                return;
+            }
+        }
+        if (headerDone) {
+            consumeChunkByte(b);
+        }
+        else {
+            consumeHeaderByte(b);
+        }
+    }
+
+
+    /**
+     * Skips the header line by line until an empty line is found, treating
+     * "\r", "\n" and "\r\n" as line ends like {@link java.io.BufferedReader}.
+     */
+    private void consumeHeaderByte(byte b) throws IOException {
+        if ((b == '\r') || (b == '\n')) {
+            skipLF = (b == '\r');
+            if (headerLineLength == 0) {
+                headerDone = true;
+                writeHeader();
+            }
+            headerLineLength = 0;
+        }
+        else {
+            headerLineLength++;
+        }
+    }
+
+
+    /**
+     * Cuts the data into chunks. "\r\n" ends a chunk and "\r\r" stands for
+     * "\r".
+     */
+    private void consumeChunkByte(byte b) throws IOException {
+        switch (b) {
+            case '\r': {
+                if (escapeOn) {
+                    append((byte) '\r');
+                    escapeOn = false;
+                }
+                else {
+                    escapeOn = true;
+                }
+                break;
+            }
+            case '\n': {
+                if (escapeOn) {
+                    escapeOn = false;
+                    chunkComplete();
+                }
+                else {
+                    append(b);
+                }
+                break;
+            }
+            default: {
+                if (escapeOn) {
+                    append((byte) '\r');
+                }
+                escapeOn = false;
+                append(b);
+            }
+        }
+    }
+
+
+    private void append(byte b) throws IOException {
+        if (chunkLength == chunk.length) {
+            if (chunk.length >= MAX_CHUNK_BYTES) {
+                throw new IOException("Chunk exceeds " + MAX_CHUNK_BYTES + " bytes");
+            }
+            byte[] larger = new byte[Math.min(chunk.length * 2, MAX_CHUNK_BYTES)];
+            System.arraycopy(chunk, 0, larger, 0, chunkLength);
+            chunk = larger;
+        }
+        chunk[chunkLength++] = b;
+    }
+
+
+    private void chunkComplete() throws UnsupportedEncodingException {
+        final String received = new String(chunk, 0, chunkLength, ENCODING);
+        chunkLength = 0;
+        if (chunk.length > 4096) {
+            chunk = new byte[256];
+        }
+        dispatch(new Runnable() {
+
+            @Override
+            public void run() {
+                receive(received);
+            }
+        });
+    }
+
+
+    /**
+     * Passes a chunk to the server. Runs in the executor.
+     */
+    private void receive(String received) {
+        boolean ok = server.receive(connectionId, received);
+        if (!ok) {
+            errorCount++;
+            if (errorCount > ERRORS_BEFORE_CONNECTION_KILLED) {
+                halt();
+            }
+        }
+    }
+
+
+    /**
+     * Sends the dummy answer to the fake HTTP request and the first ping.
+     */
+    private void writeHeader() throws UnsupportedEncodingException {
+        final String header = "HTTP/1.1 200 OK\r\n" //
+                        + "Date: " + new Date().toString() + CRLF //
+                        + "Server: " + SERVER_VERSION + CRLF //
+                        + "Content-Type: " + CRLF //
+                        + "Expires: Thu, 01 Dec 2001 16:00:00 GMT\r\n" //
+                        + "Content-Length: 0" + CRLF //
+                        + "Last-modified: " + new Date().toString() + CRLF + CRLF;
+        enqueue(ByteBuffer.wrap(header.getBytes(ENCODING)));
+        ping(System.currentTimeMillis());
+    }
+
+
+    /**
+     * Queues a chunk to be sent. Can be called from any thread.
+     * 
+     * @param message
+     *            the chunk to send
+     */
+    void send(String message) {
+        if (closing || closed) {
+            logger.warn("Connection about to halt so dropping chunk " + message);
+            return;
+        }
+        try {
+            enqueue(encode(message));
+        }
+        catch (UnsupportedEncodingException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Escapes the chunk and appends the separator.
+     */
+    static ByteBuffer encode(String message) throws UnsupportedEncodingException {
+        final StringBuilder out = new StringBuilder(message.length() + 16);
+        for (int i = 0; i < message.length(); i++) {
+            final char c = message.charAt(i);
+            if (c == '\r') {
+                out.append("\r\r");
+            }
+            else {
+                out.append(c);
+            }
+        }
+        out.append(CRLF);
+        return ByteBuffer.wrap(out.toString().getBytes(ENCODING));
+    }
+
+
+    private void enqueue(ByteBuffer data) {
+        writeQueue.add(data);
+        server.requestWrite(this);
+    }
+
+
+    /**
+     * Writes as much of the queued data as the socket accepts. Called by the
+     * event loop.
+     * 
+     * @return true if the write queue is empty
+     * @throws IOException
+     *             if the connection is broken
+     */
+    boolean write() throws IOException {
+        ByteBuffer head;
+        while ((head = writeQueue.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                return false;
+            }
+            writeQueue.poll();
+        }
+        if (closing) {
+            close();
+        }
+        return true;
+    }
+
+
+    boolean hasPendingWrites() {
+        return !writeQueue.isEmpty();
+    }
+
+
+    /**
+     * Sends pings, closes idle connections and closes halted connections once
+     * their grace period is over. Called by the event loop.
+     * 
+     * @param now
+     *            the current time
+     * @param pingIntervalMs
+     *            the time between two pings
+     * @param idleTimeoutMs
+     *            the time without incoming data after which the connection is
+     *            closed
+     */
+    void checkTimers(long now, long pingIntervalMs, long idleTimeoutMs) {
+        if (closed) {
+            return;
+        }
+        if (closing) {
+            if (writeQueue.isEmpty() || (now > closeDeadline)) {
+                close();
+            }
+            return;
+        }
+        if (now - lastActivity > idleTimeoutMs) {
+            logger.debug("Closing idle connection " + connectionId);
+            close();
+            return;
+        }
+        if (headerDone && (now - lastPing >= pingIntervalMs)) {
+            ping(now);
+        }
+    }
+
+
+    private void ping(long now) {
+        lastPing = now;
+        send(server.getPingMessage());
+    }
+
+
+    /**
+     * Closes the connection once the queued data is sent or the grace period
+     * is over. Can be called from any thread.
+     */
+    void halt() {
+        if (!closing) {
+            closeDeadline = System.currentTimeMillis() + FakeHttpServer.SEND_QUEUE_TIMEOUT_MS;
+            closing = true;
+            server.requestWrite(this);
+        }
+    }
+
+
+    /**
+     * Closes the channel and tells the server. Called by the event loop.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closing = true;
+        if (key != null) {
+            key.cancel();
+        }
+        ClosingUtils.close(channel);
+        writeQueue.clear();
+        server.connectionClosed(this);
+    }
+
+
+    /**
+     * Runs the task in the executor after all tasks dispatched before.
+     * 
+     * @param task
+     *            the task to run
+     */
+    void dispatch(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+
+    private void schedule() {
+        if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            Runnable task;
+                            while ((task = tasks.poll()) != null) {
+                                try {
+                                    task.run();
+                                }
+                                catch (RuntimeException e) {
+                                    logger.error("Error handling data of connection " + connectionId, e);
+                                }
+                            }
+                        }
+                        finally {
+                            scheduled.set(false);
+                            schedule();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                logger.debug("Server halted, dropping tasks of connection " + connectionId);
+            }
+        }
+    }
+
+
+    String getClientHost() {
+        SocketAddress sa = channel.socket().getRemoteSocketAddress();
+        if (sa instanceof InetSocketAddress) {
+            return ((InetSocketAddress) sa).getAddress().getCanonicalHostName();
+        }
+        else {
+            return null;
+        }
+    }
+
+}
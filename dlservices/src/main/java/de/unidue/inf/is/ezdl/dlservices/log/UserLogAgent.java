@@ -25,7 +25,9 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.AbstractAgent;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
 import de.unidue.inf.is.ezdl.dlbackend.database.BoneCPConnectionProvider;
 import de.unidue.inf.is.ezdl.dlbackend.database.ConnectionProvider;
+import de.unidue.inf.is.ezdl.dlcore.Haltable;
 import de.unidue.inf.is.ezdl.dlservices.log.handlers.UserLogNotifyHandler;
+import de.unidue.inf.is.ezdl.dlservices.log.store.AsyncUserLogStore;
 import de.unidue.inf.is.ezdl.dlservices.log.store.DBUserLogStore;
 import de.unidue.inf.is.ezdl.dlservices.log.store.UserLogStore;
 import de.unidue.inf.is.ezdl.dlservices.user.store.UserStore;
@@ -68,12 +70,27 @@ public class UserLogAgent extends AbstractAgent {
     public void initOnline() {
         Properties props = getProperties();
         ConnectionProvider connectionProvider = new BoneCPConnectionProvider(props, false);
-        userLogStore = new DBUserLogStore(connectionProvider);
+        userLogStore = new AsyncUserLogStore(new DBUserLogStore(connectionProvider), props);
         userLogStore.init();
         super.initOnline();
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Halts the agent first, so that the user log store can write all
+     * operations received until then.
+     */
+    @Override
+    public void halt() {
+        super.halt();
+        if (userLogStore instanceof Haltable) {
+            ((Haltable) userLogStore).halt();
+        }
+    }
+
+
     /**
      * @return the {@link UserLogStore}
      */
@@ -0,0 +1,560 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.log.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlcore.Haltable;
+import de.unidue.inf.is.ezdl.dlcore.message.content.UserLogNotify;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
+
+
+
+/**
+ * A user log store that queues the operations and writes them in batches on
+ * its own thread, so callers never wait for the database.
+ * <p>
+ * The queue is bounded by {@link #KEY_QUEUE_SIZE}. What happens if it is full
+ * depends on {@link #KEY_QUEUE_POLICY}: with "drop" (the default) the
+ * operation is dropped and counted, with "block" the caller waits for room.
+ * <p>
+ * If a batch cannot be written because the database is not available, it is
+ * spilled to a file in {@link #KEY_SPILL_DIR} and the database is not tried
+ * again for {@link #KEY_RETRY_DELAY} milliseconds. Until then, batches go to
+ * the spill directory directly. The spilled batches are written before any new
+ * batch once the database is back, so the operations reach the database in
+ * order. Spilled batches survive restarts. Without a spill directory, batches
+ * that cannot be written are dropped.
+ * <p>
+ * The database counts as not available if the writer throws a
+ * {@link SQLTransientException}, a {@link SQLRecoverableException}, a
+ * {@link SQLNonTransientConnectionException} or an exception with a connection
+ * SQL state ("08..."). Any other error is blamed on the data: the operations of
+ * the batch are then written one by one and the ones that still fail are
+ * dropped. Spill files that cannot be read are renamed to end with ".failed"
+ * and left in the spill directory.
+ */
+public class AsyncUserLogStore implements UserLogStore, Haltable {
+
+    /**
+     * The property key for the maximum number of queued operations.
+     */
+    public static final String KEY_QUEUE_SIZE = "userlog.queue.size";
+    /**
+     * The property key for what to do if the queue is full: "drop" or "block".
+     */
+    public static final String KEY_QUEUE_POLICY = "userlog.queue.policy";
+    /**
+     * The property key for the maximum number of operations written in one
+     * transaction.
+     */
+    public static final String KEY_BATCH_SIZE = "userlog.batch.size";
+    /**
+     * The property key for the directory where batches are spilled while the
+     * database is not available.
+     */
+    public static final String KEY_SPILL_DIR = "userlog.spill.dir";
+    /**
+     * The property key for how many milliseconds to wait before trying the
+     * database again after a failed write.
+     */
+    public static final String KEY_RETRY_DELAY = "userlog.retry.ms";
+
+    static final String POLICY_DROP = "drop";
+    static final String POLICY_BLOCK = "block";
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 200;
+    private static final int DEFAULT_RETRY_DELAY_MS = 5000;
+    /**
+     * How long the writer waits for more operations before checking if it is
+     * halted.
+     */
+    private static final long POLL_MS = 500;
+    /**
+     * How long halt() waits for the queue to be written.
+     */
+    private static final long HALT_TIMEOUT_MS = 10000;
+
+    private static final String SPILL_SUFFIX = ".spill";
+    private static final String FAILED_SUFFIX = ".failed";
+    /**
+     * The SQL state class of connection errors.
+     */
+    private static final String SQL_STATE_CONNECTION = "08";
+
+    private static Logger logger = Logger.getLogger(AsyncUserLogStore.class);
+
+    private final UserLogWriter writer;
+    private final BlockingQueue<UserLogOperation> queue;
+    private final boolean blockWhenFull;
+    private final int batchSize;
+    private final File spillDir;
+    private final long retryDelayMs;
+    private final Thread writerThread;
+
+    private volatile boolean halted;
+    /**
+     * True, if there might be spilled batches that have not been written yet.
+     * Only used by the writer thread.
+     */
+    private boolean spillPending;
+    /**
+     * The earliest time to try the database again. Only used by the writer
+     * thread.
+     */
+    private long nextAttemptMs;
+    private int spillSequence;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+
+    /**
+     * Creates a new store.
+     * 
+     * @param writer
+     *            the writer to write the batches with
+     * @param props
+     *            the properties to read the configuration from
+     */
+    public AsyncUserLogStore(UserLogWriter writer, Properties props) {
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<UserLogOperation>(PropertiesUtils.getIntProperty(props, KEY_QUEUE_SIZE,
+                        DEFAULT_QUEUE_SIZE));
+        this.blockWhenFull = POLICY_BLOCK.equals(props.getProperty(KEY_QUEUE_POLICY, POLICY_DROP));
+        this.batchSize = PropertiesUtils.getIntProperty(props, KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        final String spillDirName = props.getProperty(KEY_SPILL_DIR);
+        this.spillDir = (spillDirName != null) ? new File(spillDirName) : null;
+        this.retryDelayMs = PropertiesUtils.getIntProperty(props, KEY_RETRY_DELAY, DEFAULT_RETRY_DELAY_MS);
+        this.writerThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "UserLogWriter");
+        writerThread.setDaemon(true);
+    }
+
+
+    @Override
+    public void init() {
+        if (spillDir != null) {
+            if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+                logger.error("Cannot create spill directory " + spillDir);
+            }
+            spillPending = spillFiles().length != 0;
+        }
+        writerThread.start();
+    }
+
+
+    @Override
+    public void login(String sessionId, String login, long startTimestamp, String type) {
+        enqueue(UserLogOperation.login(sessionId, login, startTimestamp, type));
+    }
+
+
+    @Override
+    public void logout(String sessionId, long stopTimestamp) {
+        enqueue(UserLogOperation.logout(sessionId, stopTimestamp));
+    }
+
+
+    @Override
+    public void storeUserLog(UserLogNotify logNotify) {
+        enqueue(UserLogOperation.event(logNotify));
+    }
+
+
+    private void enqueue(UserLogOperation operation) {
+        boolean queued = false;
+        if (!halted) {
+            if (blockWhenFull) {
+                try {
+                    queue.put(operation);
+                    queued = true;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            else {
+                queued = queue.offer(operation);
+            }
+        }
+        if (!queued) {
+            long count = dropped.incrementAndGet();
+            if (Long.bitCount(count) == 1) {
+                logger.warn("User log operations dropped: " + count);
+            }
+        }
+    }
+
+
+    private void writeLoop() {
+        List<UserLogOperation> batch = new ArrayList<UserLogOperation>(batchSize);
+        while (!halted || !queue.isEmpty()) {
+            try {
+                UserLogOperation first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeOrSpill(batch);
+                    batch.clear();
+                }
+                else {
+                    replaySpilled();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (RuntimeException e) {
+                logger.error("Writing user log failed, dropping " + batch.size() + " operations", e);
+                dropped.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+        try {
+            replaySpilled();
+        }
+        catch (RuntimeException e) {
+            logger.error("Writing spilled user log failed", e);
+        }
+    }
+
+
+    /**
+     * Writes the spilled batches if there are any and the database may be
+     * tried again. Used while no new operations arrive and when halting, so
+     * spilled batches do not wait for the next operation.
+     */
+    private void replaySpilled() {
+        if (spillPending && (System.currentTimeMillis() >= nextAttemptMs)) {
+            writeSpilled();
+        }
+    }
+
+
+    private void writeOrSpill(List<UserLogOperation> batch) {
+        int done = 0;
+        if (System.currentTimeMillis() >= nextAttemptMs && (!spillPending || writeSpilled())) {
+            done = write(batch);
+        }
+        if (done < batch.size()) {
+            spill(batch.subList(done, batch.size()));
+        }
+    }
+
+
+    /**
+     * Writes the batch. If it fails because of the data, the operations are
+     * written one by one and the ones that fail are dropped.
+     * 
+     * @param batch
+     *            the operations to write
+     * @return the number of operations from the start of the batch that were
+     *         written or dropped. Less than the size of the batch if the
+     *         database is not available.
+     */
+    private int write(List<UserLogOperation> batch) {
+        try {
+            writer.write(batch);
+            written.addAndGet(batch.size());
+            return batch.size();
+        }
+        catch (SQLException e) {
+            if (isUnavailable(e)) {
+                unavailable(e);
+                return 0;
+            }
+            logger.warn("Writing user log batch failed, writing its " + batch.size() + " operations one by one", e);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Writing user log batch failed, writing its " + batch.size() + " operations one by one", e);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            UserLogOperation operation = batch.get(i);
+            try {
+                writer.write(Collections.singletonList(operation));
+                written.incrementAndGet();
+            }
+            catch (SQLException e) {
+                if (isUnavailable(e)) {
+                    unavailable(e);
+                    return i;
+                }
+                drop(operation, e);
+            }
+            catch (RuntimeException e) {
+                drop(operation, e);
+            }
+        }
+        return batch.size();
+    }
+
+
+    private void unavailable(SQLException e) {
+        logger.error("Writing user log failed, retrying in " + retryDelayMs + " ms", e);
+        nextAttemptMs = System.currentTimeMillis() + retryDelayMs;
+    }
+
+
+    private void drop(UserLogOperation operation, Exception e) {
+        logger.error("Dropping user log operation " + operation.getType() + " of session " + operation.getSessionId(),
+                        e);
+        dropped.incrementAndGet();
+    }
+
+
+    /**
+     * Returns if the exception means that the database is not available, as
+     * opposed to the data being rejected.
+     * 
+     * @param e
+     *            the exception thrown by the writer
+     * @return true, if the write should be tried again later
+     */
+    static boolean isUnavailable(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException
+                            || t instanceof SQLNonTransientConnectionException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && state.startsWith(SQL_STATE_CONNECTION)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    private void spill(List<UserLogOperation> batch) {
+        if (spillDir == null) {
+            dropped.addAndGet(batch.size());
+            return;
+        }
+        File file = new File(spillDir, String.format("userlog-%013d-%06d%s", System.currentTimeMillis(),
+                        spillSequence++ % 1000000, SPILL_SUFFIX));
+        if (writeFile(file, batch)) {
+            spillPending = true;
+            spilled.addAndGet(batch.size());
+        }
+        else {
+            dropped.addAndGet(batch.size());
+        }
+    }
+
+
+    private static boolean writeFile(File file, List<UserLogOperation> batch) {
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeObject(new ArrayList<UserLogOperation>(batch));
+            out.close();
+            out = null;
+            return true;
+        }
+        catch (IOException e) {
+            logger.error("Cannot spill user log to " + file, e);
+            ClosingUtils.close(out);
+            file.delete();
+            return false;
+        }
+    }
+
+
+    /**
+     * Writes the spilled batches in the order they were spilled and deletes
+     * the files. Files that cannot be read are renamed so they are not tried
+     * again.
+     * 
+     * @return true, if all spilled batches were written. False, if the
+     *         database is not available. The rest of the batch that failed and
+     *         the ones after it stay spilled.
+     */
+    private boolean writeSpilled() {
+        File[] files = spillFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            List<UserLogOperation> batch = readFile(file);
+            if (batch == null) {
+                quarantine(file);
+                continue;
+            }
+            int done = write(batch);
+            if (done < batch.size()) {
+                if (done != 0 && !writeFile(file, batch.subList(done, batch.size()))) {
+                    logger.error("Cannot shorten spilled user log " + file + ", " + done
+                                    + " operations will be written again");
+                }
+                return false;
+            }
+            if (!file.delete()) {
+                logger.error("Cannot delete spilled user log " + file);
+            }
+        }
+        spillPending = false;
+        return true;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<UserLogOperation> readFile(File file) {
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return (List<UserLogOperation>) in.readObject();
+        }
+        catch (IOException e) {
+            logger.error("Cannot read spilled user log " + file, e);
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("Cannot read spilled user log " + file, e);
+        }
+        catch (ClassCastException e) {
+            logger.error("Cannot read spilled user log " + file, e);
+        }
+        finally {
+            ClosingUtils.close(in);
+        }
+        return null;
+    }
+
+
+    private static void quarantine(File file) {
+        File failed = new File(file.getPath() + FAILED_SUFFIX);
+        if (file.renameTo(failed)) {
+            logger.error("Moved spilled user log " + file + " to " + failed);
+        }
+        else if (!file.delete()) {
+            logger.error("Cannot move or delete spilled user log " + file);
+        }
+        else {
+            logger.error("Deleted spilled user log " + file);
+        }
+    }
+
+
+    private File[] spillFiles() {
+        File[] files = spillDir.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SPILL_SUFFIX);
+            }
+        });
+        return (files != null) ? files : new File[0];
+    }
+
+
+    /**
+     * Stops accepting operations and waits until the queued ones are written
+     * or spilled.
+     */
+    @Override
+    public void halt() {
+        halted = true;
+        try {
+            writerThread.join(HALT_TIMEOUT_MS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Halted " + this);
+    }
+
+
+    @Override
+    public boolean isHalted() {
+        return halted;
+    }
+
+
+    /**
+     * Returns the number of operations waiting to be written.
+     * 
+     * @return the number of queued operations
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+
+    /**
+     * @return the number of operations written so far
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+
+    /**
+     * @return the number of operations dropped so far
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+
+    /**
+     * @return the number of operations spilled so far
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+
+    @Override
+    public String toString() {
+        return "AsyncUserLogStore queued=" + getQueued() + " written=" + getWritten() + " spilled=" + getSpilled()
+                        + " dropped=" + getDropped();
+    }
+}
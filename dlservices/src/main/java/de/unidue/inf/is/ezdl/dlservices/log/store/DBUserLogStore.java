@@ -25,6 +25,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -40,10 +41,14 @@ import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
 
 /**
  * A implementation of the user log store backed by a SQL database.
+ * <p>
+ * Besides storing single operations, the store writes batches of operations
+ * in one transaction. The parameters of all events of a batch are inserted
+ * with one JDBC batch.
  * 
  * @author tbeckers
  */
-public class DBUserLogStore implements UserLogStore {
+public class DBUserLogStore implements UserLogStore, UserLogWriter {
 
     private static final String TABLE_PREFIX = "ula_";
 
@@ -51,6 +56,15 @@ public class DBUserLogStore implements UserLogStore {
     private static final String TABLE_NAME_EVENT = tableName("logevent");
     private static final String TABLE_NAME_PARAMS = tableName("logeventparams");
 
+    private static final String SQL_INSERT_EVENT = "insert into "
+                    + TABLE_NAME_EVENT
+                    + " (sessionid, sequencenumber, eventtimestamp, eventtimestampms, eventlocaltimestamp, eventlocaltimestampms, name) values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_INSERT_PARAM = "insert into " + TABLE_NAME_PARAMS
+                    + " (eventid, paramname, paramvalue, sequence) values (?, ?, ?, ?)";
+    private static final String SQL_LOGIN = "insert into " + TABLE_NAME_SESSIONS
+                    + " (sessionid, login, start, stop, type) values(?, ?, ?, null, ?)";
+    private static final String SQL_LOGOUT = "update " + TABLE_NAME_SESSIONS + " set stop=? where sessionid=?";
+
     private static Logger logger = Logger.getLogger(DBUserLogStore.class);
 
     private ConnectionProvider connectionProvider;
@@ -73,121 +87,176 @@ public class DBUserLogStore implements UserLogStore {
 
     @Override
     public void storeUserLog(UserLogNotify logNotify) {
-        Connection connection = null;
-        try {
-            connection = connectionProvider.connection();
+        writeAndLog(UserLogOperation.event(logNotify));
+    }
 
-            int sequenceNumber = logNotify.getSequenceNumber();
-            String sessionId = logNotify.getSessionId();
-            long timestamp = logNotify.getBackendTimestamp();
-            long localTimestamp = logNotify.getClientTimestamp();
-            String eventName = logNotify.getEventName();
-            Multimap<String, String> parameters = logNotify.getParameters();
-
-            PreparedStatement preparedStatement = connection
-                            .prepareStatement(
-                                            "insert into "
-                                                            + TABLE_NAME_EVENT
-                                                            + " (sessionid, sequencenumber, eventtimestamp, eventtimestampms, eventlocaltimestamp, eventlocaltimestampms, name) values (?, ?, ?, ?, ?, ?, ?)",
-                                            Statement.RETURN_GENERATED_KEYS);
-            preparedStatement.setString(1, sessionId);
-            preparedStatement.setInt(2, sequenceNumber);
-            preparedStatement.setTimestamp(3, new Timestamp(timestamp));
-            preparedStatement.setLong(4, timestamp);
-            preparedStatement.setTimestamp(5, new Timestamp(localTimestamp));
-            preparedStatement.setLong(6, localTimestamp);
-            preparedStatement.setString(7, eventName);
-            preparedStatement.execute();
-
-            String eventid;
-            ResultSet rs2 = preparedStatement.getGeneratedKeys();
-            if (rs2.next()) {
-                eventid = rs2.getString(1);
-            }
-            else {
-                throw new SQLException();
-            }
 
-            PreparedStatement preparedStatement2 = connection.prepareStatement("insert into " + TABLE_NAME_PARAMS
-                            + " (eventid, paramname, paramvalue, sequence) values (?, ?, ?, ?)");
-            for (Entry<String, Collection<String>> entry : parameters.asMap().entrySet()) {
-                List<String> values = (List<String>) entry.getValue();
-                for (int i = 0; i < values.size(); i++) {
-                    String value = values.get(i);
-                    preparedStatement2.setString(1, eventid);
-                    preparedStatement2.setString(2, entry.getKey());
-                    preparedStatement2.setString(3, value);
-                    preparedStatement2.setInt(4, i);
-
-                    preparedStatement2.addBatch();
-                }
+    @Override
+    public void login(String sessionId, String login, long start, String type) {
+        writeAndLog(UserLogOperation.login(sessionId, login, start, type));
+    }
 
-            }
-            preparedStatement2.executeBatch();
-            connection.commit();
+
+    @Override
+    public void logout(String sessionId, long stop) {
+        writeAndLog(UserLogOperation.logout(sessionId, stop));
+    }
+
+
+    private void writeAndLog(UserLogOperation operation) {
+        try {
+            write(Collections.singletonList(operation));
         }
         catch (SQLException e) {
             logger.error(e.getMessage(), e);
-            rollback(connection);
-        }
-        finally {
-            ClosingUtils.close(connection);
         }
     }
 
 
     @Override
-    public void login(String sessionId, String login, long start, String type) {
+    public void write(List<UserLogOperation> operations) throws SQLException {
         Connection connection = null;
+        Statements statements = new Statements();
         try {
             connection = connectionProvider.connection();
-            PreparedStatement preparedStatement = connection.prepareStatement("insert into " + TABLE_NAME_SESSIONS
-                            + " (sessionid, login, start, stop, type) values(?, ?, ?, null, ?)");
-            preparedStatement.setString(1, sessionId);
-            preparedStatement.setString(2, login);
-            preparedStatement.setTimestamp(3, new Timestamp(start));
-            preparedStatement.setString(4, type);
-            preparedStatement.execute();
+            for (UserLogOperation operation : operations) {
+                switch (operation.getType()) {
+                    case LOGIN:
+                        login(connection, statements, operation);
+                        break;
+                    case LOGOUT:
+                        logout(connection, statements, operation);
+                        break;
+                    case EVENT:
+                        event(connection, statements, operation.getEvent());
+                        break;
+                }
+            }
+            if (statements.params != null) {
+                statements.params.executeBatch();
+            }
             connection.commit();
         }
         catch (SQLException e) {
-            logger.error(e.getMessage(), e);
             rollback(connection);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            rollback(connection);
+            throw e;
         }
         finally {
+            statements.close();
             ClosingUtils.close(connection);
         }
     }
 
 
-    private static void rollback(Connection connection) {
+    private void event(Connection connection, Statements statements, UserLogNotify logNotify) throws SQLException {
+        int sequenceNumber = logNotify.getSequenceNumber();
+        String sessionId = logNotify.getSessionId();
+        long timestamp = logNotify.getBackendTimestamp();
+        long localTimestamp = logNotify.getClientTimestamp();
+        String eventName = logNotify.getEventName();
+        Multimap<String, String> parameters = logNotify.getParameters();
+
+        if (statements.event == null) {
+            statements.event = connection.prepareStatement(SQL_INSERT_EVENT, Statement.RETURN_GENERATED_KEYS);
+        }
+        PreparedStatement preparedStatement = statements.event;
+        preparedStatement.setString(1, sessionId);
+        preparedStatement.setInt(2, sequenceNumber);
+        preparedStatement.setTimestamp(3, new Timestamp(timestamp));
+        preparedStatement.setLong(4, timestamp);
+        preparedStatement.setTimestamp(5, new Timestamp(localTimestamp));
+        preparedStatement.setLong(6, localTimestamp);
+        preparedStatement.setString(7, eventName);
+        preparedStatement.execute();
+
+        String eventid;
+        ResultSet rs2 = preparedStatement.getGeneratedKeys();
         try {
-            connection.rollback();
+            if (rs2.next()) {
+                eventid = rs2.getString(1);
+            }
+            else {
+                throw new SQLException();
+            }
         }
-        catch (SQLException e) {
-            logger.error(e.getMessage(), e);
+        finally {
+            ClosingUtils.close(rs2);
+        }
+
+        if (statements.params == null) {
+            statements.params = connection.prepareStatement(SQL_INSERT_PARAM);
+        }
+        PreparedStatement preparedStatement2 = statements.params;
+        for (Entry<String, Collection<String>> entry : parameters.asMap().entrySet()) {
+            List<String> values = (List<String>) entry.getValue();
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                preparedStatement2.setString(1, eventid);
+                preparedStatement2.setString(2, entry.getKey());
+                preparedStatement2.setString(3, value);
+                preparedStatement2.setInt(4, i);
+
+                preparedStatement2.addBatch();
+            }
+
         }
     }
 
 
-    @Override
-    public void logout(String sessionId, long stop) {
-        Connection connection = null;
+    private void login(Connection connection, Statements statements, UserLogOperation login) throws SQLException {
+        if (statements.login == null) {
+            statements.login = connection.prepareStatement(SQL_LOGIN);
+        }
+        PreparedStatement preparedStatement = statements.login;
+        preparedStatement.setString(1, login.getSessionId());
+        preparedStatement.setString(2, login.getLogin());
+        preparedStatement.setTimestamp(3, new Timestamp(login.getTimestamp()));
+        preparedStatement.setString(4, login.getLoginType());
+        preparedStatement.execute();
+    }
+
+
+    private void logout(Connection connection, Statements statements, UserLogOperation logout) throws SQLException {
+        if (statements.logout == null) {
+            statements.logout = connection.prepareStatement(SQL_LOGOUT);
+        }
+        PreparedStatement preparedStatement = statements.logout;
+        preparedStatement.setTimestamp(1, new Timestamp(logout.getTimestamp()));
+        preparedStatement.setString(2, logout.getSessionId());
+        preparedStatement.execute();
+    }
+
+
+    private static void rollback(Connection connection) {
+        if (connection == null) {
+            return;
+        }
         try {
-            connection = connectionProvider.connection();
-            PreparedStatement preparedStatement = connection.prepareStatement("update " + TABLE_NAME_SESSIONS
-                            + " set stop=? where sessionid=?");
-            preparedStatement.setTimestamp(1, new Timestamp(stop));
-            preparedStatement.setString(2, sessionId);
-            preparedStatement.execute();
-            connection.commit();
+            connection.rollback();
         }
         catch (SQLException e) {
             logger.error(e.getMessage(), e);
-            rollback(connection);
         }
-        finally {
-            ClosingUtils.close(connection);
+    }
+
+
+    /**
+     * The statements prepared while writing one batch.
+     */
+    private static final class Statements {
+
+        PreparedStatement event;
+        PreparedStatement params;
+        PreparedStatement login;
+        PreparedStatement logout;
+
+
+        void close() {
+            ClosingUtils.close(event, params, login, logout);
         }
     }
 
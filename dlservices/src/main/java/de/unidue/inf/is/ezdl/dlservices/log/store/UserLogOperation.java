@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.log.store;
+
+import java.io.Serializable;
+
+import de.unidue.inf.is.ezdl.dlcore.message.content.UserLogNotify;
+
+
+
+/**
+ * A single write to the user log: a login, a logout or an event.
+ * <p>
+ * Operations are serializable so they can be spilled to disk while the
+ * database is not available.
+ */
+public final class UserLogOperation implements Serializable {
+
+    private static final long serialVersionUID = -6071356925342866290L;
+
+
+    /**
+     * The kinds of operations.
+     */
+    public enum Type {
+        LOGIN, LOGOUT, EVENT
+    }
+
+
+    private final Type type;
+    private final String sessionId;
+    private final String login;
+    private final long timestamp;
+    private final String loginType;
+    private final UserLogNotify event;
+
+
+    private UserLogOperation(Type type, String sessionId, String login, long timestamp, String loginType,
+                    UserLogNotify event) {
+        this.type = type;
+        this.sessionId = sessionId;
+        this.login = login;
+        this.timestamp = timestamp;
+        this.loginType = loginType;
+        this.event = event;
+    }
+
+
+    /**
+     * Creates the operation for a login.
+     * 
+     * @see UserLogStore#login(String, String, long, String)
+     */
+    public static UserLogOperation login(String sessionId, String login, long startTimestamp, String type) {
+        return new UserLogOperation(Type.LOGIN, sessionId, login, startTimestamp, type, null);
+    }
+
+
+    /**
+     * Creates the operation for a logout.
+     * 
+     * @see UserLogStore#logout(String, long)
+     */
+    public static UserLogOperation logout(String sessionId, long stopTimestamp) {
+        return new UserLogOperation(Type.LOGOUT, sessionId, null, stopTimestamp, null, null);
+    }
+
+
+    /**
+     * Creates the operation for an event.
+     * 
+     * @see UserLogStore#storeUserLog(UserLogNotify)
+     */
+    public static UserLogOperation event(UserLogNotify logNotify) {
+        return new UserLogOperation(Type.EVENT, logNotify.getSessionId(), null, logNotify.getBackendTimestamp(),
+                        null, logNotify);
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+
+    /**
+     * @return the login name of a {@link Type#LOGIN} operation
+     */
+    public String getLogin() {
+        return login;
+    }
+
+
+    /**
+     * @return the start of a login, the end of a logout or the back end time
+     *         stamp of an event
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    /**
+     * @return the type of a {@link Type#LOGIN} operation
+     */
+    public String getLoginType() {
+        return loginType;
+    }
+
+
+    /**
+     * @return the event of an {@link Type#EVENT} operation
+     */
+    public UserLogNotify getEvent() {
+        return event;
+    }
+
+
+    @Override
+    public String toString() {
+        return "{UserLogOperation " + type + " " + sessionId + "}";
+    }
+}
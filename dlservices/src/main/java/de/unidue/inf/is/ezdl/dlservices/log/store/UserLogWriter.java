@@ -0,0 +1,45 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.log.store;
+
+import java.sql.SQLException;
+import java.util.List;
+
+
+
+/**
+ * Writes batches of user log operations.
+ */
+public interface UserLogWriter {
+
+    /**
+     * Writes the operations in the given order, either all of them or none.
+     * 
+     * @param operations
+     *            the operations to write
+     * @throws SQLException
+     *             if the operations could not be written. If the database is
+     *             not available, this should be a
+     *             {@link java.sql.SQLTransientException}, a
+     *             {@link java.sql.SQLRecoverableException} or have a
+     *             connection SQL state, so the operations are kept for later.
+     */
+    void write(List<UserLogOperation> operations) throws SQLException;
+
+}
@@ -24,6 +24,7 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.AbstractAgent;
 import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
 import de.unidue.inf.is.ezdl.dlbackend.database.BoneCPConnectionProvider;
 import de.unidue.inf.is.ezdl.dlbackend.database.ConnectionProvider;
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
 import de.unidue.inf.is.ezdl.dlservices.repository.handlers.DocumentDetailsAskHandler;
 import de.unidue.inf.is.ezdl.dlservices.repository.handlers.DocumentDetailsFillTellHandler;
 import de.unidue.inf.is.ezdl.dlservices.repository.handlers.DocumentQueryTellHandler;
@@ -31,6 +32,7 @@ import de.unidue.inf.is.ezdl.dlservices.repository.store.DetailRetrievalDecision
 import de.unidue.inf.is.ezdl.dlservices.repository.store.DocumentStore;
 import de.unidue.inf.is.ezdl.dlservices.repository.store.SmartDetailRetrievalDecision;
 import de.unidue.inf.is.ezdl.dlservices.repository.store.repositories.DBRepository;
+import de.unidue.inf.is.ezdl.dlservices.repository.store.repositories.DocumentCache;
 import de.unidue.inf.is.ezdl.dlservices.repository.store.repositories.DocumentRepository;
 
 
@@ -45,6 +47,15 @@ public class RepositoryAgent extends AbstractAgent {
      * Service name of this agent.
      */
     private static final String SERVICE_NAME = "/service/repository";
+    /**
+     * Property that sets the size of the document cache in megabytes. 0
+     * disables the cache.
+     */
+    public static final String KEY_CACHE_SIZE_MB = "repository.cache.mb";
+    /**
+     * The default size of the document cache in megabytes.
+     */
+    private static final int DEFAULT_CACHE_SIZE_MB = 64;
     /**
      * Stores the long-term stuff.
      */
@@ -55,7 +66,7 @@ public class RepositoryAgent extends AbstractAgent {
     public void initOnline() {
         try {
             final ConnectionProvider provider = new BoneCPConnectionProvider(getProperties(), false);
-            final DocumentRepository repository = new DBRepository(provider);
+            final DocumentRepository repository = new DBRepository(provider, createCache());
             final DetailRetrievalDecision decisionStrategy = new SmartDetailRetrievalDecision();
             store = new DocumentStore(this, repository, decisionStrategy);
             super.initOnline();
@@ -67,6 +78,12 @@ public class RepositoryAgent extends AbstractAgent {
     }
 
 
+    private DocumentCache createCache() {
+        final int sizeMb = PropertiesUtils.getIntProperty(getProperties(), KEY_CACHE_SIZE_MB, DEFAULT_CACHE_SIZE_MB);
+        return sizeMb > 0 ? new DocumentCache(sizeMb * 1024L * 1024L) : null;
+    }
+
+
     @Override
     protected Set<Class<? extends RequestHandler>> setupRequestHandlers() {
         Set<Class<? extends RequestHandler>> handlers = super.setupRequestHandlers();
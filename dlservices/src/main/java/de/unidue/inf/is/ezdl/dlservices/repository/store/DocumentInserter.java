@@ -18,7 +18,14 @@
 
 package de.unidue.inf.is.ezdl.dlservices.repository.store;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.PriorityBlockingQueue;
 
 import org.apache.log4j.Logger;
@@ -26,13 +33,20 @@ import org.apache.log4j.Logger;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
 import de.unidue.inf.is.ezdl.dlcore.Haltable;
-import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
 import de.unidue.inf.is.ezdl.dlservices.repository.store.repositories.DocumentRepository;
 
 
 
 /**
  * DocumentInserter inserts documents into a repository.
+ * <p>
+ * The queued documents are written in batches of up to {@link #getBatchSize()}
+ * documents using {@link DocumentRepository#addDocuments(Collection)}, so a
+ * large result list costs a few transactions instead of one per document.
+ * <p>
+ * Documents stay visible through {@link #getDocuments(Collection)} until they
+ * have been written. Readers that wait for documents that are not there yet
+ * can get an {@link InsertionFuture} that completes once they are written.
  * 
  * @author mjordan
  */
@@ -44,10 +58,33 @@ public class DocumentInserter implements Runnable, Haltable {
 
     private static final int PRIO_RESULT_ITEM = 50;
     private static final int PRIO_DETAIL = 100;
+    /**
+     * The default maximum number of documents written in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final int batchSize;
 
 
     public DocumentInserter(DocumentRepository repository) {
+        this(repository, DEFAULT_BATCH_SIZE);
+    }
+
+
+    /**
+     * Creates an inserter.
+     * 
+     * @param repository
+     *            the repository to write to
+     * @param batchSize
+     *            the maximum number of documents written in one batch
+     */
+    public DocumentInserter(DocumentRepository repository, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
         this.repository = repository;
+        this.batchSize = batchSize;
     }
 
 
@@ -81,26 +118,32 @@ public class DocumentInserter implements Runnable, Haltable {
 
     private PriorityBlockingQueue<QueueItem> incomingDocuments = new PriorityBlockingQueue<QueueItem>();
 
-    private boolean running = true;
+    /**
+     * The documents that are queued or being written, by OID. Also guards
+     * {@link #futures}.
+     */
+    private final Map<String, List<StoredDocument>> pending = new HashMap<String, List<StoredDocument>>();
+    /**
+     * The futures waiting for documents to be written, by OID.
+     */
+    private final Map<String, List<InsertionFuture>> futures = new HashMap<String, List<InsertionFuture>>();
+
+    private volatile boolean running = true;
 
 
     /**
-     * @see DocumentRepository#addDocument(Document)
+     * @see DocumentRepository#addDocuments(Collection)
      */
     @Override
     public void run() {
         while (!isHalted() || !incomingDocuments.isEmpty()) {
             while (incomingDocuments.size() != 0) {
-                final QueueItem item = incomingDocuments.poll();
-                final StoredDocument document = item.stored;
-                final String oid = document.getOid();
-                logger.debug("Inserting " + item.prio + " " + oid + ": " + document);
-                repository.addDocument(document.getOid(), document);
+                insertBatch();
             }
 
-            if (!isHalted()) {
-                logger.debug("pausing");
-                synchronized (this) {
+            synchronized (this) {
+                if (!isHalted() && incomingDocuments.isEmpty()) {
+                    logger.debug("pausing");
                     try {
                         wait();
                     }
@@ -109,9 +152,157 @@ public class DocumentInserter implements Runnable, Haltable {
                     }
                 }
             }
-            logger.debug("Queue size when halting inserter: " + incomingDocuments.size());
         }
+        logger.debug("Queue size when halting inserter: " + incomingDocuments.size());
+    }
+
+
+    /**
+     * Takes up to {@link #batchSize} documents with the highest priority from
+     * the queue and writes them.
+     */
+    private void insertBatch() {
+        List<QueueItem> batch = new ArrayList<QueueItem>(Math.min(batchSize, incomingDocuments.size()));
+        incomingDocuments.drainTo(batch, batchSize);
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<StoredDocument> documents = new ArrayList<StoredDocument>(batch.size());
+        for (QueueItem item : batch) {
+            documents.add(item.stored);
+        }
+        Set<String> failed;
+        RuntimeException failure = null;
+        try {
+            logger.debug("Inserting " + documents.size() + " documents");
+            failed = repository.addDocuments(documents);
+        }
+        catch (RuntimeException e) {
+            logger.error("Error inserting " + documents.size() + " documents", e);
+            failed = null;
+            failure = e;
+        }
+        written(documents, failed, failure);
+    }
+
+
+    /**
+     * Removes written documents from the pending ones and notifies the futures
+     * waiting for them. Each future is only told about the OIDs it waits for.
+     * 
+     * @param failed
+     *            the OIDs of the documents that could not be written or null
+     *            if the whole batch failed
+     * @param failure
+     *            the exception that made the whole batch fail or null
+     */
+    private void written(List<StoredDocument> documents, Set<String> failed, RuntimeException failure) {
+        if (failed == null) {
+            failed = Collections.emptySet();
+        }
+        Map<InsertionFuture, List<String>> toNotify = new HashMap<InsertionFuture, List<String>>();
+        synchronized (pending) {
+            for (StoredDocument document : documents) {
+                final String oid = document.getOid();
+                final List<StoredDocument> versions = pending.get(oid);
+                if (versions != null) {
+                    removeIdentical(versions, document);
+                    if (versions.isEmpty()) {
+                        pending.remove(oid);
+                    }
+                }
+                final List<InsertionFuture> waiting = futures.get(oid);
+                if (waiting != null) {
+                    for (InsertionFuture future : waiting) {
+                        List<String> oids = toNotify.get(future);
+                        if (oids == null) {
+                            oids = new ArrayList<String>(1);
+                            toNotify.put(future, oids);
+                        }
+                        oids.add(oid);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<InsertionFuture, List<String>> entry : toNotify.entrySet()) {
+            for (String oid : entry.getValue()) {
+                if (failure != null) {
+                    entry.getKey().failed(oid, failure);
+                }
+                else if (failed.contains(oid)) {
+                    entry.getKey().failed(oid, new IllegalStateException("Document " + oid + " could not be written"));
+                }
+                else {
+                    entry.getKey().inserted(oid);
+                }
+            }
+        }
+    }
 
+
+    private static void removeIdentical(List<StoredDocument> versions, StoredDocument document) {
+        for (Iterator<StoredDocument> it = versions.iterator(); it.hasNext();) {
+            if (it.next() == document) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Returns a future that completes when documents with all of the given
+     * OIDs have been written.
+     * <p>
+     * The future has to be released with {@link #release(InsertionFuture)}
+     * when it is not needed any more.
+     * 
+     * @param oids
+     *            the OIDs to wait for
+     * @return the future
+     */
+    InsertionFuture expect(Collection<String> oids) {
+        InsertionFuture future = new InsertionFuture(oids);
+        synchronized (pending) {
+            for (String oid : future.getOutstanding()) {
+                List<InsertionFuture> waiting = futures.get(oid);
+                if (waiting == null) {
+                    waiting = new ArrayList<InsertionFuture>(1);
+                    futures.put(oid, waiting);
+                }
+                waiting.add(future);
+            }
+        }
+        return future;
+    }
+
+
+    /**
+     * Stops notifying a future.
+     * 
+     * @param future
+     *            the future returned by {@link #expect(Collection)}
+     */
+    void release(InsertionFuture future) {
+        synchronized (pending) {
+            for (Iterator<List<InsertionFuture>> it = futures.values().iterator(); it.hasNext();) {
+                final List<InsertionFuture> waiting = it.next();
+                waiting.remove(future);
+                if (waiting.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of documents written in one batch.
+     * 
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
     }
 
 
@@ -146,6 +337,14 @@ public class DocumentInserter implements Runnable, Haltable {
             QueueItem item = new QueueItem(prio, document);
             item.stored = document;
             item.prio = prio;
+            synchronized (pending) {
+                List<StoredDocument> versions = pending.get(document.getOid());
+                if (versions == null) {
+                    versions = new ArrayList<StoredDocument>(1);
+                    pending.put(document.getOid(), versions);
+                }
+                versions.add(document);
+            }
             incomingDocuments.add(item);
             synchronized (this) {
                 notify();
@@ -157,13 +356,22 @@ public class DocumentInserter implements Runnable, Haltable {
     }
 
 
+    /**
+     * Returns those of the given documents that are waiting to be inserted or
+     * are being inserted.
+     * 
+     * @param oids
+     *            the OIDs of the documents
+     * @return the documents not yet in the repository
+     */
     public StoredDocumentList getDocuments(Collection<String> oids) {
-        QueueItem[] items = incomingDocuments.toArray(new QueueItem[0]);
         StoredDocumentList out = new StoredDocumentList();
-        for (QueueItem item : items) {
-            final String itemOid = item.stored.getOid();
-            if (oids.contains(itemOid)) {
-                out.add(item.stored);
+        synchronized (pending) {
+            for (String oid : oids) {
+                final List<StoredDocument> versions = pending.get(oid);
+                if (versions != null) {
+                    out.addAll(versions);
+                }
             }
         }
         return out;
@@ -27,9 +27,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
@@ -195,29 +197,57 @@ public class DocumentStore {
     }
 
 
+    /**
+     * Collects the documents from the inserter queue and the repository.
+     * <p>
+     * Documents that are in neither might be about to arrive, so the method
+     * waits until the inserter has written them or the timeout has passed.
+     */
     private StoredDocumentList tryToGetDocuments(Collection<String> oids, int timeoutMs) {
-        int documentsToGet = oids.size();
-
-        StoredDocumentList documentList = inserter.getDocuments(oids);
-        documentsToGet -= documentList.size();
-
-        long startTimestamp = System.currentTimeMillis();
-        while ((documentsToGet >= 1) && (System.currentTimeMillis() - startTimestamp < timeoutMs)) {
-            final StoredDocumentList documents = repository.getDocuments(oids);
-            documentsToGet -= documents.size();
-            documentList.addAll(documents);
+        final InsertionFuture future = inserter.expect(oids);
+        try {
+            StoredDocumentList documentList = inserter.getDocuments(oids);
+            Set<String> missing = new HashSet<String>(oids);
+            removeFound(missing, documentList);
+            if (!missing.isEmpty()) {
+                final StoredDocumentList documents = repository.getDocuments(missing);
+                documentList.addAll(documents);
+                removeFound(missing, documents);
+            }
 
-            if (documentsToGet >= 1) {
+            future.retain(missing);
+            if (!missing.isEmpty()) {
                 try {
-                    Thread.sleep(500);
+                    future.get(timeoutMs, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                    logger.debug(e.getMessage());
+                }
+                catch (ExecutionException e) {
+                    logger.error(e.getMessage(), e);
                 }
                 catch (InterruptedException e) {
                     logger.error(e.getMessage(), e);
+                    Thread.currentThread().interrupt();
+                }
+                final Set<String> inserted = new HashSet<String>(missing);
+                inserted.removeAll(future.getOutstanding());
+                if (!inserted.isEmpty()) {
+                    documentList.addAll(repository.getDocuments(inserted));
                 }
             }
+            return documentList;
+        }
+        finally {
+            inserter.release(future);
         }
+    }
+
 
-        return documentList;
+    private static void removeFound(Set<String> missing, StoredDocumentList found) {
+        for (StoredDocument document : found) {
+            missing.remove(document.getOid());
+        }
     }
 
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.repository.store;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+
+/**
+ * A {@link Future} that completes when the {@link DocumentInserter} has
+ * written documents with all of a set of OIDs.
+ * <p>
+ * OIDs the caller stops waiting for, e.g. because they were found elsewhere,
+ * can be removed with {@link #retain(Collection)}.
+ * <p>
+ * If writing one of the documents fails, the future completes exceptionally
+ * and the OID stays outstanding.
+ */
+final class InsertionFuture implements Future<Void> {
+
+    private final Set<String> outstanding;
+    private boolean cancelled;
+    private Throwable failure;
+
+
+    InsertionFuture(Collection<String> oids) {
+        outstanding = new HashSet<String>(oids);
+    }
+
+
+    /**
+     * Returns the OIDs this future waits for.
+     * 
+     * @return a copy of the outstanding OIDs
+     */
+    synchronized Set<String> getOutstanding() {
+        return new HashSet<String>(outstanding);
+    }
+
+
+    /**
+     * Notes that a document has been written.
+     * 
+     * @param oid
+     *            the OID of the document
+     */
+    synchronized void inserted(String oid) {
+        if (outstanding.remove(oid) && outstanding.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Notes that writing a document failed.
+     * 
+     * @param oid
+     *            the OID of the document
+     * @param cause
+     *            the reason
+     */
+    synchronized void failed(String oid, Throwable cause) {
+        if (outstanding.contains(oid) && failure == null) {
+            failure = cause;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Stops waiting for all OIDs that are not in the given collection.
+     * 
+     * @param oids
+     *            the OIDs to keep waiting for
+     */
+    synchronized void retain(Collection<String> oids) {
+        outstanding.retainAll(oids);
+        if (outstanding.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        notifyAll();
+        return true;
+    }
+
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    @Override
+    public synchronized boolean isDone() {
+        return cancelled || failure != null || outstanding.isEmpty();
+    }
+
+
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (!isDone()) {
+            wait();
+        }
+        return result();
+    }
+
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                    TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException(outstanding.size() + " documents not inserted");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+
+    private Void result() throws ExecutionException {
+        if (failure != null && !cancelled) {
+            throw new ExecutionException(failure);
+        }
+        return null;
+    }
+}
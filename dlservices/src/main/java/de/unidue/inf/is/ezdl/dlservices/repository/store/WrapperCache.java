@@ -19,19 +19,19 @@
 package de.unidue.inf.is.ezdl.dlservices.repository.store;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import de.unidue.inf.is.ezdl.dlbackend.ServiceNames;
 import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
 import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
 import de.unidue.inf.is.ezdl.dlcore.data.wrappers.FrontendWrapperInfo;
 import de.unidue.inf.is.ezdl.dlcore.message.content.AvailableWrappersAsk;
 import de.unidue.inf.is.ezdl.dlcore.message.content.AvailableWrappersTell;
@@ -41,6 +41,11 @@ import de.unidue.inf.is.ezdl.dlcore.misc.TimeoutException;
 
 /**
  * Helper class to cache and discover wrappers from backend.
+ * <p>
+ * The cache is refreshed when the directory notifies the agent about changed
+ * registrations. As long as the agent has not received such a notification,
+ * the cache is refreshed when it is older than
+ * {@link #LAST_ACCESS_THRESHOLD_MS}.
  * 
  * @author markus
  */
@@ -56,13 +61,17 @@ public class WrapperCache {
 
     /**
      * A map which caches all available wrappers. The wrapper service is key and
-     * the category is the value.
+     * the category is the value. The map is never modified, only replaced.
      */
-    private Map<String, String> wrapperMap;
+    private Map<String, String> wrapperMap = Collections.emptyMap();
     /**
      * Creation date of the cache.
      */
     private long timestamp;
+    /**
+     * The generation of the directory's registry the cache was filled at.
+     */
+    private long generation = DirectoryChangedNotify.UNKNOWN_GENERATION;
 
     /**
      * The reference to the agent.
@@ -72,16 +81,22 @@ public class WrapperCache {
 
     WrapperCache(Agent agent) {
         this.agent = agent;
-        updateWrapperMap();
+        updateWrapperMap(agent.getDirectoryGeneration());
     }
 
 
     /**
      * A method to determine whether the cache is still current.
      * 
+     * @param dirGeneration
+     *            the generation of the directory's registry the agent knows
+     *            about
      * @return True for to old and false for young enough.
      */
-    private boolean isTooOld() {
+    private boolean isTooOld(long dirGeneration) {
+        if (dirGeneration != DirectoryChangedNotify.UNKNOWN_GENERATION) {
+            return dirGeneration != generation;
+        }
         final long currentDate = System.currentTimeMillis();
         if ((currentDate - timestamp) > LAST_ACCESS_THRESHOLD_MS) {
             return true;
@@ -91,16 +106,6 @@ public class WrapperCache {
     }
 
 
-    /**
-     * Clear the cache.
-     */
-    private void cacheClear() {
-        if (wrapperMap != null) {
-            wrapperMap.clear();
-        }
-    }
-
-
     /**
      * Setter for the current timestamp.
      * 
@@ -114,14 +119,18 @@ public class WrapperCache {
 
     /**
      * A method to update the WrapperCache.
+     * <p>
+     * The generation is read before asking, so a change that happens while
+     * asking leads to another update on the next call.
      * 
-     * @param agent
-     *            A agent to ask for new wrappers.
+     * @param dirGeneration
+     *            the generation of the directory's registry the agent knows
+     *            about
      */
-    private void updateWrapperMap() {
+    private void updateWrapperMap(long dirGeneration) {
         try {
-            cacheClear();
             wrapperMap = calcWrapperMap();
+            generation = dirGeneration;
             setTimestamp();
         }
         catch (TimeoutException e) {
@@ -141,26 +150,29 @@ public class WrapperCache {
      * @return Return a list of wrapper.
      */
     List<String> filteredCategoryWrapper(String wrapper) {
+        Map<String, String> wrappers = currentWrapperMap();
 
-        if (isTooOld()) {
-            updateWrapperMap();
+        if (!wrappers.containsKey(wrapper)) {
+            return new ArrayList<String>(wrappers.keySet());
         }
-
-        if (wrapperMap.containsKey(wrapper)) {
-            LinkedList<String> keysToRemove = new LinkedList<String>();
-            String wrapperCategory = wrapperMap.get(wrapper);
-            final Set<Entry<String, String>> entries = wrapperMap.entrySet();
-            for (Entry<String, String> wrapperEntry : entries) {
-                if (!wrapperEntry.getValue().equals(wrapperCategory)) {
-                    keysToRemove.add(wrapperEntry.getKey());
-                }
-            }
-            for (String key : keysToRemove) {
-                wrapperMap.remove(key);
+        String wrapperCategory = wrappers.get(wrapper);
+        List<String> sameCategory = new ArrayList<String>();
+        for (Entry<String, String> wrapperEntry : wrappers.entrySet()) {
+            final String category = wrapperEntry.getValue();
+            if ((wrapperCategory == null) ? (category == null) : wrapperCategory.equals(category)) {
+                sameCategory.add(wrapperEntry.getKey());
             }
         }
-        return new ArrayList<String>(wrapperMap.keySet());
+        return sameCategory;
+    }
+
 
+    private synchronized Map<String, String> currentWrapperMap() {
+        final long dirGeneration = agent.getDirectoryGeneration();
+        if (isTooOld(dirGeneration)) {
+            updateWrapperMap(dirGeneration);
+        }
+        return wrapperMap;
     }
 
 
@@ -187,7 +199,7 @@ public class WrapperCache {
             wrapperList.put(ServiceNames.getServiceNameForDL(wInfo.getId()), wInfo.getCategoryId());
         }
         logger.info("Map of wrapper: " + wrapperList);
-        return wrapperList;
+        return Collections.unmodifiableMap(wrapperList);
     }
 
 }
@@ -18,7 +18,14 @@
 
 package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -42,9 +49,10 @@ abstract class AbstractRepository implements DocumentRepository {
 
     @Override
     public StoredDocumentList getDocuments(Collection<String> oids) {
+        final Map<String, StoredDocument> documents = getDocumentMap(oids);
         StoredDocumentList list = new StoredDocumentList();
         for (String oid : oids) {
-            StoredDocument d = getDocument(oid);
+            StoredDocument d = documents.get(oid);
             if (d != null) {
                 list.add(d);
             }
@@ -53,6 +61,28 @@ abstract class AbstractRepository implements DocumentRepository {
     }
 
 
+    /**
+     * Retrieves the documents for multiple object IDs.
+     * <p>
+     * Implementors that can fetch several documents at once should override
+     * this method.
+     * 
+     * @param oids
+     *            the object IDs
+     * @return the documents found, keyed by their object ID
+     */
+    protected Map<String, StoredDocument> getDocumentMap(Collection<String> oids) {
+        Map<String, StoredDocument> documents = new HashMap<String, StoredDocument>();
+        for (String oid : oids) {
+            StoredDocument d = getDocument(oid);
+            if (d != null) {
+                documents.put(oid, d);
+            }
+        }
+        return documents;
+    }
+
+
     @Override
     public void addDocument(String oid, StoredDocument document) {
         if (oid == null) {
@@ -73,6 +103,44 @@ abstract class AbstractRepository implements DocumentRepository {
     }
 
 
+    @Override
+    public Set<String> addDocuments(Collection<StoredDocument> documents) {
+        Map<String, List<StoredDocument>> byOid = new LinkedHashMap<String, List<StoredDocument>>();
+        for (StoredDocument document : documents) {
+            final String oid = document.getOid();
+            if (oid == null) {
+                logger.warn("Document has no OID given:" + document);
+                continue;
+            }
+            List<StoredDocument> versions = byOid.get(oid);
+            if (versions == null) {
+                versions = new ArrayList<StoredDocument>(1);
+                byOid.put(oid, versions);
+            }
+            versions.add(document);
+        }
+        if (byOid.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        final Map<String, StoredDocument> inStore = getDocumentMap(byOid.keySet());
+        Map<String, StoredDocument> toStore = new LinkedHashMap<String, StoredDocument>();
+        for (Map.Entry<String, List<StoredDocument>> entry : byOid.entrySet()) {
+            StoredDocument merged = inStore.get(entry.getKey());
+            for (StoredDocument document : entry.getValue()) {
+                if (merged == null) {
+                    merged = document;
+                }
+                else {
+                    merged.merge(document);
+                }
+            }
+            toStore.put(entry.getKey(), merged);
+        }
+        return putAllAsIs(toStore);
+    }
+
+
     /**
      * Inserts a document object in the repository, using the given OID to
      * identify it. No further processing is done on the object. Especially no
@@ -86,6 +154,25 @@ abstract class AbstractRepository implements DocumentRepository {
     protected abstract void putAsIs(String oid, StoredDocument document);
 
 
+    /**
+     * Inserts several document objects in the repository without further
+     * processing.
+     * <p>
+     * Implementors that can write several documents at once should override
+     * this method.
+     * 
+     * @param documents
+     *            the objects to insert, keyed by their object ID
+     * @return the object IDs of the documents that could not be written
+     */
+    protected Set<String> putAllAsIs(Map<String, StoredDocument> documents) {
+        for (Map.Entry<String, StoredDocument> entry : documents.entrySet()) {
+            putAsIs(entry.getKey(), entry.getValue());
+        }
+        return Collections.emptySet();
+    }
+
+
     /**
      * Returns the logger
      * 
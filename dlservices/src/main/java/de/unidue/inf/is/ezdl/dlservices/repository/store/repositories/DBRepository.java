@@ -26,6 +26,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -41,6 +51,10 @@ import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
 /**
  * Half-baked repository implementation until we have a better one. Stores
  * Document objects serialized as XML strings in an SQL database.
+ * <p>
+ * An optional {@link DocumentCache} keeps recently read and written
+ * documents, so they don't have to be selected again. Each read decodes a
+ * new object, so callers may change the documents they get.
  * 
  * @author mj
  */
@@ -55,9 +69,15 @@ public class DBRepository extends AbstractRepository {
      */
     private static final String GET = "SELECT data FROM " + DOCUMENT + " WHERE id=?";
     /**
-     * The SQL command to check if a document is already in the database.
+     * The SQL command to get several Document objects, without the list of
+     * IDs.
      */
-    private static final String EXISTS = "SELECT 'true' FROM " + DOCUMENT + " WHERE id=?";
+    private static final String GET_MULTIPLE = "SELECT id, data FROM " + DOCUMENT + " WHERE id IN ";
+    /**
+     * The SQL command to check which documents are already in the database,
+     * without the list of IDs.
+     */
+    private static final String EXISTING = "SELECT id FROM " + DOCUMENT + " WHERE id IN ";
     /**
      * The SQL command to insert a new object.
      */
@@ -79,6 +99,11 @@ public class DBRepository extends AbstractRepository {
      * database id.
      */
     private static final int OID_LENGTH_FOR_HASHCODE = 255;
+    /**
+     * The maximum number of IDs per "IN" clause and of statements per JDBC
+     * batch.
+     */
+    private static final int CHUNK_SIZE = 500;
 
     private static Logger logger = Logger.getLogger(DBRepository.class);
 
@@ -90,6 +115,10 @@ public class DBRepository extends AbstractRepository {
      * The bytes coder.
      */
     private BytesCoder bytesCoder;
+    /**
+     * The cache of encoded documents or null if nothing is cached.
+     */
+    private DocumentCache cache;
 
 
     /**
@@ -100,17 +129,44 @@ public class DBRepository extends AbstractRepository {
      *            the connection provider
      */
     public DBRepository(ConnectionProvider provider) {
+        this(provider, null);
+    }
+
+
+    /**
+     * Creates a new repository, using the given factory to connect to an SQL
+     * database and a cache for the encoded documents.
+     * 
+     * @param provider
+     *            the connection provider
+     * @param cache
+     *            the cache or null if nothing is to be cached
+     */
+    public DBRepository(ConnectionProvider provider, DocumentCache cache) {
         this.provider = provider;
+        this.cache = cache;
         bytesCoder = new BytesCoder(new JBossSerializationStrategy());
     }
 
 
     @Override
     public StoredDocument getDocument(String oid) {
+        byte[] data = cache == null ? null : cache.get(oid);
+        if (data == null) {
+            data = load(oid);
+            if (data != null && cache != null) {
+                cache.put(oid, data);
+            }
+        }
+        return data == null ? null : decode(data);
+    }
+
+
+    private byte[] load(String oid) {
         Connection con = null;
         PreparedStatement st = null;
         ResultSet res = null;
-        StoredDocument out = null;
+        byte[] out = null;
         final String databaseIdForOid = databaseIdForOid(oid);
         try {
             con = provider.connection();
@@ -118,8 +174,7 @@ public class DBRepository extends AbstractRepository {
             st.setString(1, databaseIdForOid);
             res = st.executeQuery();
             if (res.next()) {
-                Blob clob = res.getBlob(1);
-                out = decode(clob.getBinaryStream());
+                out = read(res.getBlob(1));
             }
             con.commit();
         }
@@ -157,67 +212,301 @@ public class DBRepository extends AbstractRepository {
 
 
     @Override
-    protected void putAsIs(String oid, StoredDocument document) {
+    protected Map<String, StoredDocument> getDocumentMap(Collection<String> oids) {
+        Map<String, byte[]> data;
+        if (cache == null) {
+            data = loadAll(oids);
+        }
+        else {
+            data = new HashMap<String, byte[]>();
+            List<String> missing = new ArrayList<String>();
+            for (String oid : oids) {
+                final byte[] cached = cache.get(oid);
+                if (cached != null) {
+                    data.put(oid, cached);
+                }
+                else {
+                    missing.add(oid);
+                }
+            }
+            final Map<String, byte[]> loaded = loadAll(missing);
+            cache.putAll(loaded);
+            data.putAll(loaded);
+        }
+
+        Map<String, StoredDocument> out = new HashMap<String, StoredDocument>();
+        for (Map.Entry<String, byte[]> entry : data.entrySet()) {
+            final StoredDocument document = decode(entry.getValue());
+            if (document != null) {
+                out.put(entry.getKey(), document);
+            }
+        }
+        return out;
+    }
+
+
+    private Map<String, byte[]> loadAll(Collection<String> oids) {
+        if (oids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final List<String> ids = new ArrayList<String>(databaseIdsForOids(oids));
+        Map<String, byte[]> rows = new HashMap<String, byte[]>();
         Connection con = null;
+        try {
+            con = provider.connection();
+            for (int first = 0; first < ids.size(); first += CHUNK_SIZE) {
+                selectChunk(con, ids.subList(first, Math.min(first + CHUNK_SIZE, ids.size())), rows);
+            }
+            con.commit();
+        }
+        catch (SQLException e) {
+            rollback(con);
+            getLogger().error("Error selecting " + ids.size() + " documents", e);
+        }
+        finally {
+            ClosingUtils.close(con);
+        }
+
+        Map<String, byte[]> out = new HashMap<String, byte[]>();
+        for (String oid : oids) {
+            final byte[] data = rows.get(databaseIdForOid(oid));
+            if (data != null) {
+                out.put(oid, data);
+            }
+        }
+        return out;
+    }
+
+
+    private void selectChunk(Connection con, List<String> ids, Map<String, byte[]> rows) throws SQLException {
         PreparedStatement st = null;
-        PreparedStatement st2 = null;
+        ResultSet res = null;
+        try {
+            st = con.prepareStatement(GET_MULTIPLE + placeholders(ids.size()));
+            setStrings(st, ids);
+            res = st.executeQuery();
+            while (res.next()) {
+                final byte[] data = read(res.getBlob(2));
+                if (data != null) {
+                    rows.put(res.getString(1), data);
+                }
+            }
+        }
+        finally {
+            ClosingUtils.close(res);
+            ClosingUtils.close(st);
+        }
+    }
 
-        byte[] encoded = encode(document);
-        ByteArrayInputStream is = new ByteArrayInputStream(encoded);
 
-        String databaseIdForOid = databaseIdForOid(oid);
+    @Override
+    protected void putAsIs(String oid, StoredDocument document) {
+        putAllAsIs(Collections.singletonMap(oid, document));
+    }
 
+
+    /**
+     * Writes all documents in one transaction. If the transaction fails, the
+     * documents are written again one at a time, so a single document that
+     * cannot be written does not take the others with it.
+     */
+    @Override
+    protected Set<String> putAllAsIs(Map<String, StoredDocument> documents) {
+        if (documents.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Map<String, byte[]> encoded = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<String, StoredDocument> entry : documents.entrySet()) {
+            encoded.put(entry.getKey(), encode(entry.getValue()));
+        }
         try {
-            con = provider.connection();
+            writeAll(encoded);
+            cacheWritten(encoded);
+            return Collections.emptySet();
+        }
+        catch (SQLException e) {
+            if (documents.size() == 1) {
+                getLogger().error("Error putting " + documents.keySet(), e);
+                return new HashSet<String>(documents.keySet());
+            }
+            getLogger().warn("Error putting " + documents.size() + " documents, retrying one at a time", e);
+        }
 
-            st = con.prepareStatement(EXISTS);
-            st.setString(1, databaseIdForOid);
-            ResultSet rs = st.executeQuery();
-            if (rs.next()) {
-                String s = rs.getString(1);
-                if (Boolean.valueOf(s)) {
-                    st2 = con.prepareStatement(UPDATE);
-                    st2.setBlob(1, is);
-                    st2.setString(2, databaseIdForOid);
-                    st2.execute();
+        Set<String> failed = new LinkedHashSet<String>();
+        for (Map.Entry<String, byte[]> entry : encoded.entrySet()) {
+            final Map<String, byte[]> single = Collections.singletonMap(entry.getKey(), entry.getValue());
+            try {
+                writeAll(single);
+                cacheWritten(single);
+            }
+            catch (SQLException e) {
+                getLogger().error("Error putting " + entry.getKey(), e);
+                failed.add(entry.getKey());
+            }
+        }
+        if (!failed.isEmpty()) {
+            getLogger().error("Failed to put " + failed.size() + " of " + documents.size() + " documents: " + failed);
+        }
+        return failed;
+    }
+
+
+    private void cacheWritten(Map<String, byte[]> documents) {
+        if (cache != null) {
+            cache.putAll(documents);
+        }
+    }
+
+
+    /**
+     * Writes the encoded documents in one transaction. The IDs that already exist are
+     * looked up at once, then the updates and inserts are sent as JDBC
+     * batches. With MySQL, the batches only save round trips if the
+     * connection URL sets "rewriteBatchedStatements=true".
+     * 
+     * @throws SQLException
+     *             if the transaction failed and was rolled back
+     */
+    private void writeAll(Map<String, byte[]> documents) throws SQLException {
+        Connection con = null;
+        PreparedStatement insert = null;
+        PreparedStatement update = null;
+        try {
+            con = provider.connection();
+            final Set<String> existing = existingIds(con, databaseIdsForOids(documents.keySet()));
+            insert = con.prepareStatement(PUT);
+            update = con.prepareStatement(UPDATE);
+
+            int inserts = 0;
+            int updates = 0;
+            for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+                final String databaseIdForOid = databaseIdForOid(entry.getKey());
+                final ByteArrayInputStream is = new ByteArrayInputStream(entry.getValue());
+                if (existing.add(databaseIdForOid)) {
+                    insert.setString(1, databaseIdForOid);
+                    insert.setBlob(2, is);
+                    insert.addBatch();
+                    inserts++;
                 }
                 else {
-                    getLogger().error("Error while checking if row exists");
+                    update.setBlob(1, is);
+                    update.setString(2, databaseIdForOid);
+                    update.addBatch();
+                    updates++;
+                }
+                if (inserts == CHUNK_SIZE || updates == CHUNK_SIZE) {
+                    executeBatches(insert, inserts, update, updates);
+                    inserts = 0;
+                    updates = 0;
                 }
             }
-            else {
-                st2 = con.prepareStatement(PUT);
-                st2.setString(1, databaseIdForOid);
-                st2.setBlob(2, is);
-                st2.execute();
-            }
+            executeBatches(insert, inserts, update, updates);
             con.commit();
         }
         catch (SQLException e) {
-            rollback(con);
-            getLogger().error("Error putting " + databaseIdForOid, e);
+            if (con != null) {
+                rollback(con);
+            }
+            throw e;
         }
         finally {
-            ClosingUtils.close(st, st2);
+            ClosingUtils.close(insert, update);
             ClosingUtils.close(con);
         }
     }
 
 
+    /**
+     * Executes the pending batches. Inserts go first since an update in the
+     * same batch may refer to a row that is inserted.
+     */
+    private static void executeBatches(PreparedStatement insert, int inserts, PreparedStatement update, int updates)
+                    throws SQLException {
+        if (inserts != 0) {
+            insert.executeBatch();
+        }
+        if (updates != 0) {
+            update.executeBatch();
+        }
+    }
+
+
+    private static Set<String> existingIds(Connection con, Set<String> ids) throws SQLException {
+        Set<String> existing = new HashSet<String>();
+        final List<String> idList = new ArrayList<String>(ids);
+        for (int first = 0; first < idList.size(); first += CHUNK_SIZE) {
+            final List<String> chunk = idList.subList(first, Math.min(first + CHUNK_SIZE, idList.size()));
+            PreparedStatement st = null;
+            ResultSet res = null;
+            try {
+                st = con.prepareStatement(EXISTING + placeholders(chunk.size()));
+                setStrings(st, chunk);
+                res = st.executeQuery();
+                while (res.next()) {
+                    existing.add(res.getString(1));
+                }
+            }
+            finally {
+                ClosingUtils.close(res);
+                ClosingUtils.close(st);
+            }
+        }
+        return existing;
+    }
+
+
+    private static Set<String> databaseIdsForOids(Collection<String> oids) {
+        Set<String> ids = new LinkedHashSet<String>();
+        for (String oid : oids) {
+            ids.add(databaseIdForOid(oid));
+        }
+        return ids;
+    }
+
+
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder(2 * count + 1);
+        sql.append('(');
+        for (int i = 0; i < count; i++) {
+            if (i != 0) {
+                sql.append(',');
+            }
+            sql.append('?');
+        }
+        return sql.append(')').toString();
+    }
+
+
+    private static void setStrings(PreparedStatement st, List<String> values) throws SQLException {
+        int index = 1;
+        for (String value : values) {
+            st.setString(index++, value);
+        }
+    }
+
+
     private byte[] encode(StoredDocument d) {
         return bytesCoder.encode(d);
     }
 
 
-    private StoredDocument decode(InputStream is) {
+    private StoredDocument decode(byte[] data) {
+        return (StoredDocument) bytesCoder.decode(data);
+    }
+
+
+    private static byte[] read(Blob blob) throws SQLException {
+        InputStream is = blob.getBinaryStream();
         try {
-            return (StoredDocument) bytesCoder.decode(IOUtils.toByteArray(is));
+            return IOUtils.toByteArray(is);
         }
         catch (IOException e) {
             logger.error(e.getMessage(), e);
             return null;
         }
-
+        finally {
+            ClosingUtils.close(is);
+        }
     }
 
 
@@ -252,6 +541,9 @@ public class DBRepository extends AbstractRepository {
 
     @Override
     public void removeDocument(String oid) {
+        if (cache != null) {
+            cache.remove(oid);
+        }
         Connection con = null;
         PreparedStatement st = null;
         try {
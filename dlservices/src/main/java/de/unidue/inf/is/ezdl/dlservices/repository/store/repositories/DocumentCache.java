@@ -0,0 +1,199 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+/**
+ * A bounded cache of encoded documents, keyed by OID.
+ * <p>
+ * The cache holds at most a given number of bytes and evicts the least
+ * recently used documents first.
+ * <p>
+ * The cache keeps the documents in the form they are stored in the database,
+ * so a hit saves the round trip to the database but not the decoding. Every
+ * reader gets a document object of its own and changes to it do not leak into
+ * the cache. The repository puts the new version of a document into the cache
+ * after it has been written.
+ */
+public final class DocumentCache {
+
+    /**
+     * Estimated size of the objects that every entry consists of besides the
+     * data.
+     */
+    static final int ENTRY_SIZE = 128;
+
+    private final long maxSize;
+    private long size;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Creates a cache.
+     * 
+     * @param maxSize
+     *            the maximum size of all cached documents in bytes
+     */
+    public DocumentCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Returns a cached document.
+     * 
+     * @param oid
+     *            the OID of the document
+     * @return the encoded document or null if it is not in the cache
+     */
+    public synchronized byte[] get(String oid) {
+        final byte[] data = entries.get(oid);
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return data;
+    }
+
+
+    /**
+     * Puts a document into the cache, replacing an older version. Documents
+     * that are larger than the whole cache are not cached.
+     * <p>
+     * The data must not be changed afterwards.
+     * 
+     * @param oid
+     *            the OID of the document
+     * @param data
+     *            the encoded document
+     */
+    public synchronized void put(String oid, byte[] data) {
+        remove(oid);
+        if (sizeOf(data) > maxSize) {
+            return;
+        }
+        entries.put(oid, data);
+        size += sizeOf(data);
+        evict();
+    }
+
+
+    /**
+     * Puts several documents into the cache.
+     * 
+     * @param documents
+     *            the encoded documents, keyed by their OID
+     */
+    public synchronized void putAll(Map<String, byte[]> documents) {
+        for (Map.Entry<String, byte[]> entry : documents.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+
+    /**
+     * Removes a document from the cache.
+     * 
+     * @param oid
+     *            the OID of the document
+     */
+    public synchronized void remove(String oid) {
+        final byte[] data = entries.remove(oid);
+        if (data != null) {
+            size -= sizeOf(data);
+        }
+    }
+
+
+    private void evict() {
+        for (Iterator<byte[]> it = entries.values().iterator(); size > maxSize && it.hasNext();) {
+            size -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+
+    /**
+     * Returns the memory an entry takes up.
+     * 
+     * @param data
+     *            the encoded document
+     * @return the estimated size in bytes
+     */
+    static int sizeOf(byte[] data) {
+        return ENTRY_SIZE + data.length;
+    }
+
+
+    /**
+     * Returns the number of cached documents.
+     * 
+     * @return the number of documents
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+
+    /**
+     * Returns the size of the cached documents.
+     * 
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Returns the number of successful lookups.
+     * 
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * Returns the number of failed lookups.
+     * 
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentCache [count=" + entries.size() + ", size=" + size + ", maxSize=" + maxSize + ", hits="
+                        + hits.get() + ", misses=" + misses.get() + "]";
+    }
+}
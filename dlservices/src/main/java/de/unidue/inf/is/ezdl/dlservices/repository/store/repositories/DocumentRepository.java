@@ -19,6 +19,7 @@
 package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
 
 import java.util.Collection;
+import java.util.Set;
 
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
@@ -75,6 +76,22 @@ public interface DocumentRepository {
     void addDocument(String oid, StoredDocument document);
 
 
+    /**
+     * Puts several documents into the repository, each under its own OID.
+     * <p>
+     * Does the same as calling {@link #addDocument(String, StoredDocument)}
+     * for each document but allows implementors to read and write all of them
+     * at once. Documents with the same OID are merged in the given order.
+     * 
+     * @param documents
+     *            the documents to store. Documents without OID are not
+     *            processed.
+     * @return the OIDs of the documents that could not be written. Empty if
+     *         all documents were written.
+     */
+    Set<String> addDocuments(Collection<StoredDocument> documents);
+
+
     /**
      * Returns the number of documents stored in the repository.
      * 
@@ -25,6 +25,8 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.handlers.RequestHandler;
 import de.unidue.inf.is.ezdl.dlbackend.cache.EhCache;
 import de.unidue.inf.is.ezdl.dlcore.cache.Cache;
 import de.unidue.inf.is.ezdl.dlservices.search.handlers.DocumentQueryHandler;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankerFactory;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankingRecording;
 
 
 
@@ -38,6 +40,16 @@ public class SearchAgent extends AbstractAgent {
      * Service name of this agent.
      */
     private static final String SERVICE_NAME = "/service/search";
+    /**
+     * Property that configures the ranking stages, see
+     * {@link RankerFactory}.
+     */
+    public static final String KEY_RANKING = "search.ranking";
+    /**
+     * Property that names a directory to write {@link RankingRecording}s to.
+     * If not set, nothing is recorded.
+     */
+    public static final String KEY_RANKING_RECORD_DIR = "search.ranking.recorddir";
     /**
      * The cache to keep short-term data like recent answers from wrappers.
      */
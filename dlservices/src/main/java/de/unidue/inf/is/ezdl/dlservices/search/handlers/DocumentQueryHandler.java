@@ -18,10 +18,13 @@
 
 package de.unidue.inf.is.ezdl.dlservices.search.handlers;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -53,8 +56,10 @@ import de.unidue.inf.is.ezdl.dlcore.message.content.DocumentQueryResultTell;
 import de.unidue.inf.is.ezdl.dlcore.message.content.MessageContent;
 import de.unidue.inf.is.ezdl.dlcore.misc.EzDLException;
 import de.unidue.inf.is.ezdl.dlservices.search.SearchAgent;
-import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.LuceneRanker;
 import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.Ranker;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankerFactory;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankingRecording;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.SourcePositions;
 
 
 
@@ -74,6 +79,12 @@ import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.Ranker;
  * <li>The results are cached per wrapper.</li>
  * <li>All result lists are merged and sent to the client.</li>
  * </ol>
+ * If the client asked for incremental results (see
+ * {@link ResultConfiguration#isIncremental()}), every answer from a wrapper
+ * is merged into the running result list, which is then ranked and sent to
+ * the client as a delta page that only contains new, moved and merged
+ * documents with their positions and the documents that dropped off the page.
+ * The complete list is still sent at the end.
  * 
  * @author mjordan
  */
@@ -114,11 +125,25 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
      * Ranker for the search results.
      */
     private Ranker ranker;
+    /**
+     * The positions of the documents in the results of each source, used by
+     * rankers that fuse the rankings of the sources.
+     */
+    private SourcePositions sourcePositions = new SourcePositions();
+    /**
+     * Records the query and results for offline evaluation, or null if
+     * recording is not configured.
+     */
+    private RankingRecording recording;
     /**
      * Contains a, lazily evaluated, representation of the query to use as the
      * cache key.
      */
     private String keyQueryPart;
+    /**
+     * Remembers what has been sent to the client in incremental mode.
+     */
+    private ResultDeltaTracker deltaTracker = new ResultDeltaTracker();
 
 
     /**
@@ -132,7 +157,27 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
     public void init(String requestId, Agent agent) {
         super.init(requestId, agent);
         forwarder = new MessageForwarder(this, getRequestId());
-        ranker = new LuceneRanker();
+        ranker = createRanker(agent.getProperties());
+    }
+
+
+    /**
+     * Creates the ranker configured by {@link SearchAgent#KEY_RANKING}.
+     * Falls back to the default ranker if the configuration is invalid.
+     * 
+     * @param props
+     *            the properties of the agent
+     * @return the ranker
+     */
+    private Ranker createRanker(Properties props) {
+        final String spec = (props == null) ? null : props.getProperty(SearchAgent.KEY_RANKING);
+        try {
+            return RankerFactory.create(spec, sourcePositions);
+        }
+        catch (IllegalArgumentException e) {
+            getLogger().error("Invalid ranking configuration " + spec + ". Using default.", e);
+            return RankerFactory.create(RankerFactory.DEFAULT_SPEC, sourcePositions);
+        }
     }
 
 
@@ -177,6 +222,9 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
 
         resultConfig = content.getResultConfig();
         documentQuery = content.getQuery();
+        if (getRecordDir() != null) {
+            recording = new RankingRecording(documentQuery);
+        }
 
         getLogger().debug("Wrappers before cache lookup: " + documentQuery.getDLList());
 
@@ -196,6 +244,9 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
             getLogger().debug("Starting real (TM) search using remote wrappers");
             notifyUser(message, 0);
             forwardQueryToWrappers(content);
+            if (isIncremental() && !resultList.isEmpty()) {
+                sendResultDelta();
+            }
         }
     }
 
@@ -244,6 +295,45 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
         if (!forwarder.isWaiting()) {
             endAndSendResultList();
         }
+        else if (isIncremental()) {
+            sendResultDelta();
+        }
+    }
+
+
+    /**
+     * Returns if the client asked for incremental result delivery.
+     * 
+     * @return true, if results are to be sent incrementally
+     */
+    private boolean isIncremental() {
+        return (resultConfig != null) && resultConfig.isIncremental();
+    }
+
+
+    /**
+     * Ranks the results collected so far and sends those documents to the
+     * client that are new or changed since the last delta page, with their
+     * positions, and the OIDs of the documents that left the page.
+     */
+    private void sendResultDelta() {
+        if (isHalted()) {
+            return;
+        }
+
+        ResultDocumentList ranked = DocumentListConverter.toResultDocumentList(resultList);
+        rank(ranked);
+        DocumentListFilter filter = new DocumentListFilter(resultConfig);
+        ResultDocumentList window = filter.sliceList(filter.sortList(new ResultDocumentList(ranked)));
+        ResultDeltaTracker.Delta delta = deltaTracker.delta(window);
+
+        if (!delta.isEmpty()) {
+            ResultDocumentList listToSend = filter.filterFields(delta.getDocuments());
+            DocumentQueryResultTell content = new DocumentQueryResultTell(listToSend, ranked.size(),
+                            delta.getPositions(), delta.getRemovedOids());
+            getLogger().debug("Sending result delta " + content);
+            sendReply(content);
+        }
     }
 
 
@@ -305,11 +395,67 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
     private void addResultList(DocumentQueryStoredTell content) {
         StoredDocumentList dl = content.getResults();
         assignObjectIdsAndValidateSources(dl);
+        recordSourceResults(dl);
         StoredDocumentList resultList = this.resultList;
         resultList.merge(dl);
     }
 
 
+    /**
+     * Remembers the order in which a source returned its results before they
+     * are merged into the result list.
+     * 
+     * @param dl
+     *            the results of a source, with OIDs assigned
+     */
+    private void recordSourceResults(StoredDocumentList dl) {
+        if (dl == null) {
+            return;
+        }
+        sourcePositions.add(dl);
+        if (recording != null) {
+            try {
+                recording.addResults(dl);
+            }
+            catch (IOException e) {
+                getLogger().error("Could not record results", e);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the directory to write {@link RankingRecording}s to.
+     * 
+     * @return the directory or null if recording is not configured
+     */
+    private File getRecordDir() {
+        final Properties props = getAgent().getProperties();
+        final String dir = (props == null) ? null : props.getProperty(SearchAgent.KEY_RANKING_RECORD_DIR);
+        return (dir == null || dir.trim().length() == 0) ? null : new File(dir.trim());
+    }
+
+
+    /**
+     * Writes the recording of the request, if there is one.
+     */
+    private void writeRecording() {
+        if (recording == null) {
+            return;
+        }
+        final File dir = getRecordDir();
+        final File file = new File(dir, getRequestId().replaceAll("[^A-Za-z0-9_.-]", "_") + ".xml");
+        try {
+            dir.mkdirs();
+            recording.write(file);
+            getLogger().debug("Wrote ranking recording " + file);
+        }
+        catch (IOException e) {
+            getLogger().error("Could not write ranking recording " + file, e);
+        }
+    }
+
+
     /**
      * Assigns object IDs for incoming documents.
      * 
@@ -369,6 +515,7 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
             sendResultsFiltered(resultList, resultConfig);
             recordMissingWrappers(resultList);
             notifyRepository(resultList);
+            writeRecording();
             getLogger().debug("Ending request");
             if (!isHalted()) {
                 halt();
@@ -467,6 +614,7 @@ public class DocumentQueryHandler extends AbstractRequestHandler implements Mess
             StoredDocumentList stuff = collectResultsForDL(dl);
             if (stuff != null) {
                 sendInfoNotify(dl, stuff.size());
+                recordSourceResults(stuff);
                 resultList.merge(stuff);
                 /*
                  * We have results for dl so no need to send a request again.
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Keeps track of the result pages already sent to a client and computes what
+ * has changed since.
+ * <p>
+ * Used for incremental result delivery: each time a wrapper answers, the
+ * ranked result list is passed to {@link #delta(ResultDocumentList)}, which
+ * returns the documents the client does not know about in their current
+ * state together with their positions. These are documents that are new, that
+ * have moved to another position in the ranking or that have been merged with
+ * documents from another source. Documents that are no longer in the list are
+ * returned as removed. Applying the delta to the list sent before yields the
+ * current list.
+ */
+public class ResultDeltaTracker {
+
+    /**
+     * The changes between two lists.
+     */
+    public static final class Delta {
+
+        private ResultDocumentList documents = new ResultDocumentList();
+        private List<Integer> positions = new ArrayList<Integer>();
+        private List<String> removedOids = new ArrayList<String>();
+
+
+        /**
+         * Returns the documents that are new, moved or merged.
+         * 
+         * @return the documents in the order of the list
+         */
+        public ResultDocumentList getDocuments() {
+            return documents;
+        }
+
+
+        /**
+         * Returns the positions of the documents in the list.
+         * 
+         * @return the position of each document in {@link #getDocuments()},
+         *         starting at 0
+         */
+        public List<Integer> getPositions() {
+            return positions;
+        }
+
+
+        /**
+         * Returns the OIDs of the documents that are no longer in the list.
+         * 
+         * @return the OIDs of the removed documents
+         */
+        public List<String> getRemovedOids() {
+            return removedOids;
+        }
+
+
+        /**
+         * Returns if nothing has changed.
+         * 
+         * @return true, if there are no changed and no removed documents
+         */
+        public boolean isEmpty() {
+            return documents.isEmpty() && removedOids.isEmpty();
+        }
+    }
+
+
+    /**
+     * Maps the OIDs of documents already sent to their position in the list.
+     */
+    private Map<String, Integer> sentPositions = new HashMap<String, Integer>();
+    /**
+     * Maps the OIDs of documents already sent to their number of sources.
+     */
+    private Map<String, Integer> sentSourceCounts = new HashMap<String, Integer>();
+
+
+    /**
+     * Returns the changes of the given ranked list since the last call and
+     * remembers the state of the list as sent.
+     * 
+     * @param ranked
+     *            the ranked and sorted list in the order the client is to see
+     *            it
+     * @return the documents that are new, moved or merged since the last call,
+     *         in the order of the given list, and the documents that were
+     *         removed
+     */
+    public Delta delta(ResultDocumentList ranked) {
+        Delta delta = new Delta();
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        Map<String, Integer> sourceCounts = new HashMap<String, Integer>();
+
+        int pos = 0;
+        for (ResultDocument document : ranked) {
+            final String oid = document.getOid();
+            final int sourceCount = document.getSources().size();
+
+            positions.put(oid, pos);
+            sourceCounts.put(oid, sourceCount);
+            Integer oldPos = sentPositions.get(oid);
+            Integer oldSourceCount = sentSourceCounts.get(oid);
+
+            boolean isNew = (oldPos == null);
+            boolean moved = !isNew && (oldPos.intValue() != pos);
+            boolean merged = !isNew && (oldSourceCount.intValue() != sourceCount);
+            if (isNew || moved || merged) {
+                delta.documents.add(document);
+                delta.positions.add(pos);
+            }
+            pos++;
+        }
+
+        for (String oid : sentPositions.keySet()) {
+            if (!positions.containsKey(oid)) {
+                delta.removedOids.add(oid);
+            }
+        }
+
+        sentPositions = positions;
+        sentSourceCounts = sourceCounts;
+        return delta;
+    }
+
+
+    /**
+     * Returns the number of documents in the list as last sent.
+     * 
+     * @return the number of documents
+     */
+    public int size() {
+        return sentPositions.size();
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Base class for {@link Ranker}s that compute unnormalized RSVs and map them
+ * to the interval [0, 1] afterwards.
+ * <p>
+ * Splitting scoring and normalization allows rankers to be chained in a
+ * {@link RankerChain}: each stage sees the unnormalized RSVs of the stage
+ * before and only the chain normalizes the final result.
+ */
+public abstract class AbstractRanker implements Ranker {
+
+    private static final int MIN_NORM_RSV = 0;
+    private static final int MAX_NORM_RSV = 1;
+
+
+    @Override
+    public void rank(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        score(toRank, documentQuery);
+        normalizeRSVs(toRank);
+    }
+
+
+    /**
+     * Sets the unnormalized RSVs of the documents.
+     * 
+     * @param toRank
+     *            The document list to rank. The unnormalized RSVs are those of
+     *            the previous stage if the ranker is part of a chain.
+     * @param documentQuery
+     *            The document query
+     */
+    protected abstract void score(ResultDocumentList toRank, DocumentQuery documentQuery);
+
+
+    /**
+     * Normalizes RSV values
+     * 
+     * @param toRank
+     */
+    protected static void normalizeRSVs(ResultDocumentList toRank) {
+        double maxRsv = 0;
+        double minRsv = 0;
+
+        for (ResultDocument document : toRank) {
+            double rsv = document.getUnnormalizedRsv();
+            if (rsv > maxRsv) {
+                maxRsv = rsv;
+            }
+            if (rsv < minRsv) {
+                minRsv = rsv;
+            }
+        }
+
+        if (Math.abs(maxRsv - minRsv) <= 0.0000000001) {
+            if (maxRsv > 1) {
+                applySingleRsv(toRank, 1);
+            }
+            else if (maxRsv < 0) {
+                applySingleRsv(toRank, 0);
+            }
+        }
+        else {
+            for (ResultDocument document : toRank) {
+                double rsv = (document.getUnnormalizedRsv() - minRsv)
+                                * ((MAX_NORM_RSV - MIN_NORM_RSV) / (maxRsv - minRsv)) + MIN_NORM_RSV;
+                document.setRsv(rsv);
+            }
+        }
+    }
+
+
+    /**
+     * Sets rsv value.
+     * 
+     * @param documentList
+     *            the document list
+     * @param rsv
+     *            the rsv value
+     */
+    private static void applySingleRsv(ResultDocumentList documentList, double rsv) {
+        for (ResultDocument document : documentList) {
+            document.setRsv(rsv);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking.RankingQuery.QueryTerm;
+
+
+
+/**
+ * Ranks documents with BM25F over title, abstract and authors.
+ * <p>
+ * The term frequencies of the fields are normalized by the field lengths,
+ * weighted and summed up before the saturation function is applied, so a term
+ * that occurs in the title and the abstract does not count twice. Terms that
+ * the query restricts to a single field only count in that field.
+ * <p>
+ * Unlike {@link LuceneRanker}, this ranker uses IDF. The statistics come from
+ * the result list, which is small, so the IDF is smoothed to stay positive
+ * even for terms that occur in every document. The query tree is only used
+ * to decide which documents match; documents that don't get a score of 0.
+ * <p>
+ * The documents are kept in a {@link RankingIndex} so ranking a growing list
+ * only analyzes new or changed documents. Since the collection statistics
+ * change with every document, all documents are scored again.
+ */
+public class BM25FRanker extends AbstractRanker {
+
+    static final float DEFAULT_K1 = 1.2f;
+    static final float DEFAULT_B = 0.75f;
+    static final float DEFAULT_TITLE_WEIGHT = 2f;
+    static final float DEFAULT_ABSTRACT_WEIGHT = 1f;
+    static final float DEFAULT_AUTHOR_WEIGHT = 1f;
+
+    private static final int[] TEXT_FIELDS = {
+                    IndexedDocument.TITLE, IndexedDocument.ABSTRACT, IndexedDocument.AUTHOR
+    };
+
+    private final float k1;
+    private final float b;
+    /**
+     * The weights of the fields, indexed like {@link IndexedDocument#FIELDS}.
+     */
+    private final float[] weights = new float[IndexedDocument.FIELDS.length];
+
+    private RankingIndex index = new RankingIndex();
+
+    private String queryKey;
+    private RankingQuery query;
+    private QueryTerm[] terms;
+
+
+    /**
+     * Constructor that uses the default parameters.
+     */
+    public BM25FRanker() {
+        this(DEFAULT_K1, DEFAULT_B, DEFAULT_TITLE_WEIGHT, DEFAULT_ABSTRACT_WEIGHT, DEFAULT_AUTHOR_WEIGHT);
+    }
+
+
+    /**
+     * Constructor.
+     * 
+     * @param k1
+     *            controls how fast the score saturates with the term frequency
+     * @param b
+     *            controls how much the field lengths are normalized, between
+     *            0 (not at all) and 1 (fully)
+     * @param titleWeight
+     *            the weight of the title
+     * @param abstractWeight
+     *            the weight of the abstract
+     * @param authorWeight
+     *            the weight of the author names
+     */
+    public BM25FRanker(float k1, float b, float titleWeight, float abstractWeight, float authorWeight) {
+        this.k1 = k1;
+        this.b = b;
+        weights[IndexedDocument.TITLE] = titleWeight;
+        weights[IndexedDocument.ABSTRACT] = abstractWeight;
+        weights[IndexedDocument.AUTHOR] = authorWeight;
+    }
+
+
+    @Override
+    protected synchronized void score(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        prepareQuery(documentQuery);
+
+        List<IndexedDocument> indexed = new ArrayList<IndexedDocument>(toRank.size());
+        for (ResultDocument result : toRank) {
+            indexed.add(index.update(result.getDocument()));
+        }
+        index.retain(toRank);
+
+        final double[] idfs = idfs();
+        final double[] averageLengths = new double[IndexedDocument.FIELDS.length];
+        for (int field : TEXT_FIELDS) {
+            averageLengths[field] = index.getAverageLength(field);
+        }
+
+        int i = 0;
+        for (ResultDocument result : toRank) {
+            result.setUnnormalizedRsv(score(indexed.get(i++), idfs, averageLengths));
+        }
+    }
+
+
+    private void prepareQuery(DocumentQuery documentQuery) {
+        final QueryNode root = documentQuery.getQuery().getTree();
+        final String key = String.valueOf(root);
+        if (!key.equals(queryKey)) {
+            queryKey = key;
+            query = root == null ? null : RankingQuery.compile(root);
+            Set<QueryTerm> collected = new LinkedHashSet<QueryTerm>();
+            if (query != null) {
+                query.collectTerms(collected);
+            }
+            terms = collected.toArray(new QueryTerm[collected.size()]);
+        }
+    }
+
+
+    private double[] idfs() {
+        final int count = index.getDocumentCount();
+        final double[] idfs = new double[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            final int df = index.getDocumentFrequency(terms[i].field, terms[i].term);
+            idfs[i] = Math.log(1 + (count - df + 0.5) / (df + 0.5));
+        }
+        return idfs;
+    }
+
+
+    private double score(IndexedDocument document, double[] idfs, double[] averageLengths) {
+        if (query == null || query.score(document) == RankingQuery.NO_MATCH) {
+            return 0;
+        }
+        double score = 0;
+        for (int i = 0; i < terms.length; i++) {
+            final QueryTerm term = terms[i];
+            double frequency = 0;
+            if (term.field == IndexedDocument.TEXT) {
+                for (int field : TEXT_FIELDS) {
+                    frequency += weightedFrequency(document, field, term.term, averageLengths[field]);
+                }
+            }
+            else if (weights[term.field] != 0) {
+                frequency = weightedFrequency(document, term.field, term.term, averageLengths[term.field]);
+            }
+            if (frequency > 0) {
+                score += idfs[i] * frequency * (k1 + 1) / (frequency + k1);
+            }
+        }
+        return score;
+    }
+
+
+    private double weightedFrequency(IndexedDocument document, int field, String term, double averageLength) {
+        final IndexedDocument.FieldTerms terms = document.getField(field);
+        final int frequency = terms.getFrequency(term);
+        if (frequency == 0) {
+            return 0;
+        }
+        final double normalization = averageLength == 0 ? 1 : 1 - b + b * terms.getLength() / averageLength;
+        return weights[field] * frequency / normalization;
+    }
+}
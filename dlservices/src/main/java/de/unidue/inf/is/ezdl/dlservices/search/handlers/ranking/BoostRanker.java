@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.Calendar;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Boosts the scores of a previous stage for recent documents and for
+ * documents that were found by several sources.
+ * <p>
+ * A document from the current year gets {@link #RECENCY_BOOST} more, the
+ * boost decreasing linearly to nothing over {@link #RECENCY_YEARS} years.
+ * Each source beyond the first adds {@link #DUPLICATE_BOOST}. Both boosts are
+ * factors, so documents without score stay at 0.
+ */
+public class BoostRanker extends AbstractRanker {
+
+    static final double RECENCY_BOOST = 0.2;
+    static final int RECENCY_YEARS = 10;
+    static final double DUPLICATE_BOOST = 0.1;
+
+    private final int currentYear;
+
+
+    /**
+     * Constructor.
+     */
+    public BoostRanker() {
+        this(Calendar.getInstance().get(Calendar.YEAR));
+    }
+
+
+    /**
+     * Constructor.
+     * 
+     * @param currentYear
+     *            the year that counts as recent
+     */
+    BoostRanker(int currentYear) {
+        this.currentYear = currentYear;
+    }
+
+
+    @Override
+    protected void score(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        for (ResultDocument result : toRank) {
+            final double boost = recencyBoost(result.getDocument().getYear())
+                            * (1 + DUPLICATE_BOOST * Math.max(0, result.getSources().size() - 1));
+            result.setUnnormalizedRsv(result.getUnnormalizedRsv() * boost);
+        }
+    }
+
+
+    /**
+     * Returns the recency factor for a year. Documents without year are not
+     * boosted.
+     */
+    private double recencyBoost(int year) {
+        if (year <= 0) {
+            return 1;
+        }
+        final int age = Math.max(0, currentYear - year);
+        return 1 + RECENCY_BOOST * Math.max(0, 1 - (double) age / RECENCY_YEARS);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Person;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.PersonList;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+
+
+
+/**
+ * The analyzed fields of a single document in a {@link RankingIndex}.
+ * <p>
+ * Title, abstract and authors are split into lower case tokens of letters,
+ * just like Lucene's <code>SimpleAnalyzer</code> does. {@link Field#TEXT}
+ * holds all of these tokens in a row and is looked up in the other fields. The
+ * year is kept as a single term.
+ * <p>
+ * The entry remembers the field values it was created from, so
+ * {@link #isUpToDate(Document)} can tell if the document has changed since,
+ * e.g. because a wrapper delivered the abstract later.
+ */
+final class IndexedDocument {
+
+    /**
+     * The fields that are indexed.
+     */
+    static final Field[] FIELDS = {
+                    Field.TITLE, Field.ABSTRACT, Field.AUTHOR, Field.TEXT, Field.YEAR
+    };
+
+    static final int TITLE = 0;
+    static final int ABSTRACT = 1;
+    static final int AUTHOR = 2;
+    static final int TEXT = 3;
+    static final int YEAR = 4;
+
+
+    /**
+     * The terms of a field along with the positions they occur at.
+     */
+    static final class FieldTerms {
+
+        static final FieldTerms EMPTY = new FieldTerms(Collections.<String> emptyList());
+
+        private final int length;
+        /**
+         * Maps terms to their positions. The first element of each array is
+         * the number of positions.
+         */
+        private final Map<String, int[]> positions;
+        /**
+         * The fields this one consists of or null.
+         */
+        private final FieldTerms[] parts;
+
+
+        FieldTerms(List<String> tokens) {
+            length = tokens.size();
+            positions = new HashMap<String, int[]>(length * 4 / 3 + 1);
+            parts = null;
+            for (int i = 0; i < length; i++) {
+                add(tokens.get(i), i);
+            }
+        }
+
+
+        /**
+         * Creates the terms of a field that consists of the given fields in a
+         * row. The terms are looked up in the parts, so no additional index is
+         * built.
+         */
+        FieldTerms(FieldTerms... parts) {
+            int totalLength = 0;
+            for (FieldTerms part : parts) {
+                totalLength += part.length;
+            }
+            this.length = totalLength;
+            this.positions = null;
+            this.parts = parts;
+        }
+
+
+        private void add(String term, int position) {
+            int[] termPositions = positions.get(term);
+            if (termPositions == null) {
+                positions.put(term, new int[] {
+                                1, position
+                });
+            }
+            else {
+                final int count = termPositions[0] + 1;
+                if (count == termPositions.length) {
+                    termPositions = Arrays.copyOf(termPositions, count * 2);
+                    positions.put(term, termPositions);
+                }
+                termPositions[count] = position;
+                termPositions[0] = count;
+            }
+        }
+
+
+        int getLength() {
+            return length;
+        }
+
+
+        int getFrequency(String term) {
+            if (parts != null) {
+                int frequency = 0;
+                for (FieldTerms part : parts) {
+                    frequency += part.getFrequency(term);
+                }
+                return frequency;
+            }
+            int[] termPositions = positions.get(term);
+            return termPositions == null ? 0 : termPositions[0];
+        }
+
+
+        /**
+         * Returns the positions of a term in ascending order or null if the
+         * term does not occur.
+         */
+        int[] getPositions(String term) {
+            final int frequency = getFrequency(term);
+            if (frequency == 0) {
+                return null;
+            }
+            int[] out = new int[frequency];
+            copyPositions(term, out, 0, 0);
+            return out;
+        }
+
+
+        private int copyPositions(String term, int[] out, int index, int offset) {
+            if (parts != null) {
+                for (FieldTerms part : parts) {
+                    index = part.copyPositions(term, out, index, offset);
+                    offset += part.length;
+                }
+                return index;
+            }
+            int[] termPositions = positions.get(term);
+            if (termPositions == null) {
+                return index;
+            }
+            for (int i = 1; i <= termPositions[0]; i++) {
+                out[index++] = termPositions[i] + offset;
+            }
+            return index;
+        }
+
+
+        Set<String> terms() {
+            if (parts != null) {
+                Set<String> terms = new HashSet<String>();
+                for (FieldTerms part : parts) {
+                    terms.addAll(part.terms());
+                }
+                return terms;
+            }
+            return positions.keySet();
+        }
+    }
+
+
+    private final String oid;
+    private final String title;
+    private final String docAbstract;
+    private final int year;
+    private final int authorsHash;
+    private final FieldTerms[] fields;
+
+    private int scoreGeneration = -1;
+    private float score;
+
+
+    private IndexedDocument(Document document) {
+        oid = document.getOid();
+        title = document.getTitle();
+        docAbstract = abstractOf(document);
+        year = document.getYear();
+        PersonList authors = document.getAuthorList();
+        authorsHash = authors == null ? 0 : authors.hashCode();
+
+        List<String> titleTokens = tokenize(title);
+        List<String> abstractTokens = tokenize(docAbstract);
+        List<String> authorTokens = new ArrayList<String>();
+        if (authors != null) {
+            for (Person author : authors) {
+                authorTokens.addAll(tokenize(author.getFirstName()));
+                authorTokens.addAll(tokenize(author.getLastName()));
+            }
+        }
+
+        fields = new FieldTerms[FIELDS.length];
+        fields[TITLE] = new FieldTerms(titleTokens);
+        fields[ABSTRACT] = new FieldTerms(abstractTokens);
+        fields[AUTHOR] = new FieldTerms(authorTokens);
+        fields[TEXT] = new FieldTerms(fields[TITLE], fields[ABSTRACT], fields[AUTHOR]);
+        fields[YEAR] = year == 0 ? FieldTerms.EMPTY : new FieldTerms(Collections.singletonList(String
+                        .valueOf(year)));
+    }
+
+
+    /**
+     * Analyzes a document.
+     * 
+     * @param document
+     *            the document
+     * @return the analyzed document
+     */
+    static IndexedDocument create(Document document) {
+        return new IndexedDocument(document);
+    }
+
+
+    /**
+     * Returns the index of a field in {@link #FIELDS}.
+     * 
+     * @param field
+     *            the field
+     * @return the index or -1 if the field is not indexed
+     */
+    static int indexOf(Field field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i] == field) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns if the field is split into tokens or kept as a single term.
+     * 
+     * @param field
+     *            the index of the field
+     * @return true if the field is split into tokens
+     */
+    static boolean isAnalyzed(int field) {
+        return field != YEAR;
+    }
+
+
+    /**
+     * Splits a text into lower case tokens made of letters.
+     * 
+     * @param text
+     *            the text. May be null.
+     * @return the tokens
+     */
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = new ArrayList<String>();
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetter(text.charAt(i))) {
+                i++;
+            }
+            final int start = i;
+            boolean lowerCase = true;
+            while (i < length) {
+                final char c = text.charAt(i);
+                if (!Character.isLetter(c)) {
+                    break;
+                }
+                lowerCase &= c == Character.toLowerCase(c);
+                i++;
+            }
+            if (i > start) {
+                final String token = text.substring(start, i);
+                tokens.add(lowerCase ? token : token.toLowerCase());
+            }
+        }
+        return tokens;
+    }
+
+
+    private static String abstractOf(Document document) {
+        if (document instanceof TextDocument) {
+            return ((TextDocument) document).getAbstract();
+        }
+        return null;
+    }
+
+
+    private static boolean same(String a, String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+
+    /**
+     * Returns if the entry still reflects the given document.
+     * 
+     * @param document
+     *            the document with the same OID
+     * @return true if the indexed fields have not changed
+     */
+    boolean isUpToDate(Document document) {
+        PersonList authors = document.getAuthorList();
+        return same(title, document.getTitle()) && same(docAbstract, abstractOf(document))
+                        && year == document.getYear()
+                        && authorsHash == (authors == null ? 0 : authors.hashCode());
+    }
+
+
+    String getOid() {
+        return oid;
+    }
+
+
+    FieldTerms getField(int field) {
+        return fields[field];
+    }
+
+
+    /**
+     * Returns the score calculated for the query with the given generation.
+     * 
+     * @param generation
+     *            the generation of the query
+     * @return the score or {@link Float#NaN} if the document has not been
+     *         scored for that query yet
+     */
+    float getScore(int generation) {
+        return scoreGeneration == generation ? score : Float.NaN;
+    }
+
+
+    void setScore(int generation, float score) {
+        this.scoreGeneration = generation;
+        this.score = score;
+    }
+}
@@ -18,319 +18,98 @@
 
 package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
 
-import java.io.IOException;
-import java.util.Collection;
-
-import org.apache.log4j.Logger;
-import org.apache.lucene.analysis.SimpleAnalyzer;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.queryParser.ParseException;
-import org.apache.lucene.queryParser.QueryParser;
-import org.apache.lucene.search.DefaultSimilarity;
-import org.apache.lucene.search.Explanation.IDFExplanation;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.Similarity;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.RAMDirectory;
-import org.apache.lucene.util.Version;
-
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
-import de.unidue.inf.is.ezdl.dlcore.data.dldata.PersonList;
-import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
 import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
 import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
 import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
-import de.unidue.inf.is.ezdl.dlcore.query.QueryConverter;
-import de.unidue.inf.is.ezdl.dlcore.query.SolrQueryConverter;
-import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
 
 
 
 /**
- * Ranker for {@link Document}s based on Lucene.
+ * Ranker for {@link Document}s based on Lucene's scoring function.
+ * <p>
+ * The documents are kept in a {@link RankingIndex} that lives as long as the
+ * ranker, so ranking a list again after the results of another wrapper have
+ * been merged in only analyzes and scores the new or changed documents. The
+ * scores of all other documents are reused.
+ * <p>
+ * IDF is not used in the scores. The rationale behind this is that the ranking
+ * is done only on documents that match the query so IDF ranks documents with
+ * more common terms lower even if they are super-relevant.
+ * <p>
+ * Example: Let A and B denote spelling variants in document titles and let the
+ * query be "A OR B". Assume a result list that contains 3 documents with the A
+ * variant and 27 with the B variant. Due to the IDF weight the B documents
+ * will rank very low and the A documents very high, regardless of any other
+ * rules such as term position.
+ * <p>
+ * The idea behind IDF is to reduce the weight of terms that are very common
+ * <em> in the complete collection</em> (e.g. stop words) and thus cannot be
+ * used to distinguish between documents. But in our case we are only looking
+ * at a small collection and only at terms that are relevant to the user so we
+ * don't want to rank them low. For the same reason a phrase like "map reduce"
+ * counts as one match and doesn't rank documents much higher than those that
+ * match "mapreduce".
  * 
  * @author tbeckers
  */
-@SuppressWarnings("deprecation")
-public class LuceneRanker implements Ranker {
+public class LuceneRanker extends AbstractRanker {
 
-    private static final int MIN_NORM_RSV = 0;
-    private static final int MAX_NORM_RSV = 1;
+    private RankingIndex index = new RankingIndex();
 
     /**
-     * Selects if the improved handling for phrase matches is to be used. If
-     * false, a matching phrase query for "map reduce" counts two matches and
-     * ranks such documents much higher than those that match "mapreduce". If
-     * true, phrases like "map reduce" are counted as one match.
+     * The string representation of the query the scores in the index belong
+     * to.
      */
-    private static final boolean IMPROVED_PHRASE_RANKING = true;
-
-    private Logger logger = Logger.getLogger(LuceneRanker.class);
-
-    private QueryConverter queryConverter;
-
-
+    private String queryKey;
+    private RankingQuery query;
     /**
-     * This is a Similarity implementation that returns 1.0 for idf values. The
-     * rationale behind this is that the ranking is done only on documents that
-     * match the query so IDF ranks documents with more common terms lower even
-     * if they are super-relevant.
-     * <p>
-     * Example: Let A and B denote spelling variants in document titles and let
-     * the query be "A OR B". Assume a result list that contains 3 documents
-     * with the A variant and 27 with the B variant. Due to the IDF weight the B
-     * documents will rank very low and the A documents very high, regardless of
-     * any other rules such as term position.
-     * <p>
-     * The idea behind IDF is to reduce the weight of terms that are very common
-     * <em> in the complete collection</em> (e.g. stop words) and thus cannot be
-     * used to distinguish between documents. But in our case we are only
-     * looking at a small collection and only at terms that are relevant to the
-     * user so we don't want to rank them low.
-     * 
-     * @author mjordan
+     * Incremented each time the query changes to invalidate all scores.
      */
-    private class IdfLessSimilarity extends DefaultSimilarity {
-
-        private static final long serialVersionUID = -8747591341351143145L;
-
-
-        private class IdfLessExplanation extends IDFExplanation {
-
-            private static final long serialVersionUID = 1L;
-
-
-            @Override
-            public float getIdf() {
-                return 1.0f;
-            }
-
-
-            @Override
-            public String explain() {
-                return "";
-            }
-        }
-
-
-        private IdfLessExplanation ex = new IdfLessExplanation();
-
-
-        @Override
-        public float idf(int docFreq, int numDocs) {
-            return 1.0f;
-        }
-
-
-        @Override
-        public IDFExplanation idfExplain(Collection<Term> terms, Searcher searcher) throws IOException {
-            return ex;
-        }
-
-    }
-
-
-    private Similarity similarity = new IdfLessSimilarity();
+    private int queryGeneration;
 
 
     /**
      * Constructor.
      */
     public LuceneRanker() {
-        queryConverter = new SolrQueryConverter();
-
-        if (IMPROVED_PHRASE_RANKING) {
-            Similarity.setDefault(similarity);
-        }
     }
 
 
     @Override
-    public void rank(ResultDocumentList toRank, DocumentQuery documentQuery) {
-        Directory directory = new RAMDirectory();
-
-        IndexWriter indexWriter = null;
-        try {
-            indexWriter = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_31, new SimpleAnalyzer(
-                            Version.LUCENE_31)));
-
-            createIndex(toRank, indexWriter);
-            calculateRSVs(directory, toRank, documentQuery);
-            normalizeRSVs(toRank);
-        }
-        catch (CorruptIndexException e) {
-            logger.error(e.getMessage(), e);
-        }
-        catch (ParseException e) {
-            logger.error(e.getMessage(), e);
-        }
-        catch (IOException e) {
-            logger.error(e.getMessage(), e);
-        }
-        finally {
-            if (indexWriter != null) {
-                try {
-                    indexWriter.close();
-                }
-                catch (CorruptIndexException e) {
-                    logger.error(e.getMessage(), e);
-                }
-                catch (IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }
-        }
-    }
-
-
-    /**
-     * Normalizes RSV values
-     * 
-     * @param toRank
-     */
-    private void normalizeRSVs(ResultDocumentList toRank) {
-        double maxRsv = 0;
-        double minRsv = 0;
-
-        for (ResultDocument document : toRank) {
-            double rsv = document.getUnnormalizedRsv();
-            if (rsv > maxRsv) {
-                maxRsv = rsv;
-            }
-            if (rsv < minRsv) {
-                minRsv = rsv;
-            }
-        }
-
-        if (Math.abs(maxRsv - minRsv) <= 0.0000000001) {
-            if (maxRsv > 1) {
-                applySingleRsv(toRank, 1);
-            }
-            else if (maxRsv < 0) {
-                applySingleRsv(toRank, 0);
-            }
-        }
-        else {
-            for (ResultDocument document : toRank) {
-                double rsv = (document.getUnnormalizedRsv() - minRsv)
-                                * ((MAX_NORM_RSV - MIN_NORM_RSV) / (maxRsv - minRsv)) + MIN_NORM_RSV;
-                document.setRsv(rsv);
-            }
-        }
-    }
-
-
-    /**
-     * Sets rsv value.
-     * 
-     * @param documentList
-     *            the document list
-     * @param rsv
-     *            the rsv value
-     */
-    private void applySingleRsv(ResultDocumentList documentList, double rsv) {
-        for (ResultDocument document : documentList) {
-            document.setRsv(rsv);
-        }
-    }
-
-
-    private void calculateRSVs(Directory directory, ResultDocumentList documentList, DocumentQuery documentQuery)
-                    throws ParseException, CorruptIndexException, IOException {
-        Query query = new QueryParser(Version.LUCENE_31,
-                        de.unidue.inf.is.ezdl.dlcore.data.fields.Field.TEXT.toString(), new SimpleAnalyzer(
-                                        Version.LUCENE_31)).parse(queryConverter.convert(documentQuery.getQuery()));
-        IndexSearcher searcher = new IndexSearcher(directory, true);
+    protected synchronized void score(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        prepareQuery(documentQuery);
 
-        TopDocs topDocs = searcher.search(query, 1000);
-        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-            String oid = searcher.doc(scoreDoc.doc).get("oid");
-            float score = scoreDoc.score;
-            ResultDocument document = getDocumentByOid(documentList, oid);
-            if (document != null) {
-                document.setUnnormalizedRsv(score);
+        for (ResultDocument result : toRank) {
+            IndexedDocument indexed = index.update(result.getDocument());
+            float score = indexed.getScore(queryGeneration);
+            if (Float.isNaN(score)) {
+                score = score(indexed);
+                indexed.setScore(queryGeneration, score);
             }
+            result.setUnnormalizedRsv(score);
         }
+        index.retain(toRank);
     }
 
 
-    private ResultDocument getDocumentByOid(ResultDocumentList documentList, String oid) {
-        for (ResultDocument document : documentList) {
-            String oid2 = document.getOid();
-            if (oid != null && oid2 != null && oid.equals(oid2)) {
-                return document;
-            }
+    private void prepareQuery(DocumentQuery documentQuery) {
+        final QueryNode root = documentQuery.getQuery().getTree();
+        final String key = String.valueOf(root);
+        if (!key.equals(queryKey)) {
+            queryKey = key;
+            query = root == null ? null : RankingQuery.compile(root);
+            queryGeneration++;
         }
-        return null;
     }
 
 
-    private void createIndex(ResultDocumentList toRank, IndexWriter indexWriter) throws CorruptIndexException,
-                    IOException {
-        for (ResultDocument result : toRank) {
-            Document document = result.getDocument();
-            org.apache.lucene.document.Document d = new org.apache.lucene.document.Document();
-
-            StringBuilder sb = new StringBuilder();
-
-            String oid = document.getOid();
-
-            Field.Store store = Field.Store.NO;
-
-            Field field;
-            if (!StringUtils.isEmpty(oid)) {
-                field = new Field("oid", oid, Field.Store.YES, Field.Index.NO);
-                d.add(field);
-                String title = document.getTitle();
-                if (!StringUtils.isEmpty(title)) {
-                    field = new Field(de.unidue.inf.is.ezdl.dlcore.data.fields.Field.TITLE.toString(), title, store,
-                                    Field.Index.ANALYZED);
-                    field.setOmitNorms(true);
-                    field.setBoost(2.0f);
-                    d.add(field);
-                    sb.append(title);
-                    sb.append(" ");
-                }
-                if (document instanceof TextDocument) {
-                    String docAbstract = ((TextDocument) document).getAbstract();
-                    if (!StringUtils.isEmpty(docAbstract)) {
-                        field = new Field(de.unidue.inf.is.ezdl.dlcore.data.fields.Field.ABSTRACT.toString(),
-                                        docAbstract, store, Field.Index.ANALYZED);
-                        d.add(field);
-                        sb.append(docAbstract);
-                        sb.append(" ");
-                    }
-                }
-                int year = document.getYear();
-                if (year != 0) {
-                    field = new Field(de.unidue.inf.is.ezdl.dlcore.data.fields.Field.YEAR.toString(),
-                                    String.valueOf(year), store, Field.Index.NOT_ANALYZED);
-                    d.add(field);
-                    sb.append(" ");
-                    sb.append(year);
-                }
-                PersonList authorList = document.getAuthorList();
-                if (authorList != null) {
-                    field = new Field(de.unidue.inf.is.ezdl.dlcore.data.fields.Field.AUTHOR.toString(),
-                                    authorList.toString(), store, Field.Index.ANALYZED);
-                    d.add(field);
-                    sb.append(authorList.toString());
-                }
-                field = new Field(de.unidue.inf.is.ezdl.dlcore.data.fields.Field.TEXT.toString(), sb.toString()
-                                .toString(), store, Field.Index.ANALYZED);
-                d.add(field);
-
-                indexWriter.addDocument(d);
-            }
+    private float score(IndexedDocument document) {
+        if (query == null) {
+            return 0f;
         }
-        indexWriter.commit();
+        final float score = query.score(document);
+        return score == RankingQuery.NO_MATCH ? 0f : score * query.queryNorm();
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Runs several rankers one after the other.
+ * <p>
+ * The unnormalized RSVs start at 0 and each stage works on the scores of the
+ * stage before, e.g. a text ranker followed by a fusion and a boost stage.
+ * The result is normalized only once at the end.
+ */
+public class RankerChain extends AbstractRanker {
+
+    private final List<AbstractRanker> stages;
+
+
+    /**
+     * Constructor.
+     * 
+     * @param stages
+     *            the rankers in the order they are applied
+     */
+    public RankerChain(List<AbstractRanker> stages) {
+        this.stages = Collections.unmodifiableList(new ArrayList<AbstractRanker>(stages));
+    }
+
+
+    @Override
+    protected void score(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        for (ResultDocument result : toRank) {
+            result.setUnnormalizedRsv(0);
+        }
+        for (AbstractRanker stage : stages) {
+            stage.score(toRank, documentQuery);
+        }
+    }
+
+
+    /**
+     * Returns the stages of the chain.
+     * 
+     * @return the stages, which cannot be modified
+     */
+    public List<AbstractRanker> getStages() {
+        return stages;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Creates {@link Ranker}s from a configuration string.
+ * <p>
+ * The string is a comma-separated list of stages that are run in the given
+ * order:
+ * <ul>
+ * <li><code>lucene</code>: {@link LuceneRanker}</li>
+ * <li><code>bm25f</code>: {@link BM25FRanker}</li>
+ * <li><code>rrf</code>: {@link ReciprocalRankFusionRanker}</li>
+ * <li><code>boost</code>: {@link BoostRanker}</li>
+ * </ul>
+ * E.g. "bm25f,rrf,boost" ranks by BM25F, fuses that ranking with the rankings
+ * of the sources and boosts recent documents and those found by several
+ * sources.
+ */
+public final class RankerFactory {
+
+    /**
+     * The configuration used if none is given.
+     */
+    public static final String DEFAULT_SPEC = "lucene";
+
+
+    private RankerFactory() {
+    }
+
+
+    /**
+     * Creates a ranker.
+     * 
+     * @param spec
+     *            the comma-separated list of stages. If null or empty,
+     *            {@link #DEFAULT_SPEC} is used.
+     * @param positions
+     *            the positions of the documents in the results of the sources
+     * @return the ranker
+     * @throws IllegalArgumentException
+     *             if a stage is unknown
+     */
+    public static RankerChain create(String spec, SourcePositions positions) {
+        if (spec == null || spec.trim().length() == 0) {
+            spec = DEFAULT_SPEC;
+        }
+        List<AbstractRanker> stages = new ArrayList<AbstractRanker>();
+        for (String name : spec.split(",")) {
+            name = name.trim();
+            if (name.length() != 0) {
+                stages.add(createStage(name, positions));
+            }
+        }
+        return new RankerChain(stages);
+    }
+
+
+    private static AbstractRanker createStage(String name, SourcePositions positions) {
+        if ("lucene".equalsIgnoreCase(name)) {
+            return new LuceneRanker();
+        }
+        else if ("bm25f".equalsIgnoreCase(name)) {
+            return new BM25FRanker();
+        }
+        else if ("rrf".equalsIgnoreCase(name)) {
+            return new ReciprocalRankFusionRanker(positions);
+        }
+        else if ("boost".equalsIgnoreCase(name)) {
+            return new BoostRanker();
+        }
+        throw new IllegalArgumentException("Unknown ranking stage: " + name);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
+
+
+
+/**
+ * An in-memory index of the documents of a result list that is updated
+ * incrementally.
+ * <p>
+ * Documents are identified by their OID. A document is only analyzed again if
+ * its indexed fields have changed, so adding the results of another wrapper
+ * to a list costs only the analysis of the new or merged documents.
+ * <p>
+ * The index also keeps the total length of each field up to date, as well as
+ * the document frequencies of all terms that have been asked for. Tracking
+ * only those terms keeps updates cheap, since rankers ask for the few terms of
+ * their query.
+ */
+final class RankingIndex {
+
+    private Map<String, IndexedDocument> documents = new HashMap<String, IndexedDocument>();
+    /**
+     * Maps the tracked terms to their document frequency in each field.
+     */
+    private Map<String, int[]> documentFrequencies = new HashMap<String, int[]>();
+    private long[] totalLengths = new long[IndexedDocument.FIELDS.length];
+
+
+    /**
+     * Returns the index entry for a document, analyzing the document if it is
+     * new or has changed.
+     * <p>
+     * Documents without OID cannot be recognized later, so they are analyzed
+     * but not added to the index.
+     * 
+     * @param document
+     *            the document
+     * @return the entry for the document
+     */
+    IndexedDocument update(Document document) {
+        final String oid = document.getOid();
+        if (StringUtils.isEmpty(oid)) {
+            return IndexedDocument.create(document);
+        }
+
+        IndexedDocument indexed = documents.get(oid);
+        if (indexed == null || !indexed.isUpToDate(document)) {
+            if (indexed != null) {
+                count(indexed, -1);
+            }
+            indexed = IndexedDocument.create(document);
+            documents.put(oid, indexed);
+            count(indexed, 1);
+        }
+        return indexed;
+    }
+
+
+    /**
+     * Removes all documents from the index that are not in the given list.
+     * 
+     * @param results
+     *            the documents to keep
+     */
+    void retain(Collection<ResultDocument> results) {
+        if (documents.size() <= results.size()) {
+            return;
+        }
+        Set<String> oids = new HashSet<String>();
+        for (ResultDocument result : results) {
+            oids.add(result.getOid());
+        }
+        for (Iterator<IndexedDocument> it = documents.values().iterator(); it.hasNext();) {
+            IndexedDocument indexed = it.next();
+            if (!oids.contains(indexed.getOid())) {
+                count(indexed, -1);
+                it.remove();
+            }
+        }
+    }
+
+
+    private void count(IndexedDocument indexed, int delta) {
+        for (int field = 0; field < IndexedDocument.FIELDS.length; field++) {
+            totalLengths[field] += delta * indexed.getField(field).getLength();
+        }
+        for (Map.Entry<String, int[]> entry : documentFrequencies.entrySet()) {
+            count(indexed, entry.getKey(), entry.getValue(), delta);
+        }
+    }
+
+
+    private static void count(IndexedDocument indexed, String term, int[] frequencies, int delta) {
+        for (int field = 0; field < IndexedDocument.FIELDS.length; field++) {
+            if (indexed.getField(field).getFrequency(term) != 0) {
+                frequencies[field] += delta;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the number of documents in the index.
+     * 
+     * @return the number of documents
+     */
+    int getDocumentCount() {
+        return documents.size();
+    }
+
+
+    /**
+     * Returns the number of documents that contain a term in a field.
+     * <p>
+     * The first call for a term counts the documents, afterwards the number
+     * is kept up to date as documents are added or removed.
+     * 
+     * @param field
+     *            the index of the field in {@link IndexedDocument#FIELDS}
+     * @param term
+     *            the term
+     * @return the number of documents
+     */
+    int getDocumentFrequency(int field, String term) {
+        int[] frequencies = documentFrequencies.get(term);
+        if (frequencies == null) {
+            frequencies = new int[IndexedDocument.FIELDS.length];
+            for (IndexedDocument indexed : documents.values()) {
+                count(indexed, term, frequencies, 1);
+            }
+            documentFrequencies.put(term, frequencies);
+        }
+        return frequencies[field];
+    }
+
+
+    /**
+     * Returns the average number of tokens in a field.
+     * 
+     * @param field
+     *            the index of the field in {@link IndexedDocument#FIELDS}
+     * @return the average length or 0 if the index is empty
+     */
+    double getAverageLength(int field) {
+        final int count = documents.size();
+        return count == 0 ? 0 : (double) totalLengths[field] / count;
+    }
+}
@@ -0,0 +1,628 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.util.SmallFloat;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare.Predicate;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeProximity;
+
+
+
+/**
+ * A query tree compiled for scoring {@link IndexedDocument}s.
+ * <p>
+ * The scores follow Lucene's practical scoring function without IDF: each
+ * matching term contributes the square root of its frequency times the length
+ * norm of the field, phrases count as a single term and wildcard and range
+ * expressions contribute a constant score. Boolean nodes sum up the scores of
+ * their children and multiply by the fraction of children that match.
+ * Negations are pushed down to the leaves using De Morgan's laws.
+ * <p>
+ * Query values are analyzed the same way as the field they refer to, so a
+ * value that contains spaces is a phrase and other values with several tokens
+ * (e.g. "map-reduce") match any of them.
+ */
+abstract class RankingQuery {
+
+    /**
+     * The score of a document that does not match.
+     */
+    static final float NO_MATCH = -1f;
+
+
+    /**
+     * Scores a document.
+     * 
+     * @param document
+     *            the document
+     * @return the score, not yet multiplied by {@link #queryNorm()}, or
+     *         {@link #NO_MATCH}
+     */
+    abstract float score(IndexedDocument document);
+
+
+    /**
+     * Returns the sum of the squared weights of all positive leaves.
+     * 
+     * @return the sum of squared weights
+     */
+    abstract float sumOfSquaredWeights();
+
+
+    /**
+     * Collects the terms of all positive leaves. Wildcards and ranges have no
+     * terms of their own and are skipped, phrases add each of their terms.
+     * 
+     * @param terms
+     *            the collection to add the terms to
+     */
+    void collectTerms(Collection<QueryTerm> terms) {
+    }
+
+
+    /**
+     * Returns the factor that makes scores of different queries comparable.
+     * 
+     * @return the query norm
+     */
+    final float queryNorm() {
+        final float sum = sumOfSquaredWeights();
+        return sum == 0 ? 1f : (float) (1.0 / Math.sqrt(sum));
+    }
+
+
+    /**
+     * Compiles a query tree.
+     * 
+     * @param root
+     *            the root of the tree
+     * @return the compiled query or null if the tree contains no searchable
+     *         term
+     */
+    static RankingQuery compile(QueryNode root) {
+        return compile(root, false);
+    }
+
+
+    private static RankingQuery compile(QueryNode node, boolean negate) {
+        final boolean negated = negate ^ node.isNegated();
+        if (node instanceof QueryNodeBool) {
+            return compileBool((QueryNodeBool) node, negated);
+        }
+
+        RankingQuery query = null;
+        if (node instanceof QueryNodeCompare) {
+            query = compileCompare((QueryNodeCompare) node);
+        }
+        else if (node instanceof QueryNodeProximity) {
+            query = compileProximity((QueryNodeProximity) node);
+        }
+        if (query != null && negated) {
+            query = new Not(query);
+        }
+        return query;
+    }
+
+
+    private static RankingQuery compileBool(QueryNodeBool node, boolean negated) {
+        boolean and = node.isOfType(NodeType.AND);
+        if (negated) {
+            and = !and;
+        }
+        List<RankingQuery> clauses = new ArrayList<RankingQuery>();
+        for (QueryNode child : node.children()) {
+            RankingQuery clause = compile(child, negated);
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        }
+        switch (clauses.size()) {
+            case 0: {
+                return null;
+            }
+            case 1: {
+                return clauses.get(0);
+            }
+            default: {
+                return new Bool(and, clauses);
+            }
+        }
+    }
+
+
+    private static RankingQuery compileCompare(QueryNodeCompare node) {
+        final int field = IndexedDocument.indexOf(node.getFieldCode());
+        final boolean analyzed = IndexedDocument.isAnalyzed(field);
+
+        if (node.getPredicate() != Predicate.EQ) {
+            String value = node.getTokensAsString().trim();
+            return new Range(field, node.getPredicate(), analyzed ? value.toLowerCase() : value);
+        }
+
+        if (node.hasWildcards()) {
+            StringBuilder regex = new StringBuilder();
+            for (String token : node.getTokens()) {
+                if (QueryNodeCompare.isTokenWildcardMulti(token)) {
+                    regex.append(".*");
+                }
+                else if (QueryNodeCompare.isTokenWildcardSingle(token)) {
+                    regex.append('.');
+                }
+                else {
+                    regex.append(Pattern.quote(analyzed ? token.toLowerCase() : token));
+                }
+            }
+            return new Wildcard(field, Pattern.compile(regex.toString()));
+        }
+
+        final String value = node.getTokensAsString();
+        if (!analyzed) {
+            return new Term(field, value.trim());
+        }
+        final List<String> tokens = IndexedDocument.tokenize(value);
+        if (value.trim().matches(".*\\s+.*") || tokens.size() <= 1) {
+            return phrase(field, tokens, 0);
+        }
+        List<RankingQuery> terms = new ArrayList<RankingQuery>();
+        for (String token : tokens) {
+            terms.add(new Term(field, token));
+        }
+        return new Bool(false, terms);
+    }
+
+
+    private static RankingQuery compileProximity(QueryNodeProximity node) {
+        final int field = IndexedDocument.indexOf(node.getFieldCode());
+        List<String> tokens = new ArrayList<String>();
+        for (String term : node.getTerms()) {
+            tokens.addAll(IndexedDocument.tokenize(term));
+        }
+        return phrase(field, tokens, node.getMaxDistance());
+    }
+
+
+    private static RankingQuery phrase(int field, List<String> tokens, int slop) {
+        switch (tokens.size()) {
+            case 0: {
+                return null;
+            }
+            case 1: {
+                return new Term(field, tokens.get(0));
+            }
+            default: {
+                return new Phrase(field, tokens.toArray(new String[tokens.size()]), slop);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the length norm of a field. Titles are not normalized so short
+     * and long titles are treated alike.
+     * <p>
+     * The norm is rounded the same way Lucene stores it in the index.
+     */
+    private static float norm(IndexedDocument document, int field) {
+        if (field == IndexedDocument.TITLE) {
+            return 1f;
+        }
+        final float norm = (float) (1.0 / Math.sqrt(document.getField(field).getLength()));
+        return SmallFloat.byte315ToFloat(SmallFloat.floatToByte315(norm));
+    }
+
+
+    /**
+     * A single term.
+     */
+    private static final class Term extends RankingQuery {
+
+        private final int field;
+        private final String term;
+
+
+        Term(int field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            if (field < 0) {
+                return NO_MATCH;
+            }
+            final int frequency = document.getField(field).getFrequency(term);
+            if (frequency == 0) {
+                return NO_MATCH;
+            }
+            return (float) Math.sqrt(frequency) * norm(document, field);
+        }
+
+
+        @Override
+        void collectTerms(Collection<QueryTerm> terms) {
+            if (field >= 0) {
+                terms.add(new QueryTerm(field, term));
+            }
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            return 1f;
+        }
+    }
+
+
+    /**
+     * A sequence of terms that have to occur within a given distance.
+     */
+    private static final class Phrase extends RankingQuery {
+
+        private final int field;
+        private final String[] terms;
+        private final int slop;
+
+
+        Phrase(int field, String[] terms, int slop) {
+            this.field = field;
+            this.terms = terms;
+            this.slop = slop;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            if (field < 0) {
+                return NO_MATCH;
+            }
+            final int[][] positions = new int[terms.length][];
+            for (int i = 0; i < terms.length; i++) {
+                positions[i] = document.getField(field).getPositions(terms[i]);
+                if (positions[i] == null) {
+                    return NO_MATCH;
+                }
+            }
+            final float frequency = slop == 0 ? exactFrequency(positions) : sloppyFrequency(positions);
+            if (frequency == 0) {
+                return NO_MATCH;
+            }
+            return (float) Math.sqrt(frequency) * norm(document, field);
+        }
+
+
+        private static float exactFrequency(int[][] positions) {
+            int frequency = 0;
+            for (int start : positions[0]) {
+                boolean matches = true;
+                for (int i = 1; i < positions.length && matches; i++) {
+                    matches = Arrays.binarySearch(positions[i], start + i) >= 0;
+                }
+                if (matches) {
+                    frequency++;
+                }
+            }
+            return frequency;
+        }
+
+
+        /**
+         * Like Lucene, each match counts 1 / (distance + 1), where the
+         * distance is the number of moves needed to get the terms into
+         * order.
+         */
+        private float sloppyFrequency(int[][] positions) {
+            float frequency = 0;
+            for (int start : positions[0]) {
+                int min = start;
+                int max = start;
+                for (int i = 1; i < positions.length; i++) {
+                    final int offset = closest(positions[i], start + i) - i;
+                    min = Math.min(min, offset);
+                    max = Math.max(max, offset);
+                }
+                final int distance = max - min;
+                if (distance <= slop) {
+                    frequency += 1f / (distance + 1);
+                }
+            }
+            return frequency;
+        }
+
+
+        private static int closest(int[] positions, int position) {
+            int index = Arrays.binarySearch(positions, position);
+            if (index >= 0) {
+                return position;
+            }
+            index = -index - 1;
+            if (index == 0) {
+                return positions[0];
+            }
+            if (index == positions.length) {
+                return positions[index - 1];
+            }
+            final int before = positions[index - 1];
+            final int after = positions[index];
+            return position - before <= after - position ? before : after;
+        }
+
+
+        @Override
+        void collectTerms(Collection<QueryTerm> terms) {
+            if (field >= 0) {
+                for (String term : this.terms) {
+                    terms.add(new QueryTerm(field, term));
+                }
+            }
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            return 1f;
+        }
+    }
+
+
+    /**
+     * A term with wildcards.
+     */
+    private static final class Wildcard extends RankingQuery {
+
+        private final int field;
+        private final Pattern pattern;
+
+
+        Wildcard(int field, Pattern pattern) {
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            if (field >= 0) {
+                for (String term : document.getField(field).terms()) {
+                    if (pattern.matcher(term).matches()) {
+                        return 1f;
+                    }
+                }
+            }
+            return NO_MATCH;
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            return 1f;
+        }
+    }
+
+
+    /**
+     * A comparison like "year >= 2000". Numbers are compared as numbers, other
+     * values as strings.
+     */
+    private static final class Range extends RankingQuery {
+
+        private final int field;
+        private final Predicate predicate;
+        private final String value;
+
+
+        Range(int field, Predicate predicate, String value) {
+            this.field = field;
+            this.predicate = predicate;
+            this.value = value;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            if (field >= 0) {
+                for (String term : document.getField(field).terms()) {
+                    if (matches(compare(term, value))) {
+                        return 1f;
+                    }
+                }
+            }
+            return NO_MATCH;
+        }
+
+
+        private static int compare(String term, String value) {
+            try {
+                return Long.valueOf(term).compareTo(Long.valueOf(value));
+            }
+            catch (NumberFormatException e) {
+                return term.compareTo(value);
+            }
+        }
+
+
+        private boolean matches(int comparison) {
+            switch (predicate) {
+                case GT: {
+                    return comparison > 0;
+                }
+                case GTE: {
+                    return comparison >= 0;
+                }
+                case LT: {
+                    return comparison < 0;
+                }
+                case LTE: {
+                    return comparison <= 0;
+                }
+                default: {
+                    return comparison == 0;
+                }
+            }
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            return 1f;
+        }
+    }
+
+
+    /**
+     * Matches documents that the negated query does not match. Does not
+     * contribute to the score.
+     */
+    private static final class Not extends RankingQuery {
+
+        private final RankingQuery negated;
+
+
+        Not(RankingQuery negated) {
+            this.negated = negated;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            return negated.score(document) == NO_MATCH ? 0f : NO_MATCH;
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            return 0f;
+        }
+    }
+
+
+    /**
+     * A conjunction or disjunction.
+     */
+    private static final class Bool extends RankingQuery {
+
+        private final boolean and;
+        private final RankingQuery[] clauses;
+        private final int positiveClauses;
+
+
+        Bool(boolean and, List<RankingQuery> clauses) {
+            this.and = and;
+            this.clauses = clauses.toArray(new RankingQuery[clauses.size()]);
+            int positive = 0;
+            for (RankingQuery clause : clauses) {
+                if (!(clause instanceof Not)) {
+                    positive++;
+                }
+            }
+            positiveClauses = positive;
+        }
+
+
+        @Override
+        float score(IndexedDocument document) {
+            float sum = 0;
+            int matchingClauses = 0;
+            int matchingPositiveClauses = 0;
+            for (RankingQuery clause : clauses) {
+                final float score = clause.score(document);
+                if (score == NO_MATCH) {
+                    if (and) {
+                        return NO_MATCH;
+                    }
+                }
+                else {
+                    matchingClauses++;
+                    if (!(clause instanceof Not)) {
+                        sum += score;
+                        matchingPositiveClauses++;
+                    }
+                }
+            }
+            if (matchingClauses == 0) {
+                return NO_MATCH;
+            }
+            return positiveClauses == 0 ? 0f : sum * matchingPositiveClauses / positiveClauses;
+        }
+
+
+        @Override
+        void collectTerms(Collection<QueryTerm> terms) {
+            for (RankingQuery clause : clauses) {
+                clause.collectTerms(terms);
+            }
+        }
+
+
+        @Override
+        float sumOfSquaredWeights() {
+            float sum = 0;
+            for (RankingQuery clause : clauses) {
+                sum += clause.sumOfSquaredWeights();
+            }
+            return sum;
+        }
+    }
+
+
+    /**
+     * A term of a query together with the field it refers to.
+     */
+    static final class QueryTerm {
+
+        final int field;
+        final String term;
+
+
+        QueryTerm(int field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * field + term.hashCode();
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            QueryTerm other = (QueryTerm) obj;
+            return field == other.field && term.equals(other.term);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.coding.XMLStrategy;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
+/**
+ * A query together with the result lists the sources returned for it, in the
+ * order they arrived.
+ * <p>
+ * Recordings are written by the search agent if configured and can be
+ * replayed to compare rankers offline. Relevance judgments can be added to a
+ * recording, e.g. by editing the XML file, to measure the ranking quality.
+ */
+public final class RankingRecording implements Serializable {
+
+    private static final long serialVersionUID = -4526174958806329712L;
+
+    private static final String ENCODING = "UTF-8";
+
+    private DocumentQuery query;
+    private List<StoredDocumentList> results = new ArrayList<StoredDocumentList>();
+    /**
+     * Maps OIDs to relevance grades. Documents without judgment count as not
+     * relevant.
+     */
+    private Map<String, Integer> judgments = new HashMap<String, Integer>();
+
+
+    /**
+     * Constructor.
+     * 
+     * @param query
+     *            the query
+     */
+    public RankingRecording(DocumentQuery query) {
+        this.query = query;
+    }
+
+
+    /**
+     * Adds the results of a source.
+     * <p>
+     * The list is copied since the documents are changed when they are merged
+     * into the complete result list.
+     * 
+     * @param list
+     *            the results in the order the source returned them
+     * @throws IOException
+     *             if the list cannot be copied
+     */
+    public synchronized void addResults(StoredDocumentList list) throws IOException {
+        final XMLStrategy coder = new XMLStrategy();
+        results.add((StoredDocumentList) coder.decode(coder.encode(list)));
+    }
+
+
+    /**
+     * Returns the query.
+     * 
+     * @return the query
+     */
+    public DocumentQuery getQuery() {
+        return query;
+    }
+
+
+    /**
+     * Returns the result lists in the order they arrived.
+     * 
+     * @return the result lists
+     */
+    public synchronized List<StoredDocumentList> getResults() {
+        return Collections.unmodifiableList(new ArrayList<StoredDocumentList>(results));
+    }
+
+
+    /**
+     * Sets the relevance grade of a document.
+     * 
+     * @param oid
+     *            the OID of the document
+     * @param grade
+     *            the grade, 0 meaning not relevant
+     */
+    public synchronized void setJudgment(String oid, int grade) {
+        judgments.put(oid, grade);
+    }
+
+
+    /**
+     * Returns the relevance grade of a document.
+     * 
+     * @param oid
+     *            the OID of the document
+     * @return the grade or 0 if the document has not been judged
+     */
+    public synchronized int getJudgment(String oid) {
+        final Integer grade = judgments.get(oid);
+        return grade == null ? 0 : grade;
+    }
+
+
+    /**
+     * Returns if the recording has relevance judgments.
+     * 
+     * @return true, if at least one document has been judged
+     */
+    public synchronized boolean isJudged() {
+        return !judgments.isEmpty();
+    }
+
+
+    /**
+     * Returns all relevance grades, sorted descending.
+     * 
+     * @return the grades
+     */
+    public synchronized List<Integer> getGrades() {
+        List<Integer> grades = new ArrayList<Integer>(judgments.values());
+        Collections.sort(grades, Collections.reverseOrder());
+        return grades;
+    }
+
+
+    /**
+     * Writes the recording to a file.
+     * 
+     * @param file
+     *            the file to write
+     * @throws IOException
+     *             if writing fails
+     */
+    public synchronized void write(File file) throws IOException {
+        final String xml = new XMLStrategy().encode(this);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+            writer.write(xml);
+        }
+        finally {
+            ClosingUtils.close(writer);
+        }
+    }
+
+
+    /**
+     * Reads a recording from a file.
+     * 
+     * @param file
+     *            the file to read
+     * @return the recording
+     * @throws IOException
+     *             if the file cannot be read or does not contain a recording
+     */
+    public static RankingRecording read(File file) throws IOException {
+        StringBuilder xml = new StringBuilder();
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                xml.append(buffer, 0, read);
+            }
+        }
+        finally {
+            ClosingUtils.close(reader);
+        }
+        final Object decoded = new XMLStrategy().decode(xml.toString());
+        if (!(decoded instanceof RankingRecording)) {
+            throw new IOException(file + " does not contain a ranking recording");
+        }
+        return (RankingRecording) decoded;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+/**
+ * Fuses the rankings of the sources using reciprocal rank fusion.
+ * <p>
+ * Each ranking a document appears in contributes 1 / (k + position), so
+ * documents that several sources rank high end up on top, no matter how the
+ * sources compute their own scores. The positions come from
+ * {@link SourcePositions}.
+ * <p>
+ * If the ranker is part of a chain and a previous stage has assigned scores,
+ * the ranking by those scores is fused as one more ranking.
+ */
+public class ReciprocalRankFusionRanker extends AbstractRanker {
+
+    /**
+     * The constant from the original paper by Cormack et al.
+     */
+    static final int DEFAULT_K = 60;
+
+    private final SourcePositions positions;
+    private final int k;
+
+
+    /**
+     * Constructor.
+     * 
+     * @param positions
+     *            the positions of the documents in the rankings of the sources
+     */
+    public ReciprocalRankFusionRanker(SourcePositions positions) {
+        this(positions, DEFAULT_K);
+    }
+
+
+    /**
+     * Constructor.
+     * 
+     * @param positions
+     *            the positions of the documents in the rankings of the sources
+     * @param k
+     *            dampens the influence of the top positions
+     */
+    public ReciprocalRankFusionRanker(SourcePositions positions, int k) {
+        this.positions = positions;
+        this.k = k;
+    }
+
+
+    @Override
+    protected void score(ResultDocumentList toRank, DocumentQuery documentQuery) {
+        final Map<ResultDocument, Integer> previous = previousPositions(toRank);
+        for (ResultDocument result : toRank) {
+            double score = 0;
+            final Integer position = previous.get(result);
+            if (position != null) {
+                score += 1.0 / (k + position);
+            }
+            final String oid = result.getOid();
+            if (oid != null) {
+                for (String source : result.getSources()) {
+                    final int sourcePosition = positions.getPosition(source, oid);
+                    if (sourcePosition > 0) {
+                        score += 1.0 / (k + sourcePosition);
+                    }
+                }
+            }
+            result.setUnnormalizedRsv(score);
+        }
+    }
+
+
+    /**
+     * Returns the positions of the documents with a positive score when
+     * ordered by score. Documents with equal scores share a position.
+     */
+    private static Map<ResultDocument, Integer> previousPositions(ResultDocumentList toRank) {
+        List<ResultDocument> scored = new ArrayList<ResultDocument>();
+        for (ResultDocument result : toRank) {
+            if (result.getUnnormalizedRsv() > 0) {
+                scored.add(result);
+            }
+        }
+        Collections.sort(scored, new Comparator<ResultDocument>() {
+
+            @Override
+            public int compare(ResultDocument o1, ResultDocument o2) {
+                return Double.compare(o2.getUnnormalizedRsv(), o1.getUnnormalizedRsv());
+            }
+        });
+
+        Map<ResultDocument, Integer> result = new IdentityHashMap<ResultDocument, Integer>();
+        int position = 0;
+        double lastScore = Double.NaN;
+        for (int i = 0; i < scored.size(); i++) {
+            final double score = scored.get(i).getUnnormalizedRsv();
+            if (score != lastScore) {
+                position = i + 1;
+                lastScore = score;
+            }
+            result.put(scored.get(i), position);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
+
+
+
+/**
+ * Remembers the position at which each source delivered each document.
+ * <p>
+ * The positions are lost when the results of several sources are merged, so
+ * the request handler records them as the results arrive. Positions start at
+ * 1 and count across all result lists of a source in the order they were
+ * added.
+ */
+public final class SourcePositions {
+
+    /**
+     * Maps source names to the positions of the OIDs they delivered.
+     */
+    private Map<String, Map<String, Integer>> positions = new HashMap<String, Map<String, Integer>>();
+
+
+    /**
+     * Records the positions of the documents in a result list. The documents
+     * need to have their OIDs assigned.
+     * 
+     * @param results
+     *            the results in the order the sources returned them
+     */
+    public synchronized void add(StoredDocumentList results) {
+        for (StoredDocument stored : results) {
+            final String oid = stored.getOid();
+            if (StringUtils.isEmpty(oid)) {
+                continue;
+            }
+            for (SourceInfo source : stored.getSources()) {
+                final String dl = source.getSourceID().getDL();
+                Map<String, Integer> sourcePositions = positions.get(dl);
+                if (sourcePositions == null) {
+                    sourcePositions = new HashMap<String, Integer>();
+                    positions.put(dl, sourcePositions);
+                }
+                if (!sourcePositions.containsKey(oid)) {
+                    sourcePositions.put(oid, sourcePositions.size() + 1);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the position at which a source delivered a document.
+     * 
+     * @param source
+     *            the name of the source
+     * @param oid
+     *            the OID of the document
+     * @return the position, starting at 1, or 0 if the source didn't deliver
+     *         the document
+     */
+    public synchronized int getPosition(String source, String oid) {
+        final Map<String, Integer> sourcePositions = positions.get(source);
+        if (sourcePositions == null) {
+            return 0;
+        }
+        final Integer position = sourcePositions.get(oid);
+        return position == null ? 0 : position;
+    }
+}
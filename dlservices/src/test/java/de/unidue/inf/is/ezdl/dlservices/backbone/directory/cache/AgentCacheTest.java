@@ -0,0 +1,131 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.backbone.directory.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.data.agent.AgentRecord;
+import de.unidue.inf.is.ezdl.dlbackend.data.agent.WrapperRecord;
+import de.unidue.inf.is.ezdl.dlcore.data.wrappers.WrapperInfo;
+
+
+
+public class AgentCacheTest extends AbstractBackendTestBase {
+
+    private AgentCache cache;
+    private List<Long> changes;
+
+
+    @Before
+    public void setUp() {
+        cache = new AgentCache();
+        changes = new ArrayList<Long>();
+        cache.setChangeListener(new AgentCache.ChangeListener() {
+
+            @Override
+            public void agentsChanged(long generation) {
+                changes.add(generation);
+            }
+        });
+    }
+
+
+    private static AgentRecord record(String service, String name) {
+        AgentRecord record = new AgentRecord(service, name);
+        record.setSharedSecret("secret" + name);
+        return record;
+    }
+
+
+    private static List<String> names(List<? extends AgentRecord> records) {
+        List<String> names = new ArrayList<String>();
+        for (AgentRecord record : records) {
+            names.add(record.getName());
+        }
+        return names;
+    }
+
+
+    @Test
+    public void testLookups() {
+        Assert.assertTrue(cache.addAgent(record("/service/mta", "MTA")));
+        Assert.assertTrue(cache.addAgent(record("/wrapper/dl/acm", "ACM")));
+        Assert.assertTrue(cache.addAgent(record("/wrapper/dl/dblp", "DBLP")));
+        Assert.assertTrue(cache.addAgent(record("/wrappers", "Other")));
+
+        Assert.assertEquals("ACM", cache.getByService("/wrapper/dl/acm").getName());
+        Assert.assertNull(cache.getByService("/wrapper/dl"));
+        Assert.assertEquals("/service/mta", cache.getByName("MTA").getService());
+        Assert.assertTrue(cache.isAgentRegistered("DBLP"));
+        Assert.assertFalse(cache.isAgentRegistered("Solr"));
+
+        Assert.assertEquals("[ACM, DBLP]", names(cache.createAgentList("/wrapper/")).toString());
+        Assert.assertEquals("[ACM, DBLP, Other]", names(cache.createAgentList("/wrapper")).toString());
+        Assert.assertEquals(4, cache.createAgentList("").size());
+        Assert.assertEquals(0, cache.createAgentList("/x").size());
+    }
+
+
+    @Test
+    public void testSharedService() {
+        cache.addAgent(record("/service/search", "Search1"));
+        cache.addAgent(record("/service/search", "Search2"));
+        Assert.assertEquals("Search1", cache.getByService("/service/search").getName());
+        Assert.assertEquals("[Search1, Search2]", names(cache.createAgentList("/service/search")).toString());
+
+        cache.removeAgent("Search1");
+        Assert.assertEquals("Search2", cache.getByService("/service/search").getName());
+    }
+
+
+    @Test
+    public void testGenerations() {
+        final long initial = cache.getGeneration();
+
+        Assert.assertTrue(cache.addAgent(record("/service/mta", "MTA")));
+        Assert.assertFalse("same name", cache.addAgent(record("/service/other", "MTA")));
+        Assert.assertFalse("no service", cache.addAgent(record("", "Empty")));
+        Assert.assertEquals(initial + 1, cache.getGeneration());
+
+        Assert.assertFalse("wrong secret", cache.removeAgent("MTA", "wrong"));
+        Assert.assertFalse("unknown agent", cache.removeAgent("Unknown"));
+        Assert.assertEquals(initial + 1, cache.getGeneration());
+
+        Assert.assertTrue(cache.removeAgent("MTA", "secretMTA"));
+        Assert.assertEquals(initial + 2, cache.getGeneration());
+        Assert.assertNull(cache.getByService("/service/mta"));
+
+        Assert.assertEquals("[" + (initial + 1) + ", " + (initial + 2) + "]", changes.toString());
+    }
+
+
+    @Test
+    public void testWrappers() {
+        cache.addAgent(record("/service/mta", "MTA"));
+        cache.addAgent(new WrapperRecord("/wrapper/dl/acm", "ACM", new WrapperInfo()));
+        Assert.assertEquals("[ACM]", names(cache.getWrappers()).toString());
+    }
+
+}
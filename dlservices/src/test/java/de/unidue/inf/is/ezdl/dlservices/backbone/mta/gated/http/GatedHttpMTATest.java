@@ -344,6 +344,11 @@ public class GatedHttpMTATest extends AbstractAgentTestBase {
         public Map<String, ConnectionInfo> getConnections() {
             return super.getConnections();
         }
+
+
+        int connections() {
+            return getServer().connections();
+        }
     }
 
 
@@ -495,8 +500,8 @@ public class GatedHttpMTATest extends AbstractAgentTestBase {
     /**
      * Tests if a timeout on the sender's side results in message loss on the
      * MTA side. This was added to test for a problem where a timeout exception
-     * in the receiver thread in the {@link ConnectionThread} ended the whole
-     * receiver thread and resulted in an end of receiving messages.
+     * in the receiver thread of a connection ended the whole receiver thread
+     * and resulted in an end of receiving messages.
      */
     @Test
     public void timeoutTest() throws IOException {
@@ -522,7 +527,7 @@ public class GatedHttpMTATest extends AbstractAgentTestBase {
 
             writeln(socket, encodedMessage);
 
-            sleep(ConnectionThread.SOCKET_TIMEOUT_MS + 2000);
+            sleep(FakeHttpServer.SELECT_TIMEOUT_MS + 2000);
 
             writeln(socket, encodedMessage2);
         }
@@ -922,6 +927,52 @@ public class GatedHttpMTATest extends AbstractAgentTestBase {
     }
 
 
+    /**
+     * Tests that many clients can be connected at the same time without the
+     * server starting threads per connection.
+     */
+    @Test
+    public void manyConnectionsTest() throws IOException {
+        setup(new Properties());
+        Assert.assertTrue("mta online", mta.isOnline());
+
+        final int clients = 200;
+        final int threadsBefore = Thread.activeCount();
+        List<Socket> sockets = new LinkedList<Socket>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                Socket socket = new Socket(MTA_HOST, mtaPort);
+                socket.setSoTimeout(2000);
+                sockets.add(socket);
+                write(socket, "GET blabla\r\nHost: blabla\r\n\r\n");
+            }
+            for (Socket socket : sockets) {
+                Assert.assertTrue(read(socket).startsWith("HTTP/1.1 200"));
+            }
+            new AssertWaiter() {
+
+                @Override
+                protected boolean isConditionMet() {
+                    return mta.connections() == clients;
+                }
+            }.assertGetsOkay("all connected", 5000, 100);
+            Assert.assertTrue("threads started", Thread.activeCount() - threadsBefore < clients / 4);
+        }
+        finally {
+            for (Socket socket : sockets) {
+                ClosingUtils.close(socket);
+            }
+        }
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return mta.connections() == 0;
+            }
+        }.assertGetsOkay("all disconnected", 5000, 100);
+    }
+
+
     private void logoutTestInner(boolean logIn) {
         Socket socket = null;
         try {
@@ -946,8 +997,8 @@ public class GatedHttpMTATest extends AbstractAgentTestBase {
         finally {
             ClosingUtils.close(socket);
             getLogger().info("Socket closed. Obeying grace time for MTA to recognize closed socket.");
-            int serverGraceMs = FakeHttpServer.LISTEN_TIMEOUT_MS;
-            int connectionGraceMs = ConnectionThread.SOCKET_TIMEOUT_MS;
+            int serverGraceMs = FakeHttpServer.SELECT_TIMEOUT_MS;
+            int connectionGraceMs = FakeHttpServer.SELECT_TIMEOUT_MS;
             int waitTimeMs = serverGraceMs + connectionGraceMs;
             sleep(waitTimeMs + 1000);
             getLogger().info("ended grace time");
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.log.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlcore.message.content.UserLogNotify;
+
+
+
+public class AsyncUserLogStoreTest extends AbstractBackendTestBase {
+
+    /**
+     * Records the written operations and fails while {@link #failing} is set
+     * or if a batch contains an operation of one of the {@link #rejected}
+     * sessions.
+     */
+    private static class RecordingWriter implements UserLogWriter {
+
+        private final List<List<UserLogOperation>> batches = new ArrayList<List<UserLogOperation>>();
+        private volatile boolean failing;
+        private final Set<String> rejected = new HashSet<String>();
+        private volatile CountDownLatch entered;
+        private volatile CountDownLatch release;
+
+
+        @Override
+        public void write(List<UserLogOperation> operations) throws SQLException {
+            CountDownLatch entered = this.entered;
+            if (entered != null) {
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new SQLTransientConnectionException("database down");
+            }
+            for (UserLogOperation operation : operations) {
+                if (rejected.contains(operation.getSessionId())) {
+                    throw new SQLException("bad data", "23000");
+                }
+            }
+            synchronized (batches) {
+                batches.add(new ArrayList<UserLogOperation>(operations));
+            }
+        }
+
+
+        List<String> writtenSessions() {
+            List<String> sessions = new ArrayList<String>();
+            synchronized (batches) {
+                for (List<UserLogOperation> batch : batches) {
+                    for (UserLogOperation operation : batch) {
+                        sessions.add(operation.getSessionId());
+                    }
+                }
+            }
+            return sessions;
+        }
+
+
+        int maxBatchSize() {
+            int max = 0;
+            synchronized (batches) {
+                for (List<UserLogOperation> batch : batches) {
+                    max = Math.max(max, batch.size());
+                }
+            }
+            return max;
+        }
+    }
+
+
+    private RecordingWriter writer;
+    private File spillDir;
+
+
+    @Before
+    public void setUp() throws IOException {
+        writer = new RecordingWriter();
+        spillDir = File.createTempFile("userlog", "");
+        spillDir.delete();
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = spillDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spillDir.delete();
+    }
+
+
+    private AsyncUserLogStore createStore(int queueSize, int batchSize, boolean spill) {
+        Properties props = new Properties();
+        props.setProperty(AsyncUserLogStore.KEY_QUEUE_SIZE, Integer.toString(queueSize));
+        props.setProperty(AsyncUserLogStore.KEY_BATCH_SIZE, Integer.toString(batchSize));
+        props.setProperty(AsyncUserLogStore.KEY_RETRY_DELAY, "0");
+        if (spill) {
+            props.setProperty(AsyncUserLogStore.KEY_SPILL_DIR, spillDir.getAbsolutePath());
+        }
+        AsyncUserLogStore store = new AsyncUserLogStore(writer, props);
+        store.init();
+        return store;
+    }
+
+
+    private static void waitFor(AsyncUserLogStore store, long spilled) throws InterruptedException {
+        long until = System.currentTimeMillis() + 5000;
+        while (store.getSpilled() != spilled && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(spilled, store.getSpilled());
+    }
+
+
+    @Test
+    public void testBatchesInOrder() {
+        AsyncUserLogStore store = createStore(100, 3, false);
+        store.login("s0", "user", 1, "type");
+        for (int i = 1; i < 10; i++) {
+            store.storeUserLog(new UserLogNotify("s" + i, "event"));
+        }
+        store.logout("s10", 2);
+        store.halt();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i <= 10; i++) {
+            expected.add("s" + i);
+        }
+        Assert.assertEquals(expected, writer.writtenSessions());
+        Assert.assertTrue(writer.maxBatchSize() <= 3);
+        Assert.assertEquals(11, store.getWritten());
+        Assert.assertEquals(0, store.getDropped());
+    }
+
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        writer.entered = new CountDownLatch(1);
+        writer.release = new CountDownLatch(1);
+        AsyncUserLogStore store = createStore(2, 10, false);
+        store.logout("s0", 1);
+        writer.entered.await();
+        for (int i = 1; i <= 5; i++) {
+            store.logout("s" + i, 1);
+        }
+        writer.entered = null;
+        writer.release.countDown();
+        store.halt();
+
+        Assert.assertEquals(3, store.getDropped());
+        Assert.assertEquals(3, store.getWritten());
+        Assert.assertEquals("[s0, s1, s2]", writer.writtenSessions().toString());
+    }
+
+
+    @Test
+    public void testDropAfterHalt() {
+        AsyncUserLogStore store = createStore(10, 10, false);
+        store.halt();
+        store.logout("s0", 1);
+        Assert.assertTrue(store.isHalted());
+        Assert.assertEquals(1, store.getDropped());
+    }
+
+
+    @Test
+    public void testDropWithoutSpillDir() throws InterruptedException {
+        writer.failing = true;
+        AsyncUserLogStore store = createStore(10, 10, false);
+        store.logout("s0", 1);
+        store.halt();
+        Assert.assertEquals(1, store.getDropped());
+        Assert.assertEquals(0, store.getWritten());
+    }
+
+
+    @Test
+    public void testSpillAndReplay() throws InterruptedException {
+        writer.failing = true;
+        AsyncUserLogStore store = createStore(10, 10, true);
+        store.logout("s0", 1);
+        waitFor(store, 1);
+        store.logout("s1", 1);
+        waitFor(store, 2);
+        Assert.assertTrue(writer.writtenSessions().isEmpty());
+
+        writer.failing = false;
+        store.logout("s2", 1);
+        store.halt();
+
+        Assert.assertEquals("[s0, s1, s2]", writer.writtenSessions().toString());
+        Assert.assertEquals(2, store.getSpilled());
+        Assert.assertEquals(3, store.getWritten());
+        Assert.assertEquals(0, spillDir.listFiles().length);
+    }
+
+
+    @Test
+    public void testSpillSurvivesRestart() throws InterruptedException {
+        writer.failing = true;
+        AsyncUserLogStore store = createStore(10, 10, true);
+        store.storeUserLog(new UserLogNotify("s0", "event"));
+        store.halt();
+        Assert.assertEquals(1, store.getSpilled());
+
+        writer.failing = false;
+        store = createStore(10, 10, true);
+        store.storeUserLog(new UserLogNotify("s1", "event"));
+        store.halt();
+
+        Assert.assertEquals(2, store.getWritten());
+        Assert.assertEquals("[s0, s1]", writer.writtenSessions().toString());
+        Assert.assertEquals(0, spillDir.listFiles().length);
+    }
+
+
+    @Test
+    public void testSpillReplayedWithoutNewOperations() throws InterruptedException {
+        writer.failing = true;
+        final AsyncUserLogStore store = createStore(10, 10, true);
+        store.logout("s0", 1);
+        waitFor(store, 1);
+
+        writer.failing = false;
+        new AssertWaiter() {
+
+            @Override
+            protected boolean isConditionMet() {
+                return store.getWritten() == 1;
+            }
+        }.assertGetsOkay("spill replayed");
+        Assert.assertEquals("[s0]", writer.writtenSessions().toString());
+        Assert.assertEquals(0, spillDir.listFiles().length);
+        store.halt();
+    }
+
+
+    @Test
+    public void testSpillReplayedOnHalt() throws InterruptedException {
+        writer.failing = true;
+        AsyncUserLogStore store = createStore(10, 10, true);
+        store.logout("s0", 1);
+        store.halt();
+        Assert.assertEquals(1, store.getSpilled());
+
+        writer.failing = false;
+        store = createStore(10, 10, true);
+        store.halt();
+
+        Assert.assertEquals("[s0]", writer.writtenSessions().toString());
+        Assert.assertEquals(0, spillDir.listFiles().length);
+    }
+
+
+    @Test
+    public void testRejectedOperationIsDropped() {
+        writer.rejected.add("s1");
+        AsyncUserLogStore store = createStore(10, 10, true);
+        for (int i = 0; i < 3; i++) {
+            store.logout("s" + i, 1);
+        }
+        store.halt();
+
+        Assert.assertEquals("[s0, s2]", writer.writtenSessions().toString());
+        Assert.assertEquals(2, store.getWritten());
+        Assert.assertEquals(1, store.getDropped());
+        Assert.assertEquals(0, store.getSpilled());
+    }
+
+
+    @Test
+    public void testUnreadableSpillFileIsMovedAside() throws IOException {
+        spillDir.mkdirs();
+        FileOutputStream out = new FileOutputStream(new File(spillDir, "userlog-0000000000000-000000.spill"));
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        AsyncUserLogStore store = createStore(10, 10, true);
+        store.logout("s0", 1);
+        store.halt();
+
+        Assert.assertEquals("[s0]", writer.writtenSessions().toString());
+        Assert.assertEquals("[userlog-0000000000000-000000.spill.failed]", Arrays.toString(spillDir.list()));
+    }
+
+
+    @Test
+    public void testUnavailable() {
+        Assert.assertTrue(AsyncUserLogStore.isUnavailable(new SQLTransientConnectionException()));
+        Assert.assertTrue(AsyncUserLogStore.isUnavailable(new SQLException("refused", "08001")));
+        Assert.assertTrue(AsyncUserLogStore.isUnavailable(new SQLException(new SQLTransientConnectionException())));
+        Assert.assertFalse(AsyncUserLogStore.isUnavailable(new SQLException("bad data", "23000")));
+        Assert.assertFalse(AsyncUserLogStore.isUnavailable(new SQLException()));
+    }
+}
@@ -18,9 +18,15 @@
 
 package de.unidue.inf.is.ezdl.dlservices.repository.store;
 
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -131,6 +137,99 @@ public class DocumentStoreTest extends AbstractBackendTestBase {
     }
 
 
+    @Test
+    public void testWaitsForLateDocument() {
+        final StoredDocument document = createNewStoredFullDocument();
+        new Thread() {
+
+            @Override
+            public void run() {
+                DocumentStoreTest.this.sleep(300);
+                documentStore.addDocument(document.getOid(), document);
+            };
+        }.start();
+        long start = System.currentTimeMillis();
+        DocumentStoreResult found = documentStore.getDocument(document.getOid(), false, 5000);
+        long waited = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(1, found.getStoredDocumentList().size());
+        Assert.assertEquals(document, found.getFirst());
+        Assert.assertTrue("waited " + waited + " ms", waited < 4000);
+    }
+
+
+    @Test
+    public void testMissingDocumentTimesOut() {
+        DocumentStoreResult found = documentStore.getDocument("unknown", false, 200);
+        Assert.assertEquals(0, found.getStoredDocumentList().size());
+    }
+
+
+    @Test
+    public void testFailedInsertCompletesExceptionally() throws Exception {
+        DocumentInserter inserter = new DocumentInserter(new MapRepository() {
+
+            @Override
+            public Set<String> addDocuments(Collection<StoredDocument> documents) {
+                throw new IllegalStateException("broken");
+            }
+        });
+        StoredDocument document = createNewStoredFullDocument();
+        InsertionFuture future = inserter.expect(Arrays.asList(document.getOid(), "other"));
+        InsertionFuture unrelated = inserter.expect(Arrays.asList("other"));
+        Thread thread = new Thread(inserter);
+        thread.start();
+        inserter.addResultItem(document);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Failed insert completed the future");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(future.getOutstanding().contains(document.getOid()));
+        Assert.assertFalse(unrelated.isDone());
+        Assert.assertEquals(0, inserter.getDocuments(Arrays.asList(document.getOid())).size());
+
+        inserter.halt();
+        thread.join(5000);
+    }
+
+
+    @Test
+    public void testFailedDocumentCompletesExceptionally() throws Exception {
+        final StoredDocument bad = createNewStoredNonFullDocument(1990);
+        StoredDocument good = createNewStoredNonFullDocument(1991);
+        DocumentInserter inserter = new DocumentInserter(new MapRepository() {
+
+            @Override
+            public Set<String> addDocuments(Collection<StoredDocument> documents) {
+                super.addDocuments(documents);
+                return Collections.singleton(bad.getOid());
+            }
+        });
+        InsertionFuture badFuture = inserter.expect(Arrays.asList(bad.getOid()));
+        InsertionFuture goodFuture = inserter.expect(Arrays.asList(good.getOid()));
+        Thread thread = new Thread(inserter);
+        thread.start();
+        inserter.addResultItem(bad);
+        inserter.addResultItem(good);
+
+        goodFuture.get(5, TimeUnit.SECONDS);
+        try {
+            badFuture.get(5, TimeUnit.SECONDS);
+            Assert.fail("Failed document completed the future");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains(bad.getOid()));
+        }
+
+        inserter.halt();
+        thread.join(5000);
+    }
+
+
     public StoredDocument createNewStoredFullDocument() {
         StoredDocument storedDocument = createNewStoredNonFullDocument(calcCurrentYear());
         storedDocument.getDocument().setFieldValue(Field.ABSTRACT, FULL_ABSTRACT_CONTENT);
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.repository.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.ServiceNames;
+import de.unidue.inf.is.ezdl.dlbackend.message.Message;
+import de.unidue.inf.is.ezdl.dlbackend.message.content.DirectoryChangedNotify;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
+import de.unidue.inf.is.ezdl.dlcore.data.wrappers.FrontendWrapperInfo;
+import de.unidue.inf.is.ezdl.dlcore.message.content.AvailableWrappersTell;
+
+
+
+public class WrapperCacheTest extends AbstractBackendTestBase {
+
+    private static final String ACM = ServiceNames.getServiceNameForDL("acm");
+    private static final String DBLP = ServiceNames.getServiceNameForDL("dblp");
+    private static final String PUBMED = ServiceNames.getServiceNameForDL("pubmed");
+
+
+    private class GenerationAgent extends MockAgent {
+
+        private long generation = DirectoryChangedNotify.UNKNOWN_GENERATION;
+
+
+        @Override
+        public long getDirectoryGeneration() {
+            return generation;
+        }
+    }
+
+
+    private GenerationAgent agent;
+
+
+    @Before
+    public void setUp() {
+        agent = new GenerationAgent();
+        answerWith(wrapper("acm", "cs"), wrapper("dblp", "cs"), wrapper("pubmed", "med"));
+    }
+
+
+    private static FrontendWrapperInfo wrapper(String id, String categoryId) {
+        FrontendWrapperInfo info = new FrontendWrapperInfo();
+        info.setId(id);
+        info.setCategoryId(categoryId);
+        return info;
+    }
+
+
+    private void answerWith(FrontendWrapperInfo... wrappers) {
+        List<FrontendWrapperInfo> infos = new ArrayList<FrontendWrapperInfo>();
+        Collections.addAll(infos, wrappers);
+        agent.setNextAskAnswer(new Message("dir", agent.agentName(), new AvailableWrappersTell(infos), "r"));
+    }
+
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+
+
+    @Test
+    public void testFilterDoesNotChangeCache() {
+        agent.generation = 1;
+        WrapperCache cache = new WrapperCache(agent);
+        Assert.assertEquals(sorted(Arrays.asList(ACM, DBLP)), sorted(cache.filteredCategoryWrapper(ACM)));
+        Assert.assertEquals(Collections.singletonList(PUBMED), cache.filteredCategoryWrapper(PUBMED));
+        Assert.assertEquals(3, cache.filteredCategoryWrapper("unknown").size());
+        Assert.assertEquals(1, agent.getMessagesSent().size());
+    }
+
+
+    @Test
+    public void testRefreshedOnDirectoryChange() {
+        agent.generation = 1;
+        WrapperCache cache = new WrapperCache(agent);
+        answerWith(wrapper("acm", "cs"));
+        Assert.assertEquals(3, cache.filteredCategoryWrapper("unknown").size());
+        Assert.assertEquals(1, agent.getMessagesSent().size());
+
+        agent.generation = 2;
+        Assert.assertEquals(Collections.singletonList(ACM), cache.filteredCategoryWrapper("unknown"));
+        Assert.assertEquals(2, agent.getMessagesSent().size());
+    }
+
+}
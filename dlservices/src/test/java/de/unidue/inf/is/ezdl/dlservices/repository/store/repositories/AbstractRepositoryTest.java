@@ -18,7 +18,9 @@
 
 package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.Assert;
 
@@ -117,6 +119,53 @@ public abstract class AbstractRepositoryTest extends AbstractBackendTestBase {
     }
 
 
+    @Test
+    public void addDocumentsTest() {
+        StoredDocument update = BackendDocumentFactory.createStoredDocument(null, "Some paper title", 2000,
+                        "Matthias Jordan");
+        update.getDocument().setOid(keys[0]);
+        ((TextDocument) update.getDocument()).setAbstract("abstract");
+        StoredDocument first = BackendDocumentFactory.createStoredDocument(null, "title", 2001, "Matthias Jordan");
+        first.getDocument().setOid(keys[4]);
+        StoredDocument second = BackendDocumentFactory.createStoredDocument(null, "title", 2001, "Matthias Jordan");
+        second.getDocument().setOid(keys[4]);
+        ((TextDocument) second.getDocument()).setAbstract("second abstract");
+
+        getRepository().addDocuments(Arrays.asList(update, first, second));
+
+        Document updated = repo.getDocument(keys[0]).getDocument();
+        Assert.assertEquals("title kept", "Some paper title", updated.getTitle());
+        Assert.assertEquals("abstract merged", "abstract", ((TextDocument) updated).getAbstract());
+        Document added = repo.getDocument(keys[4]).getDocument();
+        Assert.assertEquals("title added", "title", added.getTitle());
+        Assert.assertEquals("versions merged", "second abstract", ((TextDocument) added).getAbstract());
+        Assert.assertEquals("size", 5, repo.getRepositorySize());
+    }
+
+
+    @Test
+    public void manyDocumentsTest() {
+        List<StoredDocument> documents = new ArrayList<StoredDocument>();
+        List<String> oids = new ArrayList<String>();
+        for (int i = 0; i < 1234; i++) {
+            StoredDocument d = BackendDocumentFactory.createStoredDocument("", "Paper " + i, 2000, "Matthias Jordan");
+            d.getDocument().setOid("many" + i);
+            documents.add(d);
+            oids.add("many" + i);
+        }
+        getRepository().addDocuments(documents);
+
+        StoredDocumentList read = repo.getDocuments(oids);
+        Assert.assertEquals("length", oids.size(), read.size());
+        for (int i = 0; i < oids.size(); i++) {
+            Assert.assertEquals("order", "Paper " + i, read.get(i).getDocument().getTitle());
+        }
+        for (String oid : oids) {
+            repo.removeDocument(oid);
+        }
+    }
+
+
     private void fillRepo(DocumentRepository repo, String oid, String title, int year, String... authors) {
         StoredDocument d = BackendDocumentFactory.createStoredDocument("", title, year, authors);
         d.getDocument().setOid(oid);
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+
+
+
+/**
+ * Runs the repository tests against a {@link DBRepository} with a
+ * {@link DocumentCache} in front of it.
+ */
+public class CachedDBRepositoryTest extends AbstractRepositoryTest {
+
+    private DBRepository repo;
+
+
+    @Override
+    protected DocumentRepository createRepo() {
+        initDatabaseConnection(true);
+        createTables("/db/h2_repository.sql");
+
+        repo = new DBRepository(connectionProvider(), new DocumentCache(1024 * 1024));
+        return repo;
+    }
+
+
+    @Override
+    protected void destroyRepo() {
+        closeDatabaseConnection();
+    }
+
+
+    @Test
+    public void testReadersGetCopies() {
+        StoredDocument document = repo.getDocument("1");
+        document.getDocument().setTitle("Changed by a reader");
+
+        Assert.assertEquals("Some paper title", repo.getDocument("1").getDocument().getTitle());
+        Assert.assertNotSame(repo.getDocument("1"), repo.getDocument("1"));
+    }
+
+}
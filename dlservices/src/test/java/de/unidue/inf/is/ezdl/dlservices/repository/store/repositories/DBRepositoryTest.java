@@ -18,17 +18,36 @@
 
 package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.BackendDocumentFactory;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlcore.utils.ClosingUtils;
+
+
+
 /**
  * @author mjordan
  */
 public class DBRepositoryTest extends AbstractRepositoryTest {
 
+    private DBRepository repo;
+
+
     @Override
     protected DocumentRepository createRepo() {
         initDatabaseConnection(true);
         createTables("/db/h2_repository.sql");
 
-        return new DBRepository(connectionProvider());
+        repo = new DBRepository(connectionProvider());
+        return repo;
     }
 
 
@@ -37,4 +56,26 @@ public class DBRepositoryTest extends AbstractRepositoryTest {
         closeDatabaseConnection();
     }
 
+
+    @Test
+    public void testPutAllIsolatesFailures() throws SQLException {
+        Connection con = connectionProvider().connection();
+        try {
+            con.createStatement().execute("alter table repo_document add constraint no_bad check (id <> 'bad')");
+        }
+        finally {
+            ClosingUtils.close(con);
+        }
+
+        Map<String, StoredDocument> documents = new LinkedHashMap<String, StoredDocument>();
+        documents.put("5", BackendDocumentFactory.createStoredDocument("abstract", "Five", 2000, "Author"));
+        documents.put("bad", BackendDocumentFactory.createStoredDocument("abstract", "Bad", 2000, "Author"));
+        documents.put("6", BackendDocumentFactory.createStoredDocument("abstract", "Six", 2000, "Author"));
+        Assert.assertEquals(Collections.singleton("bad"), repo.putAllAsIs(documents));
+
+        Assert.assertEquals("Five", repo.getDocument("5").getDocument().getTitle());
+        Assert.assertEquals("Six", repo.getDocument("6").getDocument().getTitle());
+        Assert.assertNull(repo.getDocument("bad"));
+    }
+
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.repository.store.repositories;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+
+
+
+public class DocumentCacheTest extends AbstractBackendTestBase {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final int size = DocumentCache.sizeOf(new byte[100]);
+        DocumentCache cache = new DocumentCache(3 * size);
+        cache.put("1", new byte[100]);
+        cache.put("2", new byte[100]);
+        cache.put("3", new byte[100]);
+        Assert.assertNotNull(cache.get("1"));
+
+        cache.put("4", new byte[100]);
+
+        Assert.assertEquals(3, cache.getCount());
+        Assert.assertNull("least recently used", cache.get("2"));
+        Assert.assertNotNull(cache.get("1"));
+        Assert.assertNotNull(cache.get("3"));
+        Assert.assertNotNull(cache.get("4"));
+        Assert.assertEquals(3 * size, cache.getSize());
+    }
+
+
+    @Test
+    public void testReplaceAndRemove() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+        byte[] first = new byte[10];
+        byte[] second = new byte[200];
+
+        cache.put("1", first);
+        cache.put("1", second);
+        Assert.assertSame(second, cache.get("1"));
+        Assert.assertEquals(DocumentCache.sizeOf(second), cache.getSize());
+
+        cache.remove("1");
+        Assert.assertNull(cache.get("1"));
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+
+    @Test
+    public void testSkipsOversizedDocuments() {
+        DocumentCache cache = new DocumentCache(16);
+        cache.put("1", new byte[1]);
+        Assert.assertEquals(0, cache.getCount());
+    }
+}
@@ -413,6 +413,53 @@ public class DocumentQueryHandlerTest extends RequestHandlerTestBase {
     }
 
 
+    /**
+     * Tests incremental result delivery: the first wrapper's answer is sent
+     * as a delta page right away, the final list is sent after the second
+     * wrapper has answered.
+     */
+    @Test
+    public void testWorkASKTELL2WrappersIncremental() {
+        Message ask = getDocumentAsk("Dummy1", "Dummy2");
+        ((DocumentQueryAsk) ask.getContent()).getResultConfig().setIncremental(true);
+        checkAskHandlingAndForwarding(handler, ask, 3, "Dummy1", "Dummy2");
+
+        mockAgent.clearMessagesSent();
+
+        Message messageTELL1 = getDocumentStoredTell("Dummy1", "SA", "author1");
+        new HandlerRunner(handler, messageTELL1);
+        new MessageSentCountWaiter(mockAgent, 2).assertGetsOkay("notify and delta sent");
+
+        DocumentQueryResultTell delta = getResultTell(mockAgent.getMessagesSent());
+        Assert.assertNotNull("delta sent", delta);
+        Assert.assertTrue("is delta", delta.isDelta());
+        Assert.assertEquals("delta size", 1, delta.getResults().size());
+        Assert.assertEquals("delta position", Arrays.asList(0), delta.getPositions());
+        Assert.assertTrue("nothing removed", delta.getRemovedOids().isEmpty());
+
+        mockAgent.clearMessagesSent();
+
+        Message messageTELL2 = getDocumentStoredTell("Dummy2", "SA", "author2");
+        new HandlerRunner(handler, messageTELL2);
+        new MessageSentCountWaiter(mockAgent, 3).assertGetsOkay("notify, results and repository");
+
+        DocumentQueryResultTell results = getResultTell(mockAgent.getMessagesSent());
+        Assert.assertNotNull("results sent", results);
+        Assert.assertFalse("is final", results.isDelta());
+        Assert.assertEquals("result size", 2, results.getResults().size());
+    }
+
+
+    private DocumentQueryResultTell getResultTell(List<Message> messages) {
+        for (Message sent : messages) {
+            if (sent.getContent() instanceof DocumentQueryResultTell) {
+                return (DocumentQueryResultTell) sent.getContent();
+            }
+        }
+        return null;
+    }
+
+
     /**
      * Tests a subsequent Ask message.
      * <p>
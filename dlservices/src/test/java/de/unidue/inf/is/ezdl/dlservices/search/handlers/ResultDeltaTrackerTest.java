@@ -0,0 +1,185 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+
+
+
+public class ResultDeltaTrackerTest extends AbstractBackendTestBase {
+
+    private ResultDeltaTracker tracker;
+
+
+    @Before
+    public void setup() {
+        tracker = new ResultDeltaTracker();
+    }
+
+
+    @Test
+    public void testNew() {
+        ResultDocumentList list = list(doc("a", "dl1"), doc("b", "dl1"));
+        Assert.assertEquals("all new", 2, tracker.delta(list).getDocuments().size());
+        Assert.assertTrue("nothing changed", tracker.delta(list).isEmpty());
+        Assert.assertEquals("size", 2, tracker.size());
+    }
+
+
+    @Test
+    public void testNewAppended() {
+        ResultDocument a = doc("a", "dl1");
+        ResultDocument b = doc("b", "dl1");
+        ResultDocument c = doc("c", "dl2");
+        tracker.delta(list(a, b));
+
+        ResultDeltaTracker.Delta delta = tracker.delta(list(a, b, c));
+        Assert.assertEquals("only c", list(c), delta.getDocuments());
+        Assert.assertEquals("position of c", Arrays.asList(2), delta.getPositions());
+    }
+
+
+    @Test
+    public void testMoved() {
+        ResultDocument a = doc("a", "dl1");
+        ResultDocument b = doc("b", "dl1");
+        ResultDocument c = doc("c", "dl1");
+        tracker.delta(list(a, b, c));
+
+        ResultDeltaTracker.Delta delta = tracker.delta(list(b, a, c));
+        Assert.assertEquals("a and b moved", list(b, a), delta.getDocuments());
+        Assert.assertEquals("new positions", Arrays.asList(0, 1), delta.getPositions());
+    }
+
+
+    @Test
+    public void testMerged() {
+        ResultDocument a = doc("a", "dl1");
+        ResultDocument b = doc("b", "dl1");
+        tracker.delta(list(a, b));
+
+        b.addSource("dl2");
+        ResultDeltaTracker.Delta delta = tracker.delta(list(a, b));
+        Assert.assertEquals("b merged", list(b), delta.getDocuments());
+        Assert.assertEquals("position of b", Arrays.asList(1), delta.getPositions());
+    }
+
+
+    @Test
+    public void testRemoved() {
+        ResultDocument a = doc("a", "dl1");
+        ResultDocument b = doc("b", "dl1");
+        ResultDocument c = doc("c", "dl1");
+        tracker.delta(list(a, b));
+
+        ResultDeltaTracker.Delta delta = tracker.delta(list(c, a));
+        Assert.assertEquals("c new, a moved", list(c, a), delta.getDocuments());
+        Assert.assertEquals("positions", Arrays.asList(0, 1), delta.getPositions());
+        Assert.assertEquals("b removed", Arrays.asList("b"), delta.getRemovedOids());
+        Assert.assertEquals("size", 2, tracker.size());
+
+        delta = tracker.delta(list(c, a, b));
+        Assert.assertEquals("b sent again", list(b), delta.getDocuments());
+    }
+
+
+    @Test
+    public void testRebuild() {
+        ResultDocument a = doc("a", "dl1");
+        ResultDocument b = doc("b", "dl1");
+        ResultDocument c = doc("c", "dl1");
+        ResultDocument d = doc("d", "dl1");
+        ResultDocumentList client = list(a, b, c);
+        tracker.delta(client);
+
+        ResultDocumentList current = list(d, c, a);
+        client = apply(client, tracker.delta(current));
+        Assert.assertEquals("rebuilt", current, client);
+    }
+
+
+    /**
+     * Applies a delta to a list the way a client would.
+     */
+    private ResultDocumentList apply(ResultDocumentList old, ResultDeltaTracker.Delta delta) {
+        int size = old.size() - delta.getRemovedOids().size() + countNew(old, delta);
+        ResultDocument[] slots = new ResultDocument[size];
+        for (int i = 0; (i < old.size()); i++) {
+            ResultDocument document = old.get(i);
+            if (!delta.getRemovedOids().contains(document.getOid()) && !delta.getDocuments().contains(document)) {
+                slots[i] = document;
+            }
+        }
+        for (int i = 0; (i < delta.getDocuments().size()); i++) {
+            slots[delta.getPositions().get(i)] = delta.getDocuments().get(i);
+        }
+        return list(slots);
+    }
+
+
+    private int countNew(ResultDocumentList old, ResultDeltaTracker.Delta delta) {
+        int count = 0;
+        for (ResultDocument document : delta.getDocuments()) {
+            if (find(old, document.getOid()) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    private ResultDocument find(ResultDocumentList list, String oid) {
+        for (ResultDocument document : list) {
+            if (document.getOid().equals(oid)) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+
+    private ResultDocumentList list(ResultDocument... documents) {
+        ResultDocumentList list = new ResultDocumentList();
+        for (ResultDocument document : documents) {
+            list.add(document);
+        }
+        return list;
+    }
+
+
+    private ResultDocument doc(String oid, String source) {
+        Document document = new TextDocument();
+        document.setOid(oid);
+        document.setTitle(oid);
+        ResultDocument result = new ResultDocument(document);
+        result.addSource(source);
+        return result;
+    }
+}
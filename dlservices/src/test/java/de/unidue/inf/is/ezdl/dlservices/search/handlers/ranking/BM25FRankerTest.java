@@ -0,0 +1,161 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlcore.DocumentFactory;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare.Predicate;
+
+
+
+public class BM25FRankerTest extends AbstractBackendTestBase {
+
+    private BM25FRanker ranker;
+
+
+    @Before
+    public void init() {
+        ranker = new BM25FRanker();
+    }
+
+
+    private static void add(ResultDocumentList list, String oid, String abstractText, String title, String author) {
+        ResultDocument document = DocumentFactory.createResultDocument(abstractText, title, 2000, author);
+        document.setOid(oid);
+        list.add(document);
+    }
+
+
+    private static DocumentQuery query(QueryNode node) {
+        return new DocumentQuery(new DefaultQuery(node), Collections.<String> emptyList());
+    }
+
+
+    private static List<String> rank(ResultDocumentList documentList) {
+        Collections.sort(documentList, new Comparator<ResultDocument>() {
+
+            @Override
+            public int compare(ResultDocument o1, ResultDocument o2) {
+                return Double.valueOf(o2.getRsv()).compareTo(o1.getRsv());
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (ResultDocument document : documentList) {
+            result.add(document.getOid());
+        }
+        return result;
+    }
+
+
+    private static double rsvOf(ResultDocumentList documentList, String oid) {
+        for (ResultDocument document : documentList) {
+            if (oid.equals(document.getOid())) {
+                return document.getRsv();
+            }
+        }
+        throw new IllegalArgumentException(oid);
+    }
+
+
+    @Test
+    public void testRareTermsWeighMore() {
+        ResultDocumentList list = new ResultDocumentList();
+        add(list, "1", null, "Information retrieval", "Norbert Fuhr");
+        add(list, "2", null, "Important publication", "Chuck Norris");
+        add(list, "3", null, "Another publication", "Miss Marple");
+        add(list, "4", null, "Yet another publication", "Sherlock Holmes");
+
+        QueryNodeBool or = new QueryNodeBool(NodeType.OR);
+        or.addChild(new QueryNodeCompare(Field.TEXT, Predicate.EQ, "retrieval"));
+        or.addChild(new QueryNodeCompare(Field.TEXT, Predicate.EQ, "publication"));
+        ranker.rank(list, query(or));
+
+        Assert.assertEquals("1", rank(list).get(0));
+        Assert.assertTrue(rsvOf(list, "2") > 0);
+    }
+
+
+    @Test
+    public void testTitleWeighsMoreThanAbstract() {
+        ResultDocumentList list = new ResultDocumentList();
+        add(list, "1", "Something else entirely", "Ranking models", "Norbert Fuhr");
+        add(list, "2", "Ranking models", "Something else entirely", "Chuck Norris");
+        add(list, "3", "Nothing to see", "Nothing to see", "Miss Marple");
+
+        ranker.rank(list, query(new QueryNodeCompare(Field.TEXT, Predicate.EQ, "ranking")));
+
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), rank(list));
+        Assert.assertEquals(0, rsvOf(list, "3"), 0.0000001);
+    }
+
+
+    @Test
+    public void testFieldRestriction() {
+        ResultDocumentList list = new ResultDocumentList();
+        add(list, "1", "Holmes and Watson", "A study in scarlet", "Arthur Doyle");
+        add(list, "2", null, "Memoirs", "Sherlock Holmes");
+
+        ranker.rank(list, query(new QueryNodeCompare(Field.AUTHOR, Predicate.EQ, "holmes")));
+
+        Assert.assertEquals(Arrays.asList("2", "1"), rank(list));
+        Assert.assertEquals(0, rsvOf(list, "1"), 0.0000001);
+    }
+
+
+    @Test
+    public void testRankIncrementally() {
+        DocumentQuery query = query(new QueryNodeCompare(Field.TEXT, Predicate.EQ, "ranking"));
+        ResultDocumentList list = new ResultDocumentList();
+        add(list, "1", null, "Ranking", "Norbert Fuhr");
+        add(list, "2", null, "Something else", "Chuck Norris");
+        ranker.rank(list, query);
+        add(list, "3", null, "Ranking ranking", "Miss Marple");
+        ranker.rank(list, query);
+
+        ResultDocumentList fresh = new ResultDocumentList();
+        add(fresh, "1", null, "Ranking", "Norbert Fuhr");
+        add(fresh, "2", null, "Something else", "Chuck Norris");
+        add(fresh, "3", null, "Ranking ranking", "Miss Marple");
+        new BM25FRanker().rank(fresh, query);
+
+        for (ResultDocument document : fresh) {
+            Assert.assertEquals(document.getRsv(), rsvOf(list, document.getOid()), 0.0000001);
+        }
+        Assert.assertEquals("3", rank(list).get(0));
+    }
+}
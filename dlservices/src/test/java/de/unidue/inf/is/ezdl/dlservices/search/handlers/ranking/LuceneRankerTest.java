@@ -157,6 +157,75 @@ public class LuceneRankerTest extends AbstractBackendTestBase {
     }
 
 
+    @Test
+    public void testMapReduceVariantsMatch() {
+        ResultDocumentList workList = getMapReduceSerializedResultList();
+
+        luceneRanker.rank(workList, getMapReduceDocumentQuery());
+
+        for (ResultDocument result : workList) {
+            Assert.assertTrue(result.getDocument().getTitle(), result.getRsv() > 0);
+        }
+    }
+
+
+    @Test
+    public void testRankNegation() {
+        QueryNodeBool queryNodeBool = new QueryNodeBool(NodeType.AND);
+        queryNodeBool.addChild(new QueryNodeCompare(Field.TITLE, Predicate.EQ, "important"));
+        QueryNodeCompare notHolmes = new QueryNodeCompare(Field.AUTHOR, Predicate.EQ, "Holmes");
+        notHolmes.setNegated(true);
+        queryNodeBool.addChild(notHolmes);
+        DocumentQuery documentQuery = new DocumentQuery(new DefaultQuery(queryNodeBool),
+                        Collections.<String> emptyList());
+
+        ResultDocumentList documentList = newDocumentList();
+        luceneRanker.rank(documentList, documentQuery);
+
+        Assert.assertEquals(1.0, rsvOf(documentList, "2"), 0.0001);
+        Assert.assertEquals(0.0, rsvOf(documentList, "1"), 0.0001);
+        Assert.assertEquals(0.0, rsvOf(documentList, "3"), 0.0001);
+    }
+
+
+    /**
+     * Ranking the same list again after new documents arrived and others
+     * changed has to give the same result as ranking it from scratch.
+     */
+    @Test
+    public void testRankIncrementally() {
+        ResultDocumentList documentList = newDocumentList();
+        luceneRanker.rank(documentList, newAuthorAndTitleDocumentQuery());
+
+        ResultDocument doc4 = DocumentFactory.createResultDocument(null, "Important", 2011, "Sherlock Holmes");
+        doc4.setOid("4");
+        documentList.add(doc4);
+        documentList.get(1).getDocument().getAuthorList().add(new Person("Sherlock", "Holmes"));
+        luceneRanker.rank(documentList, newAuthorAndTitleDocumentQuery());
+
+        ResultDocumentList freshList = new ResultDocumentList();
+        for (ResultDocument result : documentList) {
+            freshList.add(new ResultDocument(result.getDocument()));
+        }
+        new LuceneRanker().rank(freshList, newAuthorAndTitleDocumentQuery());
+
+        for (ResultDocument result : freshList) {
+            Assert.assertEquals(result.getOid(), result.getRsv(), rsvOf(documentList, result.getOid()), 0.0001);
+        }
+        Assert.assertEquals(Arrays.asList("4", "3", "2", "1"), rank(documentList));
+    }
+
+
+    private double rsvOf(ResultDocumentList documentList, String oid) {
+        for (ResultDocument result : documentList) {
+            if (oid.equals(result.getOid())) {
+                return result.getRsv();
+            }
+        }
+        throw new IllegalArgumentException(oid);
+    }
+
+
     private ResultDocumentList getMapReduceSerializedResultList() {
         StoredDocumentList serialized = getSerializedList();
         ResultDocumentList serializedList = DocumentListConverter.toResultDocumentList(serialized);
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlservices.search.handlers.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.AbstractBackendTestBase;
+import de.unidue.inf.is.ezdl.dlbackend.data.DocumentListConverter;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.DocumentFactory;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.query.ResultDocumentList;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare.Predicate;
+
+
+
+public class RankerChainTest extends AbstractBackendTestBase {
+
+    private static DocumentQuery newTitleDocumentQuery() {
+        QueryNodeCompare queryNodeCompare = new QueryNodeCompare(Field.TITLE, Predicate.EQ, "important");
+        return new DocumentQuery(new DefaultQuery(queryNodeCompare), Collections.<String> emptyList());
+    }
+
+
+    private static StoredDocument stored(String oid, String title, int year, String source) {
+        Document document = DocumentFactory.createResultDocument(null, title, year, "Norbert Fuhr").getDocument();
+        document.setOid(oid);
+        StoredDocument stored = new StoredDocument(document);
+        stored.addSource(new SourceInfo(new SourceID(source, ""), "", new Date()));
+        return stored;
+    }
+
+
+    private static List<String> rank(ResultDocumentList documentList) {
+        Collections.sort(documentList, new Comparator<ResultDocument>() {
+
+            @Override
+            public int compare(ResultDocument o1, ResultDocument o2) {
+                return Double.valueOf(o2.getRsv()).compareTo(o1.getRsv());
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (ResultDocument document : documentList) {
+            result.add(document.getOid());
+        }
+        return result;
+    }
+
+
+    @Test
+    public void testFactoryDefault() {
+        RankerChain chain = RankerFactory.create(null, new SourcePositions());
+        Assert.assertEquals(1, chain.getStages().size());
+        Assert.assertTrue(chain.getStages().get(0) instanceof LuceneRanker);
+    }
+
+
+    @Test
+    public void testFactoryStages() {
+        RankerChain chain = RankerFactory.create("bm25f, rrf,boost", new SourcePositions());
+        Assert.assertEquals(3, chain.getStages().size());
+        Assert.assertTrue(chain.getStages().get(0) instanceof BM25FRanker);
+        Assert.assertTrue(chain.getStages().get(1) instanceof ReciprocalRankFusionRanker);
+        Assert.assertTrue(chain.getStages().get(2) instanceof BoostRanker);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFactoryUnknownStage() {
+        RankerFactory.create("lucene,magic", new SourcePositions());
+    }
+
+
+    @Test
+    public void testFusionPrefersDocumentsFoundBySeveralSources() {
+        StoredDocumentList a = new StoredDocumentList();
+        a.add(stored("x", "Important publication", 2000, "a"));
+        a.add(stored("y", "Important results", 2001, "a"));
+        a.add(stored("z", "Important findings", 2002, "a"));
+        StoredDocumentList b = new StoredDocumentList();
+        b.add(stored("z", "Important findings", 2002, "b"));
+
+        SourcePositions positions = new SourcePositions();
+        positions.add(a);
+        positions.add(b);
+        Assert.assertEquals(3, positions.getPosition("a", "z"));
+        Assert.assertEquals(1, positions.getPosition("b", "z"));
+        Assert.assertEquals(0, positions.getPosition("b", "x"));
+
+        StoredDocumentList merged = new StoredDocumentList();
+        merged.merge(a);
+        merged.merge(b);
+        ResultDocumentList list = DocumentListConverter.toResultDocumentList(merged);
+        RankerFactory.create("rrf", positions).rank(list, newTitleDocumentQuery());
+
+        Assert.assertEquals(Arrays.asList("z", "x", "y"), rank(list));
+    }
+
+
+    @Test
+    public void testBoostPrefersRecentDocuments() {
+        StoredDocumentList stored = new StoredDocumentList();
+        stored.add(stored("old", "Important publication", 1990, "a"));
+        stored.add(stored("new", "Important publication", 2010, "a"));
+        stored.add(stored("other", "Something else", 2011, "a"));
+        ResultDocumentList list = DocumentListConverter.toResultDocumentList(stored);
+
+        List<AbstractRanker> stages = new ArrayList<AbstractRanker>();
+        stages.add(new LuceneRanker());
+        stages.add(new BoostRanker(2011));
+        new RankerChain(stages).rank(list, newTitleDocumentQuery());
+
+        Assert.assertEquals(Arrays.asList("new", "old", "other"), rank(list));
+        Assert.assertEquals(0, list.get(0).getRsv() - 1, 0.0000001);
+        Assert.assertEquals(0, list.get(2).getRsv(), 0.0000001);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlcore.cache.Cache;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+
+
+
+/**
+ * Cache for the results of a wrapper.
+ * <p>
+ * Wraps another cache and adds an expiry time to the entries and statistics
+ * about the lookups. The expiry time is stored with the entries, so it also
+ * holds for entries that were persisted by the wrapped cache. Putting a value
+ * replaces a value stored under the same key.
+ * <p>
+ * The keys are built by {@link #key(DocumentQuery)} from the query, so
+ * equivalent queries share an entry.
+ */
+public final class ResultCache implements Cache {
+
+    /**
+     * Number of lookups between two log messages with the statistics.
+     */
+    private static final int STATISTICS_LOG_INTERVAL = 100;
+
+    private static Logger logger = Logger.getLogger(ResultCache.class);
+
+    private final Cache cache;
+    private final String name;
+    private final long ttlMs;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+
+    /**
+     * Constructor.
+     * 
+     * @param cache
+     *            the cache to store the entries in
+     * @param name
+     *            the name of the cache, used for logging
+     * @param ttl
+     *            the time an entry is valid. 0 or less means entries do not
+     *            expire.
+     * @param timeUnit
+     *            the unit of ttl
+     */
+    public ResultCache(Cache cache, String name, long ttl, TimeUnit timeUnit) {
+        this.cache = cache;
+        this.name = name;
+        this.ttlMs = timeUnit.toMillis(ttl);
+    }
+
+
+    /**
+     * An entry together with the time it was stored.
+     */
+    private static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 2874510964405912253L;
+
+        private final long created;
+        private final Object value;
+
+
+        Entry(long created, Object value) {
+            this.created = created;
+            this.value = value;
+        }
+    }
+
+
+    /**
+     * Returns the cache key for a query.
+     * <p>
+     * The key is a canonical form of the query tree: the operands of AND and
+     * OR nodes are sorted and duplicates removed, nested nodes of the same
+     * type are flattened and letter case is ignored. Queries with the same key
+     * have the same results. The list of requested DLs is not part of the key,
+     * because it does not change the results of a wrapper.
+     * 
+     * @param documentQuery
+     *            the query
+     * @return the key
+     */
+    public static String key(DocumentQuery documentQuery) {
+        return canonical(documentQuery.getQuery().getTree()).toLowerCase(Locale.ENGLISH);
+    }
+
+
+    private static String canonical(QueryNode node) {
+        if (node == null) {
+            return "()";
+        }
+        if (node instanceof QueryNodeBool) {
+            final QueryNodeBool bool = (QueryNodeBool) node;
+            final SortedSet<String> operands = new TreeSet<String>();
+            addOperands(bool, operands);
+            if ((operands.size() == 1) && !bool.isNegated()) {
+                return operands.first();
+            }
+            final StringBuilder out = new StringBuilder();
+            out.append('{');
+            if (bool.isNegated()) {
+                out.append('N');
+            }
+            out.append(bool.getType()).append('[').append(bool.getFieldCode()).append("]:");
+            for (String operand : operands) {
+                out.append(' ').append(operand);
+            }
+            out.append('}');
+            return out.toString();
+        }
+        if (node.isNegated() && !(node instanceof QueryNodeCompare)) {
+            return "NOT " + node;
+        }
+        return node.toString();
+    }
+
+
+    private static void addOperands(QueryNodeBool bool, SortedSet<String> operands) {
+        for (QueryNode child : bool.children()) {
+            if ((child instanceof QueryNodeBool) && isSameOperator(bool, (QueryNodeBool) child)) {
+                addOperands((QueryNodeBool) child, operands);
+            }
+            else {
+                operands.add(canonical(child));
+            }
+        }
+    }
+
+
+    private static boolean isSameOperator(QueryNodeBool parent, QueryNodeBool child) {
+        return !child.isNegated() && (child.getType() == parent.getType())
+                        && (child.getFieldCode() == parent.getFieldCode());
+    }
+
+
+    /**
+     * Stores the value, replacing an entry that is already stored under the
+     * key. Some caches refuse to overwrite a key, so the old entry is removed
+     * first.
+     */
+    @Override
+    public void put(Object key, Object value) {
+        cache.remove(key);
+        cache.put(key, new Entry(System.currentTimeMillis(), value));
+    }
+
+
+    @Override
+    public Object get(Object key) {
+        Object value = null;
+        final Object stored = cache.get(key);
+        if (stored instanceof Entry) {
+            final Entry entry = (Entry) stored;
+            if ((ttlMs > 0) && (System.currentTimeMillis() - entry.created > ttlMs)) {
+                cache.remove(key);
+                expirations.incrementAndGet();
+            }
+            else {
+                value = entry.value;
+            }
+        }
+
+        final long lookups;
+        if (value != null) {
+            lookups = hits.incrementAndGet() + misses.get();
+        }
+        else {
+            lookups = misses.incrementAndGet() + hits.get();
+        }
+        if (lookups % STATISTICS_LOG_INTERVAL == 0) {
+            logger.info(this);
+        }
+        return value;
+    }
+
+
+    @Override
+    public void remove(Object key) {
+        cache.remove(key);
+    }
+
+
+    @Override
+    public void flush() {
+        cache.flush();
+    }
+
+
+    @Override
+    public void shutdown() {
+        logger.info(this);
+        cache.shutdown();
+    }
+
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+
+    /**
+     * Returns the number of lookups that found a valid entry.
+     * 
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+
+    /**
+     * Returns the number of lookups that found no valid entry, including
+     * expired entries.
+     * 
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+
+    /**
+     * Returns the number of entries that were found expired.
+     * 
+     * @return the number of expired entries
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+
+    /**
+     * Returns the share of lookups that found a valid entry.
+     * 
+     * @return the hit rate between 0 and 1, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        final long hitCount = hits.get();
+        final long lookups = hitCount + misses.get();
+        return (lookups == 0) ? 0 : (double) hitCount / lookups;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Result cache " + name + ": " + hits.get() + " hits, " + misses.get() + " misses ("
+                        + expirations.get() + " expired), hit rate " + Math.round(getHitRate() * 100) + "%";
+    }
+}
@@ -20,6 +20,7 @@ package de.unidue.inf.is.ezdl.dlwrapper;
 
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.ehcache.CacheException;
 
@@ -58,6 +59,23 @@ public class WrapperMapper extends AbstractAgent {
      * The properties key that defines the class of the Wrapper delegate.
      */
     private static final String WRAPPER_CLASS_KEY = "wrapperclass";
+    /**
+     * The properties key for the number of seconds the results of a query are
+     * kept in the cache. 0 keeps them until they are evicted.
+     */
+    public static final String CACHE_TTL_KEY = "cache.timeToLiveS";
+    /**
+     * The properties key for the maximum number of queries whose results are
+     * kept in the cache.
+     */
+    public static final String CACHE_MAX_ENTRIES_KEY = "cache.maxEntries";
+    /**
+     * The properties key that makes the cache keep the results on disk across
+     * restarts if set to true.
+     */
+    public static final String CACHE_PERSISTENT_KEY = "cache.persistent";
+    private static final int CACHE_TTL_DEFAULT = 24 * 60 * 60;
+    private static final int CACHE_MAX_ENTRIES_DEFAULT = 10000;
     /**
      * The logger.
      */
@@ -160,10 +178,19 @@ public class WrapperMapper extends AbstractAgent {
     /**
      * Initializes the cache.
      * <p>
+     * The cache is configured by {@link #CACHE_TTL_KEY},
+     * {@link #CACHE_MAX_ENTRIES_KEY} and {@link #CACHE_PERSISTENT_KEY}.
+     * <p>
      * Package visable for testing reasons.
      */
     void initCache() throws CacheException {
-        cache = new EhCache(agentName(), WrapperMapper.class.getResource("/cache/ehcache.xml"));
+        final Properties props = getProperties();
+        final int ttl = PropertiesUtils.getIntProperty(props, CACHE_TTL_KEY, CACHE_TTL_DEFAULT);
+        final int maxEntries = PropertiesUtils.getIntProperty(props, CACHE_MAX_ENTRIES_KEY, CACHE_MAX_ENTRIES_DEFAULT);
+        final boolean persistent = Boolean.parseBoolean(props.getProperty(CACHE_PERSISTENT_KEY));
+        final EhCache ehCache = new EhCache(agentName(), WrapperMapper.class.getResource("/cache/ehcache.xml"),
+                        maxEntries, persistent);
+        cache = new ResultCache(ehCache, agentName(), ttl, TimeUnit.SECONDS);
     }
 
 
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+
+
+/**
+ * An XPath expression that is compiled once per thread.
+ * <p>
+ * {@link XPathExpression} objects must not be used by several threads at the
+ * same time, but wrapper configurations are shared by all toolkits.
+ */
+final class CompiledXPath {
+
+    private final String expression;
+
+    private final ThreadLocal<XPathExpression> compiled = new ThreadLocal<XPathExpression>() {
+
+        @Override
+        protected XPathExpression initialValue() {
+            try {
+                return compile(expression);
+            }
+            catch (XPathExpressionException e) {
+                // checked in the constructor
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+
+    /**
+     * Constructor.
+     * 
+     * @param expression
+     *            the XPath expression
+     * @throws XPathExpressionException
+     *             if the expression is not valid
+     */
+    CompiledXPath(String expression) throws XPathExpressionException {
+        this.expression = expression;
+        compiled.set(compile(expression));
+    }
+
+
+    private static XPathExpression compile(String expression) throws XPathExpressionException {
+        return XPathFactory.newInstance().newXPath().compile(expression);
+    }
+
+
+    String evaluateString(Node context) throws XPathExpressionException {
+        return (String) evaluate(context, XPathConstants.STRING);
+    }
+
+
+    Node evaluateNode(Node context) throws XPathExpressionException {
+        return (Node) evaluate(context, XPathConstants.NODE);
+    }
+
+
+    NodeList evaluateNodeSet(Node context) throws XPathExpressionException {
+        return (NodeList) evaluate(context, XPathConstants.NODESET);
+    }
+
+
+    private Object evaluate(Node context, QName returnType) throws XPathExpressionException {
+        return compiled.get().evaluate(context, returnType);
+    }
+
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Element;
+
+
+
+/**
+ * The compiled form of a <code>fetch</code> element of a wrapper
+ * configuration.
+ */
+final class FetchConfig {
+
+    /**
+     * A <code>param</code> or <code>form</code> element.
+     */
+    static final class Param {
+
+        /**
+         * True for a <code>form</code> element, false for a <code>param</code>
+         * element.
+         */
+        final boolean form;
+        /**
+         * The name of the parameter, empty if the value holds several
+         * parameters.
+         */
+        final String name;
+        /**
+         * The value of the parameter, if not taken from a property.
+         */
+        final String value;
+        /**
+         * The name of the property that holds the value or null.
+         */
+        final String property;
+
+
+        Param(Element config, String path) {
+            final String nodeName = config.getNodeName();
+            if ("form".equals(nodeName)) {
+                form = true;
+            }
+            else if ("param".equals(nodeName)) {
+                form = false;
+            }
+            else {
+                throw new ToolkitConfigException(path + ": unknown element");
+            }
+            name = config.getAttribute("name");
+            final String valueStr = config.getAttribute("value");
+            if (valueStr.startsWith("$")) {
+                value = null;
+                property = valueStr.substring(1);
+            }
+            else {
+                value = valueStr;
+                property = null;
+            }
+        }
+    }
+
+
+    final int minPage;
+    final int maxPage;
+    final boolean post;
+    /**
+     * The URL, if not taken from a property.
+     */
+    final String url;
+    /**
+     * The name of the property that holds the URL or null.
+     */
+    final String urlProperty;
+    final String encoding;
+    final List<Param> params;
+
+
+    /**
+     * Constructor.
+     * 
+     * @param config
+     *            the fetch element
+     * @param path
+     *            the path of the fetch element, used in error messages
+     * @throws ToolkitConfigException
+     *             if the element is not valid
+     */
+    FetchConfig(Element config, String path) {
+        minPage = pageAttribute(config, "minPage", 0, path);
+        maxPage = pageAttribute(config, "maxPage", Integer.MAX_VALUE, path);
+
+        final String method = config.getAttribute("method");
+        if (method.equalsIgnoreCase("get")) {
+            post = false;
+        }
+        else if (method.equalsIgnoreCase("post")) {
+            post = true;
+        }
+        else {
+            throw new ToolkitConfigException(path + ": unknown method '" + method + "'");
+        }
+
+        final String urlStr = config.getAttribute("url");
+        if (urlStr.startsWith("$")) {
+            url = null;
+            urlProperty = urlStr.substring(1);
+        }
+        else {
+            url = urlStr.replaceAll(" ", "%20");
+            urlProperty = null;
+        }
+        encoding = config.getAttribute("encoding");
+
+        final List<Param> paramList = new ArrayList<Param>();
+        Element param = Tools.getFirstChildElement(config);
+        while (param != null) {
+            paramList.add(new Param(param, Parser.path(path, param)));
+            param = Tools.getNextSiblingElement(param);
+        }
+        params = Collections.unmodifiableList(paramList);
+    }
+
+
+    private static int pageAttribute(Element config, String name, int defaultValue, String path) {
+        final String value = config.getAttribute(name);
+        if (value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new ToolkitConfigException(path + ": " + name + " is not a number: '" + value + "'", e);
+        }
+    }
+}
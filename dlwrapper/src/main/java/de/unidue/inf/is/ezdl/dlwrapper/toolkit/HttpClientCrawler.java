@@ -24,11 +24,8 @@
  */
 package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -38,15 +35,11 @@ import java.util.List;
 import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
@@ -56,6 +49,12 @@ import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
 
 
 
+/**
+ * Fetches pages for the toolkit.
+ * <p>
+ * The requests are executed by a {@link HttpFetcher}, by default the shared
+ * one, so that connections are pooled across all crawlers.
+ */
 public class HttpClientCrawler {
 
     private List<String> cookies;
@@ -68,7 +67,11 @@ public class HttpClientCrawler {
 
     private Logger logger = Logger.getLogger(HttpClientCrawler.class);
 
-    private HttpClient client;
+    private HttpFetcher fetcher = HttpFetcher.getInstance();
+    /**
+     * The proxy to use or null for a direct connection.
+     */
+    private HttpHost proxy;
     private InputStream in;
 
     /**
@@ -100,13 +103,11 @@ public class HttpClientCrawler {
      */
     public HttpClientCrawler(URL _url, String _encoding, String proxyHost, int proxyPort) {
         this(_url, _encoding);
-        client = new DefaultHttpClient();
         if (proxyHost == null) {
             throw new IllegalArgumentException("Proxy must not be null");
         }
         logger.debug("Using proxy " + proxyHost + ":" + proxyPort);
-        HttpHost proxy = new HttpHost(proxyHost, proxyPort);
-        client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        proxy = new HttpHost(proxyHost, proxyPort);
     }
 
 
@@ -122,7 +123,6 @@ public class HttpClientCrawler {
     public HttpClientCrawler(URL _url, String _encoding) {
         this.url = _url;
         this.encoding = _encoding;
-        client = new DefaultHttpClient();
     }
 
 
@@ -145,6 +145,17 @@ public class HttpClientCrawler {
     }
 
 
+    /**
+     * Sets the fetcher to execute the requests with instead of the shared one.
+     * 
+     * @param fetcher
+     *            the fetcher to use
+     */
+    public void setHttpFetcher(HttpFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+
     /**
      * Returns the URL of a website or a CGI script.
      * 
@@ -234,13 +245,13 @@ public class HttpClientCrawler {
             }
         }
 
-        HttpResponse response = null;
+        HttpFetcher.Result response = null;
         for (int attempt = 0; statusCode == -1 && attempt < maxAttempts; attempt++) {
             try {
                 // execute the method.
                 logMethod(_method);
-                response = client.execute(method);
-                statusCode = response.getStatusLine().getStatusCode();
+                response = fetcher.execute(method, proxy);
+                statusCode = response.getStatusCode();
             }
             catch (IOException e) {
                 logger.error("Error in executing post Method: " + e.getLocalizedMessage(), e);
@@ -253,23 +264,16 @@ public class HttpClientCrawler {
             logger.error("Error: POST requests failed. url: " + urlWithParams);
         }
 
-        // Read the response body.
-        try {
-            if (response != null) {
-                in = response.getEntity().getContent();
-                if (cookies != null) {
-                    Header[] cookieHdrs = response.getHeaders("Set-Cookie");
-                    for (Header cookieHdr : cookieHdrs) {
-                        logger.info("Remote party sent cookie: " + cookieHdr.getName() + "  --  "
-                                        + cookieHdr.getValue());
-                        cookies.add(cookieHdr.getValue());
-                    }
+        if (response != null) {
+            in = response.getInputStream();
+            if (cookies != null) {
+                Header[] cookieHdrs = response.getHeaders("Set-Cookie");
+                for (Header cookieHdr : cookieHdrs) {
+                    logger.info("Remote party sent cookie: " + cookieHdr.getName() + "  --  " + cookieHdr.getValue());
+                    cookies.add(cookieHdr.getValue());
                 }
             }
         }
-        catch (IOException e) {
-            logger.error(e.getMessage(), e);
-        }
 
         return in;
     }
@@ -293,20 +297,12 @@ public class HttpClientCrawler {
             urlWithParams += "?" + encodeParams;
         }
 
-        String result;
         try {
-            result = fetchPost(new URL(urlWithParams), formFields);
-            return new ByteArrayInputStream(result.getBytes());
-        }
-        catch (UnknownHostException e) {
-            logger.error(e);
+            return fetchPostStream(new URL(urlWithParams), formFields);
         }
         catch (IOException e) {
             logger.error(e);
         }
-        catch (HttpException e) {
-            logger.error(e);
-        }
 
         return null;
     }
@@ -318,14 +314,25 @@ public class HttpClientCrawler {
 
 
     public void close() {
-        // Release the connection.
-        method.abort();
+        // The connection has been released after reading the response, this
+        // only aborts a request that is still running.
+        if (method != null) {
+            method.abort();
+        }
     }
 
 
     public String fetchPost(URL url, List<NameValuePair> formFields) throws UnknownHostException, IOException,
                     HttpException {
-        InputStream in = null;
+        InputStream in = fetchPostStream(url, formFields);
+        if (in != null) {
+            return IOUtils.readInputStreamAsString(in);
+        }
+        return null;
+    }
+
+
+    private InputStream fetchPostStream(URL url, List<NameValuePair> formFields) throws IOException {
         String urlString = url.toString();
 
         HttpPost post = new HttpPost(urlString);
@@ -334,12 +341,7 @@ public class HttpClientCrawler {
             final UrlEncodedFormEntity urlEncodedFormEntity = new UrlEncodedFormEntity(formFields, HTTP.UTF_8);
             post.setEntity(urlEncodedFormEntity);
         }
-        in = fetchData(urlString, post);
-        if (in != null) {
-            final String response = IOUtils.readBufferAsString(new BufferedReader(new InputStreamReader(in)));
-            return response;
-        }
-        return null;
+        return fetchData(urlString, post);
     }
 
 
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.ContentEncodingHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
+
+
+
+/**
+ * Executes the HTTP requests of the toolkit with a shared, pooled client.
+ * <p>
+ * Connections are kept alive and reused across requests. The number of
+ * connections per host is limited by {@link #MAX_PER_HOST_KEY}. Compressed
+ * responses are decoded while they are read, and responses larger than
+ * {@link #MAX_BYTES_KEY} are rejected.
+ * <p>
+ * GET responses that carry an ETag or a Last-Modified header are cached. The
+ * next GET of the same URL is sent as a conditional request, and the cached
+ * body is used if the server answers with 304 Not Modified. Requests that
+ * send cookies are not cached because their responses depend on the session.
+ * <p>
+ * Each request gets its own cookie store, so cookies set by one request (e.g.
+ * during redirects) never leak into requests of other crawlers.
+ * <p>
+ * The settings of the shared fetcher returned by {@link #getInstance()} are
+ * global: the first call of {@link #init(Properties)} or
+ * {@link #getInstance()} decides them for all wrappers of the JVM. Wrappers
+ * that need other settings have to create their own fetcher.
+ */
+public final class HttpFetcher {
+
+    /**
+     * Properties key for the maximum number of pooled connections.
+     */
+    public static final String MAX_CONNECTIONS_KEY = "toolkit.http.maxconnections";
+    /**
+     * Properties key for the maximum number of connections to one host.
+     */
+    public static final String MAX_PER_HOST_KEY = "toolkit.http.maxperhost";
+    /**
+     * Properties key for the connect timeout in milliseconds. Also limits how
+     * long a request waits for a pooled connection.
+     */
+    public static final String CONNECT_TIMEOUT_KEY = "toolkit.http.connecttimeout";
+    /**
+     * Properties key for the socket read timeout in milliseconds.
+     */
+    public static final String SOCKET_TIMEOUT_KEY = "toolkit.http.sockettimeout";
+    /**
+     * Properties key for the maximum size of a response body in bytes.
+     */
+    public static final String MAX_BYTES_KEY = "toolkit.http.maxbytes";
+    /**
+     * Properties key for the number of responses kept for conditional GETs. 0
+     * disables the cache.
+     */
+    public static final String CACHE_ENTRIES_KEY = "toolkit.http.cache.entries";
+    /**
+     * Properties key for the maximum size of a cached response body in bytes.
+     */
+    public static final String CACHE_MAX_BYTES_KEY = "toolkit.http.cache.maxbytes";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int DEFAULT_MAX_PER_HOST = 8;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 20000;
+    private static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    private static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_CACHE_ENTRIES = 256;
+    private static final int DEFAULT_CACHE_MAX_BYTES = 1024 * 1024;
+    /**
+     * How long to keep an idle connection if the server does not say.
+     */
+    private static final long DEFAULT_KEEP_ALIVE_MS = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String[] SETTING_KEYS = {
+                    MAX_CONNECTIONS_KEY, MAX_PER_HOST_KEY, CONNECT_TIMEOUT_KEY, SOCKET_TIMEOUT_KEY, MAX_BYTES_KEY,
+                    CACHE_ENTRIES_KEY, CACHE_MAX_BYTES_KEY
+    };
+
+    private static Logger logger = Logger.getLogger(HttpFetcher.class);
+
+    private static HttpFetcher instance;
+
+
+    /**
+     * A response with its body read completely.
+     */
+    public static final class Result {
+
+        private final int statusCode;
+        private final Header[] headers;
+        private final byte[] body;
+        private final boolean fromCache;
+
+
+        Result(int statusCode, Header[] headers, byte[] body, boolean fromCache) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.fromCache = fromCache;
+        }
+
+
+        /**
+         * @return the status code. 200 if the body was taken from the cache.
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+
+        /**
+         * Returns the headers of the response with the given name.
+         * 
+         * @param name
+         *            the name of the headers
+         * @return the headers. Might be empty but never null.
+         */
+        public Header[] getHeaders(String name) {
+            int count = 0;
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) {
+                    count++;
+                }
+            }
+            Header[] matching = new Header[count];
+            int i = 0;
+            for (Header header : headers) {
+                if (header.getName().equalsIgnoreCase(name)) {
+                    matching[i++] = header;
+                }
+            }
+            return matching;
+        }
+
+
+        /**
+         * @return the decoded body. Empty if the response had no body.
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+
+        /**
+         * @return a new stream over the body
+         */
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+
+        /**
+         * @return true, if the server answered with 304 Not Modified and the
+         *         body was taken from the cache
+         */
+        public boolean isFromCache() {
+            return fromCache;
+        }
+    }
+
+
+    private static final class CacheEntry {
+
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+
+
+        CacheEntry(String etag, String lastModified, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
+
+    private final ThreadSafeClientConnManager connectionManager;
+    private final ContentEncodingHttpClient client;
+    private final int maxBytes;
+    private final int cacheMaxBytes;
+    private final Map<String, CacheEntry> cache;
+    /**
+     * The settings this fetcher was created with.
+     */
+    private final Map<String, String> settings;
+
+
+    /**
+     * Creates a new fetcher with its own connection pool.
+     * 
+     * @param props
+     *            the properties to read the configuration from
+     */
+    public HttpFetcher(Properties props) {
+        settings = settings(props);
+        connectionManager = new ThreadSafeClientConnManager();
+        connectionManager.setMaxTotal(PropertiesUtils.getIntProperty(props, MAX_CONNECTIONS_KEY,
+                        DEFAULT_MAX_CONNECTIONS));
+        connectionManager.setDefaultMaxPerRoute(PropertiesUtils.getIntProperty(props, MAX_PER_HOST_KEY,
+                        DEFAULT_MAX_PER_HOST));
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params,
+                        PropertiesUtils.getIntProperty(props, CONNECT_TIMEOUT_KEY, DEFAULT_CONNECT_TIMEOUT));
+        HttpConnectionParams.setSoTimeout(params,
+                        PropertiesUtils.getIntProperty(props, SOCKET_TIMEOUT_KEY, DEFAULT_SOCKET_TIMEOUT));
+        params.setParameter(ClientPNames.COOKIE_POLICY, CookiePolicy.BROWSER_COMPATIBILITY);
+
+        client = new ContentEncodingHttpClient(connectionManager, params);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+
+            private final ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = serverStrategy.getKeepAliveDuration(response, context);
+                return (duration > 0) ? duration : DEFAULT_KEEP_ALIVE_MS;
+            }
+        });
+
+        maxBytes = PropertiesUtils.getIntProperty(props, MAX_BYTES_KEY, DEFAULT_MAX_BYTES);
+        cacheMaxBytes = PropertiesUtils.getIntProperty(props, CACHE_MAX_BYTES_KEY, DEFAULT_CACHE_MAX_BYTES);
+        final int cacheEntries = PropertiesUtils.getIntProperty(props, CACHE_ENTRIES_KEY, DEFAULT_CACHE_ENTRIES);
+        if (cacheEntries > 0) {
+            cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 2930813427208744631L;
+
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > cacheEntries;
+                }
+            };
+        }
+        else {
+            cache = null;
+        }
+    }
+
+
+    private static Map<String, String> settings(Properties props) {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String key : SETTING_KEYS) {
+            settings.put(key, props.getProperty(key));
+        }
+        return settings;
+    }
+
+
+    /**
+     * Configures the shared fetcher. Only has an effect if the shared fetcher
+     * has not been created yet. The settings are global, so a warning is
+     * logged if a later call passes settings that differ from the ones the
+     * shared fetcher was created with.
+     * 
+     * @param props
+     *            the properties to read the configuration from
+     */
+    public static synchronized void init(Properties props) {
+        if (instance == null) {
+            instance = new HttpFetcher(props);
+        }
+        else {
+            Map<String, String> requested = settings(props);
+            if (!requested.equals(instance.settings)) {
+                logger.warn("Shared fetcher already created with " + instance.settings + ", ignoring " + requested);
+            }
+            else {
+                logger.debug("Shared fetcher already initialized");
+            }
+        }
+    }
+
+
+    /**
+     * Returns the fetcher shared by all crawlers.
+     * 
+     * @return the shared fetcher
+     */
+    public static synchronized HttpFetcher getInstance() {
+        if (instance == null) {
+            instance = new HttpFetcher(new Properties());
+        }
+        return instance;
+    }
+
+
+    /**
+     * Executes the request and reads the response body.
+     * <p>
+     * The body is returned regardless of the status code. The connection is
+     * released before this method returns.
+     * 
+     * @param request
+     *            the request to execute
+     * @param proxy
+     *            the proxy to use or null for a direct connection
+     * @return the response
+     * @throws IOException
+     *             if the request fails or the body is larger than allowed
+     */
+    public Result execute(HttpRequestBase request, HttpHost proxy) throws IOException {
+        if (proxy != null) {
+            request.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        }
+
+        final String cacheKey = isCacheable(request) ? request.getURI().toString() : null;
+        final CacheEntry cached = (cacheKey != null) ? getCached(cacheKey) : null;
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.setHeader("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.setHeader("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+        HttpResponse response = client.execute(request, context);
+        int statusCode = response.getStatusLine().getStatusCode();
+        byte[] body = readBody(request, response.getEntity());
+        Header[] headers = response.getAllHeaders();
+
+        if (cached != null && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            logger.debug("Not modified: " + cacheKey);
+            return new Result(HttpStatus.SC_OK, headers, cached.body, true);
+        }
+        if (cacheKey != null) {
+            updateCache(cacheKey, response, statusCode, body);
+        }
+        return new Result(statusCode, headers, body, false);
+    }
+
+
+    private boolean isCacheable(HttpRequestBase request) {
+        return cache != null && request instanceof HttpGet && !request.containsHeader("Cookie")
+                        && !request.containsHeader("Authorization");
+    }
+
+
+    private CacheEntry getCached(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+
+    private void updateCache(String key, HttpResponse response, int statusCode, byte[] body) {
+        final String etag = headerValue(response, "ETag");
+        final String lastModified = headerValue(response, "Last-Modified");
+        final String cacheControl = headerValue(response, "Cache-Control");
+        boolean store = statusCode == HttpStatus.SC_OK && (etag != null || lastModified != null)
+                        && body.length <= cacheMaxBytes
+                        && (cacheControl == null || !cacheControl.toLowerCase(Locale.ENGLISH).contains("no-store"));
+        synchronized (cache) {
+            if (store) {
+                cache.put(key, new CacheEntry(etag, lastModified, body));
+            }
+            else {
+                cache.remove(key);
+            }
+        }
+    }
+
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return (header != null) ? header.getValue() : null;
+    }
+
+
+    /**
+     * Reads the whole body and releases the connection.
+     */
+    private byte[] readBody(HttpRequestBase request, HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return new byte[0];
+        }
+        long length = entity.getContentLength();
+        if (length > maxBytes) {
+            request.abort();
+            throw new IOException("Response of " + request.getURI() + " too large: " + length + " bytes");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : BUFFER_SIZE);
+        InputStream in = entity.getContent();
+        if (in == null) {
+            return new byte[0];
+        }
+        boolean complete = false;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (out.size() + read > maxBytes) {
+                    throw new IOException("Response of " + request.getURI() + " larger than " + maxBytes + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+            complete = true;
+        }
+        finally {
+            if (complete) {
+                in.close();
+            }
+            else {
+                request.abort();
+            }
+        }
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Closes all pooled connections.
+     */
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+}
@@ -23,6 +23,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.cyberneko.html.HTMLConfiguration;
@@ -42,8 +45,15 @@ public class NekoCleaner {
 
     private Logger logger = Logger.getLogger(NekoCleaner.class);
 
-    private Element configuration;
     private String outputEncoding = "UTF-8";
+    /**
+     * The patterns of the replacements to apply before cleaning.
+     */
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    /**
+     * The replacement strings, in the order of {@link #patterns}.
+     */
+    private final List<String> replacements = new ArrayList<String>();
 
 
     /**
@@ -60,8 +70,35 @@ public class NekoCleaner {
      *            cleanerconfiguration
      */
     public NekoCleaner(Element configuration, String outputEncoding) {
-        this.configuration = configuration;
+        this(configuration, outputEncoding, "");
+    }
+
+
+    /**
+     * Constructor of this class.
+     * 
+     * @param configuration
+     *            cleanerconfiguration
+     * @param path
+     *            the path of the configuration element, used in error messages
+     * @throws ToolkitConfigException
+     *             if a pattern is not valid
+     */
+    NekoCleaner(Element configuration, String outputEncoding, String path) {
         this.outputEncoding = outputEncoding;
+        if (configuration != null) {
+            Element child = Tools.getFirstChildElement(configuration);
+            while (child != null) {
+                String replaceWith = child.getAttribute("replacewith");
+                replaceWith = replaceWith.replaceAll("&lt;", "<");
+                replaceWith = replaceWith.replaceAll("&gt;", ">");
+                replaceWith = replaceWith.replaceAll("&quot;", "\"");
+                patterns.add(Parser.compilePattern(child.getAttribute("pattern"), Parser.path(path, child)));
+                replacements.add(replaceWith);
+
+                child = Tools.getNextSiblingElement(child);
+            }
+        }
     }
 
 
@@ -74,7 +111,11 @@ public class NekoCleaner {
      * @return corresponding XML DOM document node.
      */
     public Document cleanStream(InputStream in) {
+        return cleanStream(in, outputEncoding);
+    }
+
 
+    private Document cleanStream(InputStream in, String encoding) {
         org.apache.xerces.xni.parser.XMLParserConfiguration c = new HTMLConfiguration();
         // c.setFeature("http://cyberneko.org/html/features/augmentations",
         // true);
@@ -84,7 +125,7 @@ public class NekoCleaner {
         parser.setDTDSource(null);
 
         try {
-            BufferedReader inBuf = new BufferedReader(new InputStreamReader(in, outputEncoding));
+            BufferedReader inBuf = new BufferedReader(new InputStreamReader(in, encoding));
             InputSource is = new InputSource(inBuf);
             is.setEncoding("UTF-8");
             parser.parse(is);
@@ -109,33 +150,37 @@ public class NekoCleaner {
      * @return corresponding XML DOM document node.
      */
     public Document clean(InputStream in) {
+        return clean(in, outputEncoding);
+    }
+
+
+    /**
+     * Reads a webpage from an open InputStream, cleans it and returns the
+     * corresponding XML DOM document node.
+     * 
+     * @param in
+     *            open InputStream to the webpage.
+     * @param encoding
+     *            the encoding of the webpage
+     * @return corresponding XML DOM document node.
+     */
+    Document clean(InputStream in, String encoding) {
         String page = Tools.readInputStream(in);
 
-        if (configuration != null) {
-            if (Tools.getFirstChildElement(configuration) != null) {
-                page = replaceSt(page);
-                in = new ByteArrayInputStream(page.getBytes());
-            }
+        if (!patterns.isEmpty()) {
+            page = replaceSt(page);
+            in = new ByteArrayInputStream(page.getBytes());
         }
 
-        Document doc = cleanStream(in);
+        Document doc = cleanStream(in, encoding);
         return doc;
     }
 
 
     private String replaceSt(String html) {
-        Element child = Tools.getFirstChildElement(configuration);
-        while (child != null) {
-            String replaceWith = child.getAttribute("replacewith");
-            replaceWith = replaceWith.replaceAll("&lt;", "<");
-            replaceWith = replaceWith.replaceAll("&gt;", ">");
-            replaceWith = replaceWith.replaceAll("&quot;", "\"");
-            String pattern = child.getAttribute("pattern");
-            html = html.replaceAll(pattern, replaceWith);
-
-            child = Tools.getNextSiblingElement(child);
+        for (int i = 0; i < patterns.size(); i++) {
+            html = patterns.get(i).matcher(html).replaceAll(replacements.get(i));
         }
-
         return html;
     }
 }
\ No newline at end of file
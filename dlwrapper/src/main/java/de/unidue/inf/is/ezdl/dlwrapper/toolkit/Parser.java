@@ -16,20 +16,22 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
 
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -39,25 +41,31 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import de.unidue.inf.is.ezdl.dlcore.utils.StringUtils;
-import de.unidue.inf.is.ezdl.dlcore.utils.XmlUtils;
 
 
 
 /**
  * Class to parse an DOM Document Node by using XPATH.
+ * <p>
+ * The parser configuration is compiled in the constructor: the XPath
+ * expressions and regular expressions are compiled and the elements are
+ * checked. A parser does not change after construction and can be used by
+ * several threads at the same time.
  */
 
 public class Parser {
 
-    private Logger logger = Logger.getLogger(Parser.class);
+    private static final Logger logger = Logger.getLogger(Parser.class);
 
     /**
      * Parser element node of the wrapperconfiguration.
      */
     protected Element configuration;
 
-    private Map<String, Object> properties;
-    private URL baseurl;
+    /**
+     * The compiled configuration.
+     */
+    private final NodeRule rule;
 
 
     /**
@@ -65,9 +73,28 @@ public class Parser {
      * 
      * @param configuration
      *            parserconfiguration
+     * @throws ToolkitConfigException
+     *             if the configuration is not valid
      */
     public Parser(Element configuration) {
+        this(configuration, "");
+    }
+
+
+    /**
+     * Constructor of this class.
+     * 
+     * @param configuration
+     *            parserconfiguration
+     * @param path
+     *            the path of the configuration element's parent, used in
+     *            error messages
+     * @throws ToolkitConfigException
+     *             if the configuration is not valid
+     */
+    Parser(Element configuration, String path) {
         this.configuration = configuration;
+        this.rule = compileNodeRule(configuration, path);
     }
 
 
@@ -78,361 +105,681 @@ public class Parser {
      * @return
      */
     public Object parse(Document doc, Map<String, Object> properties, URL baseurl) throws SAXException {
-        this.properties = properties;
-        this.baseurl = baseurl;
-        return parse(doc, configuration);
+        return apply(rule, doc, new Run(properties, baseurl));
     }
 
 
-    private Object parse(Node contextNode, Element config) throws SAXException {
+    /**
+     * The state of one call to {@link Parser#parse(Document, Map, URL)}.
+     */
+    private static final class Run {
+
+        private final Map<String, Object> properties;
+        private final URL baseurl;
+        /**
+         * The nodes already copied into documents of their own, so verify and
+         * iterate on the same node serialize and parse it only once.
+         */
+        private final Map<Node, Document> standaloneDocs = new IdentityHashMap<Node, Document>();
+
+
+        Run(Map<String, Object> properties, URL baseurl) {
+            this.properties = properties;
+            this.baseurl = baseurl;
+        }
+
+
+        /**
+         * Returns a document that contains a copy of the node as its root, so
+         * that absolute XPath expressions refer to the node.
+         */
+        Document standaloneDoc(Node node) throws SAXException {
+            Document d = standaloneDocs.get(node);
+            if (d == null) {
+                d = Tools.xmlDoc(Tools.nodeAsString(node));
+                standaloneDocs.put(node, d);
+            }
+            return d;
+        }
+    }
+
+
+    /**
+     * A compiled element that works on a node.
+     */
+    private abstract static class NodeRule {
+
+        abstract Object apply(Node contextNode, Run run) throws SAXException;
+    }
+
+
+    /**
+     * A compiled element that works on a string.
+     */
+    private abstract static class StringRule {
+
+        abstract Object apply(String context, Run run);
+    }
+
+
+    /**
+     * A text element where a node element is expected. It always yields null.
+     */
+    private static final NodeRule IGNORED = new NodeRule() {
+
+        @Override
+        Object apply(Node contextNode, Run run) {
+            return null;
+        }
+    };
+
+
+    private static Object apply(NodeRule rule, Node contextNode, Run run) throws SAXException {
+        return (rule == null) ? null : rule.apply(contextNode, run);
+    }
+
+
+    private static Object apply(StringRule rule, String context, Run run) {
+        return (rule == null) ? context : rule.apply(context, run);
+    }
+
+
+    private static NodeRule compileNodeRule(Element config, String parentPath) {
         if (config == null) {
             return null;
         }
-        if (config.getTagName().equals("verify")) {
-            final boolean inputAsExpected = verify(contextNode, config);
-            if (!inputAsExpected) {
-                return null;
+        final String tagName = config.getTagName();
+        final String path = path(parentPath, config);
+        if (tagName.equals("verify")) {
+            final Element next = getNextSiblingElement(config);
+            if ((next == null) || next.getTagName().equals("verify")) {
+                throw new ToolkitConfigException(path + ": verify has to be followed by another element");
             }
-            config = getNextSiblingElement(config);
+            return new VerifyRule(config, path, compileNodeRule(next, parentPath));
         }
-        if (config.getTagName().equals("collect")) {
-            return collect(contextNode, config);
+        if (tagName.equals("collect")) {
+            return new CollectRule(config, path);
         }
-        if (config.getTagName().equals("concat")) {
-            return concat(contextNode, config);
+        if (tagName.equals("concat")) {
+            return new ConcatRule(config, path);
         }
-        if (config.getTagName().equals("context")) {
-            return context(contextNode);
+        if (tagName.equals("context")) {
+            return new ContextRule();
         }
-        if (config.getTagName().equals("extract")) {
-            return extract(contextNode, config);
+        if (tagName.equals("extract")) {
+            return new ExtractRule(config, parentPath);
         }
-        if (config.getTagName().equals("iterate")) {
-            return iterate(contextNode, config);
+        if (tagName.equals("iterate")) {
+            return new IterateRule(config, path);
         }
-        if (config.getTagName().equals("parse")) {
-            return parse(contextNode, getFirstChildElement(config));
+        if (tagName.equals("parse")) {
+            return new ParseRule(config, path);
         }
-        if (config.getTagName().equals("property")) {
-            return property(contextNode, config);
+        if (tagName.equals("property")) {
+            return new PropertyRule(config, parentPath);
         }
-        if (config.getTagName().equals("text")) {
-            return text(contextNode, config);
+        if (tagName.equals("text")) {
+            return new TextRule(config, path);
         }
-        if (config.getTagName().equals("url")) {
-            return url(contextNode, config);
+        if (tagName.equals("url")) {
+            return new UrlRule(config, path);
         }
-        return null;
-    }
-
-
-    private Object context(Node contextNode) {
-        logger.debug("Context: " + Tools.nodeAsString(contextNode) + "\n");
-        System.out.println("Context: " + Tools.nodeAsString(contextNode) + "\n");
-        return null;
+        if (tagName.equals("substitute") || tagName.equals("split") || tagName.equals("find")
+                        || tagName.equals("findone")) {
+            logger.warn(path + ": " + tagName + " needs a text context and is ignored here");
+            return IGNORED;
+        }
+        throw new ToolkitConfigException(path + ": unknown element");
     }
 
 
-    private Object parse(String context, Element config) {
+    private static StringRule compileStringRule(Element config, String parentPath) {
         if (config == null) {
-            return context;
+            return null;
         }
-
-        if (config.getTagName().equals("context")) {
-            logger.debug("Context: " + context + "\n");
-            System.out.println("Context: " + context + "\n");
-            return context;
+        final String tagName = config.getTagName();
+        final String path = path(parentPath, config);
+        if (tagName.equals("context")) {
+            return new ContextStringRule();
         }
-        if (config.getTagName().equals("substitute")) {
-            return substitute(context, config);
+        if (tagName.equals("substitute")) {
+            return new SubstituteRule(config, path);
         }
-        if (config.getTagName().equals("split")) {
-            return split(context, config);
+        if (tagName.equals("split")) {
+            return new SplitRule(config, path);
         }
-        if (config.getTagName().equals("find")) {
-            return find(context, config);
+        if (tagName.equals("find")) {
+            return new FindRule(config, parentPath);
         }
-        if (config.getTagName().equals("findone")) {
-            return findone(context, config);
+        if (tagName.equals("findone")) {
+            return new FindOneRule(config, parentPath);
         }
-        return context;
+        throw new ToolkitConfigException(path + ": unknown element");
     }
 
 
-    private boolean verify(Node contextNode, Element config) throws SAXException {
-        final Document d = Tools.xmlDoc(Tools.nodeAsString(contextNode));
+    private static final class VerifyRule extends NodeRule {
 
-        Element nextConfig = getFirstChildElement(config);
-        while (nextConfig != null) {
-            final String tagName = nextConfig.getTagName();
-            if ("expect".equals(tagName)) {
-                final String expected = nextConfig.getAttribute("regex");
+        private final List<Pattern> expected = new ArrayList<Pattern>();
+        private final List<NodeRule> expectedRules = new ArrayList<NodeRule>();
+        private final NodeRule next;
 
-                if (!StringUtils.isEmpty(expected)) {
 
-                    final Object o = parse(d.getDocumentElement(), getFirstChildElement(nextConfig));
+        VerifyRule(Element config, String path, NodeRule next) {
+            this.next = next;
+            Element child = getFirstChildElement(config);
+            while (child != null) {
+                final String childPath = path(path, child);
+                final String tagName = child.getTagName();
+                if ("expect".equals(tagName)) {
+                    final String regex = child.getAttribute("regex");
+                    if (StringUtils.isEmpty(regex)) {
+                        throw new ToolkitConfigException(childPath + ": regex missing");
+                    }
+                    expected.add(compilePattern(regex, childPath));
+                    expectedRules.add(compileNodeRule(getFirstChildElement(child), childPath));
+                }
+                else if ("context".equals(tagName)) {
+                    expected.add(null);
+                    expectedRules.add(null);
+                }
+                else {
+                    throw new ToolkitConfigException(childPath + ": unknown element");
+                }
+                child = getNextSiblingElement(child);
+            }
+        }
+
+
+        @Override
+        Object apply(Node contextNode, Run run) throws SAXException {
+            final Document d = run.standaloneDoc(contextNode);
+
+            for (int i = 0; i < expected.size(); i++) {
+                final Pattern pattern = expected.get(i);
+                if (pattern != null) {
+                    final Object o = Parser.apply(expectedRules.get(i), d.getDocumentElement(), run);
 
                     if (o instanceof String) {
                         final String text = (String) o;
-                        final boolean matches = (text.matches(expected));
-                        if (!matches) {
-                            logger.debug("Verification failed: '" + expected + "' not found");
-                            return false;
+                        if (!pattern.matcher(text).matches()) {
+                            logger.debug("Verification failed: '" + pattern + "' not found");
+                            return null;
                         }
                     }
                 }
+                else {
+                    printContext(contextNode);
+                }
             }
-            else if ("context".equals(tagName)) {
-                context(contextNode);
-            }
-            nextConfig = getNextSiblingElement(nextConfig);
+            return next.apply(contextNode, run);
         }
-        return true;
     }
 
 
-    private Object collect(Node contextNode, Element config) throws SAXException {
-        String sep = config.getAttribute("separator");
-        if (sep == null) {
-            sep = " ";
+    private static final class CollectRule extends NodeRule {
+
+        private final String separator;
+        private final NodeRule child;
+
+
+        CollectRule(Element config, String path) {
+            separator = config.getAttribute("separator");
+            child = compileNodeRule(getFirstChildElement(config), path);
         }
 
-        StringBuilder out = new StringBuilder();
 
-        Element nextConfig = getFirstChildElement(config);
-        Object obj = parse(contextNode, nextConfig);
+        @Override
+        Object apply(Node contextNode, Run run) throws SAXException {
+            StringBuilder out = new StringBuilder();
 
-        if (obj instanceof List<?>) {
-            List<?> list = (List<?>) obj;
-            for (Object o : list) {
-                if (o instanceof String) {
-                    String str = (String) o;
-                    if (out.length() != 0) {
-                        out.append(sep);
+            Object obj = Parser.apply(child, contextNode, run);
+
+            if (obj instanceof List<?>) {
+                List<?> list = (List<?>) obj;
+                for (Object o : list) {
+                    if (o instanceof String) {
+                        String str = (String) o;
+                        if (out.length() != 0) {
+                            out.append(separator);
+                        }
+                        out.append(str.trim());
                     }
-                    out.append(str.trim());
                 }
             }
+            return out.toString().trim();
         }
-        String result = out.toString().trim();
-        return result;
     }
 
 
-    private Object concat(Node contextNode, Element config) {
-        String xpath = config.getAttribute("xpath");
-        Node node = contextNode;
+    private static final class ConcatRule extends NodeRule {
 
-        if (xpath != null && (!xpath.equals(""))) {
-            node = (Node) XmlUtils.evaluateXPathExpression(xpath, contextNode, XPathConstants.NODE);
-            if (node == null) {
-                return null;
+        private final CompiledXPath xpath;
+        private final StringRule child;
+
+
+        ConcatRule(Element config, String path) {
+            final String expression = config.getAttribute("xpath");
+            xpath = StringUtils.isEmpty(expression) ? null : compileXPath(expression, path);
+            child = compileStringRule(getFirstChildElement(config), path);
+        }
+
+
+        @Override
+        Object apply(Node contextNode, Run run) {
+            Node node = contextNode;
+
+            if (xpath != null) {
+                try {
+                    node = xpath.evaluateNode(contextNode);
+                }
+                catch (XPathExpressionException e) {
+                    logger.error("Exception caught: ", e);
+                    node = null;
+                }
+                if (node == null) {
+                    return null;
+                }
             }
+            String text = Tools.extractAllTextNodes(node);
+
+            return Parser.apply(child, text, run);
         }
-        String text = Tools.extractAllTextNodes(node);
+    }
+
 
-        Element child = getFirstChildElement(config);
-        return (child == null) ? text : parse(text, child);
+    private static final class ContextRule extends NodeRule {
+
+        @Override
+        Object apply(Node contextNode, Run run) {
+            printContext(contextNode);
+            return null;
+        }
     }
 
 
-    private Object text(Node contextNode, Element config) {
-        String xpath = config.getAttribute("xpath");
+    private static final class ExtractRule extends NodeRule {
 
-        XPath xp = XPathFactory.newInstance().newXPath();
+        private final List<String> keys = new ArrayList<String>();
+        private final List<NodeRule> rules = new ArrayList<NodeRule>();
 
-        try {
-            String text = xp.evaluate(xpath, contextNode);
-            Element child = getFirstChildElement(config);
 
-            return (child == null) ? text : parse(text, child);
+        ExtractRule(Element config, String parentPath) {
+            while (config != null) {
+                final String path = path(parentPath, config);
+                if (!config.getTagName().equals("extract")) {
+                    throw new ToolkitConfigException(path + ": only extract elements may follow an extract element");
+                }
+                keys.add(config.getAttribute("key"));
+                rules.add(compileNodeRule(getFirstChildElement(config), path));
+                config = getNextSiblingElement(config);
+            }
         }
-        catch (XPathExpressionException e) {
-            logger.error("TransformerException in concat!", e);
+
+
+        /**
+         * Places the extracted key, values into a map.
+         */
+        @Override
+        Object apply(Node contextNode, Run run) throws SAXException {
+            Map<String, Object> result = new HashMap<String, Object>();
+            for (int i = 0; i < keys.size(); i++) {
+                Object value = Parser.apply(rules.get(i), contextNode, run);
+                if (value != null) {
+                    result.put(keys.get(i), value);
+                }
+            }
+            if (result.size() == 0) {
+                return null;
+            }
+            return result;
         }
-        return null;
     }
 
 
-    private Object substitute(String context, Element config) {
-        String pattern = config.getAttribute("pattern");
-        String replaceWith = config.getAttribute("replacewith");
-        String result = Tools.substitute(pattern, replaceWith, context);
+    private static final class IterateRule extends NodeRule {
+
+        private final CompiledXPath xpath;
+        private final NodeRule child;
+
+
+        IterateRule(Element config, String path) {
+            final String expression = config.getAttribute("xpath");
+            if (StringUtils.isEmpty(expression)) {
+                throw new ToolkitConfigException(path + ": xpath missing");
+            }
+            xpath = compileXPath(expression, path);
+            child = compileNodeRule(getFirstChildElement(config), path);
+        }
+
+
+        /**
+         * Iterates over all Nodes selected by the xpath expression.
+         */
+        @Override
+        Object apply(Node contextNode, Run run) {
+            Collection<Object> result = new ArrayList<Object>();
+
+            if (contextNode == null) {
+                logger.error("ContextNode is null in iterate");
+
+                return result;
+            }
+
+            try {
+                Document d = run.standaloneDoc(contextNode);
 
-        Element child = getFirstChildElement(config);
-        return (child == null) ? result : parse(result, child);
+                NodeList nodes = xpath.evaluateNodeSet(d.getDocumentElement());
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    Object obj = Parser.apply(child, nodes.item(i), run);
+                    if (obj != null) {
+                        result.add(obj);
+                    }
+                }
+            }
+            catch (XPathExpressionException e) {
+                logger.error("TransformerException in iterate!", e);
+            }
+            catch (Exception e) {
+                logger.error("Exception in iterate!", e);
+            }
+            return result;
+        }
     }
 
 
-    private Collection<Object> split(String context, Element config) {
-        String delimiter = config.getAttribute("delimiter");
-        Collection<Object> result = new ArrayList<Object>();
-        StringTokenizer st = new StringTokenizer(context, delimiter, false);
-        Element child = getFirstChildElement(config);
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
+    private static final class ParseRule extends NodeRule {
+
+        private final NodeRule child;
 
-            result.add((child == null) ? token : parse(token, child));
+
+        ParseRule(Element config, String path) {
+            child = compileNodeRule(getFirstChildElement(config), path);
+        }
+
+
+        @Override
+        Object apply(Node contextNode, Run run) throws SAXException {
+            return Parser.apply(child, contextNode, run);
         }
-        return (result.size() == 0) ? null : result;
     }
 
 
-    private Map<String, Object> find(String context, Element config) {
-        Map<String, Object> result = new HashMap<String, Object>();
-        while (config != null) {
-            String key = config.getAttribute("key");
-            String pattern = config.getAttribute("pattern");
-            Object value = Tools.find(pattern, context);
-            Element child = getFirstChildElement(config);
-            if (value != null && child != null) {
-                value = parse((String) value, child);
+    private static final class PropertyRule extends NodeRule {
+
+        private final List<String> names = new ArrayList<String>();
+        private final List<NodeRule> rules = new ArrayList<NodeRule>();
+        private final NodeRule next;
+
+
+        PropertyRule(Element config, String parentPath) {
+            while (config != null && config.getTagName().equals("property")) {
+                final String path = path(parentPath, config);
+                names.add(config.getAttribute("name"));
+                rules.add(compileNodeRule(getFirstChildElement(config), path));
+                config = getNextSiblingElement(config);
             }
-            if (value != null) {
-                result.put(key, value);
+            next = compileNodeRule(config, parentPath);
+        }
+
+
+        @Override
+        Object apply(Node contextNode, Run run) throws SAXException {
+            for (int i = 0; i < names.size(); i++) {
+                Object value = Parser.apply(rules.get(i), contextNode, run);
+                if (value != null) {
+                    run.properties.put(names.get(i), value);
+                }
             }
-            config = getNextSiblingElement(config);
+            return Parser.apply(next, contextNode, run);
         }
-        return (result.size() == 0) ? null : result;
     }
 
 
-    private Object findone(String context, Element config) {
-        Object result = null;
-        while (config != null) {
-            String pattern = config.getAttribute("pattern");
-            Object value = Tools.find(pattern, context);
-            Element child = getFirstChildElement(config);
-            if (value != null && child != null) {
-                value = parse((String) value, child);
+    private static final class TextRule extends NodeRule {
+
+        private final CompiledXPath xpath;
+        private final StringRule child;
+
+
+        TextRule(Element config, String path) {
+            xpath = compileXPath(config.getAttribute("xpath"), path);
+            child = compileStringRule(getFirstChildElement(config), path);
+        }
+
+
+        @Override
+        Object apply(Node contextNode, Run run) {
+            try {
+                String text = xpath.evaluateString(contextNode);
+                return Parser.apply(child, text, run);
             }
-            if (value != null) {
-                result = value;
+            catch (XPathExpressionException e) {
+                logger.error("TransformerException in concat!", e);
             }
-            config = getNextSiblingElement(config);
+            return null;
         }
-        return result;
     }
 
 
-    private URL url(Node contextNode, Element config) {
-        String xpath = config.getAttribute("xpath");
+    private static final class UrlRule extends NodeRule {
 
-        XPath xp = XPathFactory.newInstance().newXPath();
+        private final CompiledXPath xpath;
 
-        try {
-            String link = xp.evaluate(xpath, contextNode);
-            return (link == null || link.length() == 0) ? null : new URL(baseurl, link);
+
+        UrlRule(Element config, String path) {
+            xpath = compileXPath(config.getAttribute("xpath"), path);
         }
-        catch (XPathExpressionException e) {
-            logger.error("TransformerException in url!", e);
 
+
+        @Override
+        Object apply(Node contextNode, Run run) {
+            try {
+                String link = xpath.evaluateString(contextNode);
+                return (link == null || link.length() == 0) ? null : new URL(run.baseurl, link);
+            }
+            catch (XPathExpressionException e) {
+                logger.error("TransformerException in url!", e);
+
+            }
+            catch (java.net.MalformedURLException e) {
+                logger.error("MalformedURLException in url!", e);
+
+            }
+            return null;
         }
-        catch (java.net.MalformedURLException e) {
-            System.err.println("MalformedURLException in url!");
-            System.err.println(e);
-            logger.error("TransformerException in url!", e);
+    }
+
+
+    private static final class ContextStringRule extends StringRule {
 
+        @Override
+        Object apply(String context, Run run) {
+            logger.debug("Context: " + context);
+            return context;
         }
-        return null;
     }
 
 
-    /**
-     * This method iterates over all <extracts/> and places the key, values into
-     * a hashtable
-     * 
-     * @param contextNode
-     * @param config
-     * @return Hashtable with all key, value pairs
-     */
-    private Map<String, Object> extract(Node contextNode, Element config) throws SAXException {
-        Map<String, Object> result = new HashMap<String, Object>();
-        while (config != null) {
-            String key = config.getAttribute("key");
-            Object value = parse(contextNode, getFirstChildElement(config));
-            if (value != null) {
-                result.put(key, value);
-            }
-            config = getNextSiblingElement(config);
+    private static final class SubstituteRule extends StringRule {
+
+        private final Pattern pattern;
+        private final String replaceWith;
+        private final StringRule child;
+
+
+        SubstituteRule(Element config, String path) {
+            pattern = compilePattern(config.getAttribute("pattern"), path);
+            replaceWith = config.getAttribute("replacewith");
+            child = compileStringRule(getFirstChildElement(config), path);
         }
-        if (result.size() == 0) {
-            return null;
+
+
+        @Override
+        Object apply(String context, Run run) {
+            String result = pattern.matcher(context).replaceAll(replaceWith);
+            return Parser.apply(child, result, run);
+        }
+    }
+
+
+    private static final class SplitRule extends StringRule {
+
+        private final String delimiter;
+        private final StringRule child;
+
+
+        SplitRule(Element config, String path) {
+            delimiter = config.getAttribute("delimiter");
+            child = compileStringRule(getFirstChildElement(config), path);
+        }
+
+
+        @Override
+        Object apply(String context, Run run) {
+            Collection<Object> result = new ArrayList<Object>();
+            StringTokenizer st = new StringTokenizer(context, delimiter, false);
+            while (st.hasMoreTokens()) {
+                String token = st.nextToken();
+
+                result.add(Parser.apply(child, token, run));
+            }
+            return (result.size() == 0) ? null : result;
         }
-        return result;
     }
 
 
-    private Object property(Node contextNode, Element config) throws SAXException {
-        while (config != null && config.getTagName().equals("property")) {
-            String name = config.getAttribute("name");
-            Object value = parse(contextNode, getFirstChildElement(config));
-            if (value != null) {
-                properties.put(name, value);
+    private static final class FindRule extends StringRule {
+
+        private final List<String> keys = new ArrayList<String>();
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+        private final List<StringRule> rules = new ArrayList<StringRule>();
+
+
+        FindRule(Element config, String parentPath) {
+            while (config != null) {
+                final String path = path(parentPath, config);
+                if (!config.getTagName().equals("find")) {
+                    throw new ToolkitConfigException(path + ": only find elements may follow a find element");
+                }
+                keys.add(config.getAttribute("key"));
+                patterns.add(compilePattern(config.getAttribute("pattern"), path));
+                rules.add(compileStringRule(getFirstChildElement(config), path));
+                config = getNextSiblingElement(config);
             }
-            config = getNextSiblingElement(config);
         }
-        return parse(contextNode, config);
+
+
+        @Override
+        Object apply(String context, Run run) {
+            Map<String, Object> result = new HashMap<String, Object>();
+            for (int i = 0; i < keys.size(); i++) {
+                Object value = find(patterns.get(i), context);
+                if (value != null) {
+                    value = Parser.apply(rules.get(i), (String) value, run);
+                }
+                if (value != null) {
+                    result.put(keys.get(i), value);
+                }
+            }
+            return (result.size() == 0) ? null : result;
+        }
     }
 
 
-    /**
-     * This method iterates over all Nodes split by the xpath expression and
-     * returns a Vector.
-     * 
-     * @param contextNode
-     * @param config
-     * @return
-     */
-    private Collection<Object> iterate(Node contextNode, Element config) {
-        Collection<Object> result = new ArrayList<Object>();
+    private static final class FindOneRule extends StringRule {
 
-        if (contextNode == null) {
-            System.err.println("ContextNode  is null");
-            logger.error("ContexNode is null in iterate");
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+        private final List<StringRule> rules = new ArrayList<StringRule>();
 
-            return result;
+
+        FindOneRule(Element config, String parentPath) {
+            while (config != null) {
+                final String path = path(parentPath, config);
+                if (!config.getTagName().equals("findone")) {
+                    throw new ToolkitConfigException(path + ": only findone elements may follow a findone element");
+                }
+                patterns.add(compilePattern(config.getAttribute("pattern"), path));
+                rules.add(compileStringRule(getFirstChildElement(config), path));
+                config = getNextSiblingElement(config);
+            }
         }
-        if (config == null) {
-            System.err.println("Config  is null");
-            logger.error("Config is null in iterate");
+
+
+        @Override
+        Object apply(String context, Run run) {
+            Object result = null;
+            for (int i = 0; i < patterns.size(); i++) {
+                Object value = find(patterns.get(i), context);
+                if (value != null) {
+                    value = Parser.apply(rules.get(i), (String) value, run);
+                }
+                if (value != null) {
+                    result = value;
+                }
+            }
             return result;
         }
-        String xpath = config.getAttribute("xpath");
+    }
 
-        if (xpath == null) {
-            logger.error("XPath is null in iterate");
-            return result;
+
+    private static String find(Pattern pattern, String s) {
+        Matcher m = pattern.matcher(s);
+        return m.find() ? m.group() : null;
+    }
+
+
+    private static void printContext(Node contextNode) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Context: " + Tools.nodeAsString(contextNode));
+        }
+    }
+
+
+    private static CompiledXPath compileXPath(String expression, String path) {
+        if (StringUtils.isEmpty(expression)) {
+            throw new ToolkitConfigException(path + ": xpath missing");
         }
+        try {
+            return new CompiledXPath(expression);
+        }
+        catch (XPathExpressionException e) {
+            throw new ToolkitConfigException(path + ": invalid xpath '" + expression + "'", e);
+        }
+    }
+
 
+    static Pattern compilePattern(String regex, String path) {
         try {
-            Document d = Tools.xmlDoc(Tools.nodeAsString(contextNode));
+            return Pattern.compile(regex);
+        }
+        catch (PatternSyntaxException e) {
+            throw new ToolkitConfigException(path + ": invalid pattern '" + regex + "'", e);
+        }
+    }
 
-            XPath xp = XPathFactory.newInstance().newXPath();
 
-            NodeList nodes = (NodeList) xp.evaluate(xpath, d.getDocumentElement(), XPathConstants.NODESET);
-            Element nextConfig = getFirstChildElement(config);
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Object obj = parse(nodes.item(i), nextConfig);
-                if (obj != null) {
-                    result.add(obj);
+    /**
+     * Returns the path of an element for error messages, e.g.
+     * <code>/parse/iterate/extract[2]</code>.
+     */
+    static String path(String parentPath, Element element) {
+        final String tagName = element.getTagName();
+        int index = 1;
+        int count = 0;
+        for (Node n = element.getParentNode().getFirstChild(); n != null; n = n.getNextSibling()) {
+            if ((n.getNodeType() == Node.ELEMENT_NODE) && tagName.equals(((Element) n).getTagName())) {
+                count++;
+                if (n == element) {
+                    index = count;
                 }
             }
         }
-        catch (XPathExpressionException e) {
-            logger.error("TransformerException in iterate!", e);
-        }
-        catch (Exception r) {
-            r.printStackTrace();
-        }
-        // if (result.size() == 0) {
-        // return null;
-        // }
-        return result;
+        return parentPath + "/" + tagName + ((count > 1) ? "[" + index + "]" : "");
     }
 
 
-    private Element getFirstChildElement(Node element) {
+    private static Element getFirstChildElement(Node element) {
         Node child = element.getFirstChild();
         if (child != null && child.getNodeType() != Node.ELEMENT_NODE) {
             return getNextSiblingElement(child);
@@ -441,7 +788,7 @@ public class Parser {
     }
 
 
-    private Element getNextSiblingElement(Node node) {
+    private static Element getNextSiblingElement(Node node) {
         Node sibling = node.getNextSibling();
         while (sibling != null && sibling.getNodeType() != Node.ELEMENT_NODE) {
             sibling = sibling.getNextSibling();
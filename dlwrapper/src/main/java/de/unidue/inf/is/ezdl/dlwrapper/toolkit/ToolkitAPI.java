@@ -27,7 +27,6 @@ import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -136,6 +135,13 @@ import de.unidue.inf.is.ezdl.dlwrapper.toolkit.HttpClientCrawler.Method;
  * 
  * <pre>
  * </p>
+ * <h3>Compilation</h3>
+ * <p>
+ * A configuration is compiled into a {@link ToolkitConfig} when it is set. All
+ * XPath expressions and regular expressions are compiled and unknown elements
+ * are reported as a {@link ToolkitConfigException} then, so executing the
+ * configuration does not need to look at the XML again.
+ * </p>
  */
 public class ToolkitAPI {
 
@@ -160,7 +166,7 @@ public class ToolkitAPI {
 
     private String configName;
     private URL baseurl;
-    private Document configFile;
+    private ToolkitConfig config;
     private String outputEncoding = "UTF-8";
 
     /**
@@ -231,7 +237,10 @@ public class ToolkitAPI {
      *            global property hash
      */
     public Object execute(Map<String, Object> props) {
-        return execute(configFile, props);
+        if (config == null) {
+            throw new IllegalStateException("No configuration set");
+        }
+        return execute(config, props);
     }
 
 
@@ -244,6 +253,14 @@ public class ToolkitAPI {
      *            global property hash
      */
     public Object execute(Document configuration, Map<String, Object> props) {
+        if ((config != null) && (config.getDocument() == configuration)) {
+            return execute(config, props);
+        }
+        return execute(ToolkitConfig.compile(configuration), props);
+    }
+
+
+    private Object execute(ToolkitConfig configuration, Map<String, Object> props) {
         Object result = null;
         if (confLogDir == null && logDir != null && configName != null) {
             confLogDir = new File(logDir, configName);
@@ -251,10 +268,10 @@ public class ToolkitAPI {
         }
         String requestID = getID();
 
-        Element config = Tools.getFirstChildElement(configuration.getDocumentElement());
-        while (config != null) {
+        for (ToolkitConfig.Step step : configuration.getSteps()) {
+            logger.debug("Executing " + step);
             try {
-                result = execute(config, props, result, requestID);
+                result = step.execute(this, result, props, requestID);
             }
             catch (SAXException e) {
                 result = null;
@@ -262,7 +279,6 @@ public class ToolkitAPI {
             if (result == null) {
                 break;
             }
-            config = Tools.getNextSiblingElement(config);
         }
 
         if (result == null) {
@@ -287,79 +303,18 @@ public class ToolkitAPI {
      * 
      * @return id
      */
-    private synchronized String getID() {
+    private static synchronized String getID() {
         return System.currentTimeMillis() + "-" + random.nextInt() + "-" + ids++;
     }
 
 
-    private Object execute(Element config, Map<String, Object> props, Object lastresult, String requestID)
-                    throws SAXException {
-        Date start = new Date();
-        final String tagName = config.getTagName();
-        logger.debug("Executing " + tagName);
-        if (tagName.equals("document")) {
-            Object o = document(config, props);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("load")) {
-            Object o = load(config, props, requestID);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("usecookies")) {
-            if (cookies == null) {
-                cookies = new LinkedList<String>();
-            }
-            return "";
-        }
-        if (tagName.equals("fetch")) {
-            Object o = fetch(lastresult, config, props, requestID);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("noclean")) {
-            Object o = cleanXML((InputStream) lastresult, config);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("clean")) {
-            Object o = cleanHTML((InputStream) lastresult, config);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("cleanXML")) {
-            Object o = Tools.xmlDoc(Tools.cleanInputStream((InputStream) lastresult));
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("cleanOriginal")) {
-            Object o = cleanHTML((InputStream) lastresult, config);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("structured")) {
-            Object o = getStructure((Document) lastresult, props);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("parse")) {
-            Object o = parse((Document) lastresult, config, props);
-            info(tagName, o, start);
-            return o;
-        }
-        if (tagName.equals("save")) {
-            save(config, (InputStream) lastresult);
-            return null;
+    /**
+     * Makes the toolkit keep the cookies of the session.
+     */
+    void useCookies() {
+        if (cookies == null) {
+            cookies = new LinkedList<String>();
         }
-        return null;
-    }
-
-
-    private void info(String tagName, Object o, Date start) {
-        // System.out.println("ToolkitAPI.execute -> " + tagName + " took " +
-        // ((new java.util.Date()).getTime() - start.getTime()) +
-        // " milisecs. object size: " );
     }
 
 
@@ -400,7 +355,11 @@ public class ToolkitAPI {
      * @return an open InputStream to the webpage.
      */
     public InputStream load(Element config, Map<String, Object> props, String requestID) {
-        String filename = config.getAttribute("filename");
+        return load(config.getAttribute("filename"), props, requestID);
+    }
+
+
+    InputStream load(String filename, Map<String, Object> props, String requestID) {
         if (filename.startsWith("$")) {
             filename = filename.substring(1);
             filename = (String) props.get(filename);
@@ -433,23 +392,12 @@ public class ToolkitAPI {
 
 
     public Object fetch(Object lastResult, Element config, Map<String, Object> props, String requestID) {
-        int minPage;
-        int maxPage;
-        try {
-            final String minPageStr = config.getAttribute("minPage");
-            minPage = Integer.parseInt(minPageStr);
-        }
-        catch (NumberFormatException e) {
-            minPage = 0;
-        }
-        try {
-            final String maxPageStr = config.getAttribute("maxPage");
-            maxPage = Integer.parseInt(maxPageStr);
-        }
-        catch (NumberFormatException e) {
-            maxPage = Integer.MAX_VALUE;
-        }
-        if ((minPage <= pageNumber) && (pageNumber <= maxPage)) {
+        return fetch(lastResult, new FetchConfig(config, ""), props, requestID);
+    }
+
+
+    Object fetch(Object lastResult, FetchConfig config, Map<String, Object> props, String requestID) {
+        if ((config.minPage <= pageNumber) && (pageNumber <= config.maxPage)) {
             InputStream o = doFetch(config, props, requestID);
             return o;
         }
@@ -477,17 +425,19 @@ public class ToolkitAPI {
      * @return an open InputStream to the wanted webpage
      */
     public InputStream doFetch(Element config, Map<String, Object> props, String requestID) {
-        String method = config.getAttribute("method");
-        String url = config.getAttribute("url");
+        return doFetch(new FetchConfig(config, ""), props, requestID);
+    }
 
-        if (url.startsWith("$")) {
-            url = url.substring(1);
-            Object value = props.get(url);
+
+    private InputStream doFetch(FetchConfig config, Map<String, Object> props, String requestID) {
+        String url = config.url;
+
+        if (config.urlProperty != null) {
+            Object value = props.get(config.urlProperty);
             url = (value instanceof String) ? (String) value : ((URL) value).toString();
+            url = url.replaceAll(" ", "%20");
         }
 
-        url = url.replaceAll(" ", "%20");
-
         try {
             baseurl = new URL(url);
         }
@@ -495,26 +445,25 @@ public class ToolkitAPI {
             logError("Caught MalformedURLException in config!", e);
             return null;
         }
-        String encoding = config.getAttribute("encoding");
+        String encoding = config.encoding;
         setOutputEncoding(encoding);
         HttpClientCrawler crawler = getHttpClientCrawler(baseurl, encoding);
-        Element param = Tools.getFirstChildElement(config);
         List<NameValuePair> params = new ArrayList<NameValuePair>();
         List<NameValuePair> formFields = new ArrayList<NameValuePair>();
 
-        param = collectParams(props, param, params, formFields);
+        collectParams(props, config.params, params, formFields);
 
         try {
             logger.debug("Fetching \"" + baseurl + "\" ...");
             logURL(baseurl, params, requestID);
             InputStream result = null;
             // pageNumber++;
-            if (method.equalsIgnoreCase("get")) {
-                result = crawler.fetch(Method.GET, params, null);
-            }
-            else if (method.equalsIgnoreCase("post")) {
+            if (config.post) {
                 result = crawler.fetch(Method.POST, params, formFields);
             }
+            else {
+                result = crawler.fetch(Method.GET, params, null);
+            }
             baseurl = crawler.getURL();
             return result;
         }
@@ -525,32 +474,28 @@ public class ToolkitAPI {
     }
 
 
-    private Element collectParams(Map<String, Object> props, Element param, List<NameValuePair> params,
-                    List<NameValuePair> formFields) {
-        while (param != null) {
-            final String nodeName = param.getNodeName();
-            final String paramName = param.getAttribute("name");
+    private void collectParams(Map<String, Object> props, List<FetchConfig.Param> paramConfigs,
+                    List<NameValuePair> params, List<NameValuePair> formFields) {
+        for (FetchConfig.Param param : paramConfigs) {
+            final boolean form = param.form;
+            final String paramName = param.name;
             if (!StringUtils.isEmpty(paramName)) {
-                String value = param.getAttribute("value");
-                if (value.startsWith("$")) {
-                    value = value.substring(1);
-                    final Object valueObj = props.get(value);
+                if (param.property != null) {
+                    final Object valueObj = props.get(param.property);
                     if (valueObj instanceof String) {
-                        addParamToList(params, formFields, nodeName, paramName, (String) valueObj);
+                        addParamToList(params, formFields, form, paramName, (String) valueObj);
                     }
                     else if (valueObj instanceof List<?>) {
-                        addListToList(params, formFields, nodeName, paramName, valueObj);
+                        addListToList(params, formFields, form, paramName, valueObj);
                     }
                 }
                 else {
-                    addParamToList(params, formFields, nodeName, paramName, value);
+                    addParamToList(params, formFields, form, paramName, param.value);
                 }
             }
             else {
-                String value = param.getAttribute("value");
-                if (value.startsWith("$")) {
-                    value = value.substring(1);
-                    final Object valueObj = props.get(value);
+                if (param.property != null) {
+                    final Object valueObj = props.get(param.property);
                     if (valueObj instanceof String) {
                         String[] parts = ((String) valueObj).split("&");
                         for (String part : parts) {
@@ -562,43 +507,40 @@ public class ToolkitAPI {
                             }
                             if (subparts.length != 0) {
                                 subName = subparts[0];
-                                addParamToList(params, formFields, nodeName, subName, subValue);
+                                addParamToList(params, formFields, form, subName, subValue);
                             }
                         }
                     }
                 }
                 else {
-                    addParamToList(params, formFields, nodeName, paramName, value);
+                    addParamToList(params, formFields, form, paramName, param.value);
                 }
             }
-
-            param = Tools.getNextSiblingElement(param);
         }
-        return param;
     }
 
 
     @SuppressWarnings("unchecked")
-    private void addListToList(List<NameValuePair> params, List<NameValuePair> formFields, String nodeName,
+    private void addListToList(List<NameValuePair> params, List<NameValuePair> formFields, boolean form,
                     String paramName, Object valueObj) {
         List<Object> valueList = (List<Object>) valueObj;
         for (Object listVal : valueList) {
             if (listVal instanceof String) {
-                addParamToList(params, formFields, nodeName, paramName, (String) listVal);
+                addParamToList(params, formFields, form, paramName, (String) listVal);
             }
         }
     }
 
 
-    private void addParamToList(List<NameValuePair> params, List<NameValuePair> formFields, final String nodeName,
+    private void addParamToList(List<NameValuePair> params, List<NameValuePair> formFields, final boolean form,
                     final String paramName, String value) {
         NameValuePair p = new BasicNameValuePair(paramName, value);
-        if ("param".equals(nodeName)) {
-            params.add(p);
-        }
-        else if ("form".equals(nodeName)) {
+        if (form) {
             formFields.add(p);
         }
+        else {
+            params.add(p);
+        }
     }
 
 
@@ -742,15 +684,15 @@ public class ToolkitAPI {
      * @return corresponding XML DOM document node
      */
     public Document cleanHTML(InputStream in, Element config) {
+        return cleanHTML(in, new NekoCleaner(config, outputEncoding));
+    }
+
 
+    Document cleanHTML(InputStream in, NekoCleaner cleaner) {
         if (in == null) {
             return null;
         }
-        // Document doc = cleaner.cleanWithoutEntityCleaning(in);
-        NekoCleaner cleaner2 = new NekoCleaner(config, outputEncoding);
-        Document doc2 = cleaner2.clean(in);
-        // System.out.println(Tools.xmlString(doc2));
-        return doc2;
+        return cleaner.clean(in, outputEncoding);
     }
 
 
@@ -782,7 +724,11 @@ public class ToolkitAPI {
      * @return the extracted information
      */
     public Object parse(Document doc, Element config, Map<String, Object> props) throws SAXException {
-        Parser parser = new Parser(config);
+        return parse(doc, new Parser(config), props);
+    }
+
+
+    Object parse(Document doc, Parser parser, Map<String, Object> props) throws SAXException {
         if (doc == null) {
             return null;
         }
@@ -799,18 +745,32 @@ public class ToolkitAPI {
      *            an open InputStream to a webpage
      */
     public void save(Element config, InputStream in) {
-        String filename = config.getAttribute("filename");
+        save(config.getAttribute("filename"), in);
+    }
+
+
+    void save(String filename, InputStream in) {
         logger.debug("Saving \"" + filename + "\" ...");
         Tools.saveInputStream(in, filename);
     }
 
 
     public Document getConfigFile() {
-        return configFile;
+        return (config != null) ? config.getDocument() : null;
     }
 
 
+    /**
+     * Sets the configuration to execute. The configuration is read and
+     * compiled only once per URL.
+     * 
+     * @param url
+     *            the URL of the configuration
+     * @throws ToolkitConfigException
+     *             if the configuration cannot be read or is not valid
+     */
     public void setConfigFile(URL url) {
+        final ToolkitConfig compiled = ToolkitConfig.get(url);
         configName = url.getPath();
         int h = configName.lastIndexOf("/");
         if (h != -1) {
@@ -821,12 +781,20 @@ public class ToolkitAPI {
             configName = configName.substring(0, h);
         }
         confLogDir = null;
-        configFile = Tools.readXMLFile(url);
+        config = compiled;
     }
 
 
+    /**
+     * Sets the configuration to execute.
+     * 
+     * @param document
+     *            the configuration
+     * @throws ToolkitConfigException
+     *             if the configuration is not valid
+     */
     public void setConfigFile(Document document) {
-        configFile = document;
+        config = ToolkitConfig.compile(document);
     }
 
 
@@ -878,6 +846,55 @@ public class ToolkitAPI {
     }
 
 
+    /**
+     * Returns the number of the page the next execution reads. The number
+     * selects the fetch elements by their minPage and maxPage attributes.
+     * 
+     * @return the number of the next page, starting with 1
+     */
+    public int getPageNumber() {
+        return pageNumber;
+    }
+
+
+    /**
+     * Sets the number of the page the next execution reads.
+     * 
+     * @param pageNumber
+     *            the number of the next page, starting with 1
+     * @see #getPageNumber()
+     */
+    public void setPageNumber(int pageNumber) {
+        this.pageNumber = pageNumber;
+    }
+
+
+    /**
+     * Returns a copy of the cookies received so far.
+     * 
+     * @return the cookies or null if the configuration does not use cookies
+     */
+    public List<String> getSessionCookies() {
+        return (cookies != null) ? new LinkedList<String>(cookies) : null;
+    }
+
+
+    /**
+     * Continues the session of another toolkit. This allows e.g. to read the
+     * pages of a result list with several toolkits at the same time.
+     * 
+     * @param sessionCookies
+     *            the cookies of the session as returned by
+     *            {@link #getSessionCookies()}
+     * @param nextPageNumber
+     *            the number of the page the next execution reads
+     */
+    public void continueSession(List<String> sessionCookies, int nextPageNumber) {
+        cookies = (sessionCookies != null) ? new LinkedList<String>(sessionCookies) : null;
+        pageNumber = nextPageNumber;
+    }
+
+
     public void setProxy(String hostName, int portNumber) {
         this.proxyHost = hostName;
         this.proxyPort = portNumber;
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+
+
+/**
+ * A wrapper configuration, compiled into a list of steps.
+ * <p>
+ * Compiling reads every element of the configuration once, compiles the
+ * XPath expressions and regular expressions and checks that the configuration
+ * only uses known elements. Errors are reported as
+ * {@link ToolkitConfigException} that name the configuration and the element.
+ * <p>
+ * A compiled configuration does not change and can be shared by all
+ * {@link ToolkitAPI} instances. The configurations read by {@link #get(URL)}
+ * are kept for the lifetime of the class.
+ */
+public final class ToolkitConfig {
+
+    /**
+     * The configurations read from URLs, keyed by the URL.
+     */
+    private static final ConcurrentMap<String, ToolkitConfig> CONFIGS = new ConcurrentHashMap<String, ToolkitConfig>();
+
+    private final Document document;
+    private final List<Step> steps;
+
+
+    private ToolkitConfig(Document document) {
+        this.document = document;
+
+        final Element root = document.getDocumentElement();
+        final String rootPath = "/" + root.getTagName();
+        final List<Step> stepList = new ArrayList<Step>();
+        Element config = Tools.getFirstChildElement(root);
+        while (config != null) {
+            stepList.add(compileStep(config, rootPath));
+            config = Tools.getNextSiblingElement(config);
+        }
+        this.steps = Collections.unmodifiableList(stepList);
+    }
+
+
+    /**
+     * Returns the compiled configuration read from the given URL. Each URL is
+     * read and compiled only once.
+     * 
+     * @param url
+     *            the URL of the configuration
+     * @return the compiled configuration
+     * @throws ToolkitConfigException
+     *             if the configuration cannot be read or is not valid
+     */
+    public static ToolkitConfig get(URL url) {
+        if (url == null) {
+            throw new ToolkitConfigException("No configuration URL given");
+        }
+        final String key = url.toExternalForm();
+        ToolkitConfig config = CONFIGS.get(key);
+        if (config == null) {
+            final Document document = Tools.readXMLFile(url);
+            if (document == null) {
+                throw new ToolkitConfigException("Could not read configuration " + key);
+            }
+            config = compile(key, document);
+            final ToolkitConfig existing = CONFIGS.putIfAbsent(key, config);
+            if (existing != null) {
+                config = existing;
+            }
+        }
+        return config;
+    }
+
+
+    /**
+     * Compiles the given configuration.
+     * 
+     * @param document
+     *            the configuration
+     * @return the compiled configuration
+     * @throws ToolkitConfigException
+     *             if the configuration is not valid
+     */
+    public static ToolkitConfig compile(Document document) {
+        return compile(document.getDocumentURI(), document);
+    }
+
+
+    private static ToolkitConfig compile(String name, Document document) {
+        try {
+            return new ToolkitConfig(document);
+        }
+        catch (ToolkitConfigException e) {
+            throw new ToolkitConfigException("Invalid configuration " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Returns the configuration the steps were compiled from.
+     * 
+     * @return the configuration
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+
+    List<Step> getSteps() {
+        return steps;
+    }
+
+
+    /**
+     * One top-level element of the configuration.
+     */
+    abstract static class Step {
+
+        private final String name;
+
+
+        Step(String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * Executes the step.
+         * 
+         * @param api
+         *            the toolkit that executes the configuration
+         * @param lastResult
+         *            the result of the previous step or null
+         * @param props
+         *            the global property hash
+         * @param requestID
+         *            the request ID, used for logging
+         * @return the result of the step. null stops the execution.
+         */
+        abstract Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID)
+                        throws SAXException;
+
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+
+    private static Step compileStep(Element config, String rootPath) {
+        final String tagName = config.getTagName();
+        final String path = Parser.path(rootPath, config);
+        if (tagName.equals("document")) {
+            final String property = config.getAttribute("property");
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    return (Document) props.get(property);
+                }
+            };
+        }
+        if (tagName.equals("load")) {
+            final String filename = config.getAttribute("filename");
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    return api.load(filename, props, requestID);
+                }
+            };
+        }
+        if (tagName.equals("usecookies")) {
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    api.useCookies();
+                    return "";
+                }
+            };
+        }
+        if (tagName.equals("fetch")) {
+            final FetchConfig fetch = new FetchConfig(config, path);
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    return api.fetch(lastResult, fetch, props, requestID);
+                }
+            };
+        }
+        if (tagName.equals("noclean") || tagName.equals("clean") || tagName.equals("cleanOriginal")) {
+            final NekoCleaner cleaner = new NekoCleaner(config, null, path);
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    return api.cleanHTML((InputStream) lastResult, cleaner);
+                }
+            };
+        }
+        if (tagName.equals("cleanXML")) {
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID)
+                                throws SAXException {
+                    return Tools.xmlDoc(Tools.cleanInputStream((InputStream) lastResult));
+                }
+            };
+        }
+        if (tagName.equals("structured")) {
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    return api.getStructure((Document) lastResult, props);
+                }
+            };
+        }
+        if (tagName.equals("parse")) {
+            final Parser parser = new Parser(config, rootPath);
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID)
+                                throws SAXException {
+                    return api.parse((Document) lastResult, parser, props);
+                }
+            };
+        }
+        if (tagName.equals("save")) {
+            final String filename = config.getAttribute("filename");
+            return new Step(tagName) {
+
+                @Override
+                Object execute(ToolkitAPI api, Object lastResult, Map<String, Object> props, String requestID) {
+                    api.save(filename, (InputStream) lastResult);
+                    return null;
+                }
+            };
+        }
+        throw new ToolkitConfigException(path + ": unknown element");
+    }
+}
@@ -375,32 +375,49 @@ public final class Tools {
     }
 
 
+    /**
+     * Fetch non entities from string.
+     */
+    private static final Pattern NON_ENTITIES = Pattern.compile("&(?![a-zA-Z]{2,6};|#[0-9]{3,5};)");
+    /**
+     * The replacements of {@link #cleanLine(String)}, applied in this order
+     * after {@link #NON_ENTITIES}.
+     */
+    private static final String[][] CLEAN_LINE_REPLACEMENTS = {
+                    {" < ", " &lt; "},
+                    {"&#x14;", " -- "},
+                    {"&mdash;", " -- "},
+                    {"&#x6;", " "},
+                    {"&#x7;", " "},
+                    {"&#x8;", " "},
+                    {"&#124;", " "},
+                    {"&#xc;", " "},
+                    {"&#268;", "C"},
+                    {"&#263;", "c"},
+                    {"&#x1c;", " "},
+                    {"&ldquo;", ""},
+                    {"&rdquo;", ""},
+                    {"&iacut;", ""},
+                    {"&lquo;", ""},
+                    {"&rquo;", ""},
+                    {"&nbsp;", " "},
+                    {"&copy;", ""},
+    };
+    private static final Pattern[] CLEAN_LINE_PATTERNS = new Pattern[CLEAN_LINE_REPLACEMENTS.length];
+
+    static {
+        for (int i = 0; i < CLEAN_LINE_REPLACEMENTS.length; i++) {
+            CLEAN_LINE_PATTERNS[i] = Pattern.compile(CLEAN_LINE_REPLACEMENTS[i][0]);
+        }
+    }
+
+
     // TODO use cleanLine from Tools (dlcore)?
     public static String cleanLine(String xml) {
-
-        /** Fetch non entities from string */
-        String non_entities = "&(?![a-zA-Z]{2,6};|#[0-9]{3,5};)";
-
-        xml = xml.replaceAll(non_entities, "&amp;");
-        xml = xml.replaceAll(" < ", " &lt; ");
-        // xml = xml.replaceAll(" > "," &gt; ");
-        xml = xml.replaceAll("&#x14;", " -- ");
-        xml = xml.replaceAll("&mdash;", " -- ");
-        xml = xml.replaceAll("&#x6;", " ");
-        xml = xml.replaceAll("&#x7;", " ");
-        xml = xml.replaceAll("&#x8;", " ");
-        xml = xml.replaceAll("&#124;", " ");
-        xml = xml.replaceAll("&#xc;", " ");
-        xml = xml.replaceAll("&#268;", "C");
-        xml = xml.replaceAll("&#263;", "c");
-        xml = xml.replaceAll("&#x1c;", " ");
-        xml = xml.replaceAll("&ldquo;", "");
-        xml = xml.replaceAll("&rdquo;", "");
-        xml = xml.replaceAll("&iacut;", "");
-        xml = xml.replaceAll("&lquo;", "");
-        xml = xml.replaceAll("&rquo;", "");
-        xml = xml.replaceAll("&nbsp;", " ");
-        xml = xml.replaceAll("&copy;", "");
+        xml = NON_ENTITIES.matcher(xml).replaceAll("&amp;");
+        for (int i = 0; i < CLEAN_LINE_PATTERNS.length; i++) {
+            xml = CLEAN_LINE_PATTERNS[i].matcher(xml).replaceAll(CLEAN_LINE_REPLACEMENTS[i][1]);
+        }
         return xml;
     }
 
@@ -20,12 +20,16 @@ package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
@@ -100,7 +104,14 @@ import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitFaultException;
  * default is {@link #MAX_FETCH_PAGES_DEFAULT}.</li>
  * <li>{@link #MAX_FETCH_RESULTS_KEY} configures the maximum number of results
  * to get per page. The default is {@link #MAX_FETCH_RESULTS_DEFAULT}.
+ * <li>{@link #MAX_CONCURRENT_PAGES_KEY} configures how many result pages may be
+ * fetched at the same time. The default is 1. See
+ * {@link #scrapePages(StoredDocumentList, Map, Filter)}.</li>
+ * <li>{@link #MAX_CONCURRENT_DETAILS_KEY} configures how many details pages
+ * may be fetched at the same time. The default is 1.</li>
  * </ul>
+ * The limits for pages and details apply to all instances of the wrapper
+ * together.
  */
 public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper {
 
@@ -134,6 +145,29 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
      * indicated otherwise in the properties.
      */
     private static final String MAX_FETCH_RESULTS_DEFAULT = "100";
+    /**
+     * Properties key to define the number of result pages that may be fetched
+     * at the same time.
+     */
+    public static final String MAX_CONCURRENT_PAGES_KEY = "fetchConcurrentPages";
+    /**
+     * Properties key to define the number of details pages that may be fetched
+     * at the same time.
+     */
+    public static final String MAX_CONCURRENT_DETAILS_KEY = "fetchConcurrentDetails";
+    /**
+     * The default for {@link #MAX_CONCURRENT_PAGES_KEY} and
+     * {@link #MAX_CONCURRENT_DETAILS_KEY}, which keeps the fetching sequential.
+     */
+    private static final String MAX_CONCURRENT_DEFAULT = "1";
+    /**
+     * The name of the pools in {@link RemoteExecutors} that fetch result pages.
+     */
+    private static final String POOL_PAGES = "pages";
+    /**
+     * The name of the pools in {@link RemoteExecutors} that fetch details.
+     */
+    private static final String POOL_DETAILS = "details";
     /**
      * The toolkit property name used to pass the search URL to the
      * {@link ToolkitAPI}.
@@ -181,6 +215,14 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
      * The maximum number of results to fetch per query.
      */
     private int maxFetchResults;
+    /**
+     * The maximum number of result pages to fetch at the same time.
+     */
+    private int maxConcurrentPages = 1;
+    /**
+     * The maximum number of details pages to fetch at the same time.
+     */
+    private int maxConcurrentDetails = 1;
     /**
      * The strategy used to convert the incoming ezDL query into one that the
      * ACM DL understands.
@@ -257,6 +299,11 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
         setMaxErrors(maxErrorCounter);
         maxFetchPages = Integer.parseInt(props.getProperty(MAX_FETCH_PAGES_KEY, MAX_FETCH_PAGES_DEFAULT));
         maxFetchResults = Integer.parseInt(props.getProperty(MAX_FETCH_RESULTS_KEY, MAX_FETCH_RESULTS_DEFAULT));
+        maxConcurrentPages = Integer.parseInt(props.getProperty(MAX_CONCURRENT_PAGES_KEY, MAX_CONCURRENT_DEFAULT));
+        maxConcurrentDetails = Integer.parseInt(props.getProperty(MAX_CONCURRENT_DETAILS_KEY,
+                        MAX_CONCURRENT_DEFAULT));
+        // read and check the query config now instead of with the first query
+        initToolkit(getTookitConfigFileQuery(), maxErrorCounter);
     }
 
 
@@ -284,7 +331,35 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
     }
 
 
-    private StoredDocumentList process(Query query, Filter fl) {
+    /**
+     * Processes the query. If conjunctions may run concurrently, each one uses
+     * a toolkit of its own.
+     */
+    private StoredDocumentList process(final Query query, final Filter fl) {
+        if (getMaxConcurrentConjunctions() <= 1) {
+            return processWithToolkit(query, fl);
+        }
+        try {
+            return callWithToolkit(new Callable<StoredDocumentList>() {
+
+                @Override
+                public StoredDocumentList call() {
+                    // each conjunction is a new search
+                    getToolkit().setPageNumber(1);
+                    return processWithToolkit(query, fl);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private StoredDocumentList processWithToolkit(Query query, Filter fl) {
         getLogger().debug("process() " + query);
 
         initToolkit(getTookitConfigFileQuery(), maxErrorCounter);
@@ -350,6 +425,14 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
     /**
      * Collects document scraped from pages in result. How to crawl is passed in
      * toolkitProps.
+     * <p>
+     * If {@link #MAX_CONCURRENT_PAGES_KEY} allows it, the following pages are
+     * fetched speculatively as soon as the links seen so far reveal how the
+     * page URLs are built (see {@link PagingPattern}). The pages are still
+     * processed one after another. A prefetched page is only used if it was
+     * fetched with exactly the toolkit properties that the sequential
+     * algorithm would have used. Otherwise it is dropped and the page is
+     * fetched again.
      * 
      * @param result
      *            the list that takes the result items
@@ -362,24 +445,178 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
     protected void scrapePages(StoredDocumentList result, Map<String, Object> toolkitProps, Filter filter) {
         int page = 0;
         URL nextPage;
+        URL pageUrl = null;
+        PagePrefetch prefetch = null;
+        boolean prefetched = false;
 
-        do {
-            page++;
-            nextPage = null;
-            getLogger().debug("Scraping page " + page + " of max. " + maxFetchPages);
+        try {
+            do {
+                page++;
+                nextPage = null;
+                getLogger().debug("Scraping page " + page + " of max. " + maxFetchPages);
+
+                List followData;
+                final PageResult ahead = (prefetch != null) ? prefetch.take(page, toolkitProps) : null;
+                if (ahead != null) {
+                    followData = ahead.followData;
+                    if (ahead.toolkitErrors) {
+                        logError("Toolkit reported errors");
+                    }
+                }
+                else {
+                    if (prefetch != null) {
+                        getLogger().debug("Prefetched page " + page + " does not match, fetching it again");
+                        prefetch.cancel();
+                        prefetch = null;
+                        getToolkit().setPageNumber(page);
+                    }
+                    followData = toolkitExecuteList(toolkitProps);
+                }
 
-            List followData = toolkitExecuteList(toolkitProps);
+                if (followData != null) {
+                    nextPage = processFollowData(result, followData, filter);
+                    betweenPages(toolkitProps, page, nextPage);
+
+                    if (!prefetched && (maxConcurrentPages > 1) && (page + 2 <= maxFetchPages) && urlValid(nextPage)) {
+                        final PagingPattern pattern = (page == 1) ? PagingPattern.fromSecondPage(nextPage,
+                                        followData.size()) : (urlValid(pageUrl) ? PagingPattern.fromConsecutivePages(
+                                        pageUrl, page, nextPage) : null);
+                        if (pattern != null) {
+                            prefetch = new PagePrefetch(page + 1, toolkitProps, pattern);
+                            prefetched = true;
+                        }
+                    }
+                }
+                pageUrl = nextPage;
+            }
+            while (!isHalted() && (page < maxFetchPages) /*
+                                                          * && (result.size() <
+                                                          * maxFetchResults)
+                                                          */
+                            && urlValid(nextPage));
+        }
+        finally {
+            if (prefetch != null) {
+                prefetch.cancel();
+            }
+        }
+    }
+
+
+    /**
+     * The result of fetching a page on another thread.
+     */
+    private static final class PageResult {
 
-            if (followData != null) {
-                nextPage = processFollowData(result, followData, filter);
-                betweenPages(toolkitProps, page, nextPage);
+        @SuppressWarnings("rawtypes")
+        private final List followData;
+        private final boolean toolkitErrors;
+
+
+        @SuppressWarnings("rawtypes")
+        PageResult(List followData, boolean toolkitErrors) {
+            this.followData = followData;
+            this.toolkitErrors = toolkitErrors;
+        }
+    }
+
+
+    /**
+     * The pages fetched ahead of the sequential algorithm.
+     */
+    private final class PagePrefetch {
+
+        private final Map<Integer, Map<String, Object>> propsByPage = new HashMap<Integer, Map<String, Object>>();
+        private final Map<Integer, Future<PageResult>> futuresByPage = new HashMap<Integer, Future<PageResult>>();
+
+
+        /**
+         * Starts fetching the pages from firstPage up to the maximum number of
+         * pages.
+         * 
+         * @param firstPage
+         *            the first page to fetch, which is fetched with exactly the
+         *            given properties
+         * @param toolkitProps
+         *            the toolkit properties for the first page
+         * @param pattern
+         *            the pattern to predict the URLs of the pages after the
+         *            first one
+         */
+        PagePrefetch(int firstPage, Map<String, Object> toolkitProps, PagingPattern pattern) {
+            final ExecutorService pool = RemoteExecutors.get(getSourceID(), POOL_PAGES, maxConcurrentPages);
+            final List<String> cookies = getToolkit().getSessionCookies();
+            for (int page = firstPage; page <= maxFetchPages; page++) {
+                final Map<String, Object> props = new HashMap<String, Object>(toolkitProps);
+                if (page != firstPage) {
+                    try {
+                        props.put(TOOLKIT_PROP_URL, pattern.urlFor(page).toString());
+                    }
+                    catch (MalformedURLException e) {
+                        getLogger().debug("Cannot predict URL of page " + page, e);
+                        break;
+                    }
+                }
+                propsByPage.put(page, props);
+                futuresByPage.put(page, submitWithToolkit(pool, fetchPage(props, cookies, page)));
+            }
+            getLogger().debug("Prefetching pages " + propsByPage.keySet());
+        }
+
+
+        private Callable<PageResult> fetchPage(final Map<String, Object> props, final List<String> cookies,
+                        final int page) {
+            return new Callable<PageResult>() {
+
+                @Override
+                @SuppressWarnings("rawtypes")
+                public PageResult call() {
+                    getToolkit().continueSession(cookies, page);
+                    initToolkit(getTookitConfigFileQuery(), maxErrorCounter);
+                    final List followData = (List) toolkitExecuteQuietly(props);
+                    return new PageResult(followData, toolkitReportedErrors());
+                }
+            };
+        }
+
+
+        /**
+         * Returns the prefetched page if it was fetched with the given
+         * properties.
+         * 
+         * @param page
+         *            the page number
+         * @param toolkitProps
+         *            the properties the page has to be fetched with
+         * @return the page or null if the page has not been fetched with these
+         *         properties. If the wrapper is halted while waiting, a page
+         *         without data.
+         */
+        PageResult take(int page, Map<String, Object> toolkitProps) {
+            final Future<PageResult> future = futuresByPage.remove(page);
+            if ((future == null) || !toolkitProps.equals(propsByPage.get(page))) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+                return null;
+            }
+            try {
+                final PageResult result = waitFor(future);
+                return (result != null) ? result : new PageResult(null, false);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new PageResult(null, false);
             }
         }
-        while (!isHalted() && (page < maxFetchPages) /*
-                                                      * && (result.size() <
-                                                      * maxFetchResults)
-                                                      */
-                        && urlValid(nextPage));
+
+
+        void cancel() {
+            for (Future<PageResult> future : futuresByPage.values()) {
+                future.cancel(true);
+            }
+            futuresByPage.clear();
+        }
     }
 
 
@@ -502,6 +739,10 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
     @Override
     public void askDetails(StoredDocumentList incomplete) {
         getLogger().debug("askDetails() " + incomplete);
+        if ((maxConcurrentDetails > 1) && (incomplete.size() > 1)) {
+            askDetailsConcurrently(incomplete);
+            return;
+        }
         for (StoredDocument stored : incomplete) {
             boolean detailsOk = askDetails(stored);
             if (detailsOk) {
@@ -511,6 +752,53 @@ public abstract class AbstractBasicToolkitWrapper extends AbstractToolkitWrapper
     }
 
 
+    /**
+     * Fetches the details of the documents on the details pool of the remote
+     * DL. Each task uses a toolkit of its own.
+     * <p>
+     * If the wrapper is halted, the tasks still running are cancelled.
+     * 
+     * @param incomplete
+     *            the documents to fetch the details for
+     */
+    private void askDetailsConcurrently(StoredDocumentList incomplete) {
+        final ExecutorService pool = RemoteExecutors.get(getSourceID(), POOL_DETAILS, maxConcurrentDetails);
+        final List<String> cookies = getToolkit().getSessionCookies();
+        final List<StoredDocument> documents = new ArrayList<StoredDocument>(incomplete.size());
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(incomplete.size());
+        try {
+            for (final StoredDocument stored : incomplete) {
+                documents.add(stored);
+                futures.add(submitWithToolkit(pool, new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() {
+                        if (isHalted()) {
+                            return false;
+                        }
+                        getToolkit().continueSession(cookies, 1);
+                        return askDetails(stored);
+                    }
+                }));
+            }
+            for (int i = 0; (i < futures.size()) && !isHalted(); i++) {
+                if (Boolean.TRUE.equals(waitFor(futures.get(i)))) {
+                    setDetailTimestampToCurrent(documents.get(i));
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            getLogger().warn("Interrupted while waiting for details", e);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+
     private final boolean askDetails(StoredDocument document) {
         Document d = null;
         getLogger().debug("askDetails: starting ...");
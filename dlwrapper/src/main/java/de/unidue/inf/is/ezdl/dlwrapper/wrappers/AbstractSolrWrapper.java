@@ -18,39 +18,65 @@
 
 package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
 
-import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
-import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 
+import de.unidue.inf.is.ezdl.dlbackend.agent.Agent;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
 import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlcore.cache.Cache;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
 import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
-import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
 import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
 import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
-import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
-import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare.Predicate;
 import de.unidue.inf.is.ezdl.dlcore.query.QueryConverter;
 import de.unidue.inf.is.ezdl.dlcore.query.SolrQueryConverter;
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
 
 
 
 /**
  * Basic implementation for Solr-based wrappers.
+ * <p>
+ * Results are fetched in pages and details are looked up in batches of ids
+ * (see {@link SolrAccess}). The following configuration options can be set in
+ * the properties:
+ * <ul>
+ * <li>{@link #MAX_RESULTS_KEY} configures the maximum number of results to
+ * retrieve.</li>
+ * <li>{@link #PAGE_SIZE_KEY} configures the number of results requested at
+ * once.</li>
+ * <li>{@link #BATCH_SIZE_KEY} configures the number of documents whose details
+ * are requested at once.</li>
+ * </ul>
  * 
  * @author tbeckers
  */
 public abstract class AbstractSolrWrapper extends AbstractWrapper {
 
+    /**
+     * Property key for the maximum number of results.
+     */
+    public static final String MAX_RESULTS_KEY = "solr.maxresults";
+    /**
+     * Property key for the number of results requested at once.
+     */
+    public static final String PAGE_SIZE_KEY = "solr.pagesize";
+    /**
+     * Property key for the number of documents whose details are requested at
+     * once.
+     */
+    public static final String BATCH_SIZE_KEY = "solr.batchsize";
     /**
      * The maximum number of results this wrapper should retrieve.
      */
@@ -67,6 +93,14 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
      * The Solr server that is wrapped.
      */
     private SolrServer server;
+    /**
+     * The access to the server with the page and batch sizes configured.
+     */
+    private SolrAccess solr;
+    /**
+     * The maximum number of results.
+     */
+    private int maxResults = MAX_RESULTS;
 
 
     /**
@@ -75,7 +109,8 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
     public AbstractSolrWrapper() {
         super();
         queryConverter = new SolrQueryConverter(getFieldMapping());
-        server = createNewSolrServer();
+        server = SolrAccess.getServer(getSolrServerUrl());
+        solr = new SolrAccess(server, SolrAccess.DEFAULT_PAGE_SIZE, SolrAccess.DEFAULT_BATCH_SIZE);
     }
 
 
@@ -89,6 +124,18 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
         super();
         queryConverter = new SolrQueryConverter(getFieldMapping());
         server = solrServer;
+        solr = new SolrAccess(server, SolrAccess.DEFAULT_PAGE_SIZE, SolrAccess.DEFAULT_BATCH_SIZE);
+    }
+
+
+    @Override
+    public void init(Agent agent, Cache cache) {
+        super.init(agent, cache);
+        Properties props = agent.getProperties();
+        maxResults = PropertiesUtils.getIntProperty(props, MAX_RESULTS_KEY, MAX_RESULTS);
+        int pageSize = PropertiesUtils.getIntProperty(props, PAGE_SIZE_KEY, SolrAccess.DEFAULT_PAGE_SIZE);
+        int batchSize = PropertiesUtils.getIntProperty(props, BATCH_SIZE_KEY, SolrAccess.DEFAULT_BATCH_SIZE);
+        solr = new SolrAccess(server, pageSize, batchSize);
     }
 
 
@@ -116,24 +163,6 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
     protected abstract Map<Field, String> getFieldMapping();
 
 
-    /**
-     * Creates a new Solr server connection.
-     * 
-     * @return a new Solr server connection
-     */
-    private SolrServer createNewSolrServer() {
-        try {
-            CommonsHttpSolrServer s = new CommonsHttpSolrServer(getSolrServerUrl());
-            s.setConnectionTimeout(10000);
-            s.setSoTimeout(2000);
-            return s;
-        }
-        catch (MalformedURLException ex) {
-            throw new IllegalStateException(ex);
-        }
-    }
-
-
     /**
      * Returns the URL of the Solr server.
      * 
@@ -150,7 +179,7 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
      *         wrapper
      */
     protected int getMaxNumberOfResults() {
-        return MAX_RESULTS;
+        return maxResults;
     }
 
 
@@ -160,14 +189,8 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
 
         getLogger().info("Query is: " + solrQueryString);
 
-        SolrQuery query = new SolrQuery();
-        query.setIncludeScore(true);
-        query.setRows(getMaxNumberOfResults());
-        query.setQuery(solrQueryString);
-
         try {
-            QueryResponse response = server.query(query);
-            SolrDocumentList hits = response.getResults();
+            SolrDocumentList hits = solr.query(solrQueryString, getMaxNumberOfResults(), this);
             StoredDocumentList result = new StoredDocumentList();
             for (int i = 0; (i < hits.size()) && !isHalted(); i++) {
                 SolrDocument doc = hits.get(i);
@@ -198,18 +221,8 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
      * @return The Solr document with the specified id
      */
     protected final SolrDocument retrieveSolrDocumentForId(String id, Field field) {
-        SolrQuery query = new SolrQuery();
-        query.setIncludeScore(true);
-        query.setRows(1);
-        QueryNodeCompare queryNodeCompare = new QueryNodeCompare(field, Predicate.EQ, id);
-        query.setQuery(queryConverter.convert(new DefaultQuery(queryNodeCompare)));
-        QueryResponse response;
         try {
-            response = server.query(query);
-            SolrDocumentList hits = response.getResults();
-            if (hits.size() == 1) {
-                return hits.get(0);
-            }
+            return solr.fetchByIds(getIndexFieldName(field), Collections.singleton(id), this).get(id);
         }
         catch (SolrServerException e) {
             getLogger().error(e.getMessage(), e);
@@ -218,6 +231,19 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
     }
 
 
+    /**
+     * Returns the name of a field in the Solr index.
+     * 
+     * @param field
+     *            the ezDL field
+     * @return the name of the field in the index
+     */
+    private String getIndexFieldName(Field field) {
+        String name = getFieldMapping().get(field);
+        return (name != null) ? name : field.toString();
+    }
+
+
     protected final int notNullValue(Integer number) {
         return number == null ? 0 : number;
     }
@@ -241,11 +267,34 @@ public abstract class AbstractSolrWrapper extends AbstractWrapper {
 
     @Override
     public void askDetails(StoredDocumentList incomplete) {
+        Map<String, List<StoredDocument>> documentsById = new LinkedHashMap<String, List<StoredDocument>>();
         for (StoredDocument stored : incomplete) {
             String id = getDetailInfo(stored);
             if (id != null) {
-                SolrDocument solrDocument = retrieveSolrDocumentForId(id, getIdField());
-                if (solrDocument != null) {
+                List<StoredDocument> documents = documentsById.get(id);
+                if (documents == null) {
+                    documents = new ArrayList<StoredDocument>(1);
+                    documentsById.put(id, documents);
+                }
+                documents.add(stored);
+            }
+        }
+        if (documentsById.isEmpty()) {
+            return;
+        }
+
+        Map<String, SolrDocument> found;
+        try {
+            found = solr.fetchByIds(getIndexFieldName(getIdField()), documentsById.keySet(), this);
+        }
+        catch (SolrServerException e) {
+            getLogger().error(e.getMessage(), e);
+            return;
+        }
+        for (Map.Entry<String, List<StoredDocument>> entry : documentsById.entrySet()) {
+            SolrDocument solrDocument = found.get(entry.getKey());
+            if (solrDocument != null) {
+                for (StoredDocument stored : entry.getValue()) {
                     Document document = stored.getDocument();
                     updateDocumentDetails(solrDocument, document);
                     setDetailTimestampToCurrent(stored);
@@ -23,10 +23,21 @@ import java.net.URL;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import de.unidue.inf.is.ezdl.dlcore.query.QueryConverter;
+import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
 import de.unidue.inf.is.ezdl.dlwrapper.toolkit.HttpClientCrawler;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.HttpFetcher;
 import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitAPI;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitConfigException;
 
 
 
@@ -43,6 +54,16 @@ import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitAPI;
  * special version that implements the general case where there is a query form
  * to use for searching, a (possibly multi-paged) result list and a detail page
  * for an item.
+ * <p>
+ * A {@link ToolkitAPI} is stateful, so tasks that run on other threads use
+ * their own toolkits: {@link #submitWithToolkit(ExecutorService, Callable)}
+ * binds a toolkit to the thread for the duration of the task, and all toolkit
+ * methods of this class use the bound toolkit. The toolkits are kept and
+ * reused by later tasks of the same wrapper instance.
+ * <p>
+ * {@link #MIN_REQUEST_INTERVAL_KEY} configures the minimum time between two
+ * toolkit executions against the remote DL, shared by all instances of the
+ * wrapper.
  * 
  * @see AbstractBasicToolkitWrapper
  */
@@ -56,15 +77,34 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      * Properties key for the proxy port.
      */
     public static final String PROXY_HOST_KEY = "toolkit.proxy.host";
+    /**
+     * Properties key for the minimum number of milliseconds between two
+     * toolkit executions against the remote DL. The default is 0, i.e. no
+     * limit.
+     */
+    public static final String MIN_REQUEST_INTERVAL_KEY = "minRequestIntervalMs";
+    /**
+     * How often to check {@link #isHalted()} while waiting for a task.
+     */
+    private static final long HALT_CHECK_INTERVAL_MS = 100;
     /**
      * Where to find the config XML files for the wrappers.
      */
     private static final String WRAPPER_CONFIG_PATH = "/wrapperconfigs/";
 
     /**
-     * Reference to the toolkit that handles Document queries.
+     * The toolkit used by the thread that processes the request.
      */
-    private ToolkitAPI toolkit;
+    private final ToolkitSlot mainToolkit;
+    /**
+     * The toolkit bound to the current thread by
+     * {@link #callWithToolkit(Callable)}, if any.
+     */
+    private final ThreadLocal<ToolkitSlot> boundToolkit = new ThreadLocal<ToolkitSlot>();
+    /**
+     * The toolkits not bound to any thread at the moment.
+     */
+    private final Queue<ToolkitSlot> spareToolkits = new ConcurrentLinkedQueue<ToolkitSlot>();
     /**
      * If {@link #maxErrorCounter} errors occur during the processing of one
      * query, the wrapper aborts processing the query and throws a
@@ -84,25 +124,57 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      *            the toolkit to use
      */
     public AbstractToolkitWrapper(ToolkitAPI toolkit) {
-        this.toolkit = toolkit;
+        this.mainToolkit = new ToolkitSlot(toolkit);
+    }
+
+
+    /**
+     * A toolkit together with the name of the config it has read.
+     */
+    private static final class ToolkitSlot {
+
+        private final ToolkitAPI toolkit;
+        private String configFilename;
+
+
+        ToolkitSlot(ToolkitAPI toolkit) {
+            this.toolkit = toolkit;
+        }
     }
 
 
     /**
      * Initializes the {@link ToolkitAPI} with a config defined by the given
      * URL.
+     * <p>
+     * The config is only read if the toolkit has not read the same config
+     * before. The error counter of the toolkit is reset in any case.
      * 
      * @param url
      *            the URL that points to the toolkit config
+     * @throws ToolkitConfigException
+     *             if the config cannot be read or is not valid
      */
     protected void initToolkit(String configFilename, int maxToolkitErrors) {
-        URL configURL = this.getClass().getResource(WRAPPER_CONFIG_PATH + configFilename);
-
-        toolkit.setConfigFile(configURL);
+        final ToolkitSlot slot = currentToolkit();
+        final ToolkitAPI toolkit = slot.toolkit;
         toolkit.setMaxErrorCounter(maxToolkitErrors);
         toolkit.resetErrorCounter();
+        if (configFilename.equals(slot.configFilename)) {
+            return;
+        }
+
+        URL configURL = this.getClass().getResource(WRAPPER_CONFIG_PATH + configFilename);
+        try {
+            toolkit.setConfigFile(configURL);
+        }
+        catch (ToolkitConfigException e) {
+            throw new ToolkitConfigException("Toolkit config " + configFilename + ": " + e.getMessage(), e);
+        }
+        slot.configFilename = configFilename;
 
         final Properties props = getProperties();
+        HttpFetcher.init(props);
         String proxyHost = props.getProperty(PROXY_HOST_KEY);
         String proxyPortStr = props.getProperty(PROXY_PORT_KEY);
         if (proxyHost != null) {
@@ -127,11 +199,7 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      */
     @SuppressWarnings("rawtypes")
     protected List toolkitExecuteList(Map<String, Object> toolkitProps) {
-        List followData = (List) toolkit.execute(toolkitProps);
-        if (toolkit.getErrorCounter() != 0) {
-            logError("Toolkit reported errors");
-        }
-        return followData;
+        return (List) toolkitExecute(toolkitProps);
     }
 
 
@@ -146,11 +214,7 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      */
     @SuppressWarnings("rawtypes")
     protected Map toolkitExecuteMap(Map<String, Object> toolkitProps) {
-        Map followData = (Map) toolkit.execute(toolkitProps);
-        if (toolkit.getErrorCounter() != 0) {
-            logError("Toolkit reported errors");
-        }
-        return followData;
+        return (Map) toolkitExecute(toolkitProps);
     }
 
 
@@ -162,14 +226,176 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      * @return the Object returned by the toolkit
      */
     protected Object toolkitExecute(Map<String, Object> toolkitProps) {
-        Object followData = toolkit.execute(toolkitProps);
-        if (toolkit.getErrorCounter() != 0) {
+        Object followData = toolkitExecuteQuietly(toolkitProps);
+        if (toolkitReportedErrors()) {
             logError("Toolkit reported errors");
         }
         return followData;
     }
 
 
+    /**
+     * Executes the toolkit without counting the errors it reports. Waits for
+     * the rate limit of the remote DL first.
+     * 
+     * @param toolkitProps
+     *            the properties to define what the toolkit is supposed to do
+     * @return the Object returned by the toolkit or null if the thread was
+     *         interrupted while waiting
+     * @see #toolkitReportedErrors()
+     */
+    Object toolkitExecuteQuietly(Map<String, Object> toolkitProps) {
+        try {
+            RemoteRateLimiter.get(getSourceID(), getMinRequestIntervalMs()).acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return getToolkit().execute(toolkitProps);
+    }
+
+
+    /**
+     * Returns if the toolkit reported errors since it was initialized.
+     * 
+     * @return true, if there were errors
+     */
+    boolean toolkitReportedErrors() {
+        return getToolkit().getErrorCounter() != 0;
+    }
+
+
+    /**
+     * Returns the minimum time between two toolkit executions against the
+     * remote DL.
+     * <p>
+     * This default implementation reads {@link #MIN_REQUEST_INTERVAL_KEY} from
+     * the properties.
+     * 
+     * @return the minimum interval in milliseconds. 0 means no limit.
+     */
+    protected long getMinRequestIntervalMs() {
+        final Properties props = getProperties();
+        if (props == null) {
+            return 0;
+        }
+        return PropertiesUtils.getIntProperty(props, MIN_REQUEST_INTERVAL_KEY, 0);
+    }
+
+
+    /**
+     * Returns the toolkit of the current thread.
+     * 
+     * @return the toolkit bound to the thread or the main toolkit
+     */
+    protected ToolkitAPI getToolkit() {
+        return currentToolkit().toolkit;
+    }
+
+
+    private ToolkitSlot currentToolkit() {
+        final ToolkitSlot bound = boundToolkit.get();
+        return (bound != null) ? bound : mainToolkit;
+    }
+
+
+    /**
+     * Creates a toolkit for tasks that run on other threads.
+     * 
+     * @return a new toolkit
+     */
+    protected ToolkitAPI newToolkit() {
+        return new ToolkitAPI();
+    }
+
+
+    /**
+     * Runs the task with a toolkit of its own bound to the current thread.
+     * 
+     * @param task
+     *            the task to run
+     * @return the result of the task
+     * @throws Exception
+     *             what the task throws
+     */
+    protected <T> T callWithToolkit(Callable<T> task) throws Exception {
+        ToolkitSlot slot = spareToolkits.poll();
+        if (slot == null) {
+            slot = new ToolkitSlot(newToolkit());
+        }
+        final ToolkitSlot previous = boundToolkit.get();
+        boundToolkit.set(slot);
+        try {
+            return task.call();
+        }
+        finally {
+            if (previous != null) {
+                boundToolkit.set(previous);
+            }
+            else {
+                boundToolkit.remove();
+            }
+            spareToolkits.offer(slot);
+        }
+    }
+
+
+    /**
+     * Submits the task to the pool. The task runs with a toolkit of its own.
+     * 
+     * @param pool
+     *            the pool to run the task in
+     * @param task
+     *            the task to run
+     * @return the future of the task
+     * @see #callWithToolkit(Callable)
+     */
+    protected <T> Future<T> submitWithToolkit(ExecutorService pool, final Callable<T> task) {
+        return pool.submit(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                return callWithToolkit(task);
+            }
+        });
+    }
+
+
+    /**
+     * Waits for a task and returns its result, rethrowing what the task threw.
+     * 
+     * @param future
+     *            the future of the task
+     * @return the result of the task or null if the wrapper was halted while
+     *         waiting. The task is cancelled then.
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     */
+    protected <T> T waitFor(Future<T> future) throws InterruptedException {
+        while (!isHalted()) {
+            try {
+                return future.get(HALT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                // check halted and wait again
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        future.cancel(true);
+        return null;
+    }
+
+
     private void initLogDir(ToolkitAPI toolkit) {
         final Properties props = getProperties();
         final String log = props.getProperty("log");
@@ -234,7 +460,7 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      * 
      * @throws WrapperEmergencyException
      */
-    protected void increaseErrorCounter() {
+    protected synchronized void increaseErrorCounter() {
         errorCounter++;
         if (errorCounter > maxErrorCounter) {
             throw new WrapperEmergencyException();
@@ -247,7 +473,7 @@ public abstract class AbstractToolkitWrapper extends AbstractWrapper {
      * 
      * @return the error counter
      */
-    public int getErrorCounter() {
+    public synchronized int getErrorCounter() {
         return errorCounter;
     }
 
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +30,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -45,6 +52,7 @@ import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
 import de.unidue.inf.is.ezdl.dlcore.data.wrappers.WrapperInfo;
 import de.unidue.inf.is.ezdl.dlcore.utils.IOUtils;
 import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
+import de.unidue.inf.is.ezdl.dlwrapper.ResultCache;
 import de.unidue.inf.is.ezdl.dlwrapper.Wrapper;
 
 
@@ -68,6 +76,23 @@ public abstract class AbstractWrapper implements Wrapper {
      */
     private static final int DEFAULT_TIMEOUT_SEC = 20;
 
+    /**
+     * Properties key for the maximum number of conjunctions that may be sent to
+     * the remote DL at the same time.
+     * 
+     * @see #getMaxConcurrentConjunctions()
+     */
+    public static final String MAX_CONCURRENT_CONJUNCTIONS_KEY = "maxConcurrentConjunctions";
+    /**
+     * The default for {@link #MAX_CONCURRENT_CONJUNCTIONS_KEY}, which keeps the
+     * conjunctions sequential.
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_CONJUNCTIONS = 1;
+    /**
+     * How often to check {@link #isHalted()} while waiting for conjunctions.
+     */
+    private static final long HALT_CHECK_INTERVAL_MS = 100;
+
     /**
      * The logger.
      */
@@ -134,7 +159,7 @@ public abstract class AbstractWrapper implements Wrapper {
     /**
      * If true, signals that the wrapper should abort the ongoing process.
      */
-    private boolean cancelProcessing;
+    private volatile boolean cancelProcessing;
     /**
      * The number of parser errors encountered. If this count exceeds
      * {@link #MAX_PARSER_ERRORS}, the wrapper shuts itself down.
@@ -343,18 +368,23 @@ public abstract class AbstractWrapper implements Wrapper {
         StoredDocumentList results = null;
 
         documentQuery.getQuery().asDNF();
+        final String cacheKey = ResultCache.key(documentQuery);
 
         if (usingCache && (cache != null)) {
-            results = (StoredDocumentList) cache.get(documentQuery.hashCode());
+            results = (StoredDocumentList) cache.get(cacheKey);
         }
 
         if (results == null) {
             results = retrieveMetadata(documentQuery);
-        }
 
-        if ((results != null) && (cache != null)) {
-            cache.put(documentQuery.hashCode(), results);
-            cache.flush();
+            if (results == null) {
+                // failed, so don't cache the result
+                results = new StoredDocumentList();
+            }
+            else if ((cache != null) && !isHalted()) {
+                cache.put(cacheKey, results);
+                cache.flush();
+            }
         }
 
         return results;
@@ -367,7 +397,8 @@ public abstract class AbstractWrapper implements Wrapper {
      * 
      * @param query
      *            the query to process.
-     * @return the retrieved document list, which might be empty but never null
+     * @return the retrieved document list, which might be empty, or null if
+     *         the wrapper failed
      */
     private StoredDocumentList retrieveMetadata(DocumentQuery query) {
         StoredDocumentList documentList = null;
@@ -378,13 +409,13 @@ public abstract class AbstractWrapper implements Wrapper {
         }
         catch (WrapperTemporaryException e) {
             logger.error("Temporary exception caught. Returning empty result.", e);
-            documentList = new StoredDocumentList();
+            documentList = null;
         }
         catch (WrapperEmergencyException e) {
             logger.error("Emergency exception caught. Shutting down.", e);
             halt();
             agent.halt();
-            documentList = new StoredDocumentList();
+            documentList = null;
         }
 
         return documentList;
@@ -470,6 +501,10 @@ public abstract class AbstractWrapper implements Wrapper {
     /**
      * Runs {@link #processConjunction(Conjunction)} on each conjunction in the
      * query.
+     * <p>
+     * If {@link #getMaxConcurrentConjunctions()} allows it, the conjunctions
+     * run concurrently on the pool that {@link RemoteExecutors} keeps for the
+     * remote DL.
      * 
      * @param documentQuery
      *            a query in disjunctive normal form.
@@ -478,13 +513,18 @@ public abstract class AbstractWrapper implements Wrapper {
     private StoredDocumentList processConjunctions(DocumentQuery documentQuery) {
         logger.debug("Process conjunctions running");
 
-        final StoredDocumentList results = new StoredDocumentList();
         final Query query = documentQuery.getQuery();
 
         final List<QueryNodeBool> conjunctions = query.asConjunctionList();
 
         final int maxI = Math.min(conjunctions.size(), getMaxConjunctionCount());
-        for (int i = 0; (i < maxI); i++) {
+        final int maxConcurrent = getMaxConcurrentConjunctions();
+        if ((maxI > 1) && (maxConcurrent > 1)) {
+            return processConjunctionsConcurrently(conjunctions.subList(0, maxI), maxConcurrent);
+        }
+
+        final StoredDocumentList results = new StoredDocumentList();
+        for (int i = 0; (i < maxI) && !isHalted(); i++) {
             final QueryNodeBool conjunction = conjunctions.get(i);
             final StoredDocumentList docs = process(conjunction);
             if (docs != null) {
@@ -495,6 +535,109 @@ public abstract class AbstractWrapper implements Wrapper {
     }
 
 
+    /**
+     * Submits the conjunctions to the pool of the remote DL and merges the
+     * results in the order in which the conjunctions complete.
+     * <p>
+     * If the wrapper is halted, the conjunctions still running are cancelled
+     * and the results collected so far are returned.
+     * 
+     * @param conjunctions
+     *            the conjunctions to process
+     * @param maxConcurrent
+     *            the maximum number of conjunctions to run against the remote
+     *            DL at the same time
+     * @return the result list, which is never null
+     */
+    private StoredDocumentList processConjunctionsConcurrently(List<QueryNodeBool> conjunctions, int maxConcurrent) {
+        final StoredDocumentList results = new StoredDocumentList();
+        final CompletionService<StoredDocumentList> completion = new ExecutorCompletionService<StoredDocumentList>(
+                        RemoteExecutors.get(getSourceID(), maxConcurrent));
+        final List<Future<StoredDocumentList>> futures = new ArrayList<Future<StoredDocumentList>>(
+                        conjunctions.size());
+        try {
+            for (final QueryNodeBool conjunction : conjunctions) {
+                futures.add(completion.submit(new Callable<StoredDocumentList>() {
+
+                    @Override
+                    public StoredDocumentList call() {
+                        return isHalted() ? null : process(conjunction);
+                    }
+                }));
+            }
+
+            int outstanding = futures.size();
+            while ((outstanding > 0) && !isHalted()) {
+                final Future<StoredDocumentList> done = completion.poll(HALT_CHECK_INTERVAL_MS,
+                                TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    outstanding--;
+                    final StoredDocumentList docs = getConjunctionResult(done);
+                    if (docs != null) {
+                        results.merge(docs);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for conjunctions", e);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            for (Future<StoredDocumentList> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * Returns the result of a finished conjunction, rethrowing what
+     * {@link #process(QueryNodeBool)} threw so that
+     * {@link #retrieveMetadata(DocumentQuery)} can handle it.
+     */
+    private static StoredDocumentList getConjunctionResult(Future<StoredDocumentList> future)
+                    throws InterruptedException {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    /**
+     * Returns the maximum number of conjunctions that are sent to the remote DL
+     * at the same time if the wrapper runs in mode
+     * {@link WrapperMode#CONJUNCTIONS}.
+     * <p>
+     * The limit applies to all wrapper instances of the same remote DL
+     * together. This default implementation reads
+     * {@link #MAX_CONCURRENT_CONJUNCTIONS_KEY} from the properties and returns 1
+     * - i.e. sequential processing - if the key is not set. Wrappers should
+     * only raise the limit if {@link #process(QueryNodeBool)} is safe to be
+     * called concurrently.
+     * 
+     * @return the maximum number of concurrent conjunctions
+     */
+    protected int getMaxConcurrentConjunctions() {
+        if ((agent == null) || (agent.getProperties() == null)) {
+            return DEFAULT_MAX_CONCURRENT_CONJUNCTIONS;
+        }
+        return PropertiesUtils.getIntProperty(agent.getProperties(), MAX_CONCURRENT_CONJUNCTIONS_KEY,
+                        DEFAULT_MAX_CONCURRENT_CONJUNCTIONS);
+    }
+
+
     /**
      * Returns the maximum number of conjunctions a wrapper should handle if
      * wrapper runs in mode {@link WrapperMode#CONJUNCTIONS} .
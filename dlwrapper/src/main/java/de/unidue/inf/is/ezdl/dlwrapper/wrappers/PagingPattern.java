@@ -0,0 +1,235 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Predicts the URLs of result pages from the URLs seen so far.
+ * <p>
+ * A pattern is a single numeric URL parameter that grows by a fixed step from
+ * page to page, e.g. a page number or the offset of the first result. The
+ * predictions are guesses that the caller has to check against the real links.
+ */
+final class PagingPattern {
+
+    /**
+     * Longest numeric parameter value considered.
+     */
+    private static final int MAX_DIGITS = 9;
+
+    /**
+     * The URL text before the value.
+     */
+    private final String prefix;
+    /**
+     * The URL text after the value.
+     */
+    private final String suffix;
+    /**
+     * The page the value belongs to.
+     */
+    private final int page;
+    /**
+     * The value of the parameter on {@link #page}.
+     */
+    private final long value;
+    /**
+     * The difference of the value between two pages.
+     */
+    private final long step;
+
+
+    /**
+     * A numeric parameter value within a URL.
+     */
+    private static final class Param {
+
+        private final String name;
+        private final int start;
+        private final int end;
+        private final long value;
+
+
+        Param(String name, int start, int end, long value) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+
+
+    private PagingPattern(String url, Param param, int page, long step) {
+        this.prefix = url.substring(0, param.start);
+        this.suffix = url.substring(param.end);
+        this.page = page;
+        this.value = param.value;
+        this.step = step;
+    }
+
+
+    /**
+     * Detects the pattern from the link to the second page and the number of
+     * results on the first one.
+     * <p>
+     * The parameter must either be 2 - a page number - or equal to the number
+     * of results, or one more - an offset. If more than one parameter fits, no
+     * pattern is returned.
+     * 
+     * @param secondPage
+     *            the URL of the second page
+     * @param resultsPerPage
+     *            the number of results on the first page
+     * @return the pattern or null if none was found
+     */
+    static PagingPattern fromSecondPage(URL secondPage, int resultsPerPage) {
+        final String url = secondPage.toString();
+        Param found = null;
+        long foundStep = 0;
+        for (Param param : numericParams(url)) {
+            long step = 0;
+            if (param.value == 2) {
+                step = 1;
+            }
+            if ((resultsPerPage > 0) && ((param.value == resultsPerPage) || (param.value == resultsPerPage + 1))) {
+                if ((step != 0) && (step != resultsPerPage)) {
+                    return null;
+                }
+                step = resultsPerPage;
+            }
+            if (step != 0) {
+                if (found != null) {
+                    return null;
+                }
+                found = param;
+                foundStep = step;
+            }
+        }
+        return (found != null) ? new PagingPattern(url, found, 2, foundStep) : null;
+    }
+
+
+    /**
+     * Detects the pattern from the URLs of two consecutive pages.
+     * <p>
+     * The URLs must differ in the value of exactly one numeric parameter, and
+     * the value must grow.
+     * 
+     * @param pageUrl
+     *            the URL of a page
+     * @param page
+     *            the number of that page
+     * @param nextPageUrl
+     *            the URL of the page after it
+     * @return the pattern or null if none was found
+     */
+    static PagingPattern fromConsecutivePages(URL pageUrl, int page, URL nextPageUrl) {
+        final String first = pageUrl.toString();
+        final String second = nextPageUrl.toString();
+        final List<Param> firstParams = numericParams(first);
+        final List<Param> secondParams = numericParams(second);
+        if (firstParams.size() != secondParams.size()) {
+            return null;
+        }
+        int changed = -1;
+        for (int i = 0; i < firstParams.size(); i++) {
+            final Param a = firstParams.get(i);
+            final Param b = secondParams.get(i);
+            if (!a.name.equals(b.name)) {
+                return null;
+            }
+            if (a.value != b.value) {
+                if ((changed != -1) || (b.value < a.value)) {
+                    return null;
+                }
+                changed = i;
+            }
+        }
+        if (changed == -1) {
+            return null;
+        }
+        final Param a = firstParams.get(changed);
+        final Param b = secondParams.get(changed);
+        if (!first.substring(0, a.start).equals(second.substring(0, b.start))
+                        || !first.substring(a.end).equals(second.substring(b.end))) {
+            return null;
+        }
+        return new PagingPattern(second, b, page + 1, b.value - a.value);
+    }
+
+
+    /**
+     * Returns the predicted URL of the given page.
+     * 
+     * @param targetPage
+     *            the page number
+     * @return the URL
+     * @throws MalformedURLException
+     *             if the predicted URL is not valid
+     */
+    URL urlFor(int targetPage) throws MalformedURLException {
+        return new URL(prefix + (value + (targetPage - page) * step) + suffix);
+    }
+
+
+    private static List<Param> numericParams(String url) {
+        final List<Param> params = new ArrayList<Param>();
+        int pos = url.indexOf('?');
+        if (pos == -1) {
+            return params;
+        }
+        final int fragment = url.indexOf('#');
+        final int end = (fragment == -1) ? url.length() : fragment;
+        pos++;
+        while (pos < end) {
+            int next = url.indexOf('&', pos);
+            if ((next == -1) || (next > end)) {
+                next = end;
+            }
+            final int eq = url.indexOf('=', pos);
+            if ((eq != -1) && (eq < next)) {
+                final int valueStart = eq + 1;
+                final int length = next - valueStart;
+                if ((length > 0) && (length <= MAX_DIGITS) && isDigits(url, valueStart, next)) {
+                    params.add(new Param(url.substring(pos, eq), valueStart, next, Long.parseLong(url.substring(
+                                    valueStart, next))));
+                }
+            }
+            pos = next + 1;
+        }
+        return params;
+    }
+
+
+    private static boolean isDigits(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
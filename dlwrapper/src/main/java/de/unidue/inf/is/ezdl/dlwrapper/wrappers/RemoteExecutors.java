@@ -0,0 +1,197 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+
+
+
+/**
+ * Hands out one bounded thread pool per remote source.
+ * <p>
+ * Wrapper instances are created per request, so a pool that belongs to a
+ * single instance would not limit anything. The pools kept here are shared by
+ * all wrapper instances that talk to the same {@link SourceID} and their size
+ * is the number of calls that may run against that remote at the same time.
+ * <p>
+ * The size of a pool is set by the first call that asks for it and does not
+ * change afterwards, so wrapper instances with different configurations
+ * cannot resize a pool that others are using. A different size asked for
+ * later is only logged.
+ * <p>
+ * A remote can have several pools for different purposes, e.g. one for
+ * conjunctions and one for the pages fetched by a conjunction. Tasks that wait
+ * for other tasks must use a different pool than those, otherwise a full pool
+ * could wait for itself.
+ * <p>
+ * The threads are daemon threads and die after a minute of inactivity.
+ */
+public final class RemoteExecutors {
+
+    /**
+     * Idle time after which pool threads terminate.
+     */
+    private static final long KEEP_ALIVE_SEC = 60;
+    /**
+     * The pools by remote source.
+     */
+    private static final ConcurrentMap<PoolKey, ThreadPoolExecutor> POOLS = new ConcurrentHashMap<PoolKey, ThreadPoolExecutor>();
+    /**
+     * The purpose of the pool returned by {@link #get(SourceID, int)}.
+     */
+    private static final String DEFAULT_PURPOSE = "";
+    /**
+     * The last size asked for that differs from the size of the pool, by pool.
+     * Used to log each mismatch only once.
+     */
+    private static final ConcurrentMap<PoolKey, Integer> MISMATCHES = new ConcurrentHashMap<PoolKey, Integer>();
+
+    private static Logger logger = Logger.getLogger(RemoteExecutors.class);
+
+
+    /**
+     * Identifies a pool by remote and purpose.
+     */
+    private static final class PoolKey {
+
+        private final SourceID sourceId;
+        private final String purpose;
+
+
+        PoolKey(SourceID sourceId, String purpose) {
+            this.sourceId = sourceId;
+            this.purpose = purpose;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * sourceId.hashCode() + purpose.hashCode();
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) obj;
+            return sourceId.equals(other.sourceId) && purpose.equals(other.purpose);
+        }
+    }
+
+
+    private RemoteExecutors() {
+    }
+
+
+    /**
+     * Returns the pool for the given remote.
+     * <p>
+     * If the pool already exists with a different size, it keeps its size and
+     * a warning is logged.
+     * 
+     * @param sourceId
+     *            the remote source
+     * @param maxConcurrent
+     *            the maximum number of concurrent tasks for the remote, used
+     *            if the pool does not exist yet
+     * @return the pool
+     */
+    public static ThreadPoolExecutor get(SourceID sourceId, int maxConcurrent) {
+        return get(sourceId, DEFAULT_PURPOSE, maxConcurrent);
+    }
+
+
+    /**
+     * Returns the pool for the given remote and purpose.
+     * 
+     * @param sourceId
+     *            the remote source
+     * @param purpose
+     *            what the pool is used for, e.g. "pages"
+     * @param maxConcurrent
+     *            the maximum number of concurrent tasks for the remote and
+     *            purpose
+     * @return the pool
+     * @see #get(SourceID, int)
+     */
+    public static ThreadPoolExecutor get(SourceID sourceId, String purpose, int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive but is " + maxConcurrent);
+        }
+        final PoolKey key = new PoolKey(sourceId, purpose);
+        ThreadPoolExecutor pool = POOLS.get(key);
+        if (pool == null) {
+            ThreadPoolExecutor created = createPool(sourceId, purpose, maxConcurrent);
+            pool = POOLS.putIfAbsent(key, created);
+            if (pool == null) {
+                return created;
+            }
+            created.shutdown();
+        }
+        checkSize(key, pool, maxConcurrent);
+        return pool;
+    }
+
+
+    private static ThreadPoolExecutor createPool(SourceID sourceId, String purpose, int maxConcurrent) {
+        final String namePrefix = "remote-" + sourceId.getDL() + "-"
+                        + (purpose.isEmpty() ? "" : purpose + "-");
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, KEEP_ALIVE_SEC,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                            private final AtomicInteger count = new AtomicInteger();
+
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+
+    private static void checkSize(PoolKey key, ThreadPoolExecutor pool, int maxConcurrent) {
+        final int size = pool.getMaximumPoolSize();
+        if (size == maxConcurrent) {
+            return;
+        }
+        final Integer requested = Integer.valueOf(maxConcurrent);
+        if (!requested.equals(MISMATCHES.put(key, requested))) {
+            logger.warn("Pool for " + key.sourceId + (key.purpose.isEmpty() ? "" : " (" + key.purpose + ")")
+                            + " has " + size + " threads, ignoring requested size " + maxConcurrent);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+
+
+
+/**
+ * Keeps a minimum interval between two requests to the same remote source.
+ * <p>
+ * Like {@link RemoteExecutors}, the limiters are shared by all wrapper
+ * instances that talk to the same {@link SourceID}. Each request reserves the
+ * next free slot and waits for it, so concurrent requests are spread out
+ * evenly instead of being sent in bursts.
+ */
+public final class RemoteRateLimiter {
+
+    /**
+     * The limiters by remote source.
+     */
+    private static final ConcurrentMap<SourceID, RemoteRateLimiter> LIMITERS = new ConcurrentHashMap<SourceID, RemoteRateLimiter>();
+
+    /**
+     * The minimum interval between two requests in nanoseconds.
+     */
+    private volatile long intervalNanos;
+    /**
+     * The earliest time for the next request in terms of
+     * {@link System#nanoTime()}.
+     */
+    private long nextSlot;
+
+
+    private RemoteRateLimiter() {
+        nextSlot = System.nanoTime();
+    }
+
+
+    /**
+     * Returns the limiter for the given remote.
+     * 
+     * @param sourceId
+     *            the remote source
+     * @param minIntervalMs
+     *            the minimum interval between two requests in milliseconds. 0
+     *            disables the limit. If the limiter already exists with a
+     *            different interval, the new one is used from now on.
+     * @return the limiter
+     */
+    public static RemoteRateLimiter get(SourceID sourceId, long minIntervalMs) {
+        RemoteRateLimiter limiter = LIMITERS.get(sourceId);
+        if (limiter == null) {
+            RemoteRateLimiter created = new RemoteRateLimiter();
+            limiter = LIMITERS.putIfAbsent(sourceId, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        limiter.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minIntervalMs));
+        return limiter;
+    }
+
+
+    /**
+     * Waits until the next request may be sent.
+     * 
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting. The slot is
+     *             lost then.
+     */
+    public void acquire() throws InterruptedException {
+        final long interval = intervalNanos;
+        if (interval == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long slot;
+        synchronized (this) {
+            slot = (nextSlot - now > 0) ? nextSlot : now;
+            nextSlot = slot + interval;
+        }
+        TimeUnit.NANOSECONDS.sleep(slot - now);
+    }
+}
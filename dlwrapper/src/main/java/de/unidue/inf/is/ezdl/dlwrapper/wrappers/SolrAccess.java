@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+import de.unidue.inf.is.ezdl.dlcore.Haltable;
+
+
+
+/**
+ * Queries a Solr server in pages and looks up documents by their ids in
+ * batches.
+ * <p>
+ * The HTTP connections to a Solr server are kept in one thread-safe client per
+ * server URL that all wrappers share (see {@link #getServer(String)}).
+ */
+public final class SolrAccess {
+
+    private static final Logger logger = Logger.getLogger(SolrAccess.class);
+
+    /**
+     * The default number of results requested at once.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * The default number of ids looked up at once. Each id is a clause of the
+     * query, so this has to stay well below the maxBooleanClauses setting of
+     * the server.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    private static final int CONNECTION_TIMEOUT_MS = 10000;
+    private static final int SO_TIMEOUT_MS = 2000;
+    private static final int MAX_CONNECTIONS_PER_HOST = 16;
+    private static final int MAX_TOTAL_CONNECTIONS = 64;
+
+    /**
+     * The clients by server URL.
+     */
+    private static final ConcurrentMap<String, SolrServer> SERVERS = new ConcurrentHashMap<String, SolrServer>();
+
+    private final SolrServer server;
+    private final int pageSize;
+    private final int batchSize;
+
+
+    /**
+     * Constructor.
+     * 
+     * @param server
+     *            the server to query
+     * @param pageSize
+     *            the number of results requested at once
+     * @param batchSize
+     *            the number of ids looked up at once
+     */
+    public SolrAccess(SolrServer server, int pageSize, int batchSize) {
+        if ((pageSize < 1) || (batchSize < 1)) {
+            throw new IllegalArgumentException("Page size and batch size have to be positive");
+        }
+        this.server = server;
+        this.pageSize = pageSize;
+        this.batchSize = batchSize;
+    }
+
+
+    /**
+     * Returns the client for the Solr server at the given URL. All callers get
+     * the same client for the same URL.
+     * 
+     * @param url
+     *            the URL of the Solr server
+     * @return the client
+     */
+    public static SolrServer getServer(String url) {
+        SolrServer server = SERVERS.get(url);
+        if (server == null) {
+            final SolrServer created = createServer(url);
+            server = SERVERS.putIfAbsent(url, created);
+            if (server == null) {
+                server = created;
+            }
+        }
+        return server;
+    }
+
+
+    private static SolrServer createServer(String url) {
+        try {
+            CommonsHttpSolrServer s = new CommonsHttpSolrServer(url);
+            s.setConnectionTimeout(CONNECTION_TIMEOUT_MS);
+            s.setSoTimeout(SO_TIMEOUT_MS);
+            s.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+            s.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+            return s;
+        }
+        catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    /**
+     * Returns the server this object queries.
+     * 
+     * @return the server
+     */
+    public SolrServer getServer() {
+        return server;
+    }
+
+
+    /**
+     * Runs a query and collects the results page by page.
+     * 
+     * @param queryString
+     *            the query in Lucene syntax
+     * @param maxResults
+     *            the maximum number of results to collect
+     * @param haltable
+     *            stops collecting when it is halted
+     * @return the results in the order of the server
+     * @throws SolrServerException
+     *             if a page cannot be fetched
+     */
+    public SolrDocumentList query(String queryString, int maxResults, Haltable haltable) throws SolrServerException {
+        final SolrDocumentList result = new SolrDocumentList();
+        long numFound = Long.MAX_VALUE;
+        while ((result.size() < maxResults) && (result.size() < numFound) && !haltable.isHalted()) {
+            final int rows = Math.min(pageSize, maxResults - result.size());
+            final SolrQuery query = new SolrQuery();
+            query.setIncludeScore(true);
+            query.setQuery(queryString);
+            query.setStart(result.size());
+            query.setRows(rows);
+
+            final SolrDocumentList page = server.query(query).getResults();
+            result.addAll(page);
+            numFound = page.getNumFound();
+            result.setNumFound(numFound);
+            result.setMaxScore(page.getMaxScore());
+            if (page.size() < rows) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Looks up documents by their ids. The ids are sent in batches, each batch
+     * as a single query.
+     * <p>
+     * Ids that match no document or more than one are missing from the result.
+     * 
+     * @param idField
+     *            the name of the id field in the index
+     * @param ids
+     *            the ids to look up
+     * @param haltable
+     *            stops the lookup when it is halted
+     * @return the documents by their ids
+     * @throws SolrServerException
+     *             if a batch cannot be fetched
+     */
+    public Map<String, SolrDocument> fetchByIds(String idField, Collection<String> ids, Haltable haltable)
+                    throws SolrServerException {
+        final Map<String, SolrDocument> found = new HashMap<String, SolrDocument>();
+        final Set<String> ambiguous = new HashSet<String>();
+        final Iterator<String> iter = new LinkedHashSet<String>(ids).iterator();
+        final List<String> batch = new ArrayList<String>(batchSize);
+        while (iter.hasNext() && !haltable.isHalted()) {
+            batch.clear();
+            while (iter.hasNext() && (batch.size() < batchSize)) {
+                batch.add(iter.next());
+            }
+            final Set<String> wanted = new HashSet<String>(batch);
+            final SolrDocumentList hits = query(idQuery(idField, batch), Integer.MAX_VALUE, haltable);
+            for (SolrDocument hit : hits) {
+                final Object value = hit.getFirstValue(idField);
+                final String id = (value != null) ? value.toString() : null;
+                if (wanted.contains(id) && (found.put(id, hit) != null)) {
+                    ambiguous.add(id);
+                }
+            }
+        }
+        for (String id : ambiguous) {
+            logger.warn("More than one document with " + idField + " " + id);
+            found.remove(id);
+        }
+        return found;
+    }
+
+
+    /**
+     * Returns a query that matches the given ids, e.g.
+     * <code>key:("a" OR "b")</code>.
+     */
+    static String idQuery(String idField, List<String> ids) {
+        final StringBuilder sb = new StringBuilder(idField).append(":(");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i != 0) {
+                sb.append(" OR ");
+            }
+            sb.append('"');
+            final String id = ids.get(i);
+            for (int j = 0; j < id.length(); j++) {
+                final char c = id.charAt(j);
+                if ((c == '"') || (c == '\\')) {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlcore.cache.ConcurrentMapCache;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNode;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+
+
+
+/**
+ * Tests the {@link ResultCache}.
+ */
+public class ResultCacheTest extends AbstractTestBase {
+
+    private ResultCache cache;
+
+
+    @Before
+    public void setUp() {
+        cache = new ResultCache(new ConcurrentMapCache(), "test", 1, TimeUnit.HOURS);
+    }
+
+
+    private static DocumentQuery query(QueryNode tree) {
+        return new DocumentQuery(new DefaultQuery(tree), Collections.<String> emptyList());
+    }
+
+
+    private static QueryNodeBool bool(NodeType type, QueryNode... children) {
+        QueryNodeBool bool = new QueryNodeBool(type);
+        for (QueryNode child : children) {
+            bool.addChild(child);
+        }
+        return bool;
+    }
+
+
+    private static QueryNode title(String value) {
+        return new QueryNodeCompare(Field.TITLE, value);
+    }
+
+
+    @Test
+    public void testKeyIgnoresOperandOrder() {
+        String a = ResultCache.key(query(bool(NodeType.AND, title("retrieval"), title("models"))));
+        String b = ResultCache.key(query(bool(NodeType.AND, title("models"), title("retrieval"))));
+        Assert.assertEquals(a, b);
+    }
+
+
+    @Test
+    public void testKeyIgnoresCase() {
+        String a = ResultCache.key(query(title("Information Retrieval")));
+        String b = ResultCache.key(query(title("information retrieval")));
+        Assert.assertEquals(a, b);
+    }
+
+
+    @Test
+    public void testKeyFlattensNesting() {
+        String a = ResultCache.key(query(bool(NodeType.OR, title("a"), bool(NodeType.OR, title("b"), title("c")))));
+        String b = ResultCache.key(query(bool(NodeType.OR, title("c"), title("a"), title("b"))));
+        Assert.assertEquals(a, b);
+    }
+
+
+    @Test
+    public void testKeyDistinguishesQueries() {
+        String and = ResultCache.key(query(bool(NodeType.AND, title("a"), title("b"))));
+        String or = ResultCache.key(query(bool(NodeType.OR, title("a"), title("b"))));
+        String other = ResultCache.key(query(bool(NodeType.AND, title("a"), title("c"))));
+        Assert.assertFalse(and.equals(or));
+        Assert.assertFalse(and.equals(other));
+
+        QueryNode negated = title("b");
+        negated.setNegated(true);
+        String not = ResultCache.key(query(bool(NodeType.AND, title("a"), negated)));
+        Assert.assertFalse(and.equals(not));
+
+        QueryNodeBool negatedOr = bool(NodeType.OR, title("a"), title("b"));
+        negatedOr.setNegated(true);
+        Assert.assertFalse(or.equals(ResultCache.key(query(negatedOr))));
+    }
+
+
+    @Test
+    public void testPutReplaces() {
+        cache.put("key", "first");
+        cache.put("key", "second");
+        Assert.assertEquals("second", cache.get("key"));
+    }
+
+
+    @Test
+    public void testStatistics() {
+        cache.put("key", "value");
+        Assert.assertEquals("value", cache.get("key"));
+        Assert.assertNull(cache.get("other"));
+        Assert.assertEquals("value", cache.get("key"));
+
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0, cache.getExpirations());
+        Assert.assertEquals(2d / 3, cache.getHitRate(), 0.0001);
+    }
+
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        ConcurrentMapCache backing = new ConcurrentMapCache();
+        cache = new ResultCache(backing, "test", 50, TimeUnit.MILLISECONDS);
+        cache.put("key", "value");
+        Assert.assertEquals("value", cache.get("key"));
+
+        Thread.sleep(100);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertNull("expired entry removed", backing.get("key"));
+        Assert.assertEquals(1, cache.getExpirations());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+
+    @Test
+    public void testNoExpiry() throws InterruptedException {
+        cache = new ResultCache(new ConcurrentMapCache(), "test", 0, TimeUnit.SECONDS);
+        cache.put("key", "value");
+        Thread.sleep(10);
+        Assert.assertEquals("value", cache.get("key"));
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.HttpClientCrawler.Method;
+
+
+
+/**
+ * Tests the {@link HttpFetcher} against an embedded HTTP server.
+ */
+public class HttpFetcherTest extends AbstractTestBase {
+
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private String baseUrl;
+    private HttpFetcher fetcher;
+
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile CountDownLatch release;
+
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        fetcher = createFetcher(new Properties());
+    }
+
+
+    @After
+    public void tearDown() {
+        fetcher.shutdown();
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+
+    private HttpFetcher createFetcher(Properties props) {
+        if (fetcher != null) {
+            fetcher.shutdown();
+        }
+        fetcher = new HttpFetcher(props);
+        return fetcher;
+    }
+
+
+    private void serve(HttpExchange exchange) throws IOException {
+        synchronized (clientPorts) {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+        }
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (path.equals("/etag")) {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(HttpStatus.SC_NOT_MODIFIED, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            send(exchange, "versioned");
+        }
+        else if (path.equals("/big")) {
+            char[] chars = new char[1000];
+            Arrays.fill(chars, 'x');
+            send(exchange, new String(chars));
+        }
+        else if (path.equals("/gzip")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write("compressed".getBytes("UTF-8"));
+            gzip.close();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(HttpStatus.SC_OK, bytes.size());
+            exchange.getResponseBody().write(bytes.toByteArray());
+        }
+        else if (path.equals("/slow")) {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            send(exchange, "slow");
+        }
+        else if (path.equals("/cookie")) {
+            exchange.getResponseHeaders().add("Set-Cookie", "session=42");
+            send(exchange, "cookie " + exchange.getRequestHeaders().getFirst("Cookie"));
+        }
+        else {
+            send(exchange, path + "?" + query);
+        }
+    }
+
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(HttpStatus.SC_OK, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+    }
+
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+
+    private String get(String path) throws IOException {
+        return new String(fetcher.execute(new HttpGet(baseUrl + path), null).getBody(), "UTF-8");
+    }
+
+
+    @Test
+    public void testConnectionsAreReused() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("/page?i=" + i, get("/page?i=" + i));
+        }
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+
+    @Test
+    public void testConditionalGet() throws IOException {
+        HttpFetcher.Result first = fetcher.execute(new HttpGet(baseUrl + "/etag"), null);
+        Assert.assertFalse(first.isFromCache());
+        Assert.assertEquals("versioned", new String(first.getBody(), "UTF-8"));
+
+        HttpFetcher.Result second = fetcher.execute(new HttpGet(baseUrl + "/etag"), null);
+        Assert.assertTrue(second.isFromCache());
+        Assert.assertEquals(HttpStatus.SC_OK, second.getStatusCode());
+        Assert.assertEquals("versioned", new String(second.getBody(), "UTF-8"));
+        Assert.assertEquals(1, notModified.get());
+    }
+
+
+    @Test
+    public void testConditionalGetDisabled() throws IOException {
+        Properties props = new Properties();
+        props.setProperty(HttpFetcher.CACHE_ENTRIES_KEY, "0");
+        createFetcher(props);
+        Assert.assertEquals("versioned", get("/etag"));
+        Assert.assertEquals("versioned", get("/etag"));
+        Assert.assertEquals(0, notModified.get());
+    }
+
+
+    @Test
+    public void testSizeCap() throws IOException {
+        Properties props = new Properties();
+        props.setProperty(HttpFetcher.MAX_BYTES_KEY, "100");
+        createFetcher(props);
+        try {
+            get("/big");
+            Assert.fail("Response larger than the cap was accepted");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals("/small?null", get("/small"));
+    }
+
+
+    @Test
+    public void testGzipIsDecoded() throws IOException {
+        Assert.assertEquals("compressed", get("/gzip"));
+    }
+
+
+    @Test
+    public void testConnectionsPerHostAreLimited() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(HttpFetcher.MAX_PER_HOST_KEY, "2");
+        createFetcher(props);
+        release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; i++) {
+            results.add(executor.submit(new Callable<String>() {
+
+                @Override
+                public String call() throws IOException {
+                    return get("/slow");
+                }
+            }));
+        }
+        Thread.sleep(500);
+        Assert.assertEquals(2, running.get());
+        release.countDown();
+        for (Future<String> result : results) {
+            Assert.assertEquals("slow", result.get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(2, maxRunning.get());
+    }
+
+
+    @Test
+    public void testCrawlerGet() throws IOException {
+        HttpClientCrawler crawler = new HttpClientCrawler(new URL(baseUrl + "/search"), "UTF-8");
+        crawler.setHttpFetcher(fetcher);
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+        params.add(new BasicNameValuePair("q", "a b"));
+        String result = new String(read(crawler.fetch(Method.GET, params, null)), "UTF-8");
+        Assert.assertEquals("/search?q=a+b", result);
+    }
+
+
+    @Test
+    public void testCrawlerCookies() throws IOException {
+        List<String> cookies = new ArrayList<String>();
+        HttpClientCrawler crawler = new HttpClientCrawler(new URL(baseUrl + "/cookie"), "UTF-8");
+        crawler.setHttpFetcher(fetcher);
+        crawler.setCookieJar(cookies);
+        crawler.fetch(Method.GET, new ArrayList<NameValuePair>(), null);
+        Assert.assertEquals(Arrays.asList("session=42"), cookies);
+
+        crawler = new HttpClientCrawler(new URL(baseUrl + "/cookie"), "UTF-8");
+        crawler.setHttpFetcher(fetcher);
+        crawler.setCookieJar(cookies);
+        String result = new String(read(crawler.fetch(Method.GET, new ArrayList<NameValuePair>(),
+                        null)), "UTF-8");
+        Assert.assertEquals("cookie session=42", result);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.toolkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+
+
+
+/**
+ * Tests the compilation of wrapper configurations.
+ */
+public class ToolkitConfigTest extends AbstractTestBase {
+
+    @Test
+    public void testShippedConfigs() throws URISyntaxException {
+        File dir = new File(getClass().getResource("/wrapperconfigs/").toURI());
+        int count = 0;
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(".xml")) {
+                try {
+                    ToolkitConfig config = ToolkitConfig.get(file.toURI().toURL());
+                    Assert.assertFalse(file.getName(), config.getSteps().isEmpty());
+                    Assert.assertSame(config, ToolkitConfig.get(file.toURI().toURL()));
+                }
+                catch (Exception e) {
+                    throw new AssertionError(file.getName() + ": " + e);
+                }
+                count++;
+            }
+        }
+        Assert.assertTrue(count > 0);
+    }
+
+
+    @Test
+    public void testExecute() throws SAXException {
+        ToolkitAPI api = new ToolkitAPI();
+        api.setConfigFile(config("<wrapperconfiguration><document property=\"doc\"/><parse>" //
+                        + "<extract key=\"title\"><text xpath=\"//h1\"/></extract>" //
+                        + "<extract key=\"year\"><text xpath=\"//span\"><findone pattern=\"\\d{4}\"/></text></extract>" //
+                        + "<extract key=\"authors\"><iterate xpath=\"//li\"><text xpath=\".\"/></iterate></extract>" //
+                        + "</parse></wrapperconfiguration>"));
+        Map<String, Object> props = new HashMap<String, Object>();
+        props.put("doc", Tools.xmlDoc("<html><h1>Title</h1><span>in 2011</span><ul><li>A</li><li>B</li></ul></html>"));
+
+        Map<?, ?> result = (Map<?, ?>) api.execute(props);
+
+        Assert.assertEquals("Title", result.get("title"));
+        Assert.assertEquals("2011", result.get("year"));
+        Assert.assertEquals("[A, B]", String.valueOf(result.get("authors")));
+    }
+
+
+    @Test
+    public void testUnknownElement() {
+        checkInvalid("<wrapperconfiguration><parse><extract key=\"a\"><text xpath=\".\"/></extract>"
+                        + "<extract key=\"b\"><txt xpath=\".\"/></extract></parse></wrapperconfiguration>",
+                        "/wrapperconfiguration/parse/extract[2]/txt: unknown element");
+        checkInvalid("<wrapperconfiguration><fetch method=\"GET\" url=\"$url\"/><tidy/></wrapperconfiguration>",
+                        "/wrapperconfiguration/tidy: unknown element");
+    }
+
+
+    @Test
+    public void testInvalidXPath() {
+        checkInvalid("<wrapperconfiguration><parse><iterate xpath=\"//tr[\"><text xpath=\".\"/></iterate>"
+                        + "</parse></wrapperconfiguration>", "/wrapperconfiguration/parse/iterate: invalid xpath");
+    }
+
+
+    @Test
+    public void testInvalidPattern() {
+        checkInvalid("<wrapperconfiguration><parse><text xpath=\".\"><substitute pattern=\"(a\" replacewith=\"\"/>"
+                        + "</text></parse></wrapperconfiguration>",
+                        "/wrapperconfiguration/parse/text/substitute: invalid pattern");
+        checkInvalid("<wrapperconfiguration><clean><replace pattern=\"a\" replacewith=\"\"/>"
+                        + "<replace pattern=\"[\" replacewith=\"\"/></clean></wrapperconfiguration>",
+                        "/wrapperconfiguration/clean/replace[2]: invalid pattern");
+    }
+
+
+    @Test
+    public void testInvalidFetch() {
+        checkInvalid("<wrapperconfiguration><fetch minPage=\"one\" method=\"GET\" url=\"$url\"/>"
+                        + "</wrapperconfiguration>", "/wrapperconfiguration/fetch: minPage is not a number");
+        checkInvalid("<wrapperconfiguration><fetch method=\"PUT\" url=\"$url\"/></wrapperconfiguration>",
+                        "/wrapperconfiguration/fetch: unknown method");
+    }
+
+
+    @Test
+    public void testVerifyWithoutElement() {
+        checkInvalid("<wrapperconfiguration><parse><verify><expect regex=\"x\"><text xpath=\".\"/></expect>"
+                        + "</verify></parse></wrapperconfiguration>",
+                        "/wrapperconfiguration/parse/verify: verify has to be followed by another element");
+    }
+
+
+    private static void checkInvalid(String xml, String expectedMessage) {
+        try {
+            ToolkitConfig.compile(config(xml));
+            Assert.fail("Expected ToolkitConfigException");
+        }
+        catch (ToolkitConfigException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+
+
+    private static Document config(String xml) {
+        try {
+            return Tools.createDocument(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
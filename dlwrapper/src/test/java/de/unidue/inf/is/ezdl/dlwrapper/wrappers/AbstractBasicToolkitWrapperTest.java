@@ -0,0 +1,395 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceInfo;
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlcore.DocumentFactory;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.Document;
+import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
+import de.unidue.inf.is.ezdl.dlcore.data.query.Query;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
+import de.unidue.inf.is.ezdl.dlcore.query.QueryConverter;
+import de.unidue.inf.is.ezdl.dlcore.query.YearRangeConverter.YearRange;
+import de.unidue.inf.is.ezdl.dlwrapper.toolkit.ToolkitAPI;
+
+
+
+public class AbstractBasicToolkitWrapperTest extends AbstractTestBase {
+
+    private static final String SEARCH_URL = "http://dl.test/search";
+    private static final String DETAILS_URL = "http://dl.test/details?id=";
+    private static final Pattern START = Pattern.compile("start=(\\d+)");
+    private static final int RESULTS_PER_PAGE = 10;
+
+
+    /**
+     * A remote DL with a result list of a given size. The link to the next page
+     * carries the offset of the first result. Each request takes a while, and
+     * the DL records the URLs requested and how many requests run at the same
+     * time.
+     */
+    private static class RemoteDL {
+
+        private final int total;
+        private final long delayMs;
+        private final boolean irregular;
+        private final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+
+        RemoteDL(int total, long delayMs, boolean irregular) {
+            this.total = total;
+            this.delayMs = delayMs;
+            this.irregular = irregular;
+        }
+
+
+        Object request(Map<String, Object> props) {
+            final String url = String.valueOf(props.get("url"));
+            requested.add(url);
+            final int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                Thread.sleep(delayMs);
+                if (url.startsWith(DETAILS_URL)) {
+                    final int id = Integer.parseInt(url.substring(DETAILS_URL.length()));
+                    final Map<String, Object> details = item(id);
+                    details.put("abstract", "abstract " + id);
+                    return details;
+                }
+                return page(url);
+            }
+            catch (InterruptedException e) {
+                return null;
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        }
+
+
+        private List<Map<String, Object>> page(String url) throws InterruptedException {
+            int start = 0;
+            final Matcher m = START.matcher(url);
+            if (m.find()) {
+                start = Integer.parseInt(m.group(1));
+            }
+            final List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+            final int end = Math.min(start + RESULTS_PER_PAGE, total);
+            for (int i = start; i < end; i++) {
+                items.add(item(i));
+            }
+            final int next = start + (irregular && (start == RESULTS_PER_PAGE) ? 15 : RESULTS_PER_PAGE);
+            if (!items.isEmpty() && (next < total)) {
+                try {
+                    items.get(items.size() - 1).put(AbstractBasicToolkitWrapper.HT_KEY_NEXTPAGE,
+                                    new URL(SEARCH_URL + "?q=paging&start=" + next + "&sort=date"));
+                }
+                catch (MalformedURLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return items;
+        }
+
+
+        private Map<String, Object> item(int i) {
+            final Map<String, Object> item = new HashMap<String, Object>();
+            item.put("title", "paging result " + i);
+            item.put(AbstractBasicToolkitWrapper.HT_KEY_DETAILS, Integer.toString(i));
+            return item;
+        }
+
+
+        void reset() {
+            requested.clear();
+            maxRunning.set(0);
+        }
+    }
+
+
+    /**
+     * A toolkit that asks the {@link RemoteDL} instead of reading a config.
+     */
+    private static class RemoteToolkit extends ToolkitAPI {
+
+        private final RemoteDL dl;
+
+
+        RemoteToolkit(RemoteDL dl) {
+            this.dl = dl;
+        }
+
+
+        @Override
+        public void setConfigFile(URL url) {
+        }
+
+
+        @Override
+        public Object execute(Map<String, Object> props) {
+            return dl.request(props);
+        }
+    }
+
+
+    private static class PagingWrapper extends AbstractBasicToolkitWrapper {
+
+        private final SourceID sourceId;
+        private final RemoteDL dl;
+
+
+        PagingWrapper(String name, RemoteDL dl) {
+            super(new RemoteToolkit(dl));
+            this.sourceId = new SourceID(name, "x");
+            this.dl = dl;
+        }
+
+
+        @Override
+        protected ToolkitAPI newToolkit() {
+            return new RemoteToolkit(dl);
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return null;
+        }
+
+
+        @Override
+        public SourceID getSourceID() {
+            return sourceId;
+        }
+
+
+        @Override
+        protected WrapperMode getWrapperMode() {
+            return WrapperMode.WHOLE_QUERY;
+        }
+
+
+        @Override
+        protected String getTookitConfigFileQuery() {
+            return "paging_search.xml";
+        }
+
+
+        @Override
+        protected String getTookitConfigFileDetails() {
+            return "paging_details.xml";
+        }
+
+
+        @Override
+        protected String initialSearchUrl() {
+            return SEARCH_URL;
+        }
+
+
+        @Override
+        protected QueryConverter newQueryConverter() {
+            return new QueryConverter() {
+
+                @Override
+                public String convert(Query query) {
+                    return "paging";
+                }
+            };
+        }
+
+
+        @Override
+        protected String getYearRangeParameter(YearRange yearRange, Date now) {
+            return null;
+        }
+
+
+        @Override
+        protected Document createDocumentFromMap(Map<String, Object> ht) {
+            final TextDocument document = DocumentFactory.createDocument((String) ht.get("title"), 2000, "Author");
+            document.setAbstract((String) ht.get("abstract"));
+            return document;
+        }
+
+
+        @Override
+        protected URL documentDetailsUrl(String detailInfo) throws MalformedURLException {
+            return new URL(DETAILS_URL + detailInfo);
+        }
+
+
+        @Override
+        protected boolean documentIsValid(StoredDocument stored) {
+            return true;
+        }
+    }
+
+
+    private static PagingWrapper createWrapper(String name, RemoteDL dl, int pages, int details, long intervalMs) {
+        MockAgent agent = new MockAgent();
+        Properties p = new Properties();
+        p.put(AbstractBasicToolkitWrapper.MAX_FETCH_PAGES_KEY, "5");
+        p.put(AbstractBasicToolkitWrapper.MAX_CONCURRENT_PAGES_KEY, Integer.toString(pages));
+        p.put(AbstractBasicToolkitWrapper.MAX_CONCURRENT_DETAILS_KEY, Integer.toString(details));
+        p.put(AbstractToolkitWrapper.MIN_REQUEST_INTERVAL_KEY, Long.toString(intervalMs));
+        agent.init(name, p);
+        PagingWrapper wrapper = new PagingWrapper(name, dl);
+        wrapper.init(agent, null);
+        return wrapper;
+    }
+
+
+    private static DocumentQuery createQuery() {
+        QueryNodeBool root = new QueryNodeBool(NodeType.AND);
+        root.addChild(new QueryNodeCompare(Field.TITLE, "paging"));
+        return new DocumentQuery(new DefaultQuery(root), Collections.<String> emptyList());
+    }
+
+
+    private static List<String> titles(StoredDocumentList result) {
+        final List<String> titles = new ArrayList<String>();
+        for (StoredDocument stored : result) {
+            titles.add(stored.getDocument().getTitle());
+        }
+        return titles;
+    }
+
+
+    private static List<String> expectedTitles(int count) {
+        final List<String> titles = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            titles.add("paging result " + i);
+        }
+        return titles;
+    }
+
+
+    @Test
+    public void testPagesSequential() {
+        RemoteDL dl = new RemoteDL(100, 10, false);
+        PagingWrapper wrapper = createWrapper("pagesSequential", dl, 1, 1, 0);
+        StoredDocumentList result = wrapper.process(createQuery());
+        Assert.assertEquals(expectedTitles(50), titles(result));
+        Assert.assertEquals(5, dl.requested.size());
+        Assert.assertEquals(1, dl.maxRunning.get());
+    }
+
+
+    @Test
+    public void testPagesPrefetched() {
+        RemoteDL dl = new RemoteDL(100, 200, false);
+        PagingWrapper wrapper = createWrapper("pagesPrefetched", dl, 4, 1, 0);
+        long start = System.currentTimeMillis();
+        StoredDocumentList result = wrapper.process(createQuery());
+        long duration = System.currentTimeMillis() - start;
+        Assert.assertEquals(expectedTitles(50), titles(result));
+        Assert.assertEquals(5, dl.requested.size());
+        Assert.assertTrue(dl.maxRunning.get() > 1);
+        Assert.assertTrue("took " + duration + " ms", duration < 5 * 200);
+    }
+
+
+    @Test
+    public void testPagesPrefetchedBeyondLastPage() {
+        RemoteDL dl = new RemoteDL(25, 10, false);
+        PagingWrapper wrapper = createWrapper("pagesBeyondLast", dl, 4, 1, 0);
+        StoredDocumentList result = wrapper.process(createQuery());
+        Assert.assertEquals(expectedTitles(25), titles(result));
+    }
+
+
+    @Test
+    public void testPagesPrefetchedWrongGuess() {
+        RemoteDL sequentialDL = new RemoteDL(100, 10, true);
+        PagingWrapper sequential = createWrapper("pagesIrregularSeq", sequentialDL, 1, 1, 0);
+        List<String> expected = titles(sequential.process(createQuery()));
+
+        RemoteDL dl = new RemoteDL(100, 10, true);
+        PagingWrapper wrapper = createWrapper("pagesIrregular", dl, 4, 1, 0);
+        StoredDocumentList result = wrapper.process(createQuery());
+        Assert.assertEquals(expected, titles(result));
+        Assert.assertFalse(expected.contains("paging result 20"));
+    }
+
+
+    @Test
+    public void testDetailsConcurrent() {
+        RemoteDL dl = new RemoteDL(8, 200, false);
+        PagingWrapper wrapper = createWrapper("detailsConcurrent", dl, 1, 4, 0);
+        StoredDocumentList result = wrapper.process(createQuery());
+        Assert.assertEquals(8, result.size());
+        dl.reset();
+        long start = System.currentTimeMillis();
+        wrapper.askDetails(result);
+        long duration = System.currentTimeMillis() - start;
+        Assert.assertEquals(8, dl.requested.size());
+        Assert.assertTrue(dl.maxRunning.get() > 1);
+        Assert.assertTrue("took " + duration + " ms", duration < 8 * 200);
+        for (int i = 0; i < result.size(); i++) {
+            StoredDocument stored = result.get(i);
+            Assert.assertEquals("abstract " + i, ((TextDocument) stored.getDocument()).getAbstract());
+            SourceInfo info = stored.getSources().iterator().next();
+            Assert.assertNotNull(info.getDetailTimestamp());
+        }
+    }
+
+
+    @Test
+    public void testMinRequestInterval() {
+        RemoteDL dl = new RemoteDL(100, 0, false);
+        PagingWrapper wrapper = createWrapper("minInterval", dl, 4, 1, 100);
+        long start = System.currentTimeMillis();
+        StoredDocumentList result = wrapper.process(createQuery());
+        long duration = System.currentTimeMillis() - start;
+        Assert.assertEquals(50, result.size());
+        Assert.assertTrue("took " + duration + " ms", duration >= 4 * 100 - 20);
+    }
+}
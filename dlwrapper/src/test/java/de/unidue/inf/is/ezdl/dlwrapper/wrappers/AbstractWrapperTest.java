@@ -18,19 +18,26 @@
 
 package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
 
+import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.unidue.inf.is.ezdl.dlbackend.BackendDocumentFactory;
 import de.unidue.inf.is.ezdl.dlbackend.ServiceNames;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
 import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
 import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
 import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlcore.data.query.DefaultQuery;
 import de.unidue.inf.is.ezdl.dlcore.data.query.DocumentQuery;
 import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeBool.NodeType;
+import de.unidue.inf.is.ezdl.dlcore.data.query.tree.QueryNodeCompare;
 import de.unidue.inf.is.ezdl.dlcore.data.wrappers.WrapperInfo;
 import de.unidue.inf.is.ezdl.dlwrapper.Wrapper;
 
@@ -88,6 +95,138 @@ public class AbstractWrapperTest extends AbstractTestBase {
     }
 
 
+    /**
+     * Wrapper in conjunctions mode that takes a while for each conjunction and
+     * records how many conjunctions run at the same time. Each instance has its
+     * own source ID and thus its own remote pool.
+     */
+    private class ConjunctionWrapper extends TestWrapper {
+
+        private final SourceID sourceId;
+        private final long delayMs;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final AtomicInteger processed = new AtomicInteger();
+
+
+        public ConjunctionWrapper(String name, long delayMs) {
+            this.sourceId = new SourceID(name, "x");
+            this.delayMs = delayMs;
+        }
+
+
+        @Override
+        public SourceID getSourceID() {
+            return sourceId;
+        }
+
+
+        @Override
+        protected WrapperMode getWrapperMode() {
+            return WrapperMode.CONJUNCTIONS;
+        }
+
+
+        @Override
+        protected StoredDocumentList process(QueryNodeBool conjunction) {
+            final int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                Thread.sleep(delayMs);
+                StoredDocumentList result = new StoredDocumentList();
+                StoredDocument stored = BackendDocumentFactory.createStoredDocument("", conjunction.toString(),
+                                2000, "Author");
+                stored.getDocument().setOid(conjunction.toString());
+                result.add(stored);
+                processed.incrementAndGet();
+                return result;
+            }
+            catch (InterruptedException e) {
+                return null;
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+
+    private static DocumentQuery createDisjunction(String prefix, int count) {
+        QueryNodeBool root = new QueryNodeBool(NodeType.OR);
+        for (int i = 0; i < count; i++) {
+            root.addChild(new QueryNodeCompare(Field.TITLE, prefix + i));
+        }
+        return new DocumentQuery(new DefaultQuery(root), Collections.<String> emptyList());
+    }
+
+
+    private ConjunctionWrapper createConjunctionWrapper(String name, long delayMs, int maxConcurrent) {
+        MockAgent agent = new MockAgent();
+        Properties p = new Properties();
+        p.put(AbstractWrapper.MAX_CONCURRENT_CONJUNCTIONS_KEY, Integer.toString(maxConcurrent));
+        agent.init(name, p);
+        ConjunctionWrapper wrapper = new ConjunctionWrapper(name, delayMs);
+        wrapper.init(agent, null);
+        return wrapper;
+    }
+
+
+    @Test
+    public void testConjunctionsSequential() {
+        ConjunctionWrapper wrapper = createConjunctionWrapper("sequential", 10, 1);
+        StoredDocumentList result = wrapper.askDocument(createDisjunction("seq", 4), false);
+        Assert.assertEquals(4, result.size());
+        Assert.assertEquals(1, wrapper.maxRunning.get());
+    }
+
+
+    @Test
+    public void testConjunctionsConcurrent() {
+        ConjunctionWrapper wrapper = createConjunctionWrapper("concurrent", 300, 6);
+        long start = System.currentTimeMillis();
+        StoredDocumentList result = wrapper.askDocument(createDisjunction("con", 6), false);
+        long duration = System.currentTimeMillis() - start;
+        Assert.assertEquals(6, result.size());
+        Assert.assertTrue("took " + duration + " ms", duration < 6 * 300);
+        Assert.assertTrue(wrapper.maxRunning.get() > 1);
+    }
+
+
+    @Test
+    public void testConjunctionsLimit() {
+        ConjunctionWrapper wrapper = createConjunctionWrapper("limited", 100, 2);
+        StoredDocumentList result = wrapper.askDocument(createDisjunction("lim", 6), false);
+        Assert.assertEquals(6, result.size());
+        Assert.assertEquals(2, wrapper.maxRunning.get());
+    }
+
+
+    @Test
+    public void testConjunctionsHalted() {
+        final ConjunctionWrapper wrapper = createConjunctionWrapper("halted", 5000, 2);
+        new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e) {
+                }
+                wrapper.halt();
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        StoredDocumentList result = wrapper.askDocument(createDisjunction("halt", 4), false);
+        long duration = System.currentTimeMillis() - start;
+        Assert.assertEquals(0, result.size());
+        Assert.assertTrue("took " + duration + " ms", duration < 2000);
+        Assert.assertEquals(0, wrapper.processed.get());
+    }
+
+
     @Test
     public void testGetWrapperInfo() {
         MockAgent agent = new MockAgent();
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+
+
+/**
+ * A Solr server that keeps its documents in memory and records the queries it
+ * answers.
+ * <p>
+ * Queries of the form <code>field:("a" OR "b")</code> match the documents
+ * whose field has one of the given values. Any other query matches all
+ * documents.
+ */
+public class MemorySolrServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern ID_QUERY = Pattern.compile("(\\w+):\\((.*)\\)");
+    private static final Pattern QUOTED = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final List<SolrDocument> documents = new ArrayList<SolrDocument>();
+    private final List<SolrParams> queries = Collections.synchronizedList(new ArrayList<SolrParams>());
+
+
+    public void add(SolrDocument document) {
+        documents.add(document);
+    }
+
+
+    public List<SolrParams> getQueries() {
+        return queries;
+    }
+
+
+    @Override
+    public NamedList<Object> request(SolrRequest request) {
+        final SolrParams params = request.getParams();
+        queries.add(params);
+
+        final List<SolrDocument> matches = match(params.get("q"));
+        final int start = params.getInt("start", 0);
+        final int rows = params.getInt("rows", 10);
+        final SolrDocumentList results = new SolrDocumentList();
+        for (int i = start; (i < matches.size()) && (i < start + rows); i++) {
+            results.add(matches.get(i));
+        }
+        results.setNumFound(matches.size());
+        results.setStart(start);
+
+        final NamedList<Object> response = new NamedList<Object>();
+        response.add("response", results);
+        return response;
+    }
+
+
+    private List<SolrDocument> match(String q) {
+        final Matcher m = ID_QUERY.matcher(q);
+        if (!m.matches()) {
+            return documents;
+        }
+        final String field = m.group(1);
+        final Set<String> values = new HashSet<String>();
+        final Matcher quoted = QUOTED.matcher(m.group(2));
+        while (quoted.find()) {
+            values.add(quoted.group(1).replaceAll("\\\\(.)", "$1"));
+        }
+        final List<SolrDocument> matches = new ArrayList<SolrDocument>();
+        for (SolrDocument document : documents) {
+            final Object value = document.getFirstValue(field);
+            if ((value != null) && values.contains(value.toString())) {
+                matches.add(document);
+            }
+        }
+        return matches;
+    }
+}
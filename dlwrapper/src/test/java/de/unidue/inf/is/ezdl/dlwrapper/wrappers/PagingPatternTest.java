@@ -0,0 +1,84 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+
+
+
+public class PagingPatternTest extends AbstractTestBase {
+
+    @Test
+    public void testFromSecondPagePageNumber() throws MalformedURLException {
+        PagingPattern pattern = PagingPattern.fromSecondPage(new URL("http://dl.test/s?q=x&page=2&size=50"), 25);
+        Assert.assertNotNull(pattern);
+        Assert.assertEquals(new URL("http://dl.test/s?q=x&page=4&size=50"), pattern.urlFor(4));
+    }
+
+
+    @Test
+    public void testFromSecondPageOffset() throws MalformedURLException {
+        PagingPattern pattern = PagingPattern.fromSecondPage(new URL("http://dl.test/s?q=x&start=21"), 20);
+        Assert.assertNotNull(pattern);
+        Assert.assertEquals(new URL("http://dl.test/s?q=x&start=61"), pattern.urlFor(4));
+    }
+
+
+    @Test
+    public void testFromSecondPageAmbiguous() throws MalformedURLException {
+        Assert.assertNull(PagingPattern.fromSecondPage(new URL("http://dl.test/s?page=2&year=2"), 10));
+        Assert.assertNull(PagingPattern.fromSecondPage(new URL("http://dl.test/s?from=10&to=10"), 10));
+    }
+
+
+    @Test
+    public void testFromSecondPageNoParam() throws MalformedURLException {
+        Assert.assertNull(PagingPattern.fromSecondPage(new URL("http://dl.test/s?q=x&next=abc"), 10));
+        Assert.assertNull(PagingPattern.fromSecondPage(new URL("http://dl.test/s/2"), 10));
+    }
+
+
+    @Test
+    public void testFromConsecutivePages() throws MalformedURLException {
+        PagingPattern pattern = PagingPattern.fromConsecutivePages(new URL("http://dl.test/s?q=x&o=30&n=15"), 3,
+                        new URL("http://dl.test/s?q=x&o=45&n=15"));
+        Assert.assertNotNull(pattern);
+        Assert.assertEquals(new URL("http://dl.test/s?q=x&o=75&n=15"), pattern.urlFor(6));
+    }
+
+
+    @Test
+    public void testFromConsecutivePagesNoPattern() throws MalformedURLException {
+        Assert.assertNull(PagingPattern.fromConsecutivePages(new URL("http://dl.test/s?o=30&n=15"), 3, new URL(
+                        "http://dl.test/s?o=45&n=16")));
+        Assert.assertNull(PagingPattern.fromConsecutivePages(new URL("http://dl.test/s?o=30"), 3, new URL(
+                        "http://dl.test/s?o=20")));
+        Assert.assertNull(PagingPattern.fromConsecutivePages(new URL("http://dl.test/s?o=30"), 3, new URL(
+                        "http://dl.test/t?o=45")));
+        Assert.assertNull(PagingPattern.fromConsecutivePages(new URL("http://dl.test/s?o=30&sid=ab"), 3, new URL(
+                        "http://dl.test/s?o=45&sid=cd")));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlbackend.wrappers.SourceID;
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+
+
+
+public class RemoteExecutorsTest extends AbstractTestBase {
+
+    @Test
+    public void testPoolSizeIsFixed() {
+        SourceID sourceId = new SourceID("fixedsize", "api");
+        ThreadPoolExecutor pool = RemoteExecutors.get(sourceId, 2);
+        Assert.assertSame(pool, RemoteExecutors.get(sourceId, 5));
+        Assert.assertSame(pool, RemoteExecutors.get(sourceId, 1));
+        Assert.assertEquals(2, pool.getMaximumPoolSize());
+        Assert.assertEquals(2, pool.getCorePoolSize());
+    }
+
+
+    @Test
+    public void testPurposesHavePoolsOfTheirOwn() {
+        SourceID sourceId = new SourceID("purposes", "api");
+        ThreadPoolExecutor pages = RemoteExecutors.get(sourceId, "pages", 3);
+        Assert.assertNotSame(RemoteExecutors.get(sourceId, 3), pages);
+        Assert.assertSame(pages, RemoteExecutors.get(sourceId, "pages", 3));
+    }
+}
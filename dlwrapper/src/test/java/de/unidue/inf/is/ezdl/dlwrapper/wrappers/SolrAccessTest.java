@@ -0,0 +1,166 @@
+/*
+ * Copyright 2009-2011 Universität Duisburg-Essen, Working Group
+ * "Information Engineering"
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.unidue.inf.is.ezdl.dlwrapper.wrappers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
+import de.unidue.inf.is.ezdl.dlcore.Haltable;
+
+
+
+public class SolrAccessTest extends AbstractTestBase {
+
+    private static class Halter implements Haltable {
+
+        private boolean halted;
+
+
+        @Override
+        public void halt() {
+            halted = true;
+        }
+
+
+        @Override
+        public boolean isHalted() {
+            return halted;
+        }
+    }
+
+
+    private MemorySolrServer server;
+    private Halter halter;
+
+
+    @Before
+    public void setUp() {
+        server = new MemorySolrServer();
+        for (int i = 0; i < 250; i++) {
+            server.add(document("conf/x/" + i));
+        }
+        halter = new Halter();
+    }
+
+
+    private static SolrDocument document(String key) {
+        SolrDocument document = new SolrDocument();
+        document.setField("key", key);
+        document.setField("title", "Title of " + key);
+        return document;
+    }
+
+
+    private static List<String> keys(int from, int to) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            keys.add("conf/x/" + i);
+        }
+        return keys;
+    }
+
+
+    @Test
+    public void testQueryPaged() throws SolrServerException {
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        SolrDocumentList result = solr.query("title:x", 500, halter);
+        Assert.assertEquals(250, result.size());
+        Assert.assertEquals(250, result.getNumFound());
+        Assert.assertEquals("conf/x/0", result.get(0).getFieldValue("key"));
+        Assert.assertEquals("conf/x/249", result.get(249).getFieldValue("key"));
+        Assert.assertEquals(3, server.getQueries().size());
+        Assert.assertEquals(200, server.getQueries().get(2).getInt("start", -1));
+    }
+
+
+    @Test
+    public void testQueryMaxResults() throws SolrServerException {
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        SolrDocumentList result = solr.query("title:x", 120, halter);
+        Assert.assertEquals(120, result.size());
+        Assert.assertEquals(2, server.getQueries().size());
+        Assert.assertEquals(20, server.getQueries().get(1).getInt("rows", -1));
+    }
+
+
+    @Test
+    public void testQueryHalted() throws SolrServerException {
+        halter.halt();
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        Assert.assertEquals(0, solr.query("title:x", 500, halter).size());
+        Assert.assertEquals(0, server.getQueries().size());
+    }
+
+
+    @Test
+    public void testFetchByIdsBatched() throws SolrServerException {
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        Map<String, SolrDocument> found = solr.fetchByIds("key", keys(0, 110), halter);
+        Assert.assertEquals(110, found.size());
+        Assert.assertEquals("Title of conf/x/42", found.get("conf/x/42").getFieldValue("title"));
+        Assert.assertEquals(3, server.getQueries().size());
+    }
+
+
+    @Test
+    public void testFetchByIdsMissingAndAmbiguous() throws SolrServerException {
+        server.add(document("conf/x/7"));
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        Map<String, SolrDocument> found = solr.fetchByIds("key", Arrays.asList("conf/x/6", "conf/x/7", "missing",
+                        "conf/x/6"), halter);
+        Assert.assertEquals(1, found.size());
+        Assert.assertNotNull(found.get("conf/x/6"));
+        Assert.assertEquals(1, server.getQueries().size());
+    }
+
+
+    @Test
+    public void testIdQuery() {
+        Assert.assertEquals("key:(\"a\")", SolrAccess.idQuery("key", Arrays.asList("a")));
+        Assert.assertEquals("key:(\"a\\\"b\" OR \"c\\\\d\" OR \"e f\")", SolrAccess.idQuery("key", Arrays.asList(
+                        "a\"b", "c\\d", "e f")));
+    }
+
+
+    @Test
+    public void testFetchByIdsEscaped() throws SolrServerException {
+        server.add(document("odd \"key\""));
+        SolrAccess solr = new SolrAccess(server, 100, 50);
+        Map<String, SolrDocument> found = solr.fetchByIds("key", Arrays.asList("odd \"key\""), halter);
+        Assert.assertEquals(1, found.size());
+    }
+
+
+    @Test
+    public void testSharedServer() {
+        Assert.assertSame(SolrAccess.getServer("http://solr.test/a"), SolrAccess.getServer("http://solr.test/a"));
+        Assert.assertNotSame(SolrAccess.getServer("http://solr.test/a"), SolrAccess.getServer("http://solr.test/b"));
+    }
+}
@@ -18,6 +18,8 @@
 
 package de.unidue.inf.is.ezdl.dlwrapper.wrappers.cs;
 
+import java.util.Properties;
+
 import junit.framework.Assert;
 
 import org.apache.solr.common.SolrDocument;
@@ -26,11 +28,15 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocument;
+import de.unidue.inf.is.ezdl.dlbackend.data.StoredDocumentList;
+import de.unidue.inf.is.ezdl.dlbackend.mock.MockAgent;
 import de.unidue.inf.is.ezdl.dlcore.AbstractTestBase;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.Person;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.PersonList;
 import de.unidue.inf.is.ezdl.dlcore.data.dldata.TextDocument;
 import de.unidue.inf.is.ezdl.dlcore.data.fields.Field;
+import de.unidue.inf.is.ezdl.dlwrapper.wrappers.AbstractSolrWrapper;
+import de.unidue.inf.is.ezdl.dlwrapper.wrappers.MemorySolrServer;
 
 
 
@@ -85,6 +91,34 @@ public class DBLPSolrWrapperTest extends AbstractTestBase {
     }
 
 
+    @Test
+    public void testAskDetailsBatched() {
+        MemorySolrServer server = new MemorySolrServer();
+        StoredDocumentList incomplete = new StoredDocumentList();
+        for (int i = 0; i < 5; i++) {
+            SolrDocument sd = getSolrDocument();
+            sd.setField("key", "conf/ddecs/Chichkov09-" + i);
+            sd.setField("booktitle", "DDECS " + i);
+            server.add(sd);
+            incomplete.add(dblpSolrWrapper.readDocumentFromSolrIndex(sd));
+        }
+        MockAgent agent = new MockAgent();
+        Properties props = new Properties();
+        props.put(AbstractSolrWrapper.BATCH_SIZE_KEY, "2");
+        agent.init("dblp", props);
+        DBLPSolrWrapper wrapper = new DBLPSolrWrapper(server);
+        wrapper.init(agent, null);
+
+        wrapper.askDetails(incomplete);
+
+        Assert.assertEquals("queries", 3, server.getQueries().size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("booktitle", "DDECS " + i, incomplete.get(i).getDocument().getFieldValue(
+                            Field.BOOKTITLE));
+        }
+    }
+
+
     private SolrDocument getSolrDocument() {
         SolrDocument sd = new SolrDocument();
         sd.put("title", "Challenges for test and design for test.");
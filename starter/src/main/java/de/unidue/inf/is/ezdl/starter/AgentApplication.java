@@ -29,6 +29,9 @@ import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.ActiveMqJmsAgentConnecto
 import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.AgentConnector;
 import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.CorbaAgentConnector;
 import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.HttpAgentConnector;
+import de.unidue.inf.is.ezdl.dlbackend.agent.connectors.PersistentHttpAgentConnector;
+import de.unidue.inf.is.ezdl.dlbackend.message.MessageBytesCoder;
+import de.unidue.inf.is.ezdl.dlbackend.message.MessageStringCoder;
 import de.unidue.inf.is.ezdl.dlcore.misc.ConnectionFailedException;
 import de.unidue.inf.is.ezdl.dlcore.utils.PropertiesUtils;
 
@@ -46,6 +49,7 @@ public final class AgentApplication {
     private static final String CORBA = "corba";
     private static final String JMS = "jms";
     private static final String HTTP = "http";
+    private static final String BINARY = "binary";
 
 
     /**
@@ -100,6 +104,10 @@ public final class AgentApplication {
 
                 method = props.getProperty("connector", CORBA);
 
+                boolean binary = BINARY.equalsIgnoreCase(props.getProperty("connector.coding", "default"));
+                MessageBytesCoder.getInstance().setBinary(binary);
+                MessageStringCoder.getInstance().setBinary(binary);
+
                 AgentConnector connector = null;
 
                 if (CORBA.equalsIgnoreCase(method)) {
@@ -184,6 +192,11 @@ public final class AgentApplication {
 
     /**
      * Returns an initialized connector for an HTTP-based connection.
+     * <p>
+     * If the property "mta.persistent" is true, a
+     * {@link PersistentHttpAgentConnector} is used that keeps the connection to
+     * the MTA open. It uses framing if the MTA supports it and falls back to
+     * the line-based protocol otherwise.
      * 
      * @param agent
      *            reference to the agent for callbacks
@@ -195,9 +208,13 @@ public final class AgentApplication {
         String mtaHost = props.getProperty("mta.host", "localhost");
         int mtaPort = PropertiesUtils.getIntProperty(props, "mta.port", 8080);
         int timeOutSecs = PropertiesUtils.getIntProperty(props, "mta.connectionTimeoutSecs", 5);
+        boolean persistent = "true".equals(props.getProperty("mta.persistent", "false"));
 
         String randomPart = UUID.randomUUID().toString();
         agent.init("ua" + randomPart, props);
+        if (persistent) {
+            return new PersistentHttpAgentConnector(agent, mtaHost, mtaPort, timeOutSecs);
+        }
         return new HttpAgentConnector(agent, mtaHost, mtaPort, timeOutSecs);
     }
 